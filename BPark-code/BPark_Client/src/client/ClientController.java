@@ -7,8 +7,11 @@ import javafx.scene.control.Alert;
 import ocsf.client.AbstractClient;
 import ui.UiUtils;
 
+import java.io.IOException;
 import java.sql.Date;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is the main client-side controller responsible for managing the
@@ -23,9 +26,27 @@ import java.util.*;
  * application.
  */
 public class ClientController extends AbstractClient {
+	/** The parking lot this client works with (set with -Dbpark.lot=<name>, default Braude) */
+	public static final String PARKING_LOT = System.getProperty("bpark.lot", "Braude");
+
+	/** How long to wait for the old connection to close before following a redirect */
+	private static final long REDIRECT_CLOSE_TIMEOUT_MS = 5000;
+
+	/** Delay before the first reconnect attempt after the connection dropped (doubles per failed attempt) */
+	private static final long RECONNECT_BASE_MS = 500;
+
+	/** Longest delay between reconnect attempts */
+	private static final long RECONNECT_MAX_MS = 30 * 1000;
+
+	/** Unanswered keyed requests older than this are not sent again (the server forgets keys after 10 minutes) */
+	private static final long RESEND_MAX_AGE_MS = 5 * 60 * 1000;
+
 	/** Helper object responsible for sending requests to the server. */
 	private final ClientRequestSender requestSender;
 
+	/** Keeps the terminal gates working while the server or the DB is unreachable */
+	private final OfflineTerminal offlineTerminal;
+
 	/**
 	 * Stores the logged-in subscriber object during session (null if not logged in)
 	 */
@@ -107,6 +128,18 @@ public class ClientController extends AbstractClient {
 	/** Controller for viewing monthly subscriber status reports. */
 	private SubscriberStatusController subscriberStatusController;
 
+	/** Next expected chunk index of each streamed list still being received (FX thread only) */
+	private final Map<Long, Integer> openStreams = new HashMap<>();
+
+	/** Token that resumes the logged-in session after a reconnect (null if not logged in) */
+	private volatile String resumeToken;
+
+	/** Keyed requests sent but not answered yet, by key, oldest first; sent again after a reconnect */
+	private final Map<String, UnansweredRequest> unanswered = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	/** True while the reconnect thread runs */
+	private final AtomicBoolean reconnecting = new AtomicBoolean();
+
 	/**
 	 * Constructs a new {@code ClientController} instance with the specified host
 	 * and port.
@@ -116,7 +149,10 @@ public class ClientController extends AbstractClient {
 	 */
 	public ClientController(String host, int port) {
 		super(host, port);
+		// large lists load faster on slow links; gate messages are too small to be compressed
+		setCompressionEnabled(Boolean.parseBoolean(System.getProperty("bpark.compression", "true")));
 		this.requestSender = new ClientRequestSender(this);
+		this.offlineTerminal = new OfflineTerminal(this, PARKING_LOT);
 	}
 
 	/** @return a reference to the helper class that sends requests */
@@ -124,6 +160,11 @@ public class ClientController extends AbstractClient {
 		return requestSender;
 	}
 
+	/** @return the offline support of the terminal gates */
+	public OfflineTerminal getOfflineTerminal() {
+		return offlineTerminal;
+	}
+
 	/**
 	 * Sets the password for the current client session.
 	 * 
@@ -356,6 +397,7 @@ public class ClientController extends AbstractClient {
 	 */
 	public void setTerminalController(TerminalMainLayoutController c) {
 		this.terminalController = c;
+		offlineTerminal.start(); // terminals keep a local copy for offline gates
 	}
 
 	/**
@@ -487,11 +529,12 @@ public class ClientController extends AbstractClient {
 	protected void handleMessageFromServer(Object msg) {
 		// Handle server shutdown as plain String
 		if (msg instanceof String str && str.equals("server_shutdown")) {
-			Platform.runLater(() -> {
-				UiUtils.showAlert("Server Shutdown", "The server is shutting down. The application will now close.",
-						Alert.AlertType.INFORMATION);
-				System.exit(0);
-			});
+			// the server closes the connection next; we reconnect (usually to the server taking over the
+			// port) and resume the session, while terminals keep the gates running offline meanwhile
+			System.out.println("The server is restarting, reconnecting...");
+			if (terminalController != null) {
+				offlineTerminal.setOffline(true);
+			}
 			return;
 		}
 
@@ -501,6 +544,42 @@ public class ClientController extends AbstractClient {
 			return;
 		}
 
+		// A keyed request got its answer - no need to send it again after a reconnect
+		if (response.getRequestKey() != null) {
+			unanswered.remove(response.getRequestKey());
+		}
+
+		// Session resumption (no UI involved unless the session is gone)
+		if (response.getType() == ResponseType.SESSION_TOKEN) {
+			resumeToken = (String) response.getData();
+			return;
+		}
+		if (response.getType() == ResponseType.SESSION_RESUMED) {
+			if (response.isSucceed()) {
+				System.out.println("Session resumed after reconnect.");
+			} else {
+				resumeToken = null;
+				UiUtils.showAlert("BPARK - Session", response.getMsg(), Alert.AlertType.WARNING);
+			}
+			return;
+		}
+
+		// Offline support of the terminal gates (no UI involved)
+		if (response.getType() == ResponseType.TERMINAL_SNAPSHOT) {
+			offlineTerminal.onSnapshot(response);
+			return;
+		}
+		if (response.getType() == ResponseType.OFFLINE_EVENTS_SYNCED) {
+			offlineTerminal.onSynced((List<String>) response.getData());
+			return;
+		}
+
+		// Another server node owns our parking lot - move the connection there
+		if (response.getType() == ResponseType.REDIRECT) {
+			followRedirect((String) response.getData(), response.isSucceed() ? null : response.getMsg());
+			return;
+		}
+
 		Platform.runLater(() -> {
 
 			// If the server response has no type, treat it as a general-purpose message
@@ -566,8 +645,10 @@ public class ClientController extends AbstractClient {
 
 				// Load parking history for subscriber.
 			case PARKING_HISTORY_LOADED:
-				if (response.isSucceed() && viewParkingHistoryController != null) {
-					viewParkingHistoryController.displayHistory((ArrayList<ParkingEvent>) response.getData());
+				if (response.isSucceed() && response.getData() instanceof ResultChunk<?> historyChunk
+						&& acceptChunk(historyChunk) && viewParkingHistoryController != null) {
+					viewParkingHistoryController.displayHistory((ArrayList<ParkingEvent>) historyChunk.getRows(),
+							historyChunk.isFirst());
 				}
 				break;
 
@@ -672,10 +753,13 @@ public class ClientController extends AbstractClient {
 
 			// Report about subscribers with late pickups.
 			case LATE_PICKUP_COUNTS:
-				if (response.isSucceed()) {
-					ArrayList<Object[]> rows = (ArrayList<Object[]>) response.getData();
-
-					System.out.println("[DEBUG] Received all_subscribers. Total rows = " + rows.size());
+				if (!response.isSucceed()) { // the list broke off part way
+					failStream(response, "Subscribers");
+					break;
+				}
+				if (response.getData() instanceof ResultChunk<?> subscribersChunk
+						&& acceptChunk(subscribersChunk)) {
+					ArrayList<Object[]> rows = (ArrayList<Object[]>) subscribersChunk.getRows();
 
 					List<Subscriber> subs = new ArrayList<>();
 					Map<Subscriber, Integer> lateMap = new HashMap<>();
@@ -685,11 +769,10 @@ public class ClientController extends AbstractClient {
 						int late = (Integer) r[1];
 						subs.add(s);
 						lateMap.put(s, late);
-						System.out.println(" -> " + s.getUsername() + ", late: " + late);
 					}
 
 					if (viewSubscribersInfoController != null)
-						viewSubscribersInfoController.onSubscribersReceived(subs, lateMap);
+						viewSubscribersInfoController.onSubscribersReceived(subs, lateMap, subscribersChunk.isFirst());
 				}
 				break;
 
@@ -707,9 +790,14 @@ public class ClientController extends AbstractClient {
 
 			// Load list of active parkings.
 			case ACTIVE_PARKINGS:
-				if (response.isSucceed() && viewActiveParkingsController != null) {
-					ArrayList<ParkingEvent> events = (ArrayList<ParkingEvent>) response.getData();
-					viewActiveParkingsController.onActiveParkingsReceived(events);
+				if (!response.isSucceed()) { // the list broke off part way
+					failStream(response, "Active Parkings");
+					break;
+				}
+				if (response.getData() instanceof ResultChunk<?> eventsChunk
+						&& acceptChunk(eventsChunk) && viewActiveParkingsController != null) {
+					ArrayList<ParkingEvent> events = (ArrayList<ParkingEvent>) eventsChunk.getRows();
+					viewActiveParkingsController.onActiveParkingsReceived(events, eventsChunk.isFirst());
 				}
 				break;
 
@@ -744,6 +832,15 @@ public class ClientController extends AbstractClient {
 
 				}
 				break;
+			// bulk subscriber import ended - one result per CSV row
+			case SUBSCRIBERS_IMPORTED:
+				if (registerSubscriberController != null && response.getData() instanceof List<?> results) {
+					registerSubscriberController.showImportResults(response.getMsg(),
+							(List<SubscriberImportResult>) results);
+				} else {
+					UiUtils.showAlert("Subscriber Import", response.getMsg(), Alert.AlertType.INFORMATION);
+				}
+				break;
 			// return the parking availability to the subscriber
 			case PARKING_AVALIABILITY:
 				if (response.isSucceed() && response.getData() instanceof Object[] stats
@@ -843,7 +940,9 @@ public class ClientController extends AbstractClient {
 				break;
 			// deliver the vehicle into lot
 			case DELIVER_VEHICLE:
-				if (newDeliveryController != null) {
+				if (!response.isSucceed()) { // the entry was not saved - the gate stays closed
+					UiUtils.showAlert("BPARK - Error", response.getMsg(), Alert.AlertType.ERROR);
+				} else if (newDeliveryController != null) {
 					newDeliveryController.successfulDelivery();
 				}
 				break;
@@ -883,6 +982,13 @@ public class ClientController extends AbstractClient {
 					newDeliveryController.findMatchedSubToTheTag();
 				}
 				break;
+
+			// The server refused the request for now. expected type: {SERVER_BUSY}
+			case SERVER_BUSY:
+				System.err.println("[WARN] Server busy: " + response.getMsg());
+				UiUtils.showAlert("BPARK - Busy", response.getMsg(), Alert.AlertType.WARNING);
+				break;
+
 			default:
 				System.out.println("Server response msg: " + response.getMsg());
 				System.out.println("Success? " + response.isSucceed());
@@ -897,6 +1003,172 @@ public class ClientController extends AbstractClient {
 		});
 	}
 
+	/**
+	 * Checks that a chunk of a streamed list follows the previous one. If a chunk
+	 * went missing (e.g. the server dropped it because this client fell behind),
+	 * the rest of that list is ignored rather than shown with a gap.
+	 *
+	 * @param chunk the chunk that arrived
+	 * @return true if the chunk should be shown
+	 */
+	private boolean acceptChunk(ResultChunk<?> chunk) {
+		Integer expected = chunk.isFirst() ? Integer.valueOf(0) : openStreams.remove(chunk.getStreamId());
+		if (expected == null || expected != chunk.getIndex()) {
+			System.err.println("[WARN] Chunk " + chunk.getIndex() + " of list " + chunk.getStreamId()
+					+ " out of order - ignoring the rest of the list.");
+			return false;
+		}
+		if (!chunk.isLast()) {
+			openStreams.put(chunk.getStreamId(), chunk.getIndex() + 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Ends a streamed list the server could not finish and tells the user the
+	 * rows shown are incomplete.
+	 *
+	 * @param response the failed response (its last chunk ends the list)
+	 * @param title    title of the error message
+	 */
+	private void failStream(ServerResponse response, String title) {
+		if (response.getData() instanceof ResultChunk<?> chunk) {
+			openStreams.remove(chunk.getStreamId());
+		}
+		UiUtils.showAlert(title, response.getMsg(), Alert.AlertType.ERROR);
+	}
+
+	/**
+	 * Switches the terminal gates to offline mode when the connection breaks and
+	 * starts reconnecting in the background.
+	 *
+	 * @param exception the exception raised by the connection
+	 */
+	@Override
+	protected void connectionException(Exception exception) {
+		offlineTerminal.setOffline(true);
+		System.err.println("Connection to the server lost: " + exception.getMessage());
+		startReconnecting();
+	}
+
+	/**
+	 * Sends a keyed request and remembers it until it is answered, so it is
+	 * sent again (with the same key) if the connection drops first. If it can
+	 * not be sent now, it goes out once the connection is back.
+	 *
+	 * @param request the request
+	 * @throws IOException if the request could not be sent now
+	 */
+	public void sendKeyed(IdempotentRequest request) throws IOException {
+		unanswered.put(request.getKey(), new UnansweredRequest(request, System.currentTimeMillis()));
+		sendToServer(request);
+	}
+
+	/**
+	 * Reconnects to the server if the connection is down: tells it the parking
+	 * lot, resumes the logged-in session with its token and sends the keyed
+	 * requests that were not answered again. Called by the reconnect thread and
+	 * by the terminal's refresh timer.
+	 *
+	 * @throws IOException if the server can not be reached
+	 */
+	public synchronized void reconnect() throws IOException {
+		if (isConnected()) {
+			return;
+		}
+		openConnection();
+		requestSender.connectToLot(PARKING_LOT);
+		String token = resumeToken;
+		if (token != null) {
+			requestSender.resumeSession(token); // handled before the requests below
+		}
+		List<UnansweredRequest> resend;
+		synchronized (unanswered) {
+			resend = new ArrayList<>(unanswered.values());
+		}
+		long oldest = System.currentTimeMillis() - RESEND_MAX_AGE_MS;
+		for (UnansweredRequest pending : resend) {
+			if (pending.sentAt() < oldest) {
+				unanswered.remove(pending.request().getKey());
+				System.err.println("[WARN] Not sending " + pending.request() + " again - too old.");
+				continue;
+			}
+			sendToServer(pending.request());
+		}
+		System.out.println("Reconnected to the server" + (resend.isEmpty() ? "." : ", sent " + resend.size()
+				+ " unanswered requests again."));
+	}
+
+	/**
+	 * Starts the reconnect thread unless it is already running. It retries with
+	 * exponential backoff (0.5 s doubling up to 30 s), each delay randomized
+	 * between half and all of it, so clients that lost the connection together
+	 * do not all come back at the same moment.
+	 */
+	private void startReconnecting() {
+		if (!reconnecting.compareAndSet(false, true)) {
+			return;
+		}
+		new Thread(() -> {
+			try {
+				long delay = RECONNECT_BASE_MS;
+				for (int attempt = 1; !isConnected(); attempt++) {
+					Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+					try {
+						reconnect();
+					} catch (IOException e) {
+						System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+						delay = Math.min(RECONNECT_MAX_MS, delay * 2);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				reconnecting.set(false);
+			}
+		}, "reconnect").start();
+	}
+
+	/**
+	 * Reconnects to the server node that owns this client's parking lot. Runs on
+	 * its own thread, because this method is called from the reader thread of the
+	 * connection it closes.
+	 *
+	 * @param address    "host:port" of the owning node
+	 * @param retryNotice message to show once reconnected (the request that got
+	 *                   redirected must be repeated), or null
+	 */
+	private void followRedirect(String address, String retryNotice) {
+		new Thread(() -> {
+			try {
+				int colon = address.lastIndexOf(':');
+				String host = address.substring(0, colon);
+				int port = Integer.parseInt(address.substring(colon + 1));
+
+				closeConnection();
+				long deadline = System.currentTimeMillis() + REDIRECT_CLOSE_TIMEOUT_MS;
+				while (isConnected() && System.currentTimeMillis() < deadline) {
+					Thread.sleep(20); // the reader thread finishes closing the old socket
+				}
+
+				setHost(host);
+				setPort(port);
+				openConnection();
+				requestSender.connectToLot(PARKING_LOT);
+				System.out.println("Redirected to server node " + address + " for lot " + PARKING_LOT + ".");
+
+				if (retryNotice != null) {
+					Platform.runLater(() -> UiUtils.showAlert("BPARK - Message",
+							retryNotice + " Please try again.", Alert.AlertType.INFORMATION));
+				}
+			} catch (Exception e) {
+				System.err.println("Failed to follow redirect to " + address + ": " + e.getMessage());
+				Platform.runLater(() -> UiUtils.showAlert("BPARK - Error",
+						"Could not reach the server for parking lot " + PARKING_LOT + ".", Alert.AlertType.ERROR));
+			}
+		}, "redirect").start();
+	}
+
 	/**
 	 * Clears all user-specific session data from memory. This is called when
 	 * logging out or switching accounts.
@@ -904,6 +1176,8 @@ public class ClientController extends AbstractClient {
 	public void clearSession() {
 		this.subscriber = null;
 		this.password = null;
+		this.resumeToken = null;
+		this.unanswered.clear();
 
 		// General UI
 		this.mainController = null;
@@ -939,4 +1213,13 @@ public class ClientController extends AbstractClient {
 		System.out.println("[DEBUG] Client session cleared.");
 	}
 
+	/**
+	 * A keyed request waiting for its answer.
+	 *
+	 * @param request the request
+	 * @param sentAt  time it was first sent
+	 */
+	private record UnansweredRequest(IdempotentRequest request, long sentAt) {
+	}
+
 }
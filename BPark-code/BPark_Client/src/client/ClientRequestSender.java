@@ -4,6 +4,7 @@ import common.*;
 import java.io.IOException;
 import java.sql.Date;
 import java.sql.Time;
+import java.util.List;
 
 /**
  * This class is in charge of sending requests from the client to the server.
@@ -31,6 +32,18 @@ public class ClientRequestSender {
         this.client = client;
     }
 
+    /**
+     * Sends a request that changes data with a key of its own (see
+     * {@link IdempotentRequest}), so sending it again after a timeout or a
+     * reconnect never applies it twice.
+     *
+     * @param request the operation followed by its arguments
+     * @throws IOException if the message cannot be sent
+     */
+    private void sendOnce(Object[] request) throws IOException {
+        client.sendKeyed(new IdempotentRequest(request));
+    }
+
     /**
      * Sends a login request to the server.
      *
@@ -52,7 +65,7 @@ public class ClientRequestSender {
      */
     public void addNewOrder(Order newOrder) {
         try {
-            client.sendToServer(new Object[] { Operation.ADD_NEW_ORDER, newOrder });
+            sendOnce(new Object[] { Operation.ADD_NEW_ORDER, newOrder });
         } catch (IOException e) {
             System.err.println("Failed to send 'addNewOrder' request to server: " + e.getMessage());
         }
@@ -119,7 +132,7 @@ public class ClientRequestSender {
      */
     public void collectCar(int subscriberCode, int parkingCode) {
         try {
-            client.sendToServer(new Object[] { Operation.COLLECT_CAR, subscriberCode, parkingCode });
+            sendOnce(new Object[] { Operation.COLLECT_CAR, subscriberCode, parkingCode });
         } catch (IOException e) {
             System.err.println("Failed to send 'collectCar' request: " + e.getMessage());
         }
@@ -154,7 +167,7 @@ public class ClientRequestSender {
      */
     public void deleteOrder(int orderNumberToDelete) {
         try {
-            client.sendToServer(new Object[] { Operation.DELETE_ORDER, orderNumberToDelete });
+            sendOnce(new Object[] { Operation.DELETE_ORDER, orderNumberToDelete });
         } catch (IOException e) {
             System.err.println("Failed to send 'deleteOrder' request: " + e.getMessage());
         }
@@ -167,7 +180,7 @@ public class ClientRequestSender {
      */	
     public void updateDetailsOfSubscriber(Subscriber subscriber, User user) {
         try {
-            client.sendToServer(new Object[] { Operation.UPDATE_DETAILS_OF_SUBSCRIBER, subscriber, user });
+            sendOnce(new Object[] { Operation.UPDATE_DETAILS_OF_SUBSCRIBER, subscriber, user });
         } catch (IOException e) {
             System.err.println("Failed to send 'updateDetailsOfSubscriber' request: " + e.getMessage());
         }
@@ -236,7 +249,7 @@ public class ClientRequestSender {
      */
     public void extendParking(int parkingCode, String subscriberCode) {
         try {
-            client.sendToServer(new Object[] { Operation.EXTEND_PARKING, parkingCode, subscriberCode });
+            sendOnce(new Object[] { Operation.EXTEND_PARKING, parkingCode, subscriberCode });
         } catch (IOException e) {
             System.err.println("Failed to send 'extendParking' request: " + e.getMessage());
         }
@@ -265,7 +278,7 @@ public class ClientRequestSender {
      */
     public void registerSubscriber(Subscriber subscriber, String vehicleId) {
         try {
-            client.sendToServer(new Object[] {
+            sendOnce(new Object[] {
                     Operation.REGISTER_SUBSCRIBER, subscriber, vehicleId
             });
         } catch (IOException e) {
@@ -273,6 +286,21 @@ public class ClientRequestSender {
         }
     }
 
+    /**
+     * Registers many subscribers at once from CSV text.
+     * Columns: userId,firstName,lastName,phoneNumber,email,username[,vehicleId]
+     * @param csv the CSV file content
+     */
+    public void importSubscribers(String csv) {
+        try {
+            sendOnce(new Object[] {
+                    Operation.BULK_IMPORT_SUBSCRIBERS, csv
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to send 'importSubscribers' request: " + e.getMessage());
+        }
+    }
+
     /**
      * Requests current parking availability statistics.
      */
@@ -403,9 +431,54 @@ public class ClientRequestSender {
         }
     }
 
+    /**
+     * Tells the server which parking lot this client works with. If another
+     * server node owns the lot, the server answers with a redirect.
+     *
+     * @param parkingLotName the name of the parking lot
+     * @throws IOException if the request could not be sent
+     */
+    public void connectToLot(String parkingLotName) throws IOException {
+        client.sendToServer(new Object[] { Operation.CONNECT_TO_LOT, parkingLotName });
+    }
+
+    /**
+     * Logs the user back in after a reconnect with the token the server sent at
+     * login, instead of the password.
+     *
+     * @param token the resume token
+     * @throws IOException if the request could not be sent
+     */
+    public void resumeSession(String token) throws IOException {
+        client.sendToServer(new Object[] { Operation.RESUME_SESSION, token });
+    }
+
+    /**
+     * Asks the server for the data this terminal needs to work offline.
+     *
+     * @param parkingLotName the terminal's parking lot
+     * @param sinceVersion   version of the terminal's copy, or 0 for a full copy
+     * @throws IOException if the request could not be sent
+     */
+    public void requestTerminalSnapshot(String parkingLotName, long sinceVersion) throws IOException {
+        client.sendToServer(new Object[] { Operation.GET_TERMINAL_SNAPSHOT, parkingLotName, sinceVersion });
+    }
+
+    /**
+     * Sends the entries and exits this terminal accepted while offline.
+     *
+     * @param events the queued events, oldest first
+     * @throws IOException if the request could not be sent
+     */
+    public void syncOfflineEvents(List<OfflineEvent> events) throws IOException {
+        client.sendToServer(new Object[] { Operation.SYNC_OFFLINE_EVENTS, events });
+    }
+
     /**
      * Sends a request to the server to check if there's at least one free space
      * in the given parking lot. The check can depend on the subscriber's code.
+     * A free space found is taken for the subscriber, so the request is keyed
+     * like the delivery that follows it: a resend never takes a second space.
      *
      * @param parkingLotName the name of the parking lot to check
      * @param subscriberCode the code of the subscriber
@@ -413,7 +486,7 @@ public class ClientRequestSender {
      */
     public void isThereFreeParkingSpace(String parkingLotName, int subscriberCode, boolean activeReservation) {
         try {
-            client.sendToServer(new Object[] {
+            sendOnce(new Object[] {
                     Operation.IS_THERE_FREE_PARKING_SPACE, parkingLotName, subscriberCode, activeReservation
             });
         } catch (IOException e) {
@@ -442,7 +515,7 @@ public class ClientRequestSender {
      */
     public void deliverVehicle(ParkingEvent parkingEvent) {
         try {
-            client.sendToServer(new Object[] {
+            sendOnce(new Object[] {
                     Operation.DELIVER_VEHICLE, parkingEvent
             });
         } catch (IOException e) {
@@ -0,0 +1,426 @@
+package client;
+
+import common.OfflineEvent;
+import common.ServerResponse;
+import common.TerminalSnapshot;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps a parking terminal's gates working while the server or the DB is
+ * unreachable (e.g. during a server restart or a DB maintenance window).
+ *
+ * While online, the terminal keeps a local copy of the subscribers (with tags
+ * and vehicles), the open parking sessions and the free spaces of its lot. The
+ * copy is loaded in full once and then refreshed with the changes since the
+ * last version every {@link #REFRESH_MS}, and saved to a local file so it also
+ * survives a terminal restart.
+ *
+ * While offline, entries and exits are checked against that copy and added to
+ * a durable local queue (written to disk before the gate answers; if the queue
+ * can not be written, the gate refuses the vehicle). When the
+ * server answers again, the queue is sent in order; the server applies every
+ * event once and resolves conflicts, and the terminal removes the events the
+ * server reports as handled.
+ *
+ * Offline entries are always regular entries: reservation confirmation codes
+ * can only be checked by the server.
+ */
+public class OfflineTerminal {
+
+	/** How often the local copy is refreshed (and the server retried while offline) */
+	static final long REFRESH_MS = 30 * 1000;
+
+	/** The client the terminal talks to the server through */
+	private final ClientController client;
+
+	/** The terminal's parking lot */
+	private final String lotName;
+
+	/** File holding the local copy */
+	private final Path snapshotFile;
+
+	/** File holding the queue of offline events */
+	private final Path queueFile;
+
+	/** True while the server or the DB can not be reached */
+	private volatile boolean offline;
+
+	/** Version of the local copy (server time), 0 before the first copy */
+	private long version;
+
+	/** Subscriber code -> subscriber */
+	private final Map<Integer, TerminalSnapshot.SubscriberEntry> subscribers = new HashMap<>();
+
+	/** Tag -> subscriber code */
+	private final Map<String, Integer> codeByTag = new HashMap<>();
+
+	/** Open sessions: subscriber code -> parking code */
+	private final Map<Integer, Integer> openSessions = new HashMap<>();
+
+	/** Free spaces of the lot */
+	private final List<Integer> freeSpaces = new ArrayList<>();
+
+	/** Offline events not yet handled by the server, oldest first */
+	private final List<OfflineEvent> queue = new ArrayList<>();
+
+	/** Refreshes the copy and retries the server; null until started */
+	private Timer timer;
+
+	/**
+	 * Creates the offline support of a terminal. Nothing happens until
+	 * {@link #start()} is called.
+	 *
+	 * @param client  the client
+	 * @param lotName the terminal's parking lot
+	 */
+	public OfflineTerminal(ClientController client, String lotName) {
+		this.client = client;
+		this.lotName = lotName;
+		Path dir = Paths.get(System.getProperty("bpark.terminal.dir",
+				Paths.get(System.getProperty("user.home"), ".bpark").toString()));
+		this.snapshotFile = dir.resolve("terminal-" + lotName + ".snapshot");
+		this.queueFile = dir.resolve("terminal-" + lotName + ".queue");
+	}
+
+	/**
+	 * Loads the saved copy and queue and starts refreshing. Called when the
+	 * terminal screen opens; later calls do nothing.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		loadFiles();
+		timer = new Timer("terminal-refresh", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, 0, REFRESH_MS);
+	}
+
+	/**
+	 * @return true while the gates work from the local copy
+	 */
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Switches offline mode on or off (e.g. when the connection drops).
+	 *
+	 * @param offline true if the server or the DB can not be reached
+	 */
+	public void setOffline(boolean offline) {
+		if (timer == null || this.offline == offline) {
+			return; // not a terminal, or nothing changed
+		}
+		this.offline = offline;
+		System.out.println(offline ? "Terminal is offline - gates use the local copy."
+				: "Terminal is online again.");
+	}
+
+	/**
+	 * Asks the server for the changes since the local version, reconnecting
+	 * first if the connection was lost.
+	 */
+	void refresh() {
+		try {
+			if (!client.isConnected()) {
+				client.reconnect();
+			}
+			long since;
+			synchronized (this) {
+				since = version;
+			}
+			client.getRequestSender().requestTerminalSnapshot(lotName, since);
+		} catch (IOException e) {
+			setOffline(true);
+		}
+	}
+
+	/**
+	 * Handles the server's answer to a snapshot request. A failed answer means
+	 * the DB is down: the terminal goes offline. Otherwise the copy is updated,
+	 * saved, and any queued events are sent.
+	 *
+	 * @param response the server response
+	 */
+	synchronized void onSnapshot(ServerResponse response) {
+		if (!response.isSucceed() || !(response.getData() instanceof TerminalSnapshot snapshot)) {
+			setOffline(true);
+			return;
+		}
+
+		if (snapshot.isFull()) {
+			subscribers.clear();
+			codeByTag.clear();
+		}
+		for (TerminalSnapshot.SubscriberEntry entry : snapshot.getSubscribers()) {
+			TerminalSnapshot.SubscriberEntry old = subscribers.put(entry.getSubscriberCode(), entry);
+			if (old != null && old.getTagId() != null) {
+				codeByTag.remove(old.getTagId());
+			}
+			if (entry.getTagId() != null) {
+				codeByTag.put(entry.getTagId(), entry.getSubscriberCode());
+			}
+		}
+		openSessions.clear();
+		openSessions.putAll(snapshot.getOpenSessions());
+		freeSpaces.clear();
+		freeSpaces.addAll(snapshot.getFreeSpaces());
+		version = snapshot.getVersion();
+		applyQueueLocally(); // the server has not seen the queued events yet
+		saveSnapshot();
+
+		setOffline(false);
+		if (!queue.isEmpty()) {
+			sendQueue();
+		}
+	}
+
+	/**
+	 * Removes the events the server has handled from the queue.
+	 *
+	 * @param eventKeys keys of the handled events
+	 */
+	synchronized void onSynced(List<String> eventKeys) {
+		Set<String> handled = new HashSet<>(eventKeys);
+		if (queue.removeIf(e -> handled.contains(e.getEventKey()))) {
+			try {
+				saveQueue();
+			} catch (IOException e) {
+				// the saved queue still lists them; the server ignores events it has handled
+				System.err.println("Could not save the offline queue: " + e.getMessage());
+			}
+		}
+		System.out.println("Synchronized " + handled.size() + " offline events, " + queue.size() + " left.");
+	}
+
+	// ------------------------------------------------------------ gate checks
+
+	/**
+	 * @param subscriberCode the subscriber
+	 * @return true if the subscriber is in the local copy
+	 */
+	public synchronized boolean subscriberExists(int subscriberCode) {
+		return subscribers.containsKey(subscriberCode);
+	}
+
+	/**
+	 * @param tagId the tag
+	 * @return code of the subscriber with the tag, or null if unknown
+	 */
+	public synchronized Integer findSubscriberByTag(String tagId) {
+		return codeByTag.get(tagId);
+	}
+
+	/**
+	 * @param subscriberCode the subscriber
+	 * @return true if the subscriber's vehicle is inside
+	 */
+	public synchronized boolean isInside(int subscriberCode) {
+		return openSessions.containsKey(subscriberCode);
+	}
+
+	/**
+	 * @param subscriberCode the subscriber
+	 * @return parking code of the subscriber's open session, or -1 if none
+	 */
+	public synchronized int parkingCodeOf(int subscriberCode) {
+		return openSessions.getOrDefault(subscriberCode, -1);
+	}
+
+	/**
+	 * @return number of offline events waiting for the server
+	 */
+	public synchronized int getQueuedCount() {
+		return queue.size();
+	}
+
+	// ------------------------------------------------------------ gate events
+
+	/**
+	 * Accepts an entry while offline: takes a free space, opens the session and
+	 * queues the event. The queue is on disk when this returns.
+	 *
+	 * @param subscriberCode the subscriber
+	 * @param parkingCode    the parking code given to the subscriber
+	 * @return the assigned space, or -1 if the lot is full
+	 * @throws IOException if the queue could not be saved - the entry is not
+	 *                     accepted and the space stays free
+	 */
+	public synchronized int recordEntry(int subscriberCode, int parkingCode) throws IOException {
+		if (freeSpaces.isEmpty()) {
+			return -1;
+		}
+		int space = freeSpaces.get(0);
+		TerminalSnapshot.SubscriberEntry subscriber = subscribers.get(subscriberCode);
+		enqueue(new OfflineEvent(OfflineEvent.Kind.ENTRY, subscriberCode, lotName, parkingCode, space,
+				subscriber == null ? null : subscriber.getVehicleId(), LocalDateTime.now()));
+		freeSpaces.remove(0);
+		openSessions.put(subscriberCode, parkingCode);
+		return space;
+	}
+
+	/**
+	 * Accepts an exit while offline: closes the session and queues the event.
+	 * The queue is on disk when this returns.
+	 *
+	 * @param subscriberCode the subscriber
+	 * @param parkingCode    the parking code the subscriber entered
+	 * @return true if it matched the open session, false otherwise
+	 * @throws IOException if the queue could not be saved - the exit is not
+	 *                     accepted and the session stays open
+	 */
+	public synchronized boolean recordExit(int subscriberCode, int parkingCode) throws IOException {
+		if (parkingCodeOf(subscriberCode) != parkingCode) {
+			return false;
+		}
+		enqueue(new OfflineEvent(OfflineEvent.Kind.EXIT, subscriberCode, lotName, parkingCode, 0, null,
+				LocalDateTime.now()));
+		openSessions.remove(subscriberCode);
+		return true;
+	}
+
+	// ------------------------------------------------------------ internals
+
+	/**
+	 * Adds an event to the queue and saves the queue. If the queue can not be
+	 * saved, the event is taken out again.
+	 *
+	 * @param event the event
+	 * @throws IOException if the queue could not be saved
+	 */
+	private void enqueue(OfflineEvent event) throws IOException {
+		queue.add(event);
+		try {
+			saveQueue();
+		} catch (IOException e) {
+			queue.remove(queue.size() - 1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends all queued events to the server (it ignores events it has already
+	 * handled, so sending one twice is harmless).
+	 */
+	private void sendQueue() {
+		try {
+			client.getRequestSender().syncOfflineEvents(new ArrayList<>(queue));
+		} catch (IOException e) {
+			setOffline(true);
+		}
+	}
+
+	/**
+	 * Applies the queued events to the local sessions and free spaces after
+	 * they were replaced by a server copy.
+	 */
+	private void applyQueueLocally() {
+		for (OfflineEvent event : queue) {
+			if (event.getKind() == OfflineEvent.Kind.ENTRY) {
+				openSessions.put(event.getSubscriberCode(), event.getParkingCode());
+				freeSpaces.remove(Integer.valueOf(event.getParkingSpace()));
+			} else {
+				openSessions.remove(event.getSubscriberCode());
+			}
+		}
+	}
+
+	/**
+	 * Loads the saved copy and queue, if any.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized void loadFiles() {
+		if (Files.exists(snapshotFile)) {
+			try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(snapshotFile))) {
+				TerminalSnapshot saved = (TerminalSnapshot) in.readObject();
+				for (TerminalSnapshot.SubscriberEntry entry : saved.getSubscribers()) {
+					subscribers.put(entry.getSubscriberCode(), entry);
+					if (entry.getTagId() != null) {
+						codeByTag.put(entry.getTagId(), entry.getSubscriberCode());
+					}
+				}
+				openSessions.putAll(saved.getOpenSessions());
+				freeSpaces.addAll(saved.getFreeSpaces());
+				version = saved.getVersion();
+			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+				System.err.println("Could not load the terminal copy: " + e.getMessage());
+			}
+		}
+		if (Files.exists(queueFile)) {
+			try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(queueFile))) {
+				queue.addAll((List<OfflineEvent>) in.readObject());
+				applyQueueLocally();
+			} catch (IOException | ClassNotFoundException | ClassCastException e) {
+				System.err.println("Could not load the offline queue: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Saves the local copy. A copy that can not be saved is only missed after a
+	 * terminal restart, so the failure is logged.
+	 */
+	private void saveSnapshot() {
+		TerminalSnapshot copy = new TerminalSnapshot(version, true);
+		copy.getSubscribers().addAll(subscribers.values());
+		copy.getOpenSessions().putAll(openSessions);
+		copy.getFreeSpaces().addAll(freeSpaces);
+		try {
+			write(snapshotFile, copy);
+		} catch (IOException e) {
+			System.err.println("Could not save " + snapshotFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves the queue.
+	 *
+	 * @throws IOException if the file could not be written
+	 */
+	private void saveQueue() throws IOException {
+		write(queueFile, new ArrayList<>(queue));
+	}
+
+	/**
+	 * Writes an object to a file durably: to a temporary file that is synced to
+	 * disk, then moved over the old file in one step.
+	 *
+	 * @param file  the target file
+	 * @param value the object
+	 * @throws IOException if the file could not be written; the old file is
+	 *                     left as it was
+	 */
+	private static void write(Path file, Object value) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.createDirectories(file.getParent());
+		try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+				ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
+			out.writeObject(value);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
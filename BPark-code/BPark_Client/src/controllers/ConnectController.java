@@ -120,6 +120,7 @@ public class ConnectController implements ClientAware {
 			// Create and connect a new client to the given IP on port 5555
 			ClientController newClient = new ClientController(ip, 5555);
 			newClient.openConnection();
+			newClient.getRequestSender().connectToLot(ClientController.PARKING_LOT); // may redirect to another node
 
 			// Store client and update UI
 			this.client = newClient;
@@ -2,10 +2,18 @@ package controllers;
 
 import client.ClientController;
 import common.Subscriber;
+import common.SubscriberImportResult;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
+import javafx.stage.FileChooser;
 import ui.UiUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
 /**
  * Controller for the staff-facing registration screen.
  * Handles input validation and communicates with the server to register a new subscriber.
@@ -36,6 +44,9 @@ public class RegisterSubscriberController implements ClientAware {
     /** Button that triggers the registration process */
     @FXML private Button btnRegister;
 
+    /** Button that lets staff import many subscribers from a CSV file */
+    @FXML private Button btnImport;
+
     /** Label that displays status from the server (confirmation or error) */
     @FXML private Label lblStatus;
 
@@ -157,6 +168,56 @@ public class RegisterSubscriberController implements ClientAware {
         lblStatus.setText(""); // Clear status while waiting for response
     }
 
+    /**
+     * Called when the "Import CSV..." button is clicked.
+     * Lets the user pick a CSV file and sends its content to the server for a bulk import.
+     * Columns: userId,firstName,lastName,phoneNumber,email,username[,vehicleId]
+     */
+    @FXML
+    private void handleImportClick() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import Subscribers");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV files", "*.csv"));
+        File file = chooser.showOpenDialog(btnImport.getScene().getWindow());
+        if (file == null) {
+            return; // user cancelled
+        }
+
+        try {
+            String csv = Files.readString(file.toPath(), StandardCharsets.UTF_8);
+            btnImport.setDisable(true); // until the server answers
+            UiUtils.setStatus(lblStatus, "Importing " + file.getName() + "...", true);
+            client.getRequestSender().importSubscribers(csv);
+        } catch (IOException e) {
+            UiUtils.showAlert("Subscriber Import", "Could not read file: " + e.getMessage(), Alert.AlertType.ERROR);
+        }
+    }
+
+    /**
+     * Shows the summary of a bulk import and lists the rows that failed.
+     *
+     * @param summary summary message from the server
+     * @param results one result per CSV row
+     */
+    public void showImportResults(String summary, List<SubscriberImportResult> results) {
+        btnImport.setDisable(false);
+        UiUtils.setStatus(lblStatus, summary, true);
+
+        StringBuilder failed = new StringBuilder();
+        for (SubscriberImportResult r : results) {
+            if (!r.isSucceed()) {
+                failed.append("Line ").append(r.getLineNumber());
+                if (r.getUsername() != null) {
+                    failed.append(" (").append(r.getUsername()).append(")");
+                }
+                failed.append(": ").append(r.getMsg()).append("\n");
+            }
+        }
+        if (failed.length() > 0) {
+            UiUtils.showAlert("Subscriber Import", summary + "\n\n" + failed, Alert.AlertType.WARNING);
+        }
+    }
+
     /**
      * Hides all error labels before re-validating fields.
      */
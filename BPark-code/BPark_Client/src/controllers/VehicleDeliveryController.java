@@ -1,5 +1,6 @@
 package controllers;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -8,6 +9,7 @@ import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 
 import client.ClientController;
+import client.OfflineTerminal;
 import common.ParkingEvent;
 import javafx.scene.control.TextField;
 
@@ -167,6 +169,12 @@ public class VehicleDeliveryController implements ClientAware{
 			// If the code isn't type of integer, we will let the user know that the code must be a number
 			codeInt = Integer.parseInt(code);
 
+			// While the server is unreachable the gate works from the terminal's local copy
+			if (client.getOfflineTerminal().isOffline()) {
+				deliverOffline();
+				return;
+			}
+
 			client.getRequestSender().checkSubscriberExists(codeInt);
 
 			// There will be an exception thrown due to a String not containing only digits.
@@ -221,6 +229,18 @@ public class VehicleDeliveryController implements ClientAware{
 			return;
 		}
 
+		// While the server is unreachable the tag is looked up in the terminal's local copy
+		if (client.getOfflineTerminal().isOffline()) {
+			Integer subscriberCode = client.getOfflineTerminal().findSubscriberByTag(tag);
+			if (subscriberCode == null) {
+				tagNotFound();
+				return;
+			}
+			codeInt = subscriberCode;
+			deliverOffline();
+			return;
+		}
+
 		client.getRequestSender().validateTag(tag);
 	}
 
@@ -423,7 +443,7 @@ public class VehicleDeliveryController implements ClientAware{
 		if(hasReservation) {handleDeliveryViaReservation();}
 
 		// If there's no reservation, we will check if we can enter the vehicle on a regular
-		else client.getRequestSender().isThereFreeParkingSpace("braude", codeInt, false);
+		else client.getRequestSender().isThereFreeParkingSpace(ClientController.PARKING_LOT, codeInt, false);
 
 
 	}
@@ -489,7 +509,7 @@ public class VehicleDeliveryController implements ClientAware{
 		ReservationConfirmationCodeLabel.setStyle("-fx-text-fill: green;");
 
 		// Before going to the delivery process we shall check whether is there free space or not
-		client.getRequestSender().isThereFreeParkingSpace("braude", codeInt, true);
+		client.getRequestSender().isThereFreeParkingSpace(ClientController.PARKING_LOT, codeInt, true);
 	}
 
 	/**
@@ -604,7 +624,7 @@ public class VehicleDeliveryController implements ClientAware{
 			LocalTime entryTime = nowInIsrael.toLocalTime();
 
 			// Creating a ParkingEvent entity, will send the object to the server
-			ParkingEvent parkingEvent = new ParkingEvent(codeInt, parkingSpace, entryDate, entryTime, null, null, false, vehicleID, "Braude", parkingCode);
+			ParkingEvent parkingEvent = new ParkingEvent(codeInt, parkingSpace, entryDate, entryTime, null, null, false, vehicleID, ClientController.PARKING_LOT, parkingCode);
 
 
 			client.getRequestSender().deliverVehicle(parkingEvent);
@@ -612,6 +632,48 @@ public class VehicleDeliveryController implements ClientAware{
 		});
 	}
 
+	/**
+	 * Delivers the vehicle while the server is unreachable, using the terminal's
+	 * local copy: checks the subscriber and that the vehicle isn't inside, takes
+	 * a free space and queues the entry for the server. Reservations can't be
+	 * checked offline, so this is always a regular entry.
+	 */
+	private void deliverOffline() {
+		OfflineTerminal offline = client.getOfflineTerminal();
+
+		if (!offline.subscriberExists(codeInt)) {
+			subscriberCodeDoesntExist();
+			return;
+		}
+
+		if (offline.isInside(codeInt)) {
+			vehicleIsAlreadyInside();
+			return;
+		}
+
+		// Generating parking code and taking a free space from the local copy
+		parkingCode = createParkingCode();
+		int space;
+		try {
+			space = offline.recordEntry(codeInt, Integer.parseInt(parkingCode));
+		} catch (IOException e) {
+			// not on disk - accepting it could lose the entry
+			System.err.println("Offline entry not saved: " + e.getMessage());
+			InsertionUpdateLabel.setText("The entry could not be saved. Please try again.");
+			InsertionUpdateLabel.setStyle("-fx-text-fill: red;");
+			InsertionUpdateLabel.setVisible(true);
+			return;
+		}
+		if (space == -1) {
+			setParkingLotStatus(false);
+			return;
+		}
+		parkingSpace = space;
+
+		successfulDelivery();
+		InsertionUpdateLabel.setText("Completed delivery successfully! (offline - will be synchronized)");
+	}
+
 	/**
 	 * Updates the delivery status label in the UI to indicate a successful delivery.
 	 * The message is displayed in green to visually confirm completion to the user.
@@ -1,5 +1,7 @@
 package controllers;
 
+import java.io.IOException;
+
 import client.ClientController;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
@@ -96,6 +98,17 @@ public class VehiclePickupController implements ClientAware {
 
         try {
             int code = Integer.parseInt(txtSubscriberCode.getText());
+
+            // While the server is unreachable the code is checked against the terminal's local copy
+            if (client.getOfflineTerminal().isOffline()) {
+                if (client.getOfflineTerminal().subscriberExists(code)) {
+                    onSubscriberValidated();
+                } else {
+                    UiUtils.setStatus(lblStatus, "Subscriber code does not exist.", false);
+                }
+                return;
+            }
+
             client.getRequestSender().validateSubscriber(code);
         } catch (NumberFormatException e) {
             UiUtils.setStatus(lblStatus, "Subscriber code must be a number.", false);
@@ -114,6 +127,17 @@ public class VehiclePickupController implements ClientAware {
             return;
         }
 
+        // While the server is unreachable the tag is looked up in the terminal's local copy
+        if (client.getOfflineTerminal().isOffline()) {
+            Integer subscriberCode = client.getOfflineTerminal().findSubscriberByTag(tagId);
+            if (subscriberCode == null) {
+                UiUtils.setStatus(lblStatus, "Tag doesn't exist.", false);
+            } else {
+                onSubscriberValidated(subscriberCode);
+            }
+            return;
+        }
+
         UiUtils.setStatus(lblStatus, "Reading tag... (" + tagId + ")", true);
         client.getRequestSender().validateSubscriberByTag(tagId);
     }
@@ -156,6 +180,12 @@ public class VehiclePickupController implements ClientAware {
                 return;
             }
 
+            // While the server is unreachable the exit is checked locally and queued for the server
+            if (client.getOfflineTerminal().isOffline()) {
+                collectCarOffline(parkingCode);
+                return;
+            }
+
             client.getRequestSender().collectCar(validatedSubscriberCode, parkingCode);
 
         } catch (NumberFormatException e) {
@@ -168,12 +198,42 @@ public class VehiclePickupController implements ClientAware {
         }
     }
 
+    /**
+     * Releases the vehicle while the server is unreachable: the parking code is
+     * checked against the terminal's local copy and the exit is queued for the
+     * server.
+     *
+     * @param parkingCode the parking code the subscriber entered
+     */
+    private void collectCarOffline(int parkingCode) {
+        boolean recorded;
+        try {
+            recorded = client.getOfflineTerminal().recordExit(validatedSubscriberCode, parkingCode);
+        } catch (IOException e) {
+            // not on disk - releasing the vehicle could lose the exit
+            System.err.println("Offline exit not saved: " + e.getMessage());
+            UiUtils.setStatus(lblStatus, "The pickup could not be saved. Please try again.", false);
+            return;
+        }
+        if (recorded) {
+            UiUtils.setStatus(lblStatus, "Vehicle pickup successful (offline - will be synchronized).", true);
+            disableAfterPickup();
+        } else {
+            UiUtils.setStatus(lblStatus, "Parking code is incorrect.", false);
+            resetParkingCodeField();
+        }
+    }
+
     /**
      * Triggered when the user clicks "I Lost My Code".
      * Sends a request to the server to resend the confirmation code.
      */
     @FXML
     public void forgotMyCode() {
+        if (client.getOfflineTerminal().isOffline()) {
+            UiUtils.setStatus(lblStatus, "Resending the code is not available right now. Please try again later.", false);
+            return;
+        }
         try {
         	client.getRequestSender().forgotMyParkingCode(validatedSubscriberCode);
         } catch (Exception e) {
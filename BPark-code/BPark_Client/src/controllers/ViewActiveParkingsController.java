@@ -104,15 +104,22 @@ public class ViewActiveParkingsController implements ClientAware {
     }
 
     /**
-     * Called by the client when the server responds with a list of current parking events.
+     * Called by the client for each chunk of current parking events the server
+     * streams. The first chunk replaces the table contents, the next ones are
+     * appended, so the first rows show before the whole list arrived.
      * The method updates the table on the JavaFX Application Thread.
      *
-     * @param events list of active ParkingEvent objects
+     * @param events active ParkingEvent objects of this chunk
+     * @param first  true for the first chunk of the list
      */
-    public void onActiveParkingsReceived(List<ParkingEvent> events) {
+    public void onActiveParkingsReceived(List<ParkingEvent> events, boolean first) {
         Platform.runLater(() -> {
-            data.setAll(events);
-            parkingTable.setItems(data);
+            if (first) {
+                data.setAll(events);
+                parkingTable.setItems(data);
+            } else {
+                data.addAll(events);
+            }
         });
     }
 }
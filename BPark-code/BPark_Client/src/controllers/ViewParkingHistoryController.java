@@ -110,21 +110,27 @@ public class ViewParkingHistoryController implements ClientAware {
     }
 
     /**
-     * Called by the ClientController once the parking history data is ready.
+     * Called by the ClientController for each chunk of parking history the
+     * server streams.
      * 
-     * Converts the received list into an ObservableList and displays
-     * it in the table.
+     * The first chunk is converted into a new ObservableList and displayed
+     * in the table; the next chunks are appended to it.
      *
-     * @param parkingEventsHistory list of all past and active events
+     * @param parkingEventsHistory past and active events of this chunk
+     * @param first                true for the first chunk of the history
      */
-    public void displayHistory(ArrayList<ParkingEvent> parkingEventsHistory) {
+    public void displayHistory(ArrayList<ParkingEvent> parkingEventsHistory, boolean first) {
         if (parkingEventsHistory == null) {
             System.err.println("[ERROR] Tried to display null parking history – ignoring.");
             return;
         }
 
-        ObservableList<ParkingEvent> rows = FXCollections.observableArrayList(parkingEventsHistory);
-        parkingHistoryTable.setItems(rows);
+        if (first) {
+            ObservableList<ParkingEvent> rows = FXCollections.observableArrayList(parkingEventsHistory);
+            parkingHistoryTable.setItems(rows);
+        } else {
+            parkingHistoryTable.getItems().addAll(parkingEventsHistory);
+        }
     }
 
 }
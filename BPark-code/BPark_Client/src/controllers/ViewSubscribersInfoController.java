@@ -76,18 +76,25 @@ public class ViewSubscribersInfoController implements ClientAware {
     }
 
     /**
-     * Called by the client when the server returns the subscriber data.
-     * Updates the UI table and stores the late-count lookup map.
+     * Called by the client for each chunk of subscriber data the server streams.
+     * Updates the UI table and the late-count lookup map: the first chunk
+     * replaces them, the next ones are appended.
      *
-     * @param subs    list of Subscriber objects
-     * @param lateMap map of Subscriber → number of late pickups
+     * @param subs    Subscriber objects of this chunk
+     * @param lateMap map of Subscriber → number of late pickups for this chunk
+     * @param first   true for the first chunk of the list
      */
     public void onSubscribersReceived(List<Subscriber> subs,
-                                      Map<Subscriber, Integer> lateMap) {
+                                      Map<Subscriber, Integer> lateMap, boolean first) {
         Platform.runLater(() -> {
-            lateLookup = lateMap;
-            data.setAll(subs); // replace current list
-            subscriberTable.setItems(data);
+            if (first) {
+                lateLookup = new HashMap<>(lateMap);
+                data.setAll(subs); // replace current list
+                subscriberTable.setItems(data);
+            } else {
+                lateLookup.putAll(lateMap);
+                data.addAll(subs);
+            }
         });
     }
 
@@ -0,0 +1,57 @@
+package common;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * A request that changes data (a new order, an entry, a registration) sent
+ * together with a key that identifies it. If the client sends the same
+ * request object again - because the response did not arrive in time, or the
+ * connection broke - the server recognizes the key and sends back the
+ * responses of the first attempt instead of running the request twice.
+ *
+ * The key is created with the request, so a new request always gets a new key
+ * and a repeated one keeps its key.
+ */
+public class IdempotentRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Identifies the request (unique per request, the same on every retry) */
+	private final String key;
+
+	/** The request itself: the operation followed by its arguments */
+	private final Object[] data;
+
+	/**
+	 * Creates a request with a new key.
+	 *
+	 * @param data the request: the {@link Operation} followed by its arguments
+	 */
+	public IdempotentRequest(Object[] data) {
+		this.key = UUID.randomUUID().toString();
+		this.data = data;
+	}
+
+	/**
+	 * @return the key identifying the request
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the request: the operation followed by its arguments
+	 */
+	public Object[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return the operation and key, for logging
+	 */
+	@Override
+	public String toString() {
+		return (data.length > 0 ? data[0] : "?") + " [" + key + "]";
+	}
+}
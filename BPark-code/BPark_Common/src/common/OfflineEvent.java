@@ -0,0 +1,136 @@
+package common;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A vehicle entry or exit that a terminal accepted while it could not reach
+ * the server. Terminals keep these in a local queue and send them to the
+ * server once it is reachable again; the server applies each one at most once
+ * (by {@link #getEventKey()}) and resolves conflicts with what happened online
+ * in the meantime.
+ */
+public class OfflineEvent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Kind of gate event.
+	 */
+	public enum Kind {
+		/** A vehicle entered the lot */
+		ENTRY,
+		/** A vehicle left the lot */
+		EXIT
+	}
+
+	/** Unique key, so a re-sent event is applied only once */
+	private final String eventKey;
+
+	/** Entry or exit */
+	private final Kind kind;
+
+	/** The subscriber whose vehicle entered or left */
+	private final int subscriberCode;
+
+	/** The lot of the terminal */
+	private final String lotName;
+
+	/** Parking code of the session */
+	private final int parkingCode;
+
+	/** Space the terminal assigned (entries only; the server may pick another) */
+	private final int parkingSpace;
+
+	/** The subscriber's vehicle (entries only, may be null) */
+	private final String vehicleId;
+
+	/** When the vehicle passed the gate (terminal clock) */
+	private final LocalDateTime happenedAt;
+
+	/**
+	 * Creates an event with a new unique key.
+	 *
+	 * @param kind           entry or exit
+	 * @param subscriberCode the subscriber
+	 * @param lotName        the lot of the terminal
+	 * @param parkingCode    parking code of the session
+	 * @param parkingSpace   assigned space (entries), 0 for exits
+	 * @param vehicleId      the vehicle (entries), may be null
+	 * @param happenedAt     when the vehicle passed the gate
+	 */
+	public OfflineEvent(Kind kind, int subscriberCode, String lotName, int parkingCode, int parkingSpace,
+			String vehicleId, LocalDateTime happenedAt) {
+		this.eventKey = UUID.randomUUID().toString();
+		this.kind = kind;
+		this.subscriberCode = subscriberCode;
+		this.lotName = lotName;
+		this.parkingCode = parkingCode;
+		this.parkingSpace = parkingSpace;
+		this.vehicleId = vehicleId;
+		this.happenedAt = happenedAt;
+	}
+
+	/**
+	 * @return unique key of the event
+	 */
+	public String getEventKey() {
+		return eventKey;
+	}
+
+	/**
+	 * @return entry or exit
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the subscriber whose vehicle entered or left
+	 */
+	public int getSubscriberCode() {
+		return subscriberCode;
+	}
+
+	/**
+	 * @return the lot of the terminal
+	 */
+	public String getLotName() {
+		return lotName;
+	}
+
+	/**
+	 * @return parking code of the session
+	 */
+	public int getParkingCode() {
+		return parkingCode;
+	}
+
+	/**
+	 * @return space the terminal assigned (entries only)
+	 */
+	public int getParkingSpace() {
+		return parkingSpace;
+	}
+
+	/**
+	 * @return the subscriber's vehicle (entries only, may be null)
+	 */
+	public String getVehicleId() {
+		return vehicleId;
+	}
+
+	/**
+	 * @return when the vehicle passed the gate
+	 */
+	public LocalDateTime getHappenedAt() {
+		return happenedAt;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " subscriber=" + subscriberCode + " lot=" + lotName + " parkingCode=" + parkingCode
+				+ " at " + happenedAt;
+	}
+}
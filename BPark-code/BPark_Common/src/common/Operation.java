@@ -109,6 +109,21 @@ public enum Operation {
     UPDATE_DETAILS_OF_SUBSCRIBER,
     
     /** Check if subscriber has a reservation within 4 hours of selected date/time */
-    CHECK_RESERVATION_CONFLICT
+    CHECK_RESERVATION_CONFLICT,
+
+    /** Register many subscribers at once from CSV text */
+    BULK_IMPORT_SUBSCRIBERS,
+
+    /** Tell the server which parking lot this client works with (sent right after connecting) */
+    CONNECT_TO_LOT,
+
+    /** Get the data a terminal needs to work offline (full, or changes since a version) */
+    GET_TERMINAL_SNAPSHOT,
+
+    /** Send the entries and exits a terminal accepted while offline */
+    SYNC_OFFLINE_EVENTS,
+
+    /** Log in again after a reconnect with the resume token instead of the password */
+    RESUME_SESSION
 }
 
@@ -112,6 +112,27 @@ public enum ResponseType {
     SUBSCRIBER_VEHICLE_ISNT_INSIDE_BY_TAG,
     
     /** Whether the subscriber has a conflicting reservation within 4 hours */
-    CONFLICT_CHECKED
+    CONFLICT_CHECKED,
+
+    /** Per-row results of a bulk subscriber import */
+    SUBSCRIBERS_IMPORTED,
+
+    /** The client's parking lot is served by another server node (data: "host:port") */
+    REDIRECT,
+
+    /** Offline data for a terminal (data: TerminalSnapshot); fails while the DB is down */
+    TERMINAL_SNAPSHOT,
+
+    /** Offline events the server has handled (data: list of event keys) */
+    OFFLINE_EVENTS_SYNCED,
+
+    /** The request was refused because the server (or this client) is over its limits; repeat it later */
+    SERVER_BUSY,
+
+    /** Token that resumes the session after a reconnect (data: the token); replaces any earlier one */
+    SESSION_TOKEN,
+
+    /** Result of a resume request (data: the User on success) */
+    SESSION_RESUMED
 }
 
@@ -0,0 +1,84 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One part of a large result (subscribers, active parkings, parking history)
+ * that the server streams to the client while it reads the rows from the DB.
+ *
+ * The chunks of a result are sent in order, each one wrapped in a
+ * {@link ServerResponse} of the result's {@link ResponseType}. The first chunk
+ * replaces what the client shows, the following ones are appended, and the last
+ * one has {@link #isLast()} set. A result with fewer rows than a chunk holds is
+ * a single chunk that is both first and last.
+ *
+ * @param <T> type of the rows
+ */
+public class ResultChunk<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Identifies the result the chunk belongs to (unique per server run) */
+	private final long streamId;
+
+	/** Position of the chunk in the result, starting at 0 */
+	private final int index;
+
+	/** Rows of this chunk, in result order */
+	private final ArrayList<T> rows;
+
+	/** True for the last chunk of the result */
+	private final boolean last;
+
+	/**
+	 * Creates a chunk.
+	 *
+	 * @param streamId identifies the result
+	 * @param index    position of the chunk, starting at 0
+	 * @param rows     rows of the chunk
+	 * @param last     true for the last chunk
+	 */
+	public ResultChunk(long streamId, int index, List<T> rows, boolean last) {
+		this.streamId = streamId;
+		this.index = index;
+		this.rows = new ArrayList<>(rows);
+		this.last = last;
+	}
+
+	/**
+	 * @return identifier of the result the chunk belongs to
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * @return position of the chunk in the result, starting at 0
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return rows of this chunk
+	 */
+	public ArrayList<T> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return true for the first chunk (the client starts a new list)
+	 */
+	public boolean isFirst() {
+		return index == 0;
+	}
+
+	/**
+	 * @return true for the last chunk of the result
+	 */
+	public boolean isLast() {
+		return last;
+	}
+}
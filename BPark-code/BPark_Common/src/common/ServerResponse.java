@@ -24,6 +24,9 @@ public class ServerResponse implements Serializable {
 	
 	/** Message for the client (e.g., error, success info, etc.) */
 	private String msg;	
+
+	/** Key of the keyed request ({@link IdempotentRequest}) this answers, or null */
+	private String requestKey;
 	
 	/**
 	 * Full constructor for ServerResponse.
@@ -75,6 +78,25 @@ public class ServerResponse implements Serializable {
 	public ResponseType getType() {
 		return type;
 	}
+
+	/**
+	 * Returns the key of the keyed request this response answers, so the client
+	 * knows the request no longer has to be sent again after a reconnect.
+	 *
+	 * @return the request key, or null if the request had none
+	 */
+	public String getRequestKey() {
+		return requestKey;
+	}
+
+	/**
+	 * Sets the key of the keyed request this response answers.
+	 *
+	 * @param requestKey the request key
+	 */
+	public void setRequestKey(String requestKey) {
+		this.requestKey = requestKey;
+	}
 	
 }
 
@@ -0,0 +1,79 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of importing a single CSV row during a bulk subscriber import.
+ * The server returns one result per data row, in file order.
+ */
+public class SubscriberImportResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Line number of the row in the CSV text (1-based, header included) */
+	private int lineNumber;
+
+	/** Username from the row (may be null if the row could not be parsed) */
+	private String username;
+
+	/** Whether the subscriber was registered */
+	private boolean succeed;
+
+	/** Subscriber code assigned by the server (0 if the row failed) */
+	private int subscriberCode;
+
+	/** Reason the row failed, or a short confirmation */
+	private String msg;
+
+	/**
+	 * Creates a result for one CSV row.
+	 *
+	 * @param lineNumber     line number of the row in the CSV text
+	 * @param username       username from the row
+	 * @param succeed        whether the subscriber was registered
+	 * @param subscriberCode subscriber code assigned by the server (0 if failed)
+	 * @param msg            failure reason or confirmation
+	 */
+	public SubscriberImportResult(int lineNumber, String username, boolean succeed, int subscriberCode, String msg) {
+		this.lineNumber = lineNumber;
+		this.username = username;
+		this.succeed = succeed;
+		this.subscriberCode = subscriberCode;
+		this.msg = msg;
+	}
+
+	/**
+	 * @return line number of the row in the CSV text
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * @return username from the row
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return true if the subscriber was registered
+	 */
+	public boolean isSucceed() {
+		return succeed;
+	}
+
+	/**
+	 * @return subscriber code assigned by the server (0 if failed)
+	 */
+	public int getSubscriberCode() {
+		return subscriberCode;
+	}
+
+	/**
+	 * @return failure reason or confirmation
+	 */
+	public String getMsg() {
+		return msg;
+	}
+}
@@ -0,0 +1,133 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a parking terminal needs to keep its gates working while the server or
+ * the DB is unreachable: subscribers with their tags and vehicles, the open
+ * parking sessions and the free spaces of the terminal's lot.
+ *
+ * A full snapshot holds every subscriber; a delta holds only the subscribers
+ * that changed since the version the terminal already has. Sessions and free
+ * spaces are small and always sent in full.
+ */
+public class TerminalSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * One subscriber as the gates see it.
+	 */
+	public static class SubscriberEntry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The subscriber's code */
+		private final int subscriberCode;
+
+		/** RFID tag of the subscriber (null if none) */
+		private final String tagId;
+
+		/** Vehicle of the subscriber (null if none) */
+		private final String vehicleId;
+
+		/**
+		 * Creates a subscriber entry.
+		 *
+		 * @param subscriberCode the subscriber's code
+		 * @param tagId          RFID tag (may be null)
+		 * @param vehicleId      vehicle (may be null)
+		 */
+		public SubscriberEntry(int subscriberCode, String tagId, String vehicleId) {
+			this.subscriberCode = subscriberCode;
+			this.tagId = tagId;
+			this.vehicleId = vehicleId;
+		}
+
+		/**
+		 * @return the subscriber's code
+		 */
+		public int getSubscriberCode() {
+			return subscriberCode;
+		}
+
+		/**
+		 * @return RFID tag of the subscriber, or null
+		 */
+		public String getTagId() {
+			return tagId;
+		}
+
+		/**
+		 * @return vehicle of the subscriber, or null
+		 */
+		public String getVehicleId() {
+			return vehicleId;
+		}
+	}
+
+	/** Server (DB) time the snapshot was taken at; send it back to get a delta */
+	private final long version;
+
+	/** True if {@link #subscribers} holds every subscriber, false for a delta */
+	private final boolean full;
+
+	/** Subscribers (all, or those changed since the requested version) */
+	private final List<SubscriberEntry> subscribers = new ArrayList<>();
+
+	/** Open sessions of all lots: subscriber code -> parking code */
+	private final Map<Integer, Integer> openSessions = new HashMap<>();
+
+	/** Free parking spaces of the terminal's lot */
+	private final List<Integer> freeSpaces = new ArrayList<>();
+
+	/**
+	 * Creates an empty snapshot.
+	 *
+	 * @param version server time the snapshot was taken at
+	 * @param full    true for a full snapshot, false for a delta
+	 */
+	public TerminalSnapshot(long version, boolean full) {
+		this.version = version;
+		this.full = full;
+	}
+
+	/**
+	 * @return server time the snapshot was taken at
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the snapshot holds every subscriber
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * @return subscribers (all, or those changed since the requested version)
+	 */
+	public List<SubscriberEntry> getSubscribers() {
+		return subscribers;
+	}
+
+	/**
+	 * @return open sessions: subscriber code -> parking code
+	 */
+	public Map<Integer, Integer> getOpenSessions() {
+		return openSessions;
+	}
+
+	/**
+	 * @return free parking spaces of the terminal's lot
+	 */
+	public List<Integer> getFreeSpaces() {
+		return freeSpaces;
+	}
+}
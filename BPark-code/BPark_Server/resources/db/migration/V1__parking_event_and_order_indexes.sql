@@ -0,0 +1,20 @@
+-- V1: indexes for the hottest parkingEvent and order predicates.
+-- Each table is altered by a single statement so a failure leaves it untouched.
+
+-- parkingEvent:
+--   idx_event_open         open sessions (exitDate IS NULL), optionally per subscriber
+--   idx_event_parking_code pickup / extension lookups by parkingCode on open sessions
+--   idx_event_lot_open     extended open sessions per lot (extension capacity)
+ALTER TABLE bpark.parkingEvent
+    ADD INDEX idx_event_open (exitDate, subscriberCode),
+    ADD INDEX idx_event_parking_code (parkingCode, exitDate),
+    ADD INDEX idx_event_lot_open (NameParkingLot, exitDate, wasExtended);
+
+-- order:
+--   idx_order_status_slot       ACTIVE orders by date and arrival time (availability, expiry)
+--   idx_order_subscriber_status a subscriber's ACTIVE orders, covering the date and time columns
+--   idx_order_confirmation      entry with a confirmation code
+ALTER TABLE bpark.`order`
+    ADD INDEX idx_order_status_slot (`status`, order_date, arrival_time),
+    ADD INDEX idx_order_subscriber_status (subscriberCode, `status`, order_date, arrival_time),
+    ADD INDEX idx_order_confirmation (confirmation_code);
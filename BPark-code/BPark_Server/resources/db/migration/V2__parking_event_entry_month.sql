@@ -0,0 +1,6 @@
+-- V2: generated year/month columns for the monthly reports.
+-- Reports filter on the entry month, which YEAR(entryDate) / MONTH(entryDate) cannot use an index for.
+ALTER TABLE bpark.parkingEvent
+    ADD COLUMN entryYear SMALLINT AS (YEAR(entryDate)) VIRTUAL,
+    ADD COLUMN entryMonth TINYINT AS (MONTH(entryDate)) VIRTUAL,
+    ADD INDEX idx_event_entry_month (entryYear, entryMonth, subscriberCode);
@@ -0,0 +1,17 @@
+-- V3: stored start/end datetimes so time-window queries become index range scans
+-- instead of computing TIMESTAMP(date, time) for every row.
+
+-- order: a reservation holds its spot from startAt for 4 hours (endAt)
+ALTER TABLE bpark.`order`
+    ADD COLUMN startAt DATETIME AS (TIMESTAMP(order_date, arrival_time)) STORED,
+    ADD COLUMN endAt DATETIME AS (TIMESTAMP(order_date, arrival_time) + INTERVAL 4 HOUR) STORED,
+    ADD INDEX idx_order_status_start (`status`, startAt),
+    ADD INDEX idx_order_subscriber_start (subscriberCode, `status`, startAt);
+
+-- parkingEvent: exitAt and parkedMinutes stay NULL while the vehicle is still parked
+ALTER TABLE bpark.parkingEvent
+    ADD COLUMN entryAt DATETIME AS (TIMESTAMP(entryDate, entryHour)) STORED,
+    ADD COLUMN exitAt DATETIME AS (TIMESTAMP(exitDate, exitHour)) STORED,
+    ADD COLUMN parkedMinutes INT AS (TIMESTAMPDIFF(MINUTE, TIMESTAMP(entryDate, entryHour), TIMESTAMP(exitDate, exitHour))) STORED,
+    ADD INDEX idx_event_open_entry (exitDate, entryAt),
+    ADD INDEX idx_event_parked_minutes (parkedMinutes);
@@ -0,0 +1,17 @@
+-- V4: sequence rows for block-allocated subscriber codes and RFID tag numbers.
+-- nextValue is the first value that has not been handed out yet.
+CREATE TABLE bpark.id_sequence (
+    name      VARCHAR(30) PRIMARY KEY,
+    nextValue INT NOT NULL
+);
+
+-- Continue after the highest existing code (codes start at 1011 on an empty table)
+INSERT INTO bpark.id_sequence (name, nextValue)
+SELECT 'subscriberCode', COALESCE(MAX(subscriberCode) + 1, 1011)
+FROM bpark.subscriber;
+
+-- Continue after the highest existing TAG_<n> number
+INSERT INTO bpark.id_sequence (name, nextValue)
+SELECT 'tagId', COALESCE(MAX(CAST(SUBSTRING(tagId, 5) AS UNSIGNED)) + 1, 1)
+FROM bpark.subscriber
+WHERE tagId LIKE 'TAG\_%';
@@ -0,0 +1,18 @@
+-- V5: every parking space belongs to a parking lot, so occupancy, reservations
+-- and extensions can be counted per lot instead of across the whole system.
+ALTER TABLE bpark.parkingSpaces
+    ADD COLUMN NameParkingLot VARCHAR(10) NULL;
+
+-- Existing spaces belong to the (single) lot that existed so far
+UPDATE bpark.parkingSpaces
+SET NameParkingLot = (SELECT MIN(NameParkingLot) FROM bpark.parkingLot);
+
+ALTER TABLE bpark.parkingSpaces
+    MODIFY COLUMN NameParkingLot VARCHAR(10) NOT NULL,
+    ADD CONSTRAINT fk_space_lot FOREIGN KEY (NameParkingLot)
+      REFERENCES bpark.parkingLot(NameParkingLot),
+    ADD INDEX idx_space_lot_occupied (NameParkingLot, is_occupied);
+
+-- Open sessions are counted per lot at every entry
+ALTER TABLE bpark.parkingEvent
+    ADD INDEX idx_event_lot_open (NameParkingLot, exitDate);
@@ -0,0 +1,15 @@
+-- V6: lot ownership leases for running several server nodes on one database.
+-- A node owns a lot while its lease has not expired (expiresAt is DB time, so
+-- node clocks do not matter). An expired or released lease can be taken over.
+CREATE TABLE bpark.lot_lease (
+    NameParkingLot VARCHAR(10) PRIMARY KEY,
+    ownerNode      VARCHAR(64) NULL,
+    ownerAddress   VARCHAR(100) NULL,
+    expiresAt      DATETIME(3) NOT NULL DEFAULT '1970-01-01 00:00:00.000',
+    CONSTRAINT fk_lease_lot FOREIGN KEY (NameParkingLot)
+      REFERENCES bpark.parkingLot(NameParkingLot)
+);
+
+-- Every existing lot starts without an owner
+INSERT INTO bpark.lot_lease (NameParkingLot)
+SELECT NameParkingLot FROM bpark.parkingLot;
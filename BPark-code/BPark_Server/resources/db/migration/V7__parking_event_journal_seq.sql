@@ -0,0 +1,10 @@
+-- V7: entries are written to the event journal first and applied to
+-- parkingEvent in the background. Each applied row keeps the node whose
+-- journal it came from and its sequence number there; every node numbers its
+-- journal from 1, so the unique key is on both. It makes re-applying a record
+-- after a restart a no-op, and MAX(journalSeq) of a node tells how far that
+-- node's journal has been applied.
+ALTER TABLE bpark.parkingEvent
+    ADD COLUMN journalSeq BIGINT NULL,
+    ADD COLUMN journalNode VARCHAR(64) NULL AFTER journalSeq,
+    ADD UNIQUE INDEX uq_event_journal_node_seq (journalNode, journalSeq);
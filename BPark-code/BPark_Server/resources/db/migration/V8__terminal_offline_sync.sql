@@ -0,0 +1,22 @@
+-- V8: offline parking terminals.
+-- Terminals keep a local copy of subscribers, tags and vehicles and refresh
+-- it with the rows changed since their last copy.
+ALTER TABLE bpark.subscriber
+    ADD COLUMN updatedAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+    ADD INDEX idx_subscriber_updated (updatedAt);
+
+ALTER TABLE bpark.vehicle
+    ADD COLUMN updatedAt TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+    ADD INDEX idx_vehicle_updated (updatedAt);
+
+-- Entries and exits accepted by a terminal while offline, one row per event
+-- key, so an event that is sent again is not applied twice.
+CREATE TABLE bpark.offline_event (
+    eventKey       CHAR(36) PRIMARY KEY,
+    kind           VARCHAR(10) NOT NULL,
+    subscriberCode INT NOT NULL,
+    NameParkingLot VARCHAR(10) NULL,
+    happenedAt     DATETIME NOT NULL,
+    outcome        VARCHAR(100) NOT NULL,
+    processedAt    DATETIME(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)
+);
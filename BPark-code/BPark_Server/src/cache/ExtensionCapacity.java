@@ -0,0 +1,304 @@
+package cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory accounting of how many more parking extensions each lot can grant.
+ *
+ * Per lot it keeps one counter of remaining extensions:
+ * totalSpots - upcoming reservations - active extended sessions - 1
+ * (the same formula the extensionCapacity table used to be recomputed with on
+ * every request). The counter is adjusted incrementally:
+ * - an extension is admitted with a compare-and-set that only succeeds while
+ *   at least one extension remains, so concurrent requests can never take
+ *   more than the lot has;
+ * - an extended session that exits (or an admission whose DB update did not
+ *   go through) gives its extension back;
+ * - a reservation placed inside the upcoming window takes one away right
+ *   away; one placed further ahead is kept as pending and takes one away at
+ *   the moment it enters the window;
+ * - the upcoming-reservation count is re-synchronized periodically from the
+ *   DB (orders leave the window or are cancelled). Reservations added while
+ *   the DB was counted are added to the count, so a re-count never gives back
+ *   an extension a new reservation just took.
+ */
+public class ExtensionCapacity {
+
+	/** Length of the upcoming window: reservations starting within it hold back an extension */
+	public static final long WINDOW_MS = 4 * 60 * 60 * 1000L;
+
+	/** Per-lot counters, created on first use */
+	private final ConcurrentHashMap<String, Lot> lots = new ConcurrentHashMap<>();
+
+	/**
+	 * Per lot, the number of reservations ever added to the upcoming count
+	 * (also while the lot is not loaded); compared before and after a DB count
+	 * to find the reservations the count may have missed
+	 */
+	private final ConcurrentHashMap<String, AtomicLong> added = new ConcurrentHashMap<>();
+
+	/**
+	 * @param lotName the parking lot name
+	 * @return true if the lot's counters have been initialized
+	 */
+	public boolean isLoaded(String lotName) {
+		return lots.containsKey(lotName);
+	}
+
+	/**
+	 * Returns the lot's reservation stamp, to be taken before the DB is counted
+	 * for {@link #initLot} or {@link #setUpcomingReservations}.
+	 *
+	 * @param lotName the parking lot name
+	 * @return number of reservations added to the lot's upcoming count so far
+	 */
+	public long reservationStamp(String lotName) {
+		Lot lot = lots.get(lotName);
+		if (lot != null) {
+			admitDue(lot);
+		}
+		return additions(lotName).get();
+	}
+
+	/**
+	 * Initializes (or re-initializes) the counters of a lot from the DB state.
+	 * Pending reservations of an earlier initialization are kept.
+	 *
+	 * @param lotName              the parking lot name
+	 * @param totalSpots           number of spots in the lot
+	 * @param extendedSessions     active sessions that were already extended
+	 * @param upcomingReservations ACTIVE orders starting within the window
+	 * @param stamp                {@link #reservationStamp} taken before the DB was counted
+	 */
+	public void initLot(String lotName, int totalSpots, int extendedSessions, int upcomingReservations,
+			long stamp) {
+		AtomicLong additions = additions(lotName);
+		synchronized (additions) {
+			int reserved = upcomingReservations + (int) (additions.get() - stamp);
+			Lot lot = new Lot(lotName, totalSpots - reserved - extendedSessions - 1, reserved);
+			Lot previous = lots.put(lotName, lot);
+			if (previous != null) {
+				synchronized (previous) {
+					lot.pending.putAll(previous.pending);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the counters of a lot (e.g. when another server node takes it over).
+	 *
+	 * @param lotName the parking lot name
+	 */
+	public void removeLot(String lotName) {
+		lots.remove(lotName);
+	}
+
+	/**
+	 * Takes one extension for the lot if any remain.
+	 *
+	 * @param lotName the parking lot name
+	 * @return true if the extension was admitted, false if the lot has no
+	 *         capacity left (or is not initialized)
+	 */
+	public boolean tryAcquire(String lotName) {
+		Lot lot = lots.get(lotName);
+		if (lot == null) {
+			return false;
+		}
+		admitDue(lot);
+		while (true) {
+			int remaining = lot.remaining.get();
+			if (remaining < 1) {
+				return false; // keep the spot for upcoming reservations
+			}
+			if (lot.remaining.compareAndSet(remaining, remaining - 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gives one extension back: an extended session left the lot, or an admitted
+	 * extension could not be written to the DB.
+	 *
+	 * @param lotName the parking lot name
+	 */
+	public void release(String lotName) {
+		Lot lot = lots.get(lotName);
+		if (lot != null) {
+			lot.remaining.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records a new reservation: one that starts within the upcoming window takes
+	 * an extension away now, one that starts later is kept until it enters the
+	 * window.
+	 *
+	 * @param lotName     the parking lot name
+	 * @param orderNumber number of the order
+	 * @param startAt     start of the reservation (as in currentTimeMillis)
+	 */
+	public void reservationPlaced(String lotName, int orderNumber, long startAt) {
+		long now = System.currentTimeMillis();
+		if (startAt < now) {
+			return;
+		}
+		if (startAt <= now + WINDOW_MS) {
+			reservationAdded(lotName);
+			return;
+		}
+		Lot lot = lots.get(lotName);
+		if (lot != null) {
+			synchronized (lot) {
+				lot.pending.put(orderNumber, startAt);
+			}
+		}
+	}
+
+	/**
+	 * Adds reservations that start after the upcoming window, so each one takes
+	 * an extension away when it enters the window. Reservations already known
+	 * are not added again.
+	 *
+	 * @param lotName the parking lot name
+	 * @param starts  order number to start of the reservation (as in
+	 *                currentTimeMillis)
+	 */
+	public void addPending(String lotName, Map<Integer, Long> starts) {
+		Lot lot = lots.get(lotName);
+		if (lot == null) {
+			return;
+		}
+		long windowEnd = System.currentTimeMillis() + WINDOW_MS;
+		synchronized (lot) {
+			for (Map.Entry<Integer, Long> start : starts.entrySet()) {
+				if (start.getValue() > windowEnd) { // one already in the window was counted by the DB
+					lot.pending.putIfAbsent(start.getKey(), start.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-synchronizes the number of upcoming reservations (orders move into and
+	 * out of the window as time passes) and adjusts the remaining extensions by
+	 * the difference. Reservations added since the stamp was taken may be missing
+	 * from the count, so they are added to it; one that was counted after all
+	 * stays held back until the next re-count.
+	 *
+	 * @param lotName              the parking lot name
+	 * @param upcomingReservations ACTIVE orders starting within the window now
+	 * @param stamp                {@link #reservationStamp} taken before the DB was counted
+	 */
+	public void setUpcomingReservations(String lotName, int upcomingReservations, long stamp) {
+		Lot lot = lots.get(lotName);
+		if (lot == null) {
+			return;
+		}
+		AtomicLong additions = additions(lotName);
+		synchronized (lot) {
+			int reserved = upcomingReservations + (int) (additions.get() - stamp);
+			int previous = lot.reserved;
+			lot.reserved = reserved;
+			lot.remaining.addAndGet(previous - reserved);
+		}
+	}
+
+	/**
+	 * Adds one reservation to the lot's upcoming count.
+	 *
+	 * @param lotName the parking lot name
+	 */
+	private void reservationAdded(String lotName) {
+		AtomicLong additions = additions(lotName);
+		synchronized (additions) { // not while the lot is being initialized
+			Lot lot = lots.get(lotName);
+			if (lot == null) {
+				additions.incrementAndGet();
+				return;
+			}
+			synchronized (lot) {
+				additions.incrementAndGet();
+				lot.reserved++;
+				lot.remaining.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Adds the pending reservations that entered the upcoming window.
+	 *
+	 * @param lot the lot's counters
+	 */
+	private void admitDue(Lot lot) {
+		long windowEnd = System.currentTimeMillis() + WINDOW_MS;
+		int due = 0;
+		synchronized (lot) {
+			if (lot.pending.isEmpty()) {
+				return;
+			}
+			for (Iterator<Long> it = lot.pending.values().iterator(); it.hasNext();) {
+				if (it.next() <= windowEnd) {
+					it.remove();
+					due++;
+				}
+			}
+		}
+		for (int i = 0; i < due; i++) {
+			reservationAdded(lot.name);
+		}
+	}
+
+	/**
+	 * @param lotName the parking lot name
+	 * @return the lot's count of added reservations
+	 */
+	private AtomicLong additions(String lotName) {
+		return added.computeIfAbsent(lotName, name -> new AtomicLong());
+	}
+
+	/**
+	 * @param lotName the parking lot name
+	 * @return number of extensions the lot can still grant (may be negative
+	 *         when reservations already exceed the free capacity)
+	 */
+	public int getRemaining(String lotName) {
+		Lot lot = lots.get(lotName);
+		if (lot == null) {
+			return 0;
+		}
+		admitDue(lot);
+		return lot.remaining.get();
+	}
+
+	/**
+	 * Counters of one parking lot.
+	 */
+	private static class Lot {
+
+		/** Name of the lot */
+		final String name;
+
+		/** Extensions the lot can still grant */
+		final AtomicInteger remaining;
+
+		/** Upcoming reservations currently subtracted from {@link #remaining} (guarded by the lot) */
+		int reserved;
+
+		/** Order number to start of the reservations after the window (guarded by the lot) */
+		final Map<Integer, Long> pending = new HashMap<>();
+
+		Lot(String name, int remaining, int reserved) {
+			this.name = name;
+			this.remaining = new AtomicInteger(remaining);
+			this.reserved = reserved;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The parking lots served by this server and the spaces that belong to each.
+ *
+ * Every lot has its own lock, so work that must be serialized for one lot
+ * (e.g. picking a free space at the entrance) never waits for another lot.
+ * Lot names are matched case-insensitively, like MySQL compares them.
+ */
+public class LotRegistry {
+
+	/**
+	 * One parking lot.
+	 */
+	public static class Lot {
+
+		/** Lot name as stored in the DB */
+		private final String name;
+
+		/** Number of parking spaces in the lot */
+		private final int totalSpots;
+
+		/** Serializes space allocation in this lot */
+		private final Object lock = new Object();
+
+		/** Whether this server node currently owns the lot (always true on a single node) */
+		private volatile boolean owned = true;
+
+		/**
+		 * Time (as in currentTimeMillis) the ownership lapses unless renewed
+		 * before; no limit unless set by the lease manager
+		 */
+		private volatile long ownedUntil = Long.MAX_VALUE;
+
+		/**
+		 * Creates a lot.
+		 *
+		 * @param name       lot name as stored in the DB
+		 * @param totalSpots number of parking spaces in the lot
+		 */
+		public Lot(String name, int totalSpots) {
+			this.name = name;
+			this.totalSpots = totalSpots;
+		}
+
+		/**
+		 * @return lot name as stored in the DB
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of parking spaces in the lot
+		 */
+		public int getTotalSpots() {
+			return totalSpots;
+		}
+
+		/**
+		 * @return the lock that serializes space allocation in this lot
+		 */
+		public Object getLock() {
+			return lock;
+		}
+
+		/**
+		 * @return true if this server node currently owns the lot and the
+		 *         ownership has not lapsed
+		 */
+		public boolean isOwned() {
+			return owned && System.currentTimeMillis() < ownedUntil;
+		}
+
+		/**
+		 * Marks the lot as owned (or not) by this server node, without a time
+		 * limit.
+		 *
+		 * @param owned whether this node holds the lot's lease
+		 */
+		public void setOwned(boolean owned) {
+			this.ownedUntil = Long.MAX_VALUE;
+			this.owned = owned;
+		}
+
+		/**
+		 * Marks the lot as owned by this server node until the given time.
+		 *
+		 * @param until time (as in currentTimeMillis) the ownership lapses
+		 *              unless renewed before
+		 */
+		public void setOwnedUntil(long until) {
+			this.ownedUntil = until;
+			this.owned = true;
+		}
+	}
+
+	/** Lower-case lot name -> lot */
+	private final ConcurrentHashMap<String, Lot> lots = new ConcurrentHashMap<>();
+
+	/** Parking space -> name of the lot it belongs to */
+	private final ConcurrentHashMap<Integer, String> lotBySpace = new ConcurrentHashMap<>();
+
+	/**
+	 * Removes all lots and spaces.
+	 */
+	public void clear() {
+		lots.clear();
+		lotBySpace.clear();
+	}
+
+	/**
+	 * Adds (or replaces) a lot.
+	 *
+	 * @param name       lot name as stored in the DB
+	 * @param totalSpots number of parking spaces in the lot
+	 */
+	public void putLot(String name, int totalSpots) {
+		lots.put(key(name), new Lot(name, totalSpots));
+	}
+
+	/**
+	 * Records which lot a parking space belongs to.
+	 *
+	 * @param parkingSpace the parking space
+	 * @param lotName      the lot name
+	 */
+	public void putSpace(int parkingSpace, String lotName) {
+		lotBySpace.put(parkingSpace, lotName);
+	}
+
+	/**
+	 * @param name lot name (any case)
+	 * @return the lot, or null if there is no such lot
+	 */
+	public Lot get(String name) {
+		return name == null ? null : lots.get(key(name));
+	}
+
+	/**
+	 * @param parkingSpace the parking space
+	 * @return name of the lot the space belongs to, or null if unknown
+	 */
+	public String lotOfSpace(int parkingSpace) {
+		return lotBySpace.get(parkingSpace);
+	}
+
+	/**
+	 * @return all lots
+	 */
+	public Collection<Lot> all() {
+		return Collections.unmodifiableCollection(lots.values());
+	}
+
+	/**
+	 * @return true if no lot has been loaded
+	 */
+	public boolean isEmpty() {
+		return lots.isEmpty();
+	}
+
+	private static String key(String name) {
+		return name.trim().toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,322 @@
+package cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Subscriber;
+
+/**
+ * Bounded cache of subscriber profiles (subscriber row + vehicle), keyed by
+ * subscriber code, with a secondary lookup by username.
+ *
+ * Entries are evicted in least-recently-used order once the cache holds
+ * {@code capacity} profiles. The cache never hands out its own Subscriber
+ * objects: callers get a fresh copy, so a profile that is modified or sent to
+ * a client can not change what is cached. Writers (detail updates,
+ * registration) must call {@link #invalidate(int)} after changing a profile in
+ * the DB.
+ *
+ * A reader that misses must not cache what it read if the profile was
+ * invalidated while its query ran - the row it read may predate the change. So
+ * the reader takes the profile's invalidation counter ({@link #version(int)})
+ * before the query and stores the result with
+ * {@link #putIfUnchanged(Profile, long)}, which drops it if the counter moved.
+ * A reader that does not know the subscriber code yet (lookup by username)
+ * uses the counter of all profiles ({@link #version()}) instead.
+ */
+public class SubscriberCache {
+
+	/**
+	 * Immutable snapshot of one subscriber profile.
+	 */
+	public static class Profile {
+
+		/** Subscriber details as read from the DB */
+		private final Subscriber subscriber;
+
+		/** The subscriber's vehicle, or null if none is registered */
+		private final String vehicleId;
+
+		/**
+		 * Creates a profile snapshot.
+		 *
+		 * @param subscriber subscriber details (copied)
+		 * @param vehicleId  the subscriber's vehicle, or null
+		 */
+		public Profile(Subscriber subscriber, String vehicleId) {
+			this.subscriber = copy(subscriber);
+			this.vehicleId = vehicleId;
+		}
+
+		/**
+		 * @return a copy of the subscriber details
+		 */
+		public Subscriber getSubscriber() {
+			return copy(subscriber);
+		}
+
+		/**
+		 * @return the subscriber code
+		 */
+		public int getSubscriberCode() {
+			return subscriber.getSubscriberCode();
+		}
+
+		/**
+		 * @return the username
+		 */
+		public String getUsername() {
+			return subscriber.getUsername();
+		}
+
+		/**
+		 * @return the email address
+		 */
+		public String getEmail() {
+			return subscriber.getEmail();
+		}
+
+		/**
+		 * @return the phone number
+		 */
+		public String getPhoneNum() {
+			return subscriber.getPhoneNum();
+		}
+
+		/**
+		 * @return the subscriber's vehicle, or null if none is registered
+		 */
+		public String getVehicleId() {
+			return vehicleId;
+		}
+
+		private static Subscriber copy(Subscriber s) {
+			return new Subscriber(s.getSubscriberCode(), s.getUserId(), s.getFirstName(), s.getLastName(),
+					s.getPhoneNum(), s.getEmail(), s.getUsername(), s.getTagId());
+		}
+	}
+
+	/** Maximum number of cached profiles */
+	private final int capacity;
+
+	/** subscriberCode -> profile, in access order (eldest = least recently used) */
+	private final LinkedHashMap<Integer, Profile> profiles;
+
+	/** username -> subscriberCode for the cached profiles */
+	private final Map<String, Integer> codesByUsername = new HashMap<>();
+
+	/** Number of lookups answered from the cache */
+	private final AtomicLong hits = new AtomicLong();
+
+	/** Number of lookups that had to go to the DB */
+	private final AtomicLong misses = new AtomicLong();
+
+	/** Number of profiles dropped because the cache was full */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** Number of invalidation counters; codes share them modulo this, a collision only drops a read */
+	private static final int VERSION_STRIPES = 1024;
+
+	/** Invalidation counter of each stripe of subscriber codes */
+	private final long[] versions = new long[VERSION_STRIPES];
+
+	/** Invalidations of all profiles together */
+	private long allVersion;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param capacity maximum number of profiles to keep
+	 */
+	public SubscriberCache(int capacity) {
+		this.capacity = capacity;
+		this.profiles = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Profile> eldest) {
+				if (size() > SubscriberCache.this.capacity) {
+					codesByUsername.remove(eldest.getValue().getUsername());
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Looks up a profile by subscriber code.
+	 *
+	 * @param subscriberCode the subscriber code
+	 * @return the cached profile, or null on a miss
+	 */
+	public synchronized Profile get(int subscriberCode) {
+		return count(profiles.get(subscriberCode));
+	}
+
+	/**
+	 * Looks up a profile by username.
+	 *
+	 * @param username the exact username
+	 * @return the cached profile, or null on a miss
+	 */
+	public synchronized Profile getByUsername(String username) {
+		Integer code = codesByUsername.get(username);
+		return count(code == null ? null : profiles.get(code));
+	}
+
+	/**
+	 * @param subscriberCode the subscriber code
+	 * @return the invalidation counter of the profile; take it before reading
+	 *         the profile from the DB
+	 */
+	public synchronized long version(int subscriberCode) {
+		return versions[stripe(subscriberCode)];
+	}
+
+	/**
+	 * @return the invalidation counter of all profiles; take it before reading
+	 *         a profile whose subscriber code is not known yet
+	 */
+	public synchronized long version() {
+		return allVersion;
+	}
+
+	/**
+	 * Adds (or replaces) a profile, unless it was invalidated since the reader
+	 * took its counter.
+	 *
+	 * @param profile the profile read from the DB
+	 * @param version the profile's counter from {@link #version(int)}, taken
+	 *                before the read
+	 * @return true if the profile was cached
+	 */
+	public synchronized boolean putIfUnchanged(Profile profile, long version) {
+		if (versions[stripe(profile.getSubscriberCode())] != version) {
+			return false; // changed while it was read - the next read caches it
+		}
+		store(profile);
+		return true;
+	}
+
+	/**
+	 * Adds (or replaces) a profile, unless any profile was invalidated since the
+	 * reader took the counter.
+	 *
+	 * @param profile the profile read from the DB
+	 * @param version the counter from {@link #version()}, taken before the read
+	 * @return true if the profile was cached
+	 */
+	public synchronized boolean putIfNoneChanged(Profile profile, long version) {
+		if (allVersion != version) {
+			return false;
+		}
+		store(profile);
+		return true;
+	}
+
+	/**
+	 * Adds (or replaces) a profile.
+	 *
+	 * @param profile the profile read from the DB
+	 */
+	private void store(Profile profile) {
+		Profile old = profiles.put(profile.getSubscriberCode(), profile);
+		if (old != null) {
+			codesByUsername.remove(old.getUsername());
+		}
+		codesByUsername.put(profile.getUsername(), profile.getSubscriberCode());
+	}
+
+	/**
+	 * Drops the profile of a subscriber whose details changed in the DB.
+	 *
+	 * @param subscriberCode the subscriber code
+	 */
+	public synchronized void invalidate(int subscriberCode) {
+		versions[stripe(subscriberCode)]++;
+		allVersion++;
+		Profile old = profiles.remove(subscriberCode);
+		if (old != null) {
+			codesByUsername.remove(old.getUsername());
+		}
+	}
+
+	/**
+	 * Drops every profile, e.g. when their changes may have been missed.
+	 */
+	public synchronized void invalidateAll() {
+		for (int i = 0; i < versions.length; i++) {
+			versions[i]++;
+		}
+		allVersion++;
+		profiles.clear();
+		codesByUsername.clear();
+	}
+
+	/**
+	 * @return number of cached profiles
+	 */
+	public synchronized int size() {
+		return profiles.size();
+	}
+
+	/**
+	 * @return number of lookups answered from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups that had to go to the DB
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of profiles evicted because the cache was full
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return a one-line summary of the cache statistics (for logs)
+	 */
+	@Override
+	public String toString() {
+		long h = hits.get();
+		long m = misses.get();
+		long ratio = (h + m) == 0 ? 0 : (100 * h) / (h + m);
+		return "SubscriberCache[size=" + size() + "/" + capacity + ", hits=" + h + ", misses=" + m + " (" + ratio
+				+ "% hit), evictions=" + evictions.get() + "]";
+	}
+
+	/**
+	 * @param subscriberCode the subscriber code
+	 * @return index of the code's invalidation counter
+	 */
+	private static int stripe(int subscriberCode) {
+		return Math.floorMod(subscriberCode, VERSION_STRIPES);
+	}
+
+	/**
+	 * Updates the hit/miss counters for a lookup result.
+	 *
+	 * @param profile the lookup result (null on a miss)
+	 * @return the same profile
+	 */
+	private Profile count(Profile profile) {
+		if (profile != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return profile;
+	}
+}
@@ -0,0 +1,257 @@
+package cache;
+
+/**
+ * Server-resident index answering RFID gate lookups without touching MySQL.
+ *
+ * It keeps two compact maps:
+ * - tag ID -> subscriber code, an open-addressing table of String keys and
+ *   primitive int values (no boxing, no entry objects);
+ * - subscriber code -> parking code of the subscriber's open session, an
+ *   open-addressing table with primitive int keys and values.
+ *
+ * Both tables use linear probing and are kept at most half full, so a lookup
+ * is a hash plus one or two array reads. Removal uses backward-shift deletion,
+ * so no tombstones accumulate as sessions open and close all day.
+ *
+ * The index is filled once at startup and then kept in sync by DBController on
+ * registration, entry and exit. All methods are synchronized; each call is only
+ * a few array accesses.
+ */
+public class TagIndex {
+
+	/** Value returned when a key is not present */
+	public static final int NOT_FOUND = -1;
+
+	/** Marks an empty slot in the int-keyed table (subscriber codes are positive) */
+	private static final int EMPTY = 0;
+
+	/** Initial capacity of both tables (must be a power of two) */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** Tag table keys; null marks an empty slot */
+	private String[] tagKeys = new String[INITIAL_CAPACITY];
+
+	/** Tag table values (subscriber codes) */
+	private int[] tagValues = new int[INITIAL_CAPACITY];
+
+	/** Number of tags stored */
+	private int tagCount;
+
+	/** Session table keys (subscriber codes); EMPTY marks an empty slot */
+	private int[] sessionKeys = new int[INITIAL_CAPACITY];
+
+	/** Session table values (parking codes) */
+	private int[] sessionValues = new int[INITIAL_CAPACITY];
+
+	/** Number of open sessions stored */
+	private int sessionCount;
+
+	/** Whether the index has been filled from the DB */
+	private volatile boolean loaded;
+
+	/**
+	 * @return true once the index has been filled from the DB and can be trusted
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Marks the index as filled (or not) from the DB.
+	 *
+	 * @param loaded whether the index content is complete
+	 */
+	public void setLoaded(boolean loaded) {
+		this.loaded = loaded;
+	}
+
+	/**
+	 * Removes all tags and sessions.
+	 */
+	public synchronized void clear() {
+		tagKeys = new String[INITIAL_CAPACITY];
+		tagValues = new int[INITIAL_CAPACITY];
+		tagCount = 0;
+		sessionKeys = new int[INITIAL_CAPACITY];
+		sessionValues = new int[INITIAL_CAPACITY];
+		sessionCount = 0;
+		loaded = false;
+	}
+
+	// ---------------------------------------------------------------- tags
+
+	/**
+	 * Adds or replaces the subscriber of a tag.
+	 *
+	 * @param tagId          the exact tag ID (case-sensitive)
+	 * @param subscriberCode the subscriber the tag belongs to
+	 */
+	public synchronized void putTag(String tagId, int subscriberCode) {
+		if ((tagCount + 1) * 2 > tagKeys.length) {
+			resizeTags();
+		}
+		int mask = tagKeys.length - 1;
+		int i = mix(tagId.hashCode()) & mask;
+		while (tagKeys[i] != null) {
+			if (tagKeys[i].equals(tagId)) {
+				tagValues[i] = subscriberCode;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		tagKeys[i] = tagId;
+		tagValues[i] = subscriberCode;
+		tagCount++;
+	}
+
+	/**
+	 * Looks up the subscriber of a tag.
+	 *
+	 * @param tagId the exact tag ID (case-sensitive)
+	 * @return the subscriber code, or {@link #NOT_FOUND}
+	 */
+	public synchronized int getSubscriberCode(String tagId) {
+		if (tagId == null) {
+			return NOT_FOUND;
+		}
+		int mask = tagKeys.length - 1;
+		int i = mix(tagId.hashCode()) & mask;
+		while (tagKeys[i] != null) {
+			if (tagKeys[i].equals(tagId)) {
+				return tagValues[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Doubles the tag table and re-inserts every tag.
+	 */
+	private void resizeTags() {
+		String[] oldKeys = tagKeys;
+		int[] oldValues = tagValues;
+		tagKeys = new String[oldKeys.length * 2];
+		tagValues = new int[oldKeys.length * 2];
+		tagCount = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				putTag(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	// ------------------------------------------------------------ sessions
+
+	/**
+	 * Records that the subscriber's vehicle entered the lot.
+	 *
+	 * @param subscriberCode the subscriber
+	 * @param parkingCode    parking code of the new session
+	 */
+	public synchronized void openSession(int subscriberCode, int parkingCode) {
+		if ((sessionCount + 1) * 2 > sessionKeys.length) {
+			resizeSessions();
+		}
+		int mask = sessionKeys.length - 1;
+		int i = mix(subscriberCode) & mask;
+		while (sessionKeys[i] != EMPTY) {
+			if (sessionKeys[i] == subscriberCode) {
+				sessionValues[i] = parkingCode;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		sessionKeys[i] = subscriberCode;
+		sessionValues[i] = parkingCode;
+		sessionCount++;
+	}
+
+	/**
+	 * Records that the subscriber's vehicle left the lot.
+	 *
+	 * @param subscriberCode the subscriber
+	 */
+	public synchronized void closeSession(int subscriberCode) {
+		int mask = sessionKeys.length - 1;
+		int i = mix(subscriberCode) & mask;
+		while (sessionKeys[i] != subscriberCode) {
+			if (sessionKeys[i] == EMPTY) {
+				return; // no open session
+			}
+			i = (i + 1) & mask;
+		}
+
+		// backward-shift deletion: pull later entries of the probe chain into the hole
+		int hole = i;
+		int j = (i + 1) & mask;
+		while (sessionKeys[j] != EMPTY) {
+			int home = mix(sessionKeys[j]) & mask;
+			// move the entry if its home slot is not between the hole and its position
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				sessionKeys[hole] = sessionKeys[j];
+				sessionValues[hole] = sessionValues[j];
+				hole = j;
+			}
+			j = (j + 1) & mask;
+		}
+		sessionKeys[hole] = EMPTY;
+		sessionCount--;
+	}
+
+	/**
+	 * Checks whether the subscriber's vehicle is currently inside.
+	 *
+	 * @param subscriberCode the subscriber
+	 * @return true if the subscriber has an open session
+	 */
+	public synchronized boolean hasOpenSession(int subscriberCode) {
+		return getParkingCode(subscriberCode) != NOT_FOUND;
+	}
+
+	/**
+	 * Returns the parking code of the subscriber's open session.
+	 *
+	 * @param subscriberCode the subscriber
+	 * @return the parking code, or {@link #NOT_FOUND} if the vehicle is not inside
+	 */
+	public synchronized int getParkingCode(int subscriberCode) {
+		int mask = sessionKeys.length - 1;
+		int i = mix(subscriberCode) & mask;
+		while (sessionKeys[i] != EMPTY) {
+			if (sessionKeys[i] == subscriberCode) {
+				return sessionValues[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Doubles the session table and re-inserts every session.
+	 */
+	private void resizeSessions() {
+		int[] oldKeys = sessionKeys;
+		int[] oldValues = sessionValues;
+		sessionKeys = new int[oldKeys.length * 2];
+		sessionValues = new int[oldKeys.length * 2];
+		sessionCount = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				openSession(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of a hash code so that sequential keys (TAG_001, TAG_002,
+	 * subscriber codes 1001, 1002, ...) do not cluster in the table.
+	 *
+	 * @param h the original hash
+	 * @return the mixed hash
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -1,6 +1,7 @@
 package db;
 
 import common.User;
+import java.io.IOException;
 import java.sql.Connection;
 
 import java.sql.Date;
@@ -8,6 +9,8 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.time.Duration;
@@ -16,8 +19,19 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import cache.ExtensionCapacity;
+import cache.LotRegistry;
+import cache.SubscriberCache;
+import cache.TagIndex;
 import common.*;
 
 /**
@@ -30,9 +44,78 @@ public class DBController {
 	/** Singleton instance shared across all classes */
 	private static DBController instance = null;
 
-	/** JDBC connection object used for all queries */
+	/** JDBC connection object used for all queries outside the dispatcher workers */
 	private static Connection conn;
 
+	/** Own connection of each dispatcher worker thread, see {@link #openWorkerConnection()} */
+	private static final ThreadLocal<Connection> WORKER_CONN = new ThreadLocal<>();
+
+	/** Separate connection (auto-commit off) used only for multi-statement transactions */
+	private static Connection txConn;
+
+	/** Serializes transactions on {@link #txConn} */
+	private static final Object TX_LOCK = new Object();
+
+	/** Separate connection used only to stream large results, see {@link #streamRows} */
+	private static Connection streamConn;
+
+	/** Serializes streamed queries on {@link #streamConn} */
+	private static final Object STREAM_LOCK = new Object();
+
+	/** In-memory tag -> subscriber -> open session index used by the gates */
+	private static final TagIndex TAGS = new TagIndex();
+
+	/**
+	 * True once another server node shares the DB. The tag index and open
+	 * sessions only track this node's own changes, so from then on the gate
+	 * checks read the DB, and cached profiles are invalidated from the DB's
+	 * updatedAt columns (see {@link #syncProfileCache()}).
+	 */
+	private static volatile boolean sharedWithOtherNodes;
+
+	/** DB time (epoch ms) from which {@link #syncProfileCache()} looks for changed profiles */
+	private static long profileSyncFrom;
+
+	/** How far each profile sync reaches back into the previous one, for changes committed late */
+	private static final long PROFILE_SYNC_OVERLAP_MS = 30 * 1000;
+
+	/** Parking lots served by this server, each with its own lock */
+	private static final LotRegistry LOTS = new LotRegistry();
+
+	/** In-memory remaining-extension counters, per lot */
+	private static final ExtensionCapacity EXTENSIONS = new ExtensionCapacity();
+
+	/**
+	 * How far past the upcoming window reservations are handed to
+	 * {@link #EXTENSIONS} as pending; longer than the server's re-count interval
+	 */
+	private static final int PENDING_RESERVATION_MINUTES = 10;
+
+	/** Answer of {@link #extendParkingSession} when another node owns the session's lot */
+	public static final String EXTENSION_LOT_NOT_OWNED = "This parking lot is served by another server node.";
+
+	/** Maximum number of subscriber profiles kept in {@link #PROFILES} */
+	private static final int PROFILE_CACHE_SIZE = 2048;
+
+	/** Read-through cache of subscriber profiles (subscriber row + vehicle) */
+	private static final SubscriberCache PROFILES = new SubscriberCache(PROFILE_CACHE_SIZE);
+
+	/** Selects a subscriber row together with its vehicle (if any) */
+	private static final String PROFILE_QUERY = "SELECT s.*, v.vehicleId FROM bpark.subscriber s "
+			+ "LEFT JOIN bpark.vehicle v ON v.subscriberCode = s.subscriberCode ";
+
+	/** JDBC URL of the BPARK database */
+	private static final String DB_URL = "jdbc:mysql://localhost/bpark";
+
+	/** Maximum number of prepared statements cached per connection */
+	private static final int STATEMENT_CACHE_SIZE = 256;
+
+	/** Longest SQL text (in characters) that is still eligible for caching */
+	private static final int STATEMENT_CACHE_SQL_LIMIT = 4096;
+
+	/** MySQL error code of a duplicate key */
+	private static final int MYSQL_DUPLICATE_KEY = 1062;
+
 	/**
 	 * Returns the single instance of the DBController.
 	 * If it doesn't exist, creates a new one.
@@ -61,8 +144,7 @@ public class DBController {
 
 		try {
 			// Connects to the local MySQL server (replace credentials as needed)
-			conn = DriverManager.getConnection("jdbc:mysql://localhost/bpark?serverTimezone=Asia/Jerusalem", "root",
-					"Aa123456");
+			conn = DriverManager.getConnection(DB_URL, connectionProperties());
 			System.out.println("SQL connection succeed");
 		} catch (SQLException ex) {
 			// Prints SQL error information if connection fails
@@ -72,12 +154,372 @@ public class DBController {
 		}
 	}
 
+	/**
+	 * Applies any pending schema migrations (indexes, generated columns) on the
+	 * current connection. Called once at server startup, right after connecting.
+	 *
+	 * @return true if the schema is up to date; false if there is no connection
+	 *         or a migration failed, in which case the server must not serve the
+	 *         DB (the queries expect the migrated schema)
+	 */
+	public static boolean migrateSchema() {
+		if (conn == null) {
+			System.err.println("Schema migration failed: no DB connection");
+			return false;
+		}
+		try {
+			int applied = new SchemaMigrator(conn).migrate();
+			System.out.println("Schema up to date (" + applied + " migrations applied)");
+			return true;
+		} catch (SQLException | RuntimeException e) {
+			System.err.println("Schema migration failed: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Fills the in-memory tag index with every subscriber's tag and every open
+	 * parking session. Called once at server startup; afterwards the index is
+	 * kept in sync by the methods that register subscribers and open or close
+	 * sessions. If loading fails, tag lookups keep using the DB - as they do
+	 * once other nodes share the DB, since their changes never reach the index.
+	 */
+	public static void loadTagIndex() {
+		TAGS.clear();
+		try (PreparedStatement tagStmt = conn().prepareStatement(
+				"SELECT tagId, subscriberCode FROM bpark.subscriber WHERE tagId IS NOT NULL");
+				ResultSet rs = tagStmt.executeQuery()) {
+			while (rs.next()) {
+				TAGS.putTag(rs.getString("tagId"), rs.getInt("subscriberCode"));
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading tag index: " + e.getMessage());
+			return;
+		}
+
+		try (PreparedStatement sessionStmt = conn().prepareStatement(
+				"SELECT subscriberCode, parkingCode FROM bpark.parkingEvent WHERE exitDate IS NULL");
+				ResultSet rs = sessionStmt.executeQuery()) {
+			while (rs.next()) {
+				TAGS.openSession(rs.getInt("subscriberCode"), rs.getInt("parkingCode"));
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading open sessions: " + e.getMessage());
+			TAGS.clear();
+			return;
+		}
+		TAGS.setLoaded(true);
+	}
+
+	/**
+	 * Loads the parking lots, the number of spaces in each and the lot of every
+	 * space. Called once at server startup, after the schema migrations.
+	 */
+	public static void loadLots() {
+		LOTS.clear();
+		try (PreparedStatement lotStmt = conn().prepareStatement("SELECT l.NameParkingLot, COUNT(ps.parking_space) AS spaces "
+				+ "FROM bpark.parkingLot l LEFT JOIN bpark.parkingSpaces ps ON ps.NameParkingLot = l.NameParkingLot "
+				+ "GROUP BY l.NameParkingLot");
+				ResultSet rs = lotStmt.executeQuery()) {
+			while (rs.next()) {
+				LOTS.putLot(rs.getString("NameParkingLot"), rs.getInt("spaces"));
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading parking lots: " + e.getMessage());
+			return;
+		}
+
+		try (PreparedStatement spaceStmt = conn().prepareStatement(
+				"SELECT parking_space, NameParkingLot FROM bpark.parkingSpaces");
+				ResultSet rs = spaceStmt.executeQuery()) {
+			while (rs.next()) {
+				LOTS.putSpace(rs.getInt("parking_space"), rs.getString("NameParkingLot"));
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading parking spaces: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return names of all parking lots, loading the lots first if needed
+	 */
+	public static List<String> lotNames() {
+		if (LOTS.isEmpty()) {
+			loadLots();
+		}
+		List<String> names = new ArrayList<>();
+		for (LotRegistry.Lot lot : LOTS.all()) {
+			names.add(lot.getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Checks whether this server node owns a lot. Events without a known lot
+	 * are treated as owned, so they are never left unhandled.
+	 *
+	 * @param lotName lot name (any case), may be null
+	 * @return true if this node owns the lot
+	 */
+	public static boolean ownsLot(String lotName) {
+		LotRegistry.Lot lot = LOTS.get(lotName);
+		return lot == null || lot.isOwned();
+	}
+
+	/**
+	 * Marks a lot as owned (or not) by this server node. When a lot is lost its
+	 * in-memory extension counter is dropped; the new owner builds its own.
+	 *
+	 * @param lotName the lot name
+	 * @param owned   whether this node holds the lot's lease
+	 */
+	public static void setLotOwned(String lotName, boolean owned) {
+		LotRegistry.Lot lot = LOTS.get(lotName);
+		if (lot != null) {
+			lot.setOwned(owned);
+			if (!owned) {
+				EXTENSIONS.removeLot(lot.getName());
+			}
+		}
+	}
+
+	/**
+	 * Marks a lot as owned by this server node until the given time, after which
+	 * it counts as not owned unless renewed before.
+	 *
+	 * @param lotName the lot name
+	 * @param until   time (as in currentTimeMillis) the ownership lapses
+	 */
+	public static void setLotOwnedUntil(String lotName, long until) {
+		LotRegistry.Lot lot = LOTS.get(lotName);
+		if (lot != null) {
+			lot.setOwnedUntil(until);
+		}
+	}
+
+	/**
+	 * Makes sure every parking lot has a row in the lease table (lots added
+	 * after the table was created start without an owner).
+	 */
+	public void ensureLeaseRows() {
+		String sql = "INSERT IGNORE INTO bpark.lot_lease (NameParkingLot) SELECT NameParkingLot FROM bpark.parkingLot";
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			System.err.println("Error creating lot leases: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Takes (or renews) the lease of a lot if it is free, expired or already held
+	 * by this node. The check and the update are one statement, so two nodes can
+	 * never both get the same lot.
+	 *
+	 * @param lotName      the lot
+	 * @param nodeId       this node's ID
+	 * @param address      "host:port" clients use to reach this node
+	 * @param leaseSeconds lease duration
+	 * @return true if this node holds the lease afterwards
+	 * @throws SQLException if the update fails
+	 */
+	public boolean claimLease(String lotName, String nodeId, String address, int leaseSeconds) throws SQLException {
+		String sql = "UPDATE bpark.lot_lease SET ownerNode = ?, ownerAddress = ?, "
+				+ "expiresAt = NOW(3) + INTERVAL ? SECOND "
+				+ "WHERE NameParkingLot = ? AND (ownerNode = ? OR ownerNode IS NULL OR expiresAt < NOW(3))";
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, nodeId);
+			stmt.setString(2, address);
+			stmt.setInt(3, leaseSeconds);
+			stmt.setString(4, lotName);
+			stmt.setString(5, nodeId);
+			return stmt.executeUpdate() > 0;
+		}
+	}
+
+	/**
+	 * Records that other server nodes share the DB. From then on (until the
+	 * server restarts) tag and open-session checks read the DB instead of this
+	 * node's tag index, and the profile cache is synced from the DB every lease
+	 * round. Called by the lease manager.
+	 */
+	public static void shareWithOtherNodes() {
+		if (sharedWithOtherNodes) {
+			return;
+		}
+		sharedWithOtherNodes = true;
+		PROFILES.invalidateAll(); // may hold profiles another node changed already
+		System.out.println("Other server nodes share the DB - gate checks now read the DB.");
+	}
+
+	/**
+	 * @return true once other server nodes share the DB
+	 */
+	public static boolean isSharedWithOtherNodes() {
+		return sharedWithOtherNodes;
+	}
+
+	/**
+	 * @return true if gate checks can be answered from the tag index: it is
+	 *         loaded and no other node changes tags or sessions behind its back
+	 */
+	private static boolean useTagIndex() {
+		return TAGS.isLoaded() && !sharedWithOtherNodes;
+	}
+
+	/**
+	 * Drops the cached profiles whose subscriber or vehicle row changed in the
+	 * DB since the last call (by their updatedAt columns), so changes made on
+	 * other nodes reach this node's cache within a lease round. Called by the
+	 * lease manager while other nodes share the DB.
+	 *
+	 * @throws SQLException if the DB can not be read
+	 */
+	public void syncProfileCache() throws SQLException {
+		long now;
+		try (PreparedStatement stmt = conn().prepareStatement("SELECT NOW(3)");
+				ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			now = rs.getTimestamp(1).getTime(); // DB time, so node clocks do not matter
+		}
+		if (profileSyncFrom > 0) {
+			String query = "SELECT subscriberCode FROM bpark.subscriber WHERE updatedAt >= ? "
+					+ "UNION SELECT subscriberCode FROM bpark.vehicle WHERE updatedAt >= ?";
+			try (PreparedStatement stmt = conn().prepareStatement(query)) {
+				stmt.setTimestamp(1, new Timestamp(profileSyncFrom));
+				stmt.setTimestamp(2, new Timestamp(profileSyncFrom));
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						PROFILES.invalidate(rs.getInt(1));
+					}
+				}
+			}
+		}
+		profileSyncFrom = now - PROFILE_SYNC_OVERLAP_MS;
+	}
+
+	/**
+	 * Returns the live (unexpired) leases of all lots.
+	 *
+	 * @return lot name -> {ownerNode, ownerAddress}; lots without a live owner are absent
+	 * @throws SQLException if the query fails
+	 */
+	public Map<String, String[]> getLiveLeases() throws SQLException {
+		Map<String, String[]> leases = new HashMap<>();
+		String sql = "SELECT NameParkingLot, ownerNode, ownerAddress FROM bpark.lot_lease "
+				+ "WHERE ownerNode IS NOT NULL AND expiresAt >= NOW(3)";
+		try (PreparedStatement stmt = conn().prepareStatement(sql);
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				leases.put(rs.getString("NameParkingLot"),
+						new String[] { rs.getString("ownerNode"), rs.getString("ownerAddress") });
+			}
+		}
+		return leases;
+	}
+
+	/**
+	 * Gives up all leases held by a node, so other nodes can take the lots over
+	 * right away instead of waiting for the leases to expire.
+	 *
+	 * @param nodeId the node
+	 */
+	public void releaseLeases(String nodeId) {
+		String sql = "UPDATE bpark.lot_lease SET ownerNode = NULL, ownerAddress = NULL, expiresAt = NOW(3) "
+				+ "WHERE ownerNode = ?";
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, nodeId);
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			System.err.println("Error releasing lot leases: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns a parking lot by name, loading the lots first if needed.
+	 *
+	 * @param lotName lot name (any case)
+	 * @return the lot, or null if there is no such lot
+	 */
+	private LotRegistry.Lot findLot(String lotName) {
+		if (LOTS.isEmpty()) {
+			loadLots();
+		}
+		return LOTS.get(lotName);
+	}
+
+	/**
+	 * Builds the connection properties for the BPARK database.
+	 * Server-side prepared statements are enabled together with the driver's
+	 * per-connection statement cache, so every {@code conn.prepareStatement(sql)}
+	 * call reuses the statement already parsed and planned by MySQL for that SQL
+	 * text instead of preparing it again on each gate operation.
+	 *
+	 * @return the properties passed to the JDBC driver
+	 */
+	private static Properties connectionProperties() {
+		Properties props = new Properties();
+		props.setProperty("user", "root");
+		props.setProperty("password", "Aa123456");
+		props.setProperty("serverTimezone", "Asia/Jerusalem");
+		props.setProperty("useServerPrepStmts", "true"); // prepare on the server, execute by statement id
+		props.setProperty("cachePrepStmts", "true"); // keep closed statements cached per connection, keyed by SQL
+		props.setProperty("prepStmtCacheSize", String.valueOf(STATEMENT_CACHE_SIZE));
+		props.setProperty("prepStmtCacheSqlLimit", String.valueOf(STATEMENT_CACHE_SQL_LIMIT));
+		props.setProperty("rewriteBatchedStatements", "true"); // send batched INSERTs as multi-row inserts
+		return props;
+	}
+
+	/**
+	 * Opens a connection of its own for the calling thread. Used by the
+	 * dispatcher workers, so every worker has a connection of its own and the
+	 * priority classes never wait for each other's queries. If the connection
+	 * can not be opened, the thread keeps using the shared one.
+	 */
+	public static void openWorkerConnection() {
+		try {
+			WORKER_CONN.set(DriverManager.getConnection(DB_URL, connectionProperties()));
+		} catch (SQLException e) {
+			System.err.println("Worker " + Thread.currentThread().getName() + " uses the shared connection: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Closes the calling thread's own connection, if it has one.
+	 */
+	public static void closeWorkerConnection() {
+		Connection c = WORKER_CONN.get();
+		WORKER_CONN.remove();
+		if (c != null) {
+			try {
+				c.close();
+			} catch (SQLException e) {
+				System.err.println("Error closing worker connection: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the calling worker's own connection, or the shared connection on
+	 *         any other thread
+	 */
+	private static Connection conn() {
+		Connection c = WORKER_CONN.get();
+		return c != null ? c : conn;
+	}
+
 	/**
 	 * Closes the connection to the database.
 	 */
 	public void disconnectFromDB() {
 		try {
 			conn.close(); // close JDBC connection
+			if (txConn != null) {
+				txConn.close(); // close the transaction connection too
+			}
+			if (streamConn != null) {
+				streamConn.close(); // and the streaming one
+			}
 		} catch (Exception e) {
 			System.err.println("Error to disconnect from DB " + e.getMessage()); // log if failed
 		}
@@ -94,7 +536,7 @@ public class DBController {
 		// Update the parking space assigned to a specific order number
 		String query = "UPDATE `order` SET parking_space=? WHERE order_number=?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set in the query
 			stmt.setInt(1, newParkingSpace);
 			stmt.setInt(2, orderNumber);
@@ -114,6 +556,8 @@ public class DBController {
 	 * Authenticates a user using their username and password. If the credentials
 	 * match a record in the 'user' table, returns a User object with their assigned
 	 * role. The password is not returned in the User object for security reasons.
+	 * Whether the user is already online is decided by the server's session
+	 * registry, not here.
 	 *
 	 * @param username the username provided by the client
 	 * @param password the password provided by the client
@@ -121,32 +565,22 @@ public class DBController {
 	 */
 	public User authenticateUser(String username, String password) {
 		// Authenticate the user by checking exact (case-sensitive) match of username and password,
-		// and return the user's role and login status
-		String query = "SELECT role, is_logged_in " +
+		// and return the user's role
+		String query = "SELECT role " +
 				"FROM   bpark.user " +
 				"WHERE  BINARY username = ? AND BINARY password = ?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set in the query
 			stmt.setString(1, username);
 			stmt.setString(2, password);
 
 			try (ResultSet rs = stmt.executeQuery()) { //save the answer from query
 				if (rs.next()) {
-					boolean alreadyOnline = rs.getBoolean("is_logged_in");
-					if (alreadyOnline) {
-						// Someone is already logged in with this account
-						return null;
-					}
-
 					// extract and parse the user's role
 					String roleStr = rs.getString("role");
 					UserRole role  = UserRole.valueOf(roleStr);
-
-					// try to set the online flag atomically
-					if (markUserLoggedIn(username)) {
-						return new User(username, role);   // success
-					}
+					return new User(username, role);   // success
 				}
 			}
 
@@ -154,7 +588,7 @@ public class DBController {
 			System.err.println("[ERROR] authenticateUser: " + e.getMessage());
 		}
 
-		return null;   // login failed (wrong creds OR already online)
+		return null;   // login failed (wrong creds)
 	}
 
 
@@ -165,20 +599,89 @@ public class DBController {
 	 * @return true if exists, false otherwise
 	 */
 	public boolean subscriberExists(int subscriberCode) {
-		// Check if a subscriber with the given subscriber code exists
-		String query = "SELECT 1 FROM subscriber WHERE subscriberCode = ? LIMIT 1";
+		return loadProfile(subscriberCode) != null;
+	}
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+	/**
+	 * Returns the profile of a subscriber, from the profile cache when possible.
+	 * On a miss the subscriber row and its vehicle are read with one query and
+	 * cached.
+	 *
+	 * @param subscriberCode the subscriber code
+	 * @return the profile, or null if the subscriber does not exist or an error occurred
+	 */
+	private SubscriberCache.Profile loadProfile(int subscriberCode) {
+		SubscriberCache.Profile profile = PROFILES.get(subscriberCode);
+		if (profile != null) {
+			return profile;
+		}
+		try (PreparedStatement stmt = conn().prepareStatement(PROFILE_QUERY + "WHERE s.subscriberCode = ? LIMIT 1")) {
 			stmt.setInt(1, subscriberCode);
-			try (ResultSet rs = stmt.executeQuery()) {
-				return rs.next(); // If we get a result, its mean subscriber exists
-			}
+			return readProfile(stmt, subscriberCode);
 		} catch (SQLException e) {
-			System.err.println("Error checking subscriber existence: " + e.getMessage());
-			return false;
+			System.err.println("Error loading subscriber " + subscriberCode + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the profile of the subscriber with the given username, from the
+	 * profile cache when possible.
+	 *
+	 * @param username the subscriber's username
+	 * @return the profile, or null if no such subscriber exists or an error occurred
+	 */
+	private SubscriberCache.Profile loadProfileByUsername(String username) {
+		SubscriberCache.Profile profile = PROFILES.getByUsername(username);
+		if (profile != null) {
+			return profile;
+		}
+		try (PreparedStatement stmt = conn().prepareStatement(PROFILE_QUERY + "WHERE s.username = ? LIMIT 1")) {
+			stmt.setString(1, username);
+			return readProfile(stmt, null);
+		} catch (SQLException e) {
+			System.err.println("Error loading subscriber " + username + ": " + e.getMessage());
+			return null;
 		}
 	}
 
+	/**
+	 * Runs a {@link #PROFILE_QUERY} and caches the profile it returns, unless the
+	 * profile was invalidated while the query ran (the row read may be older
+	 * than the change).
+	 *
+	 * @param stmt           the prepared profile query
+	 * @param subscriberCode the subscriber code the query looks up, or null if it
+	 *                       looks up a username
+	 * @return the profile, or null if the query returned no row
+	 * @throws SQLException if the query fails
+	 */
+	private SubscriberCache.Profile readProfile(PreparedStatement stmt, Integer subscriberCode) throws SQLException {
+		long version = subscriberCode != null ? PROFILES.version(subscriberCode) : PROFILES.version();
+		try (ResultSet rs = stmt.executeQuery()) {
+			if (!rs.next()) {
+				return null;
+			}
+			Subscriber subscriber = new Subscriber(rs.getInt("subscriberCode"), rs.getString("userId"),
+					rs.getString("firstName"), rs.getString("lastName"), rs.getString("phoneNumber"),
+					rs.getString("email"), rs.getString("username"), rs.getString("tagId"));
+			SubscriberCache.Profile profile = new SubscriberCache.Profile(subscriber, rs.getString("vehicleId"));
+			if (subscriberCode != null) {
+				PROFILES.putIfUnchanged(profile, version);
+			} else {
+				PROFILES.putIfNoneChanged(profile, version);
+			}
+			return profile;
+		}
+	}
+
+	/**
+	 * @return hit/miss statistics of the subscriber profile cache (for logs)
+	 */
+	public static String profileCacheStats() {
+		return PROFILES.toString();
+	}
+
 	/**
 	 * Retrieves the subscriber code associated with a given tag ID. This version
 	 * performs a case-sensitive match using the BINARY keyword.
@@ -187,16 +690,20 @@ public class DBController {
 	 * @return the subscriberCode if found, or -1 if not found or error
 	 */
 	public int getSubscriberCodeByTag(String tagId) {
+		if (useTagIndex()) { // answered from memory (exact match, like BINARY)
+			return TAGS.getSubscriberCode(tagId);
+		}
+
 		// Retrieve the subscriber code for a specific (case-sensitive) tag ID
 		String query = "SELECT subscriberCode FROM subscriber WHERE BINARY tagId = ?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set in query
 			stmt.setString(1, tagId);
-			ResultSet rs = stmt.executeQuery();
-
-			if (rs.next()) { // if tag found return associated subscriberCode
-				return rs.getInt("subscriberCode");
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) { // if tag found return associated subscriberCode
+					return rs.getInt("subscriberCode");
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error retrieving subscriber by tag: " + e.getMessage());
@@ -221,7 +728,7 @@ public class DBController {
 				+ "WHERE subscriberCode = ? AND parkingCode = ? AND exitDate IS NULL "
 				+ "ORDER BY eventId DESC LIMIT 1";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set in query parametrs
 			stmt.setInt(1, subscriberCode);
 			stmt.setInt(2, parkingCode);
@@ -249,104 +756,380 @@ public class DBController {
 	/**
 	 * Handles the vehicle pickup process for a subscriber.
 	 *
-	 * First, retrieves the active parking event by subscriber and parking code.
-	 * Then finalizes the parking and calculates total hours parked.
-	 * 
+	 * Runs as one transaction: the open parking event is locked (SELECT ... FOR
+	 * UPDATE), then a single multi-table UPDATE sets its exit time, frees the
+	 * parking space and decrements the lot's occupied count. Either all three
+	 * change or none does, so the counts can not drift if a statement fails.
+	 * (MySQL has no UPDATE ... RETURNING, so the entry time needed for the
+	 * lateness check is read by the locking SELECT.)
+	 *
 	 * Allowed duration is up to 4 hours normally, or 8 hours if extended.
-	 * 
-	 * If the parking duration exceeds the allowed time, a delay is recorded. A
-	 * notification is printed to the console (email/SMS sent by the server).
+	 * If the parking duration exceeds the allowed time, the result is
+	 * {@link PickupResult.Status#PICKED_UP_LATE}.
 	 *
 	 * @param subscriberCode the subscriber's code
 	 * @param parkingCode    the parking code provided by the subscriber
-	 * @return String with a matched message to the case that occurred
+	 * @return the outcome of the pickup
 	 */
-	public String handleVehiclePickup(int subscriberCode, int parkingCode) {
-		ParkingEvent event;
-
+	public PickupResult handleVehiclePickup(int subscriberCode, int parkingCode) {
+		PickupResult result;
 		try {
-			// Retrieve the active parking event for this subscriber and code
-			event = getOpenParkingEvent(subscriberCode, parkingCode);
+			result = runInTransaction(c -> {
+				int eventId;
+				LocalDateTime entryTime;
+				boolean wasExtended;
+				String lotName;
+
+				// Step 1: lock the open parking event of this subscriber and code
+				try (PreparedStatement lockStmt = c.prepareStatement("SELECT eventId, entryAt, wasExtended, "
+						+ "NameParkingLot FROM parkingEvent WHERE subscriberCode = ? AND parkingCode = ? AND exitDate IS NULL "
+						+ "ORDER BY eventId DESC LIMIT 1 FOR UPDATE")) {
+					lockStmt.setInt(1, subscriberCode);
+					lockStmt.setInt(2, parkingCode);
+					try (ResultSet rs = lockStmt.executeQuery()) {
+						if (!rs.next()) {
+							return new PickupResult(PickupResult.Status.NOT_FOUND);
+						}
+						eventId = rs.getInt("eventId");
+						entryTime = rs.getTimestamp("entryAt").toLocalDateTime();
+						wasExtended = rs.getBoolean("wasExtended");
+						lotName = rs.getString("NameParkingLot");
+					}
+				}
+
+				// Step 2: close the event, free the space and the lot spot together
+				try (PreparedStatement exitStmt = c.prepareStatement("UPDATE parkingEvent e "
+						+ "JOIN parkingSpaces s ON s.parking_space = e.parking_space "
+						+ "JOIN parkingLot l ON l.NameParkingLot = e.NameParkingLot "
+						+ "SET e.exitDate = CURDATE(), e.exitHour = CURTIME(), "
+						+ "s.is_occupied = FALSE, l.occupiedSpots = l.occupiedSpots - 1 "
+						+ "WHERE e.eventId = ?")) {
+					exitStmt.setInt(1, eventId);
+					if (exitStmt.executeUpdate() == 0) {
+						throw new SQLException("Parking event " + eventId + " could not be closed");
+					}
+				}
+
+				// Calculate time difference in hours
+				long hours = Duration.between(entryTime, LocalDateTime.now()).toHours();
+				int allowedHours = wasExtended ? 8 : 4;
+				return new PickupResult(
+						hours > allowedHours ? PickupResult.Status.PICKED_UP_LATE : PickupResult.Status.PICKED_UP,
+						hours, lotName, wasExtended);
+			});
 		} catch (SQLException e) {
-			System.err.println("Error retrieving parking event: " + e.getMessage());
-			return "An error occurred while retrieving your parking session.";
+			System.err.println("Failed to complete vehicle pickup: " + e.getMessage());
+			return new PickupResult(PickupResult.Status.ERROR);
 		}
 
-		if (event == null) { // No active parking session found
-			return "Parking code is incorrect.";
+		if (result.isPickedUp()) {
+			// committed - the vehicle left, drop the open session from the tag index
+			TAGS.closeSession(subscriberCode);
+			if (result.isWasExtended()) {
+				EXTENSIONS.release(result.getLotName()); // the extended session no longer holds a spot
+			}
+			System.out.println("Subscriber " + subscriberCode + " had "
+					+ (result.getStatus() == PickupResult.Status.PICKED_UP_LATE ? "a delayed" : "successful")
+					+ " pickup (" + result.getHoursParked() + " hours)");
 		}
+		return result;
+	}
 
+	/**
+	 * Builds the data a parking terminal needs to keep its gates working offline.
+	 *
+	 * @param lotName      the terminal's lot
+	 * @param sinceVersion version of the terminal's current copy, or 0 for a full
+	 *                     snapshot
+	 * @return the snapshot (subscribers changed since the version, all open
+	 *         sessions and the lot's free spaces), or null if the DB could not be
+	 *         read
+	 */
+	public TerminalSnapshot getTerminalSnapshot(String lotName, long sinceVersion) {
 		try {
-			// Finalize the parking event: set exit time and release spot
-			finalizeParkingEvent(event.getEventId());
+			long version;
+			try (PreparedStatement stmt = conn().prepareStatement("SELECT NOW(3)");
+					ResultSet rs = stmt.executeQuery()) {
+				rs.next();
+				version = rs.getTimestamp(1).getTime(); // DB time, so terminal clocks do not matter
+			}
 
-			// Calculate time difference in hours
-			LocalDateTime entryTime = LocalDateTime.of(event.getEntryDate(), event.getEntryHour());
-			long hours = (System.currentTimeMillis()
-					- entryTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()) / (1000 * 60 * 60);
+			boolean full = sinceVersion <= 0;
+			TerminalSnapshot snapshot = new TerminalSnapshot(version, full);
 
-			int allowedHours = event.isWasExtended() ? 8 : 4;
+			String subscriberQuery = "SELECT s.subscriberCode, s.tagId, v.vehicleId FROM bpark.subscriber s "
+					+ "LEFT JOIN bpark.vehicle v ON v.subscriberCode = s.subscriberCode"
+					+ (full ? "" : " WHERE s.updatedAt >= ? OR v.updatedAt >= ?");
+			try (PreparedStatement stmt = conn().prepareStatement(subscriberQuery)) {
+				if (!full) {
+					stmt.setTimestamp(1, new Timestamp(sinceVersion));
+					stmt.setTimestamp(2, new Timestamp(sinceVersion));
+				}
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						snapshot.getSubscribers().add(new TerminalSnapshot.SubscriberEntry(rs.getInt("subscriberCode"),
+								rs.getString("tagId"), rs.getString("vehicleId")));
+					}
+				}
+			}
 
-			if (hours > allowedHours) { //print to the subscriber
-				System.out.println(
-						"Subscriber " + subscriberCode + " had a delayed pickup (" + hours + " hours)");
-				return "Pickup successful with delay. A notification was sent.";
+			try (PreparedStatement stmt = conn().prepareStatement(
+					"SELECT subscriberCode, parkingCode FROM bpark.parkingEvent WHERE exitDate IS NULL");
+					ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					snapshot.getOpenSessions().put(rs.getInt("subscriberCode"), rs.getInt("parkingCode"));
+				}
 			}
-			System.out.println(
-					"Subscriber " + subscriberCode + " had successful pickup (" + hours + " hours)");
-			// Normal pickup within allowed time
-			return "Vehicle pickup successful (" + hours + " hours).";
 
+			LotRegistry.Lot lot = findLot(lotName);
+			if (lot != null) {
+				try (PreparedStatement stmt = conn().prepareStatement("SELECT parking_space FROM bpark.parkingSpaces "
+						+ "WHERE NameParkingLot = ? AND is_occupied = 0 ORDER BY parking_space")) {
+					stmt.setString(1, lot.getName());
+					try (ResultSet rs = stmt.executeQuery()) {
+						while (rs.next()) {
+							snapshot.getFreeSpaces().add(rs.getInt("parking_space"));
+						}
+					}
+				}
+			}
+			return snapshot;
 		} catch (SQLException e) {
-			System.err.println("Failed to finalize parking event: " + e.getMessage());
-			return "An error occurred while completing the pickup process.";
+			System.err.println("Error building terminal snapshot: " + e.getMessage());
+			return null;
 		}
 	}
 
 	/**
-	 * Finalizes a parking event by: - Setting exitDate and exitHour. - Marking the
-	 * parking space as unoccupied. - Decreasing occupiedSpots in the corresponding
-	 * parking lot.
+	 * Applies one entry or exit that a terminal accepted while offline, in its
+	 * own transaction, and resolves conflicts with what happened online in the
+	 * meantime:
+	 * - an event that was already applied (same key) is skipped;
+	 * - an entry of a subscriber whose vehicle is already inside is rejected;
+	 * - an entry gets the space the terminal chose if it is still free, otherwise
+	 *   another free space of the lot; if the lot is full it is rejected;
+	 * - an exit closes the open session with the same parking code at the gate
+	 *   time (never before the entry); without an open session it is rejected.
+	 * The outcome is stored with the event key, so staff can review rejections.
 	 *
-	 * @param eventId the ID of the event to finalize
-	 * @throws SQLException if any update fails
+	 * @param event the offline event
+	 * @return "APPLIED..." or the reason the event was skipped or rejected
+	 * @throws SQLException if the DB is unavailable (the terminal keeps the event
+	 *                      and sends it again)
 	 */
-	private void finalizeParkingEvent(int eventId) throws SQLException {
-		// Step 1: Fetch the parking_space and parking lot name for this event
-		String fetchQuery = "SELECT parking_space, NameParkingLot FROM parkingEvent WHERE eventId = ?";
-		int parkingSpace = -1;
-		String lotName = null;
+	public String applyOfflineEvent(OfflineEvent event) throws SQLException {
+		LotRegistry.Lot lot = findLot(event.getLotName());
+		if (lot != null && !lot.isOwned()) {
+			throw new SQLException("Parking lot " + lot.getName() + " is served by another server node");
+		}
 
-		try (PreparedStatement fetchStmt = conn.prepareStatement(fetchQuery)) {
-			fetchStmt.setInt(1, eventId);
-			ResultSet rs = fetchStmt.executeQuery();
-			if (rs.next()) {
-				parkingSpace = rs.getInt("parking_space");
-				lotName = rs.getString("NameParkingLot");
+		OfflineOutcome outcome;
+		if (event.getKind() == OfflineEvent.Kind.ENTRY && lot != null) {
+			synchronized (lot.getLock()) { // same lock as online entries picking a space
+				outcome = runInTransaction(c -> applyOfflineEvent(c, event));
+			}
+		} else {
+			outcome = runInTransaction(c -> applyOfflineEvent(c, event));
+		}
+
+		if (outcome.applied) {
+			// committed - keep the in-memory session index in step
+			if (event.getKind() == OfflineEvent.Kind.ENTRY) {
+				TAGS.openSession(event.getSubscriberCode(), event.getParkingCode());
 			} else {
-				throw new SQLException("No event found with eventId = " + eventId);
+				TAGS.closeSession(event.getSubscriberCode());
+				if (outcome.wasExtended) {
+					EXTENSIONS.release(outcome.lotName);
+				}
+			}
+		}
+		return outcome.text;
+	}
+
+	/**
+	 * Transaction body of {@link #applyOfflineEvent(OfflineEvent)}.
+	 *
+	 * @param c     the transaction connection
+	 * @param event the offline event
+	 * @return the outcome
+	 * @throws SQLException if a statement fails
+	 */
+	private OfflineOutcome applyOfflineEvent(Connection c, OfflineEvent event) throws SQLException {
+		try (PreparedStatement seen = c.prepareStatement("SELECT outcome FROM bpark.offline_event WHERE eventKey = ?")) {
+			seen.setString(1, event.getEventKey());
+			try (ResultSet rs = seen.executeQuery()) {
+				if (rs.next()) {
+					return new OfflineOutcome("ALREADY HANDLED: " + rs.getString("outcome"));
+				}
+			}
+		}
+
+		OfflineOutcome outcome = event.getKind() == OfflineEvent.Kind.ENTRY ? applyOfflineEntry(c, event)
+				: applyOfflineExit(c, event);
+
+		try (PreparedStatement record = c.prepareStatement("INSERT INTO bpark.offline_event "
+				+ "(eventKey, kind, subscriberCode, NameParkingLot, happenedAt, outcome) VALUES (?, ?, ?, ?, ?, ?)")) {
+			record.setString(1, event.getEventKey());
+			record.setString(2, event.getKind().name());
+			record.setInt(3, event.getSubscriberCode());
+			record.setString(4, event.getLotName());
+			record.setTimestamp(5, Timestamp.valueOf(event.getHappenedAt()));
+			record.setString(6, outcome.text);
+			record.executeUpdate();
+		}
+		return outcome;
+	}
+
+	/**
+	 * Records an offline entry: takes a free space of the lot and opens the
+	 * parking session with the gate time.
+	 *
+	 * @param c     the transaction connection
+	 * @param event the entry
+	 * @return the outcome
+	 * @throws SQLException if a statement fails
+	 */
+	private OfflineOutcome applyOfflineEntry(Connection c, OfflineEvent event) throws SQLException {
+		LotRegistry.Lot lot = findLot(event.getLotName());
+		if (lot == null) {
+			return new OfflineOutcome("REJECTED: unknown parking lot");
+		}
+
+		try (PreparedStatement inside = c.prepareStatement("SELECT eventId FROM bpark.parkingEvent "
+				+ "WHERE subscriberCode = ? AND exitDate IS NULL LIMIT 1 FOR UPDATE")) {
+			inside.setInt(1, event.getSubscriberCode());
+			try (ResultSet rs = inside.executeQuery()) {
+				if (rs.next()) {
+					return new OfflineOutcome("REJECTED: vehicle already inside");
+				}
 			}
 		}
 
-		// Step 2: Finalize the event (set exitDate and exitHour)
-		String finalizeQuery = "UPDATE parkingEvent SET exitDate = CURDATE(), exitHour = CURTIME() WHERE eventId = ?";
-		try (PreparedStatement finalizeStmt = conn.prepareStatement(finalizeQuery)) {
-			finalizeStmt.setInt(1, eventId);
-			finalizeStmt.executeUpdate();
+		// the space the terminal chose if it is still free, else the lowest free one
+		int space;
+		try (PreparedStatement free = c.prepareStatement("SELECT parking_space FROM bpark.parkingSpaces "
+				+ "WHERE NameParkingLot = ? AND is_occupied = 0 "
+				+ "ORDER BY parking_space = ? DESC, parking_space LIMIT 1 FOR UPDATE")) {
+			free.setString(1, lot.getName());
+			free.setInt(2, event.getParkingSpace());
+			try (ResultSet rs = free.executeQuery()) {
+				if (!rs.next()) {
+					return new OfflineOutcome("REJECTED: parking lot full");
+				}
+				space = rs.getInt("parking_space");
+			}
 		}
 
-		// Step 3: Mark parking space as available
-		String updateSpace = "UPDATE parkingSpaces SET is_occupied = FALSE WHERE parking_space = ?";
-		try (PreparedStatement spaceStmt = conn.prepareStatement(updateSpace)) {
-			spaceStmt.setInt(1, parkingSpace);
-			spaceStmt.executeUpdate();
+		try (PreparedStatement occupy = c.prepareStatement("UPDATE bpark.parkingSpaces s "
+				+ "JOIN bpark.parkingLot l ON l.NameParkingLot = s.NameParkingLot "
+				+ "SET s.is_occupied = 1, l.occupiedSpots = l.occupiedSpots + 1 WHERE s.parking_space = ?")) {
+			occupy.setInt(1, space);
+			occupy.executeUpdate();
+		}
+
+		try (PreparedStatement insert = c.prepareStatement("INSERT INTO bpark.parkingEvent "
+				+ "(subscriberCode, parking_space, entryDate, entryHour, wasExtended, vehicleId, NameParkingLot, parkingCode) "
+				+ "VALUES (?, ?, ?, ?, FALSE, ?, ?, ?)")) {
+			insert.setInt(1, event.getSubscriberCode());
+			insert.setInt(2, space);
+			insert.setDate(3, Date.valueOf(event.getHappenedAt().toLocalDate()));
+			insert.setTime(4, Time.valueOf(event.getHappenedAt().toLocalTime().withNano(0)));
+			insert.setString(5, event.getVehicleId());
+			insert.setString(6, lot.getName());
+			insert.setInt(7, event.getParkingCode());
+			insert.executeUpdate();
+		}
+
+		OfflineOutcome outcome = new OfflineOutcome(
+				space == event.getParkingSpace() ? "APPLIED" : "APPLIED (moved to space " + space + ")");
+		outcome.applied = true;
+		return outcome;
+	}
+
+	/**
+	 * Records an offline exit: closes the open session with the gate time and
+	 * frees its space.
+	 *
+	 * @param c     the transaction connection
+	 * @param event the exit
+	 * @return the outcome
+	 * @throws SQLException if a statement fails
+	 */
+	private OfflineOutcome applyOfflineExit(Connection c, OfflineEvent event) throws SQLException {
+		int eventId;
+		LocalDateTime entryTime;
+		boolean wasExtended;
+		String lotName;
+		try (PreparedStatement open = c.prepareStatement("SELECT eventId, entryAt, wasExtended, NameParkingLot "
+				+ "FROM bpark.parkingEvent WHERE subscriberCode = ? AND parkingCode = ? AND exitDate IS NULL "
+				+ "ORDER BY eventId DESC LIMIT 1 FOR UPDATE")) {
+			open.setInt(1, event.getSubscriberCode());
+			open.setInt(2, event.getParkingCode());
+			try (ResultSet rs = open.executeQuery()) {
+				if (!rs.next()) {
+					return new OfflineOutcome("REJECTED: no open session with this parking code");
+				}
+				eventId = rs.getInt("eventId");
+				entryTime = rs.getTimestamp("entryAt").toLocalDateTime();
+				wasExtended = rs.getBoolean("wasExtended");
+				lotName = rs.getString("NameParkingLot");
+			}
 		}
 
-		// Step 4: Decrease occupiedSpots in the parking lot
-		String updateLot = "UPDATE parkingLot SET occupiedSpots = occupiedSpots - 1 WHERE NameParkingLot = ?";
-		try (PreparedStatement lotStmt = conn.prepareStatement(updateLot)) {
-			lotStmt.setString(1, lotName);
-			lotStmt.executeUpdate();
+		// terminal clocks may be off; a session never ends before it started
+		LocalDateTime exitTime = event.getHappenedAt().isBefore(entryTime) ? entryTime : event.getHappenedAt();
+		try (PreparedStatement exit = c.prepareStatement("UPDATE bpark.parkingEvent e "
+				+ "JOIN bpark.parkingSpaces s ON s.parking_space = e.parking_space "
+				+ "JOIN bpark.parkingLot l ON l.NameParkingLot = e.NameParkingLot "
+				+ "SET e.exitDate = ?, e.exitHour = ?, s.is_occupied = FALSE, l.occupiedSpots = l.occupiedSpots - 1 "
+				+ "WHERE e.eventId = ?")) {
+			exit.setDate(1, Date.valueOf(exitTime.toLocalDate()));
+			exit.setTime(2, Time.valueOf(exitTime.toLocalTime().withNano(0)));
+			exit.setInt(3, eventId);
+			exit.executeUpdate();
+		}
+
+		long hours = Duration.between(entryTime, exitTime).toHours();
+		OfflineOutcome outcome = new OfflineOutcome(hours > (wasExtended ? 8 : 4) ? "APPLIED (late)" : "APPLIED");
+		outcome.applied = true;
+		outcome.wasExtended = wasExtended;
+		outcome.lotName = lotName;
+		return outcome;
+	}
+
+	/**
+	 * Result of applying one offline event.
+	 */
+	private static class OfflineOutcome {
+
+		/** Outcome stored with the event and reported to the server log */
+		final String text;
+
+		/** Whether the event changed the DB */
+		boolean applied;
+
+		/** For exits: whether the closed session had been extended */
+		boolean wasExtended;
+
+		/** For exits: lot of the closed session */
+		String lotName;
+
+		OfflineOutcome(String text) {
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Parses a parking code kept as text in ParkingEvent.
+	 *
+	 * @param parkingCode the parking code text
+	 * @return the numeric code, or 0 if it is not a number
+	 */
+	private static int parseParkingCode(String parkingCode) {
+		try {
+			return Integer.parseInt(parkingCode.trim());
+		} catch (NumberFormatException | NullPointerException e) {
+			return 0;
 		}
 	}
 
@@ -361,7 +1144,7 @@ public class DBController {
 		String updateQuery = "UPDATE parkingEvent " + "SET wasExtended = TRUE " + "WHERE subscriberCode = ? "
 				+ "ORDER BY eventId DESC LIMIT 1";
 
-		try (PreparedStatement stmt = conn.prepareStatement(updateQuery)) {
+		try (PreparedStatement stmt = conn().prepareStatement(updateQuery)) {
 			// Set the subscriberCode parameter in the query
 			stmt.setInt(1, subscriberCode);
 			// Execute update on the most recent parking event of the subscriber
@@ -385,7 +1168,7 @@ public class DBController {
 
 		try (
 				// Prepare and execute the query
-				PreparedStatement stmt = conn.prepareStatement(query);
+				PreparedStatement stmt = conn().prepareStatement(query);
 				ResultSet rs = stmt.executeQuery()
 				) {
 
@@ -411,8 +1194,8 @@ public class DBController {
 	 */
 	private int getParkingSpace(Time time, Date date) {
 		String query = "SELECT PS.parking_space FROM bpark.parkingspaces PS WHERE ps.parking_space NOT IN (SELECT O.parking_space FROM bpark.order O WHERE order_date=? AND arrival_time<DATE_ADD(TIMESTAMP(?, ?), INTERVAL 4 HOUR) AND"
-				+ "                DATE_ADD(TIMESTAMP(O.order_date,O.arrival_time), INTERVAL 4 HOUR)>TIMESTAMP(?, ?)) LIMIT 1;";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+				+ "                O.endAt>TIMESTAMP(?, ?)) LIMIT 1;";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set the paramaters in the query
 			stmt.setDate(1, date);
 			stmt.setDate(2, date);
@@ -442,15 +1225,9 @@ public class DBController {
 		String query = "SELECT \r\n"
 				+ "  ((SELECT SUM(totalSpots) FROM bpark.parkingLot) - COUNT(DISTINCT parking_space)) >= \r\n"
 				+ "  (0.4 * (SELECT SUM(totalSpots) FROM bpark.parkingLot)) AS canOrder\r\n"
-				+ "FROM (\r\n"
-				+ "  SELECT parking_space,\r\n"
-				+ "         TIMESTAMP(order_date, arrival_time) AS startTime,\r\n"
-				+ "         DATE_ADD(TIMESTAMP(order_date, arrival_time), INTERVAL 4 HOUR) AS endTime,\r\n"
-				+ "         status\r\n"
-				+ "  FROM bpark.`order`\r\n"
-				+ ") AS orders\r\n"
-				+ "WHERE startTime < ? AND endTime > ? AND status = 'ACTIVE';";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+				+ "FROM bpark.`order`\r\n"
+				+ "WHERE `status` = 'ACTIVE' AND startAt < ? AND endAt > ?;";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Construct the requested start and end timestamps
 			Timestamp requestToStart = Timestamp.valueOf(date.toString() + " " + time.toString());
 			Timestamp requestToEnd = new Timestamp(requestToStart.getTime() + 46060 * 1000);
@@ -477,7 +1254,7 @@ public class DBController {
 	 */
 	public void setOrderId(Order newOrder) {
 		String newQuery = "SELECT order_number FROM `order` WHERE order_date=? AND arrival_time=? AND parking_space=?";
-		try (PreparedStatement stmt = conn.prepareStatement(newQuery)) {
+		try (PreparedStatement stmt = conn().prepareStatement(newQuery)) {
 			// set query parameters
 			stmt.setDate(1, newOrder.getOrderDate());
 			stmt.setTime(2, newOrder.getArrivalTime());
@@ -506,7 +1283,7 @@ public class DBController {
 		int parking_space_id = getParkingSpace(newOrder.getArrivalTime(), newOrder.getOrderDate());
 		newOrder.setParkingSpace(parking_space_id);
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set parameters in query
 			stmt.setInt(1, newOrder.getParkingSpace());
 			stmt.setDate(2, newOrder.getOrderDate());
@@ -520,6 +1297,15 @@ public class DBController {
 			if (succeed > 0) {
 				// If successful, update the order ID from DB
 				setOrderId(newOrder);
+
+				// a reservation holds back one extension from the moment it is within 4 hours
+				LocalDateTime startAt = LocalDateTime.of(newOrder.getOrderDate().toLocalDate(),
+						newOrder.getArrivalTime().toLocalTime());
+				String lotName = LOTS.lotOfSpace(newOrder.getParkingSpace());
+				if (lotName != null) {
+					EXTENSIONS.reservationPlaced(lotName, newOrder.getOrderNumber(),
+							Timestamp.valueOf(startAt).getTime());
+				}
 				return true;
 			} else {
 				return false;
@@ -541,26 +1327,8 @@ public class DBController {
 	 *         null if no match was found or an error occurred
 	 */
 	public Subscriber getDetailsOfSubscriber(User user) {
-		String query = "SELECT * FROM subscriber WHERE username=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			stmt.setString(1, user.getUsername()); //set parameter
-			try (ResultSet rs = stmt.executeQuery()) {
-				if (rs.next()) { //if there is an subscriber - set the details
-					Subscriber subscriber = new Subscriber(user.getUsername());
-					subscriber.setSubscriberCode(rs.getInt(1));
-					subscriber.setUserId(rs.getString(2));
-					subscriber.setFirstName(rs.getString(3));
-					subscriber.setLastName(rs.getString(4));
-					subscriber.setPhoneNum(rs.getString(5));
-					subscriber.setEmail(rs.getString(6));
-					subscriber.setTagId(rs.getString(8));
-					return subscriber; //return the founded subscriber
-				}
-			}
-		} catch (Exception e) {
-			System.err.println("Error get details of subscriber " + e.getMessage());
-		}
-		return null;
+		SubscriberCache.Profile profile = loadProfileByUsername(user.getUsername());
+		return profile == null ? null : profile.getSubscriber(); // a copy - the caller may modify it
 	}
 
 	/**
@@ -579,31 +1347,30 @@ public class DBController {
 
 		String query = "SELECT order_date, arrival_time FROM bpark.order WHERE subscriberCode = ? AND `status`='ACTIVE'";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, subscriberCode); //set the parameters in query
-			ResultSet rs = stmt.executeQuery();
-
-			LocalDate today = LocalDate.now(); // Current date
-			LocalTime now = LocalTime.now(); // Current time
+			try (ResultSet rs = stmt.executeQuery()) {
+				LocalDate today = LocalDate.now(); // Current date
+				LocalTime now = LocalTime.now(); // Current time
 
-			// Going over all of the subscriber's reservation to check if there's a
-			// reservation in the range
-			while (rs.next()) {
-				LocalDate orderDate = rs.getDate("order_date").toLocalDate();
-				LocalTime arrivalTime = rs.getTime("arrival_time").toLocalTime();
+				// Going over all of the subscriber's reservation to check if there's a
+				// reservation in the range
+				while (rs.next()) {
+					LocalDate orderDate = rs.getDate("order_date").toLocalDate();
+					LocalTime arrivalTime = rs.getTime("arrival_time").toLocalTime();
 
-				// Check if the order is for today
-				if (orderDate.equals(today)) {
-					// Reservation is valid only for 15 minutes from arrivalTime
-					LocalTime latestAllowedEntry = arrivalTime.plusMinutes(15);
+					// Check if the order is for today
+					if (orderDate.equals(today)) {
+						// Reservation is valid only for 15 minutes from arrivalTime
+						LocalTime latestAllowedEntry = arrivalTime.plusMinutes(15);
 
-					// If current time is between arrivalTime and arrivalTime + 15 minutes
-					if (!now.isBefore(arrivalTime) && now.isBefore(latestAllowedEntry)) {
-						return true; // Valid reservation window
+						// If current time is between arrivalTime and arrivalTime + 15 minutes
+						if (!now.isBefore(arrivalTime) && now.isBefore(latestAllowedEntry)) {
+							return true; // Valid reservation window
+						}
 					}
 				}
 			}
-
 		} catch (SQLException e) {
 			System.err.println("SQL error in checkSubscriberHasReservationNow: " + e.getMessage());
 		}
@@ -623,41 +1390,40 @@ public class DBController {
 	public boolean checkConfirmationCode(int subscriberCode, int confirmationCode) {
 		String query = "SELECT order_date, arrival_time FROM bpark.order WHERE subscriberCode = ? AND confirmation_code = ? AND `status`='ACTIVE'";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set paramters in query
 			stmt.setInt(1, subscriberCode);
 			stmt.setInt(2, confirmationCode);
 
 			// Execute the query
-			ResultSet rs = stmt.executeQuery();
-
-			LocalDate today = LocalDate.now(); // Current date
-			LocalTime now = LocalTime.now(); // Current time
+			try (ResultSet rs = stmt.executeQuery()) {
+				LocalDate today = LocalDate.now(); // Current date
+				LocalTime now = LocalTime.now(); // Current time
 
-			// Going over all of the subscriber's reservation to check if there's a
-			// reservation in the range
-			while (rs.next()) {
-				LocalDate orderDate = rs.getDate("order_date").toLocalDate();
-				LocalTime arrivalTime = rs.getTime("arrival_time").toLocalTime();
-
-				// Check if the order is for today
-				if (orderDate.equals(today)) {
-					// Reservation is valid only for 15 minutes from arrivalTime
-					LocalTime latestAllowedEntry = arrivalTime.plusMinutes(15);
-
-					// If current time is between arrivalTime and arrivalTime + 15 minutes
-					if (!now.isBefore(arrivalTime) && now.isBefore(latestAllowedEntry)) {
-						String newQuery="UPDATE `order` SET `status`='FULFILLED' WHERE subscriberCode = ? AND confirmation_code = ? AND `status`='ACTIVE'";
-						try (PreparedStatement updateStmt = conn.prepareStatement(newQuery)) {
-							updateStmt.setInt(1, subscriberCode);
-							updateStmt.setInt(2, confirmationCode);
-							updateStmt.executeUpdate();
+				// Going over all of the subscriber's reservation to check if there's a
+				// reservation in the range
+				while (rs.next()) {
+					LocalDate orderDate = rs.getDate("order_date").toLocalDate();
+					LocalTime arrivalTime = rs.getTime("arrival_time").toLocalTime();
+
+					// Check if the order is for today
+					if (orderDate.equals(today)) {
+						// Reservation is valid only for 15 minutes from arrivalTime
+						LocalTime latestAllowedEntry = arrivalTime.plusMinutes(15);
+
+						// If current time is between arrivalTime and arrivalTime + 15 minutes
+						if (!now.isBefore(arrivalTime) && now.isBefore(latestAllowedEntry)) {
+							String newQuery="UPDATE `order` SET `status`='FULFILLED' WHERE subscriberCode = ? AND confirmation_code = ? AND `status`='ACTIVE'";
+							try (PreparedStatement updateStmt = conn().prepareStatement(newQuery)) {
+								updateStmt.setInt(1, subscriberCode);
+								updateStmt.setInt(2, confirmationCode);
+								updateStmt.executeUpdate();
+							}
+							return true; // Valid reservation window
 						}
-						return true; // Valid reservation window
 					}
 				}
 			}
-
 		} catch (SQLException e) {
 			System.err.println("Error while checking confirmation code: " + e.getMessage());
 		}
@@ -677,79 +1443,96 @@ public class DBController {
 	 * @param parkingLotName the name of the parking lot (e.g., "Braude")
 	 * @param subscriberCode the subscriber's code (used to check if they have a reservation)
 	 * @param activeReservation the status of a subscriber whether he has an active reservation or not
-	 * @return the ID of an available parking spot, or -1 if the lot is full
+	 * @return the ID of an available parking spot, -1 if the lot is full, -2 if
+	 *         the vehicle is already inside, -3 if another server node runs the lot
 	 */
-	public synchronized int hasAvailableSpots(String parkingLotName, int subscriberCode, boolean activeReservation) {
-		try {
-			int freeSpot;
-			// Check whether a subscriber has already entered into the parking lot or not
-			if(checkSubscriberEntered(subscriberCode)) {
-				return -2;
-			}
-			// If subscriber has reservation, find any free spot (even reserved)
-			if (activeReservation) {
-				freeSpot = findAnyFreeParkingSpace();
-				if (freeSpot != -1) {
-					addOccupiedParkingSpace();               // Increment occupied counter
-					updateParkingSpaceOccupied(freeSpot);    // Mark spot as taken in DB
+	public int hasAvailableSpots(String parkingLotName, int subscriberCode, boolean activeReservation) {
+		LotRegistry.Lot lot = findLot(parkingLotName);
+		if (lot == null) {
+			System.err.println("Unknown parking lot: " + parkingLotName);
+			return -1;
+		}
+
+		if (!lot.isOwned()) {
+			return -3; // another server node runs this lot
+		}
+
+		// Only entries to the same lot are serialized; other lots are not blocked
+		synchronized (lot.getLock()) {
+			try {
+				int freeSpot;
+				// Check whether a subscriber has already entered into the parking lot or not
+				if(checkSubscriberEntered(subscriberCode)) {
+					return -2;
+				}
+				// If subscriber has reservation, find any free spot (even reserved)
+				if (activeReservation) {
+					freeSpot = findAnyFreeParkingSpace(lot.getName());
+					if (freeSpot != -1) {
+						addOccupiedParkingSpace(lot.getName()); // Increment occupied counter
+						updateParkingSpaceOccupied(freeSpot);    // Mark spot as taken in DB
+					}
+					return freeSpot;
 				}
-				return freeSpot;
-			}
 
-			// Now we will focus on a subscriber which enters without an active order
-			// Get the total number of parking spots across all lots
-			int totalSpots = getTotalSpots();
+				// Now we will focus on a subscriber which enters without an active order
+				// Get the total number of parking spots in this lot
+				int totalSpots = lot.getTotalSpots();
 
-			// Get the number of currently active (ongoing) parkings
-			int activeParkings = getActiveParkingsCount();
+				// Get the number of currently active (ongoing) parkings in this lot
+				int activeParkings = getActiveParkingsCount(lot.getName());
 
-			// Get the number of reservations that start right now
-			int closeReservations = getCloseReservationsNowCount();
-			System.out.println("amount of closest relevant reservations: " + closeReservations);
+				// Get the number of reservations in this lot that start right now
+				int closeReservations = getCloseReservationsNowCount(lot.getName());
+				System.out.println("amount of closest relevant reservations: " + closeReservations);
 
-			// Calculate total used spots (parked + reserved)
-			int used = activeParkings + closeReservations;
+				// Calculate total used spots (parked + reserved)
+				int used = activeParkings + closeReservations;
 
-			// If all spots are used or exceeded, return -1
-			if (used >= totalSpots) {
-				return -1; // Lot is full for people who doesn't have a reservation
-			}			
-			freeSpot = findAnyFreeParkingSpace();
+				// If all spots are used or exceeded, return -1
+				if (activeParkings < 0 || closeReservations < 0 || used >= totalSpots) {
+					return -1; // Lot is full for people who doesn't have a reservation
+				}
+				freeSpot = findAnyFreeParkingSpace(lot.getName());
 
-			if(freeSpot == -1) {
-				return -1;
-			}
+				if(freeSpot == -1) {
+					return -1;
+				}
 
-			addOccupiedParkingSpace();               // Increment occupied counter
-			updateParkingSpaceOccupied(freeSpot);    // Mark spot as taken in DB
+				addOccupiedParkingSpace(lot.getName()); // Increment occupied counter
+				updateParkingSpaceOccupied(freeSpot);    // Mark spot as taken in DB
 
-			// Return selected parking spot ID if there is
-			return freeSpot;
+				// Return selected parking spot ID if there is
+				return freeSpot;
 
-		} catch (Exception e) {
-			// Log and return failure code
-			System.err.println("Error checking available spots: " + e.getMessage());
-			return -1;
+			} catch (Exception e) {
+				// Log and return failure code
+				System.err.println("Error checking available spots: " + e.getMessage());
+				return -1;
+			}
 		}
 	}
 
 
 	/**
-	 * Finds any free parking space that is currently not occupied, ignoring reservation windows.
+	 * Finds any free parking space in the lot that is currently not occupied, ignoring reservation windows.
 	 *
+	 * @param lotName the parking lot
 	 * @return a free parking space ID if found, or -1 if none found
 	 */
-	private int findAnyFreeParkingSpace() {
+	private int findAnyFreeParkingSpace(String lotName) {
 		String sql = """
 				    SELECT ps.parking_space
 				    FROM parkingSpaces ps
-				    WHERE ps.is_occupied = FALSE
+				    WHERE ps.NameParkingLot = ? AND ps.is_occupied = FALSE
 				    LIMIT 1
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql);
-				ResultSet rs = stmt.executeQuery()) {
-			return rs.next() ? rs.getInt(1) : -1; // if there is answer from query, if not return -1
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, lotName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getInt(1) : -1; // if there is answer from query, if not return -1
+			}
 		} catch (SQLException e) {
 			System.err.println("Error finding any free parking space: " + e.getMessage());
 			return -1;
@@ -757,20 +1540,23 @@ public class DBController {
 	}
 
 	/**
-	 * Counts how many parking events are currently active (vehicles that are still inside).
+	 * Counts how many parking events are currently active in the lot (vehicles that are still inside).
 	 *
 	 * An event is considered active if it has no exit time yet.
 	 *
+	 * @param lotName the parking lot
 	 * @return number of active parking events, or -1 if an error occurs
 	 */
-	private int getActiveParkingsCount() {
+	private int getActiveParkingsCount(String lotName) {
 		// Query to count parking events where the vehicle hasn't exited yet
-		String sql = "SELECT COUNT(*) FROM parkingEvent WHERE exitDate IS NULL";
+		String sql = "SELECT COUNT(*) FROM parkingEvent WHERE NameParkingLot = ? AND exitDate IS NULL";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql);
-				ResultSet rs = stmt.executeQuery()) {
-			// If result exists, return the count
-			return rs.next() ? rs.getInt(1) : 0;
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, lotName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				// If result exists, return the count
+				return rs.next() ? rs.getInt(1) : 0;
+			}
 		} catch (SQLException e) {
 			System.err.println("Error counting active parking events: " + e.getMessage());
 			return -1;
@@ -779,29 +1565,30 @@ public class DBController {
 
 
 	/**
-	 * Counts how many ACTIVE reservations exist for the next 4 hours.
+	 * Counts how many ACTIVE reservations of the lot exist for the next 4 hours.
 	 * A reservation is "close" if either starting within next 4h, or started but within +15min grace
 	 *
+	 * @param lotName the parking lot
 	 * @return number of active reservations holding spots right now
 	 */
-	private int getCloseReservationsNowCount() {
+	private int getCloseReservationsNowCount(String lotName) {
 		// SQL to count today's ACTIVE reservations for the next 4 hours window
 		String sql = """
 				    SELECT COUNT(*)
-				    FROM `order`
-				    WHERE `status` = 'ACTIVE'
-				      AND order_date = CURDATE()
-				      AND (
-				            TIMESTAMP(order_date, arrival_time) BETWEEN NOW() AND TIMESTAMPADD(HOUR, 4, NOW())
-				            OR
-				            NOW() BETWEEN TIMESTAMP(order_date, arrival_time)
-				                      AND TIMESTAMPADD(MINUTE, 15, TIMESTAMP(order_date, arrival_time))
-				          )
+				    FROM `order` o
+				    JOIN parkingSpaces ps ON ps.parking_space = o.parking_space
+				    WHERE o.`status` = 'ACTIVE'
+				      AND ps.NameParkingLot = ?
+				      AND o.order_date = CURDATE()
+				      -- starting within the next 4 hours, or started less than 15 minutes ago (grace)
+				      AND o.startAt BETWEEN NOW() - INTERVAL 15 MINUTE AND NOW() + INTERVAL 4 HOUR
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql);
-				ResultSet rs = stmt.executeQuery()) {
-			return rs.next() ? rs.getInt(1) : 0;
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, lotName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getInt(1) : 0;
+			}
 		} catch (SQLException e) {
 			System.err.println("Error counting active reservations: " + e.getMessage());
 			return -1;
@@ -810,6 +1597,8 @@ public class DBController {
 
 	/**
 	 * Inserts a new parking event into the 'parkingevent' table in the database.
+	 * Used when the event journal is not available; normally entries are
+	 * written by {@link #applyJournaledEntry(long, ParkingEvent)}.
 	 *
 	 * @param parkingEvent The ParkingEvent object containing all the event data to
 	 *                     be stored.
@@ -819,36 +1608,191 @@ public class DBController {
 		String query = "INSERT INTO bpark.parkingEvent (subscriberCode, parking_space, entryDate, entryHour, exitDate, exitHour, wasExtended, vehicleId, NameParkingLot, parkingCode) VALUES "
 				+ "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set each parameter in the prepared statement from the ParkingEvent object
-			stmt.setInt(1, parkingEvent.getSubscriberCode());
-			stmt.setInt(2, parkingEvent.getParkingSpace());
-			stmt.setDate(3, Date.valueOf(parkingEvent.getEntryDate()));
-			stmt.setTime(4, Time.valueOf(parkingEvent.getEntryHour()));
-			stmt.setDate(5, parkingEvent.getExitDate() != null ? Date.valueOf(parkingEvent.getExitDate()) : null);
-			stmt.setTime(6, parkingEvent.getExitHour() != null ? Time.valueOf(parkingEvent.getExitHour()) : null);
-			stmt.setBoolean(7, parkingEvent.isWasExtended());
-			stmt.setString(8, parkingEvent.getVehicleId());
-			stmt.setString(9, parkingEvent.getLot());
-			stmt.setString(10, parkingEvent.getParkingCode());
+			bindParkingEvent(stmt, parkingEvent);
 
 			// Execute the insert statement
 			stmt.executeUpdate();
 
+			// the vehicle is inside now
+			markVehicleInside(parkingEvent);
+
 		} catch (SQLException e) {
 			System.err.println("Error inserting parking event: " + e.getMessage());
 		}
 	}
 
 	/**
-	 * Increments the number of occupied parking spots in the 'parkinglot' table by
-	 * 1.
+	 * Writes a journaled entry into the parkingEvent table. The row keeps the
+	 * node and journal sequence number (unique together). If the row is already
+	 * there - the entry was applied just before a restart or a lost connection -
+	 * nothing is written; a different entry under the same key is an error, never
+	 * silently skipped.
+	 *
+	 * @param journalNode  ID of the node whose journal the entry comes from
+	 * @param journalSeq   sequence number of the ENTRY record
+	 * @param parkingEvent the parking event of the entry
+	 * @throws SQLException if the row could not be written, or another entry
+	 *                      already has the key
+	 */
+	public void applyJournaledEntry(String journalNode, long journalSeq, ParkingEvent parkingEvent)
+			throws SQLException {
+		String query = "INSERT INTO bpark.parkingEvent (subscriberCode, parking_space, entryDate, entryHour, exitDate, exitHour, wasExtended, vehicleId, NameParkingLot, parkingCode, journalSeq, journalNode) VALUES "
+				+ "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			bindParkingEvent(stmt, parkingEvent);
+			stmt.setLong(11, journalSeq);
+			stmt.setString(12, journalNode);
+			stmt.executeUpdate();
+		} catch (SQLIntegrityConstraintViolationException e) {
+			if (e.getErrorCode() != MYSQL_DUPLICATE_KEY
+					|| !parkingEvent.getParkingCode().equals(journaledParkingCode(journalNode, journalSeq))) {
+				throw e; // not this entry: a foreign key, or a clash with another entry
+			}
+			return; // applied before - the vehicle may have left since, so its session is not reopened
+		}
+		if (parkingEvent.getExitDate() == null) {
+			markVehicleInside(parkingEvent); // already done at the gate, except when replaying after a restart
+		}
+	}
+
+	/**
+	 * Checks the references of an entry before it is accepted, so the journal
+	 * never holds an entry the parkingEvent table would refuse: the subscriber
+	 * and its vehicle exist, the lot exists and the space belongs to it.
+	 *
+	 * @param parkingEvent the parking event of the entry
+	 * @return null if the entry can be written, otherwise why it can not
+	 */
+	public String validateEntry(ParkingEvent parkingEvent) {
+		String vehicleId = findVehicleID(parkingEvent.getSubscriberCode()); // null also for an unknown subscriber
+		if (vehicleId == null) {
+			return "unknown subscriber " + parkingEvent.getSubscriberCode();
+		}
+		if (!vehicleId.equals(parkingEvent.getVehicleId())) {
+			return "vehicle " + parkingEvent.getVehicleId() + " is not registered to the subscriber";
+		}
+		LotRegistry.Lot lot = findLot(parkingEvent.getLot());
+		if (lot == null) {
+			return "unknown parking lot " + parkingEvent.getLot();
+		}
+		if (!lot.getName().equalsIgnoreCase(LOTS.lotOfSpace(parkingEvent.getParkingSpace()))) {
+			return "space " + parkingEvent.getParkingSpace() + " is not in " + lot.getName();
+		}
+		return null;
+	}
+
+	/**
+	 * Undoes what a refused entry left behind: frees the space it was given
+	 * (if the space is in the entry's lot and no open parking event holds it)
+	 * and closes the vehicle's in-memory session if it is this entry's.
+	 *
+	 * @param parkingEvent the parking event of the refused entry
 	 */
-	private void addOccupiedParkingSpace() {
-		// SQL query to increment the occupiedSpots for the Braude lot
-		String query = "UPDATE bpark.parkinglot SET occupiedSpots = occupiedSpots + 1 WHERE NameParkingLot = 'Braude'";
+	public void releaseRejectedEntry(ParkingEvent parkingEvent) {
+		String query = "UPDATE bpark.parkingSpaces s "
+				+ "JOIN bpark.parkingLot l ON l.NameParkingLot = s.NameParkingLot "
+				+ "SET s.is_occupied = FALSE, l.occupiedSpots = l.occupiedSpots - 1 "
+				+ "WHERE s.parking_space = ? AND s.NameParkingLot = ? AND s.is_occupied = TRUE AND NOT EXISTS "
+				+ "(SELECT 1 FROM bpark.parkingEvent e WHERE e.parking_space = s.parking_space AND e.exitDate IS NULL)";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			stmt.setInt(1, parkingEvent.getParkingSpace());
+			stmt.setString(2, parkingEvent.getLot());
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			System.err.println("Error freeing space " + parkingEvent.getParkingSpace() + ": " + e.getMessage());
+		}
+
+		int parkingCode = parseParkingCode(parkingEvent.getParkingCode());
+		if (TAGS.getParkingCode(parkingEvent.getSubscriberCode()) == parkingCode) {
+			TAGS.closeSession(parkingEvent.getSubscriberCode());
+		}
+	}
+
+	/**
+	 * @param journalNode ID of the node whose journal the entry comes from
+	 * @param journalSeq  sequence number of the ENTRY record
+	 * @return parking code of the row applied from that record, or null if none
+	 * @throws SQLException if the query fails
+	 */
+	private String journaledParkingCode(String journalNode, long journalSeq) throws SQLException {
+		String query = "SELECT parkingCode FROM bpark.parkingEvent WHERE journalNode = ? AND journalSeq = ?";
+
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			stmt.setString(1, journalNode);
+			stmt.setLong(2, journalSeq);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last entry of the node's journal that
+	 * reached the parkingEvent table. Entries are applied in journal order, so
+	 * every entry of the node up to it is in the DB.
+	 *
+	 * @param journalNode ID of the node
+	 * @return the sequence number, or 0 if none
+	 * @throws SQLException if the query fails - the journal must not be replayed
+	 *                      from a guessed position
+	 */
+	public long getLastJournalSeq(String journalNode) throws SQLException {
+		String query = "SELECT COALESCE(MAX(journalSeq), 0) FROM bpark.parkingEvent WHERE journalNode = ?";
+
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			stmt.setString(1, journalNode);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Records in memory that the vehicle of a parking event is inside, before
+	 * (or without) the parkingEvent row being written.
+	 *
+	 * @param parkingEvent the parking event of the entry
+	 */
+	public void markVehicleInside(ParkingEvent parkingEvent) {
+		TAGS.openSession(parkingEvent.getSubscriberCode(), parseParkingCode(parkingEvent.getParkingCode()));
+	}
+
+	/**
+	 * Sets the first ten parameters of a parkingEvent INSERT from an event.
+	 *
+	 * @param stmt         the INSERT statement
+	 * @param parkingEvent the parking event
+	 * @throws SQLException if a parameter can not be set
+	 */
+	private static void bindParkingEvent(PreparedStatement stmt, ParkingEvent parkingEvent) throws SQLException {
+		stmt.setInt(1, parkingEvent.getSubscriberCode());
+		stmt.setInt(2, parkingEvent.getParkingSpace());
+		stmt.setDate(3, Date.valueOf(parkingEvent.getEntryDate()));
+		stmt.setTime(4, Time.valueOf(parkingEvent.getEntryHour()));
+		stmt.setDate(5, parkingEvent.getExitDate() != null ? Date.valueOf(parkingEvent.getExitDate()) : null);
+		stmt.setTime(6, parkingEvent.getExitHour() != null ? Time.valueOf(parkingEvent.getExitHour()) : null);
+		stmt.setBoolean(7, parkingEvent.isWasExtended());
+		stmt.setString(8, parkingEvent.getVehicleId());
+		stmt.setString(9, parkingEvent.getLot());
+		stmt.setString(10, parkingEvent.getParkingCode());
+	}
+
+	/**
+	 * Increments the number of occupied parking spots of the lot in the
+	 * 'parkinglot' table by 1.
+	 *
+	 * @param lotName the parking lot
+	 */
+	private void addOccupiedParkingSpace(String lotName) {
+		// SQL query to increment the occupiedSpots for the lot
+		String query = "UPDATE bpark.parkinglot SET occupiedSpots = occupiedSpots + 1 WHERE NameParkingLot = ?";
+
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			stmt.setString(1, lotName);
 			stmt.executeUpdate();
 		} catch (SQLException e) {
 			System.err.println("Error updating occupied parking spots: " + e.getMessage());
@@ -865,7 +1809,7 @@ public class DBController {
 	private void updateParkingSpaceOccupied(int parkingSpace) {
 		String query = "UPDATE bpark.parkingspaces SET is_occupied = 1 WHERE parking_space = ?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, parkingSpace); // Set the parking space ID in the query
 			stmt.executeUpdate();// Execute the update
 		} catch (SQLException e) {
@@ -878,31 +1822,15 @@ public class DBController {
 	/**
 	 * Finds the vehicle ID associated with the given subscriber code.
 	 * 
-	 * Executes a query on the 'vehicle' table to retrieve the vehicleId for the
-	 * specified subscriberCode.
+	 * Served from the subscriber profile cache; on a miss the subscriber and
+	 * vehicle tables are read together with one query.
 	 *
 	 * @param subscriberCode the unique code of the subscriber.
 	 * @return the vehicle ID if found, otherwise -1.
 	 */
 	public String findVehicleID(int subscriberCode) {
-		// SQL query to get vehicleId by subscriberCode
-		String query = "SELECT vehicleId FROM vehicle WHERE subscriberCode = ?";
-
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			// Set the subscriber code in the query
-			stmt.setInt(1, subscriberCode);
-			// Execute the query
-			ResultSet rs = stmt.executeQuery();
-
-			// If result exists, return the vehicle ID
-			if (rs.next()) {
-				return rs.getString("vehicleId");
-			}
-		} catch (SQLException e) {
-			System.err.println("Error finding vehicle ID: " + e.getMessage());
-		}
-
-		return null; // Vehicle ID matching to this subscriber not found
+		SubscriberCache.Profile profile = loadProfile(subscriberCode);
+		return profile == null ? null : profile.getVehicleId(); // null if no vehicle matches this subscriber
 	}
 
 	/**
@@ -914,10 +1842,10 @@ public class DBController {
 	 */
 	public ArrayList<Order> getFutureReservationsForSubscriber(Subscriber subscriber) {
 		// SQL to select all active future reservations of the subscriber
-		String query = "SELECT * FROM `order` WHERE subscriberCode=? AND TIMESTAMP(order_date, arrival_time) > NOW() + INTERVAL 15 MINUTE AND `status`='ACTIVE'";
+		String query = "SELECT * FROM `order` WHERE subscriberCode=? AND `status`='ACTIVE' AND startAt > NOW() + INTERVAL 15 MINUTE";
 		ArrayList<Order> orders = new ArrayList<>();
 		int subsCode = subscriber.getSubscriberCode();
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set subscriber code in the query
 			stmt.setInt(1, subsCode);
 			try (ResultSet rs = stmt.executeQuery()) {
@@ -946,7 +1874,7 @@ public class DBController {
 	public boolean deleteOrder(int orderNumber) {
 		// SQL query to cancel the order by setting its status
 		String query = "UPDATE `order` SET `status`='CANCELLED' WHERE order_number=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set the order number in the query
 			stmt.setInt(1, orderNumber);
 			// Execute the update and check if any rows were affected
@@ -968,7 +1896,7 @@ public class DBController {
 	public boolean changeDetailsOfUser(User user) {
 		// SQL query to update the user's password
 		String query = "UPDATE user SET password=? WHERE username=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set the new password and username in the query
 			stmt.setString(1, user.getPassword());
 			stmt.setString(2, user.getUsername());
@@ -990,7 +1918,7 @@ public class DBController {
 	public boolean changeDetailsOfSubscriber(Subscriber subscriber) {
 		// SQL query to update subscriber's personal information
 		String query = "UPDATE subscriber SET firstName=?, lastName=?, phoneNumber=?,  email=? WHERE subscriberCode=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set updated values in the query
 			stmt.setString(1, subscriber.getFirstName());
 			stmt.setString(2, subscriber.getLastName());
@@ -1000,6 +1928,7 @@ public class DBController {
 
 			// Execute the update and return success status
 			int rowsUpdated = stmt.executeUpdate();
+			PROFILES.invalidate(subscriber.getSubscriberCode()); // next read picks up the new details
 			return rowsUpdated > 0;
 		} catch (SQLException e) {
 			System.err.println("Error update subscriber: " + e.getMessage());
@@ -1017,7 +1946,7 @@ public class DBController {
 	public boolean duplicatePhone(String phone, int subCode) {
 		String query = "SELECT * FROM subscriber WHERE phoneNumber=? AND subscriberCode<>?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setString(1, phone);
 			stmt.setInt(2, subCode);
 
@@ -1043,7 +1972,7 @@ public class DBController {
 	public boolean duplicateEmail(String email, int subCode) {
 		String query = "SELECT * FROM subscriber WHERE email=? AND subscriberCode<>?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setString(1, email);
 			stmt.setInt(2, subCode);
 
@@ -1060,50 +1989,37 @@ public class DBController {
 
 
 	/**
-	 * Retrieves the full parking history of a given subscriber.
+	 * Streams the full parking history of a given subscriber, row by row.
 	 *
 	 * @param subscriber the subscriber whose parking events are requested
-	 * @return a list of ParkingEvent objects representing the subscriber's parking
-	 *         history, or null if an error occurs during retrieval
-	 */
-	public ArrayList<ParkingEvent> parkingHistoryOfSubscriber(Subscriber subscriber) {
-		// SQL query to select all parking events for the subscriber
-		String query = "SELECT * FROM parkingEvent WHERE subscriberCode=?";
-		ArrayList<ParkingEvent> historyOfParking = new ArrayList<>();
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			// Set subscriber code in the query
-			stmt.setInt(1, subscriber.getSubscriberCode());
-			// Execute the query
-			try (ResultSet rs = stmt.executeQuery()) {
-				while (rs.next()) {
-					// Create a new ParkingEvent from the result
-					ParkingEvent newParkingEvent = new ParkingEvent();
-					newParkingEvent.setEventId(rs.getInt("eventId"));
-					newParkingEvent.setSubscriberCode(rs.getInt("subscriberCode"));
-					newParkingEvent.setParkingSpace(rs.getInt("parking_space"));
-					newParkingEvent.setEntryDate((rs.getDate("entryDate")).toLocalDate());
-					newParkingEvent.setEntryTime((rs.getTime("entryHour")).toLocalTime());
-					// Handle nullable exit date and time
-					Date exitDate = rs.getDate("exitDate");
-					Time exitTime = rs.getTime("exitHour");
-					if (exitDate != null && exitTime != null) {
-						newParkingEvent.setExitDate(rs.getDate("exitDate").toLocalDate());
-						newParkingEvent.setExitTime(rs.getTime("exitHour").toLocalTime());
-					}
-					newParkingEvent.setWasExtended(rs.getBoolean("wasExtended"));
-					newParkingEvent.setVehicleID(rs.getString("vehicleId"));
-					newParkingEvent.setLot(rs.getString("NameParkingLot"));
-					newParkingEvent.setParkingCode(rs.getString("parkingCode"));
-					historyOfParking.add(newParkingEvent);
-				}
-				return historyOfParking; // Add to the result list
-			}
-
-		} catch (Exception e) {
-			System.err.println("Error in parking history: " + e.getMessage());
-			e.printStackTrace();
-			return null;
-		}
+	 * @param sink       receives the parking events as they are read
+	 * @throws SQLException if the query fails
+	 * @throws IOException  if the sink fails (the query is abandoned)
+	 */
+	public void streamParkingHistory(Subscriber subscriber, RowSink<ParkingEvent> sink)
+			throws SQLException, IOException {
+		// SQL query to select all parking events for the subscriber
+		streamRows("SELECT * FROM parkingEvent WHERE subscriberCode=?", rs -> {
+			// Create a new ParkingEvent from the result
+			ParkingEvent newParkingEvent = new ParkingEvent();
+			newParkingEvent.setEventId(rs.getInt("eventId"));
+			newParkingEvent.setSubscriberCode(rs.getInt("subscriberCode"));
+			newParkingEvent.setParkingSpace(rs.getInt("parking_space"));
+			newParkingEvent.setEntryDate((rs.getDate("entryDate")).toLocalDate());
+			newParkingEvent.setEntryTime((rs.getTime("entryHour")).toLocalTime());
+			// Handle nullable exit date and time
+			Date exitDate = rs.getDate("exitDate");
+			Time exitTime = rs.getTime("exitHour");
+			if (exitDate != null && exitTime != null) {
+				newParkingEvent.setExitDate(exitDate.toLocalDate());
+				newParkingEvent.setExitTime(exitTime.toLocalTime());
+			}
+			newParkingEvent.setWasExtended(rs.getBoolean("wasExtended"));
+			newParkingEvent.setVehicleID(rs.getString("vehicleId"));
+			newParkingEvent.setLot(rs.getString("NameParkingLot"));
+			newParkingEvent.setParkingCode(rs.getString("parkingCode"));
+			return newParkingEvent;
+		}, sink, subscriber.getSubscriberCode());
 	}
 
 	/**
@@ -1113,21 +2029,21 @@ public class DBController {
 	 * @return true if the tag exists in the database; false otherwise
 	 */
 	public boolean tagExists(String tag) {
+		if (useTagIndex()) { // answered from memory
+			return TAGS.getSubscriberCode(tag) != TagIndex.NOT_FOUND;
+		}
 
 		boolean exists = false;
 
-		try {
-			// Checking whether the tag exists or not
-			String query = "SELECT 1 FROM bpark.subscriber WHERE tagId = ? LIMIT 1";
+		// Checking whether the tag exists or not
+		String query = "SELECT 1 FROM bpark.subscriber WHERE tagId = ? LIMIT 1";
 
-			PreparedStatement ps = conn.prepareStatement(query);
+		try (PreparedStatement ps = conn().prepareStatement(query)) {
 			ps.setString(1, tag); // Inserting the tag
 
-			ResultSet rs = ps.executeQuery();
-			exists = rs.next(); // If the tag has been found (there is row) it means that he will exists
-			// Close resources
-			rs.close();
-			ps.close();
+			try (ResultSet rs = ps.executeQuery()) {
+				exists = rs.next(); // If the tag has been found (there is row) it means that he will exists
+			}
 		} catch (SQLException e) {
 			System.err.println("Error finding Tag: " + e.getMessage());
 		}
@@ -1142,15 +2058,19 @@ public class DBController {
 	 * @return the subscriber code if found; -1 if not found or an error occurs
 	 */
 	public int seekForTheSubscriberWithTag(String tag) {
+		if (useTagIndex()) { // answered from memory
+			return TAGS.getSubscriberCode(tag);
+		}
+
 		// query to find subscriberCode by tagId
 		String query = "SELECT s.subscriberCode FROM bpark.subscriber s WHERE s.tagId = ?";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setString(1, tag); // Set the tag value in the query
-			ResultSet rs = stmt.executeQuery();// Execute the query
-
-			if (rs.next()) { 
-				return rs.getInt("subscriberCode"); // Return the subscriber code if found
+			try (ResultSet rs = stmt.executeQuery()) { // Execute the query
+				if (rs.next()) { 
+					return rs.getInt("subscriberCode"); // Return the subscriber code if found
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error finding subscriber code by tag: " + e.getMessage());
@@ -1166,13 +2086,18 @@ public class DBController {
 	 * @return true if the subscriber has an open parking event (i.e., vehicle is inside); false otherwise
 	 */
 	public boolean checkSubscriberEntered(int codeInt) {
+		if (useTagIndex()) { // answered from memory
+			return TAGS.hasOpenSession(codeInt);
+		}
+
 		// query to check if there's an active parking event (no exitHour) for the subscriber
-		String query = "SELECT * FROM bpark.parkingevent WHERE subscriberCode = ? AND exitHour IS NULL";
+		String query = "SELECT * FROM bpark.parkingevent WHERE subscriberCode = ? AND exitDate IS NULL";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, codeInt); // Set the subscriber code in the query
-			ResultSet rs = stmt.executeQuery(); // Execute the query and return true if a row is found
-			return rs.next(); // if any row is returned, subscriber is inside
+			try (ResultSet rs = stmt.executeQuery()) { // Execute the query and return true if a row is found
+				return rs.next(); // if any row is returned, subscriber is inside
+			}
 		} catch (SQLException e) {
 			// If there is no subscriber code in the table it means that he didn't entered
 			// yet and the method will return false
@@ -1189,15 +2114,21 @@ public class DBController {
 	 * @return true if the vehicle is currently inside the parking lot; false otherwise
 	 */
 	public boolean checkTagIDEntered(String tag) {
+		if (useTagIndex()) { // answered from memory
+			int code = TAGS.getSubscriberCode(tag);
+			return code != TagIndex.NOT_FOUND && TAGS.hasOpenSession(code);
+		}
+
 		// query to check for active parking event by tag ID
 		String query = "SELECT pe.* FROM bpark.parkingevent pe "
 				+ "JOIN bpark.subscriber s ON pe.subscriberCode = s.subscriberCode "
-				+ "WHERE s.tagId = ? AND pe.exitHour IS NULL";
+				+ "WHERE s.tagId = ? AND pe.exitDate IS NULL";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setString(1, tag); // set the ID tag string in the parameter in query
-			ResultSet rs = stmt.executeQuery(); //execute and find the row result
-			return rs.next(); // if any row is returned, tag is inside
+			try (ResultSet rs = stmt.executeQuery()) { //execute and find the row result
+				return rs.next(); // if any row is returned, tag is inside
+			}
 		} catch (SQLException e) {
 			// If there is no matched subscriberCode to the tagId in the table it means that
 			// he didn't entered yet and the method will return false
@@ -1215,27 +2146,15 @@ public class DBController {
 	 *         null if the subscriber was not found or an error occurred
 	 */
 	public String[] getEmailAndPhoneNumber(int subscriberCode) {
-		// query to get phone and email by subscriber code
-		String query = "SELECT phoneNumber, email FROM subscriber WHERE subscriberCode=?";
-		String[] arrayForPhoneAndEmail = new String[2];
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			// subscriber code in the query
-			stmt.setInt(1, subscriberCode);
-			ResultSet rs = stmt.executeQuery(); //exucute
-			// If a result is found, extract email and phone number
-			if (rs.next()) {
-				arrayForPhoneAndEmail[0] = rs.getString("email");         // email in index 0
-				arrayForPhoneAndEmail[1] = rs.getString("phoneNumber");   // phone number in index 1
-				return arrayForPhoneAndEmail;
-			}
-		} catch (SQLException e) {
-			System.err.println("Error finding email and phone number: " + e.getMessage());
+		SubscriberCache.Profile profile = loadProfile(subscriberCode);
+		if (profile == null) {
+			return null; // subscriber not found or error occurred
 		}
-		return null; // Return null if subscriber not found or error occurred
+		return new String[] { profile.getEmail(), profile.getPhoneNum() }; // email in index 0, phone in index 1
 	}
 
 	/**
-	 * Returns all subscribers along with how many times each one was late.
+	 * Streams all subscribers along with how many times each one was late.
 	 *
 	 * A late is counted if:
 	 * - The parking duration was over 8 hours.
@@ -1243,11 +2162,13 @@ public class DBController {
 	 *
 	 * Ongoing and completed events are both included.
 	 *
-	 * @return List of Object[] where:
-	 *         [0] = Subscriber
-	 *         [1] = Number of late parkings (Integer)
+	 * @param sink receives, in subscriber code order, Object[] rows where:
+	 *             [0] = Subscriber
+	 *             [1] = Number of late parkings (Integer)
+	 * @throws SQLException if the query fails
+	 * @throws IOException  if the sink fails (the query is abandoned)
 	 */
-	public List<Object[]> getAllSubscribersWithLateCount() {
+	public void streamSubscribersWithLateCount(RowSink<Object[]> sink) throws SQLException, IOException {
 		// query with LEFT JOIN to count late parking events per subscriber
 		final String sql = """
 				SELECT s.subscriberCode,
@@ -1264,79 +2185,63 @@ public class DBController {
 				    SELECT subscriberCode,
 				           COUNT(*) AS late_cnt
 				    FROM bpark.parkingEvent
+				    -- late = parked longer than 4 hours, or 8 hours if the session was extended
 				    WHERE (
-				        TIMESTAMPDIFF(MINUTE, TIMESTAMP(entryDate, entryHour), 
-				                           COALESCE(TIMESTAMP(exitDate, exitHour), NOW())) > 480
-				        OR (
-				            wasExtended = FALSE AND
-				            TIMESTAMPDIFF(MINUTE, TIMESTAMP(entryDate, entryHour), 
-				                               COALESCE(TIMESTAMP(exitDate, exitHour), NOW())) > 240
-				        )
+				        exitDate IS NULL
+				        AND entryAt < NOW() - INTERVAL 240 MINUTE
+				        AND entryAt < NOW() - INTERVAL IF(wasExtended, 480, 240) MINUTE
+				    )
+				    OR (
+				        parkedMinutes > 240
+				        AND parkedMinutes > IF(wasExtended, 480, 240)
 				    )
 				    GROUP BY subscriberCode
 				) AS l USING (subscriberCode)
 				ORDER BY s.subscriberCode;
 				""";
 
-		List<Object[]> result = new ArrayList<>();
-
-		try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
-			while (rs.next()) { // Process each row in the result set
-				Subscriber sub = new Subscriber(
-						rs.getInt("subscriberCode"),
-						rs.getString("userId"),
-						rs.getString("firstName"),
-						rs.getString("lastName"),
-						rs.getString("phoneNumber"),
-						rs.getString("email"),
-						rs.getString("username"),
-						rs.getString("tagId")
-						);
-
-				// Get number of late pickups
-				int lateCount = rs.getInt("late_count");
-				result.add(new Object[]{ sub, lateCount }); // Add both subscriber and count to result list
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return result; // Return list of subscriber + late count pairs
+		streamRows(sql, rs -> {
+			Subscriber sub = new Subscriber(
+					rs.getInt("subscriberCode"),
+					rs.getString("userId"),
+					rs.getString("firstName"),
+					rs.getString("lastName"),
+					rs.getString("phoneNumber"),
+					rs.getString("email"),
+					rs.getString("username"),
+					rs.getString("tagId")
+					);
+
+			// Get number of late pickups
+			int lateCount = rs.getInt("late_count");
+			return new Object[]{ sub, lateCount }; // subscriber and count
+		}, sink);
 	}
 
 	/**
-	 * Retrieves all active (open) parking events from the database. Active events
+	 * Streams all active (open) parking events from the database. Active events
 	 * are those that have no recorded exit date/time.
 	 *
-	 * @return a list of ParkingEvent objects
+	 * @param sink receives the parking events as they are read
+	 * @throws SQLException if the query fails
+	 * @throws IOException  if the sink fails (the query is abandoned)
 	 */
-	public List<ParkingEvent> getActiveParkingEvents() {
-		List<ParkingEvent> list = new ArrayList<>();
+	public void streamActiveParkingEvents(RowSink<ParkingEvent> sink) throws SQLException, IOException {
 		// query to select active parking events (no exit time)
-		String sql = "SELECT * FROM parkingEvent WHERE exitDate IS NULL AND exitHour IS NULL";
-
-		try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
-
-			while (rs.next()) { // Process each active parking event from result set
-				ParkingEvent event = new ParkingEvent();
-				// Populate ParkingEvent fields from result row
-				event.setEventId(rs.getInt("eventId"));
-				event.setSubscriberCode(rs.getInt("subscriberCode"));
-				event.setParkingSpace(rs.getInt("parking_space"));
-				event.setEntryDate(rs.getDate("entryDate").toLocalDate());
-				event.setEntryTime(rs.getTime("entryHour").toLocalTime());
-				event.setWasExtended(rs.getBoolean("wasExtended"));
-				event.setLot(rs.getString("nameParkingLot"));
-				event.setVehicleID(rs.getString("vehicleId"));
-				event.setParkingCode(rs.getString("parkingCode"));
-
-				list.add(event); // Add event to result list
-			}
-
-		} catch (SQLException e) {
-			System.err.println("Error retrieving active parking events: " + e.getMessage());
-		}
-		// Return list of active events
-		return list;
+		streamRows("SELECT * FROM parkingEvent WHERE exitDate IS NULL", rs -> {
+			ParkingEvent event = new ParkingEvent();
+			// Populate ParkingEvent fields from result row
+			event.setEventId(rs.getInt("eventId"));
+			event.setSubscriberCode(rs.getInt("subscriberCode"));
+			event.setParkingSpace(rs.getInt("parking_space"));
+			event.setEntryDate(rs.getDate("entryDate").toLocalDate());
+			event.setEntryTime(rs.getTime("entryHour").toLocalTime());
+			event.setWasExtended(rs.getBoolean("wasExtended"));
+			event.setLot(rs.getString("nameParkingLot"));
+			event.setVehicleID(rs.getString("vehicleId"));
+			event.setParkingCode(rs.getString("parkingCode"));
+			return event;
+		}, sink);
 	}
 
 	/**
@@ -1349,24 +2254,25 @@ public class DBController {
 	 */
 	public ParkingEvent getActiveParkingEvent(Subscriber subscriber) {
 		// query to get an active parking event by subscriber code
-		String query = "SELECT * FROM parkingEvent WHERE subscriberCode=? AND exitHour IS NULL";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		String query = "SELECT * FROM parkingEvent WHERE subscriberCode=? AND exitDate IS NULL";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set subscriber code in the query
 			stmt.setInt(1, subscriber.getSubscriberCode());
-			ResultSet rs = stmt.executeQuery(); //execute
-			// If an active parking event is found, create and populate the object
-			if (rs.next()) { 
-				ParkingEvent newParkingEvent = new ParkingEvent();
-				newParkingEvent.setEventId(rs.getInt("eventId"));
-				newParkingEvent.setSubscriberCode(rs.getInt("subscriberCode"));
-				newParkingEvent.setParkingSpace(rs.getInt("parking_space"));
-				newParkingEvent.setEntryDate((rs.getDate("entryDate")).toLocalDate());
-				newParkingEvent.setEntryTime((rs.getTime("entryHour")).toLocalTime());
-				newParkingEvent.setWasExtended(rs.getBoolean("wasExtended"));
-				newParkingEvent.setVehicleID(rs.getString("vehicleId"));
-				newParkingEvent.setLot(rs.getString("NameParkingLot"));
-				newParkingEvent.setParkingCode(rs.getString("parkingCode"));
-				return newParkingEvent;
+			try (ResultSet rs = stmt.executeQuery()) { //execute
+				// If an active parking event is found, create and populate the object
+				if (rs.next()) { 
+					ParkingEvent newParkingEvent = new ParkingEvent();
+					newParkingEvent.setEventId(rs.getInt("eventId"));
+					newParkingEvent.setSubscriberCode(rs.getInt("subscriberCode"));
+					newParkingEvent.setParkingSpace(rs.getInt("parking_space"));
+					newParkingEvent.setEntryDate((rs.getDate("entryDate")).toLocalDate());
+					newParkingEvent.setEntryTime((rs.getTime("entryHour")).toLocalTime());
+					newParkingEvent.setWasExtended(rs.getBoolean("wasExtended"));
+					newParkingEvent.setVehicleID(rs.getString("vehicleId"));
+					newParkingEvent.setLot(rs.getString("NameParkingLot"));
+					newParkingEvent.setParkingCode(rs.getString("parkingCode"));
+					return newParkingEvent;
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error finding active parking info: " + e.getMessage());
@@ -1394,6 +2300,7 @@ public class DBController {
 	public String extendParkingSession(int parkingCode, String subscriberCode) throws SQLException {
 		String sql;
 		boolean useSubscriberCode = (subscriberCode != null && !subscriberCode.isBlank());
+		String lotName; // lot of the session - its capacity is charged for the extension
 
 		// First: Check that this session is actually valid and eligible for extension
 		if (useSubscriberCode) {
@@ -1419,6 +2326,7 @@ public class DBController {
 			if (event.isWasExtended()) {
 				return "Your parking session was already extended.";
 			}
+			lotName = event.getLot();
 
 			if (subscriberIsLate(subscriberCodeInt)) {
 				return "Your parking session is late.";
@@ -1426,7 +2334,8 @@ public class DBController {
 
 		} else {
 			// Terminal scenario – no subscriber code, so we only verify the session
-			if (!openParkingCodeExists(parkingCode)) {
+			lotName = findOpenParkingLot(parkingCode);
+			if (lotName == null) {
 				return "There is no active parking that matches this parking code.";
 			}
 
@@ -1439,25 +2348,35 @@ public class DBController {
 			}
 		}
 
-		// Second: Check if allowing another extension would interfere with upcoming reservations
-		updateRemainingExtensionCapacity("Braude");
-		if (extensionWouldBlockReservation()) {
+		// Second: take one extension from the lot's capacity (kept in memory, atomic)
+		LotRegistry.Lot lot = findLot(lotName);
+		if (lot == null) {
+			return "Extension denied – upcoming reservations exceed available capacity.";
+		}
+		lotName = lot.getName();
+		if (!lot.isOwned()) {
+			return EXTENSION_LOT_NOT_OWNED;
+		}
+		if (!EXTENSIONS.isLoaded(lotName)) {
+			loadExtensionCapacity(lotName);
+		}
+		if (!EXTENSIONS.tryAcquire(lotName)) {
 			return "Extension denied – upcoming reservations exceed available capacity.";
 		}
 
 		// Build the SQL query based on whether subscriber validation is required
 		if (!useSubscriberCode) {
 			sql = "UPDATE bpark.parkingEvent SET wasExtended = TRUE " +
-					"WHERE parkingCode = ? AND exitDate IS NULL AND exitHour IS NULL " +
-					"AND wasExtended = FALSE AND (TIMESTAMPDIFF(MINUTE, TIMESTAMP(entryDate, entryHour), NOW()) <= 240)";
+					"WHERE parkingCode = ? AND exitDate IS NULL " +
+					"AND wasExtended = FALSE AND entryAt >= NOW() - INTERVAL 240 MINUTE";
 		} else {
 			sql = "UPDATE bpark.parkingEvent SET wasExtended = TRUE " +
-					"WHERE parkingCode = ? AND subscriberCode = ? AND exitDate IS NULL AND exitHour IS NULL " +
-					"AND wasExtended = FALSE AND (TIMESTAMPDIFF(MINUTE, TIMESTAMP(entryDate, entryHour), NOW()) <= 240)";
+					"WHERE parkingCode = ? AND subscriberCode = ? AND exitDate IS NULL " +
+					"AND wasExtended = FALSE AND entryAt >= NOW() - INTERVAL 240 MINUTE";
 		}
 
 		// Try updating the session in the database to mark it as extended
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
 			stmt.setInt(1, parkingCode);
 			if (useSubscriberCode) {
 				stmt.setString(2, subscriberCode);
@@ -1467,15 +2386,16 @@ public class DBController {
 
 			// If the update succeeded, that means the session was extended successfully
 			if (rowsAffected > 0) {
-				decrementRemainingExtensions("Braude"); // update capacity count
 				return "Parking session extended successfully.";
 			}
 		} catch (SQLException e) {
 			// In case something goes wrong while talking to the DB
+			EXTENSIONS.release(lotName); // the extension was not used
 			e.printStackTrace();
 			return "Database error: " + e.getMessage();
 		}
 
+		EXTENSIONS.release(lotName); // nothing was extended - give the extension back
 		// Fallback message (shouldn't usually get here)
 		return "Invalid parking code.";
 	}
@@ -1483,83 +2403,85 @@ public class DBController {
 
 
 	/**
-	 * Decreases the number of remaining extensions for the lot (if more than 0).
+	 * Initializes the in-memory extension counter of a lot from the DB: total
+	 * spots, sessions that were already extended and upcoming reservations.
+	 * Called on first use; afterwards the counter is kept up to date by
+	 * extensions, exits, new orders and {@link #refreshExtensionCapacity()}.
+	 *
 	 * @param lotName the name of the parking lot
 	 */
-	public void decrementRemainingExtensions(String lotName) {
-		String sql = """
-				    UPDATE bpark.extensionCapacity
-				    SET remainingExtensions = remainingExtensions - 1
-				    WHERE lotName = ? AND remainingExtensions > 0
-				""";
-
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-			stmt.setString(1, lotName);
-			stmt.executeUpdate();
-		} catch (SQLException e) {
-			System.err.println("Failed to decrement remainingExtensions: " + e.getMessage());
+	public void loadExtensionCapacity(String lotName) {
+		long stamp = EXTENSIONS.reservationStamp(lotName);
+		int totalSpots = getTotalSpots(lotName);
+		int extended = getExtendedParkingsCount(lotName);
+		int upcoming = getUpcomingReservationCount(lotName);
+		if (extended < 0 || upcoming < 0) {
+			return; // not loaded - extensions stay denied until the next attempt
 		}
+		EXTENSIONS.initLot(lotName, totalSpots, extended, upcoming, stamp);
+		loadPendingReservations(lotName);
 	}
 
 	/**
-	 * Checks if no further extensions should be allowed due to upcoming reservations.
-	 * This is a conservative check - it blocks if only one extension slot remains,
-	 * assuming the current request would consume it and leave no room for reservations.
-	 *
-	 * @return true if extensions should be blocked, false if there is still capacity
+	 * Re-counts the reservations starting within the next 4 hours (orders enter
+	 * and leave that window as time passes) and updates the extension counter
+	 * of every lot this server node owns.
+	 * Called periodically by the server.
 	 */
-	public boolean extensionWouldBlockReservation() {
-		String sql = "SELECT remainingExtensions FROM bpark.extensionCapacity WHERE lotName = 'Braude'";
-
-		try (PreparedStatement stmt = conn.prepareStatement(sql);
-				ResultSet rs = stmt.executeQuery()) {
-
-			if (rs.next()) {
-				int remaining = rs.getInt("remainingExtensions");
-				return remaining < 1; // block now to preserve space for reservation
+	public void refreshExtensionCapacity() {
+		if (LOTS.isEmpty()) {
+			loadLots();
+		}
+		for (LotRegistry.Lot lot : LOTS.all()) {
+			if (!lot.isOwned()) {
+				continue; // counted by the node that owns the lot
 			}
-		} catch (SQLException e) {
-			System.err.println("Error in extensionWouldBlockReservation: " + e.getMessage());
+			if (!EXTENSIONS.isLoaded(lot.getName())) {
+				loadExtensionCapacity(lot.getName());
+				continue;
+			}
+			long stamp = EXTENSIONS.reservationStamp(lot.getName());
+			int upcoming = getUpcomingReservationCount(lot.getName());
+			if (upcoming >= 0) {
+				EXTENSIONS.setUpcomingReservations(lot.getName(), upcoming, stamp);
+			}
+			loadPendingReservations(lot.getName());
 		}
-
-		return true; // safer to block in case of DB error
 	}
 
-
 	/**
-	 * Updates the extension capacity in the DB based on current lot status.
-	 * This method recalculates how many users can still extend their parking.
+	 * Hands the extension counter of a lot the reservations that enter the
+	 * upcoming window within {@link #PENDING_RESERVATION_MINUTES}, so each one
+	 * holds back an extension as soon as it is within 4 hours instead of at the
+	 * next re-count.
 	 *
 	 * @param lotName the name of the parking lot
 	 */
-	public void updateRemainingExtensionCapacity(String lotName) {
-		try {
-			int totalSpots = getTotalSpots(lotName);
-			int reservations = getUpcomingReservationCount(lotName);
-			int alreadyExtended = getExtendedParkingsCount(lotName);
-
-			int allowedExtensions = totalSpots - reservations - alreadyExtended - 1;
-			if (allowedExtensions < 0) allowedExtensions = 0;
-
-			// Make sure the row exists (for first-time insert)
-			PreparedStatement insertStmt = conn.prepareStatement(
-					"INSERT IGNORE INTO bpark.extensionCapacity (lotName, remainingExtensions) VALUES (?, ?)"
-					);
-			insertStmt.setString(1, lotName);
-			insertStmt.setInt(2, allowedExtensions);
-			insertStmt.executeUpdate();
-
-			// Then update the value to reflect real-time state
-			PreparedStatement updateStmt = conn.prepareStatement(
-					"UPDATE bpark.extensionCapacity SET remainingExtensions = ? WHERE lotName = ?"
-					);
-			updateStmt.setInt(1, allowedExtensions);
-			updateStmt.setString(2, lotName);
-			updateStmt.executeUpdate();
+	private void loadPendingReservations(String lotName) {
+		String sql = """
+				    SELECT o.order_number, o.startAt
+				    FROM bpark.`order` o
+				    JOIN bpark.parkingSpaces ps ON o.parking_space = ps.parking_space
+				    WHERE o.status = 'ACTIVE'
+				      AND ps.NameParkingLot = ?
+				      AND o.startAt > NOW() + INTERVAL 4 HOUR
+				      AND o.startAt <= NOW() + INTERVAL 4 HOUR + INTERVAL ? MINUTE
+				""";
 
+		Map<Integer, Long> starts = new HashMap<>();
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, lotName);
+			stmt.setInt(2, PENDING_RESERVATION_MINUTES);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					starts.put(rs.getInt(1), rs.getTimestamp(2).getTime());
+				}
+			}
 		} catch (SQLException e) {
-			System.err.println("Failed to update extension capacity: " + e.getMessage());
+			System.err.println("Error in loadPendingReservations: " + e.getMessage());
+			return;
 		}
+		EXTENSIONS.addPending(lotName, starts);
 	}
 
 	/**
@@ -1569,10 +2491,11 @@ public class DBController {
 	 */
 	public int getTotalSpots(String lotName) {
 		String sql = "SELECT totalSpots FROM bpark.parkingLot WHERE NameParkingLot = ?";
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
 			stmt.setString(1, lotName);
-			ResultSet rs = stmt.executeQuery();
-			if (rs.next()) return rs.getInt("totalSpots");
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) return rs.getInt("totalSpots");
+			}
 		} catch (SQLException e) {
 			System.err.println("Error in getTotalSpots: " + e.getMessage());
 		}
@@ -1584,7 +2507,7 @@ public class DBController {
 	 * These affect the limit on who can extend parking.
 	 *
 	 * @param lotName the lot name
-	 * @return number of upcoming reservations
+	 * @return number of upcoming reservations, or -1 on error
 	 */
 	public int getUpcomingReservationCount(String lotName) {
 		String sql = """
@@ -1592,22 +2515,25 @@ public class DBController {
 				    FROM bpark.`order` o
 				    JOIN bpark.parkingSpaces ps ON o.parking_space = ps.parking_space
 				    WHERE o.status = 'ACTIVE'
-				      AND TIMESTAMP(o.order_date, o.arrival_time) BETWEEN NOW() AND DATE_ADD(NOW(), INTERVAL 4 HOUR)
+				      AND ps.NameParkingLot = ?
+				      AND o.startAt BETWEEN NOW() AND NOW() + INTERVAL 4 HOUR
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-			ResultSet rs = stmt.executeQuery();
-			if (rs.next()) return rs.getInt("cnt");
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
+			stmt.setString(1, lotName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) return rs.getInt("cnt");
+			}
 		} catch (SQLException e) {
 			System.err.println("Error in getUpcomingReservationCount: " + e.getMessage());
 		}
-		return 0;
+		return -1;
 	}
 
 	/**
 	 * Returns how many active sessions in the lot have already been extended.
 	 * @param lotName the lot name
-	 * @return number of extended (and still active) sessions
+	 * @return number of extended (and still active) sessions, or -1 on error
 	 */
 	public int getExtendedParkingsCount(String lotName) {
 		String sql = """
@@ -1618,14 +2544,15 @@ public class DBController {
 				      AND NameParkingLot = ?
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
 			stmt.setString(1, lotName);
-			ResultSet rs = stmt.executeQuery();
-			if (rs.next()) return rs.getInt("cnt");
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) return rs.getInt("cnt");
+			}
 		} catch (SQLException e) {
 			System.err.println("Error in getExtendedParkingsCount: " + e.getMessage());
 		}
-		return 0;
+		return -1;
 	}
 
 	/**
@@ -1668,26 +2595,26 @@ public class DBController {
 	 */
 	private boolean subscriberIsLateByParkingCode(int parkingCode) {
 		// query to find an active parking event by parking code (not yet exited)
-		String query = "SELECT * FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL AND exitHour IS NULL";
+		String query = "SELECT * FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set the parking code in the query
 			stmt.setInt(1, parkingCode);
-			ResultSet rs = stmt.executeQuery();
-
-			// If a matching active event is found
-			if (rs.next()) {
-				// Extract entry date and hour
-				LocalDate entryDate = rs.getDate("entryDate").toLocalDate();
-				LocalTime entryHour = rs.getTime("entryHour").toLocalTime();
-				// Calculate time passed since entry
-				LocalDateTime entryTime = LocalDateTime.of(entryDate, entryHour);
-				LocalDateTime now = LocalDateTime.now();
+			try (ResultSet rs = stmt.executeQuery()) {
+				// If a matching active event is found
+				if (rs.next()) {
+					// Extract entry date and hour
+					LocalDate entryDate = rs.getDate("entryDate").toLocalDate();
+					LocalTime entryHour = rs.getTime("entryHour").toLocalTime();
+					// Calculate time passed since entry
+					LocalDateTime entryTime = LocalDateTime.of(entryDate, entryHour);
+					LocalDateTime now = LocalDateTime.now();
 
-				long minutes = Duration.between(entryTime, now).toMinutes();
+					long minutes = Duration.between(entryTime, now).toMinutes();
 
-				// Return true if parking duration exceeds 240 minutes (4 hours)
-				return minutes > 240;
+					// Return true if parking duration exceeds 240 minutes (4 hours)
+					return minutes > 240;
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error checking if parking code is late: " + e.getMessage());
@@ -1697,22 +2624,23 @@ public class DBController {
 	}
 
 	/**
-	 * Checks if there is an open parking event with the given parking code
+	 * Finds the lot of the open parking event with the given parking code
 	 * An open parking event means that exitDate and exitHour are NULL
 	 *
 	 * @param parkingCode the parking code to check
-	 * @return true if an open parking event exists for the code, false otherwise
+	 * @return the lot name if an open parking event exists for the code, null otherwise
 	 */
-	private boolean openParkingCodeExists(int parkingCode) {
-		// query to check if there is an active parking event with the given parking code
-		String query = "SELECT 1 FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL AND exitHour IS NULL LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+	public String findOpenParkingLot(int parkingCode) {
+		// query to find the active parking event with the given parking code
+		String query = "SELECT NameParkingLot FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL LIMIT 1";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, parkingCode); 	// Set the parking code in the query
-			ResultSet rs = stmt.executeQuery(); //execute
-			return rs.next(); // Return true if a matching active event was found
+			try (ResultSet rs = stmt.executeQuery()) { //execute
+				return rs.next() ? rs.getString("NameParkingLot") : null; // lot of the matching active event
+			}
 		} catch (SQLException e) {
 			System.err.println("Error checking open parking code: " + e.getMessage());
-			return false;
+			return null;
 		}
 	}
 
@@ -1725,12 +2653,13 @@ public class DBController {
 	 */
 	private boolean parkingCodeWasExtended(int parkingCode) {
 		// Query to check if the parking session with the given code was already extended
-		String query = "SELECT wasExtended FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL AND exitHour IS NULL LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		String query = "SELECT wasExtended FROM parkingEvent WHERE parkingCode = ? AND exitDate IS NULL LIMIT 1";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, parkingCode); // Set the parking code parameter
-			ResultSet rs = stmt.executeQuery();
-			if (rs.next()) { // If a record is found, return the 'wasExtended' flag
-				return rs.getBoolean("wasExtended");
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) { // If a record is found, return the 'wasExtended' flag
+					return rs.getBoolean("wasExtended");
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error checking if parking code was extended: " + e.getMessage());
@@ -1752,11 +2681,11 @@ public class DBController {
 				    FROM `order`
 				    WHERE `status` = 'ACTIVE'
 				      AND order_date = CURDATE()
-				      AND TIMESTAMP(order_date, arrival_time) BETWEEN NOW() AND DATE_ADD(NOW(), INTERVAL 4 HOUR)
+				      AND startAt BETWEEN NOW() AND NOW() + INTERVAL 4 HOUR
 				    LIMIT 1
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql);
+		try (PreparedStatement stmt = conn().prepareStatement(sql);
 				ResultSet rs = stmt.executeQuery()) {
 			return rs.next(); // If any result is returned, there is a reservation in the next 4 hours
 		} catch (SQLException e) {
@@ -1766,217 +2695,365 @@ public class DBController {
 	}
 
 	/**
-	 * Generates the next available subscriber code by retrieving the current maximum
-	 * value from the database and adding 1. 
-	 * If the table is empty (i.e., no subscribers exist), returns the default starting value 1011.
+	 * Reserves a block of consecutive values from a row of the id_sequence table.
+	 * The sequence is advanced with a single atomic UPDATE; LAST_INSERT_ID(expr)
+	 * makes the new value come back in the same round trip, so concurrent callers
+	 * always receive disjoint blocks.
 	 *
-	 * @return the next available subscriber code
+	 * @param sequence  name of the sequence row (e.g. "subscriberCode")
+	 * @param blockSize how many values to reserve
+	 * @return the first value of the reserved block
+	 * @throws SQLException if the sequence row is missing or the update fails
 	 */
-	public int getNextSubscriberCode() {
-		// query get the highest subscriberCode currently in the table
-		String query = "SELECT MAX(subscriberCode) FROM bpark.subscriber";
-		try (PreparedStatement stmt = conn.prepareStatement(query); ResultSet rs = stmt.executeQuery()) {
-			if (rs.next()) { // If table is empty (max = 0), start from 1011. Otherwise, return next available code.
-				int currentMax = rs.getInt(1);
-				return (currentMax == 0 ? 1011 : currentMax + 1);
+	public int reserveIdBlock(String sequence, int blockSize) throws SQLException {
+		String sql = "UPDATE bpark.id_sequence SET nextValue = LAST_INSERT_ID(nextValue + ?) WHERE name = ?";
+		try (PreparedStatement stmt = conn().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+			stmt.setInt(1, blockSize);
+			stmt.setString(2, sequence);
+			if (stmt.executeUpdate() != 1) {
+				throw new SQLException("Unknown id sequence: " + sequence);
+			}
+			try (ResultSet rs = stmt.getGeneratedKeys()) { // the LAST_INSERT_ID value set above
+				if (!rs.next()) {
+					throw new SQLException("No value returned for id sequence: " + sequence);
+				}
+				return rs.getInt(1) - blockSize; // new nextValue minus the reserved block
 			}
-		} catch (SQLException e) {
-			System.err.println("Error generating subscriber code: " + e.getMessage());
 		}
-		return 1011; // // Default return value in case of failure
 	}
 
 	/**
-	 * Generates the next unique tag ID for a new subscriber in the format "TAG_XXX",
-	 * where XXX is a zero-padded sequence number based on the current number of subscribers.
-	 * For example: if there are 15 subscribers, returns "TAG_016".
+	 * Checks in a single query which of the new subscriber's unique fields are
+	 * already taken (username, email, phone, ID and vehicle).
 	 *
-	 * @return the newly generated tag ID; returns "TAG_999" if an error occurs
+	 * @param s         the subscriber to check
+	 * @param vehicleId the vehicle to register, or null for none
+	 * @return names of the duplicate fields ("username", "email", "phone", "id",
+	 *         "vehicle"); empty if none
+	 * @throws SQLException if the query fails
 	 */
-	public String generateNextTagId() {
-		// Query to count how many subscribers exist in the database
-		String query = "SELECT COUNT(*) FROM bpark.subscriber";
-		try (PreparedStatement stmt = conn.prepareStatement(query); ResultSet rs = stmt.executeQuery()) {
-			if (rs.next()) { 
-				// Generate new tag ID based on the count (e.g., TAG_001, TAG_045, etc.)
-				int count = rs.getInt(1) + 1;
-				return "TAG_" + String.format("%03d", count);
+	public List<String> findDuplicateFields(Subscriber s, String vehicleId) throws SQLException {
+		// one round trip: every uniqueness check is a scalar EXISTS sub-query
+		final String sql = """
+				SELECT EXISTS(SELECT 1 FROM bpark.user       WHERE BINARY username = ?) AS username,
+				       EXISTS(SELECT 1 FROM bpark.subscriber WHERE email = ?)           AS email,
+				       EXISTS(SELECT 1 FROM bpark.subscriber WHERE phoneNumber = ?)     AS phone,
+				       EXISTS(SELECT 1 FROM bpark.subscriber WHERE userId = ?)          AS id,
+				       EXISTS(SELECT 1 FROM bpark.vehicle    WHERE vehicleId = ?)       AS vehicle
+				""";
+		List<String> duplicates = new ArrayList<>();
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
+			ps.setString(1, s.getUsername());
+			ps.setString(2, s.getEmail());
+			ps.setString(3, s.getPhoneNum());
+			ps.setString(4, s.getUserId());
+			ps.setString(5, vehicleId); // NULL never matches
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					for (String field : new String[] { "username", "email", "phone", "id", "vehicle" }) {
+						if (rs.getBoolean(field)) {
+							duplicates.add(field);
+						}
+					}
+				}
 			}
-		} catch (SQLException e) {
-			System.err.println("Error generating tag ID: " + e.getMessage());
 		}
-		return "TAG_999"; 	// Fallback tag ID in case of failure
+		return duplicates;
 	}
 
 	/**
-	 * Inserts a new subscriber into the database.
+	 * Finds which of the given values are already taken, for a whole batch of new
+	 * subscribers at once. Used by the bulk import to check a chunk of rows with a
+	 * single query.
 	 *
-	 * @param s the subscriber object to insert
-	 * @return true if insertion succeeded
+	 * @param subscribers the subscribers to check
+	 * @param vehicleIds  vehicles to check (null entries are ignored)
+	 * @return map from field name ("username", "email", "phone", "id", "vehicle")
+	 *         to the set of values of that field that already exist
+	 * @throws SQLException if the query fails
 	 */
-	public boolean insertSubscriber(Subscriber s) {
-		//query to insert a new subscriber into the database
-		String sql = "INSERT INTO bpark.subscriber "
-				+ "(subscriberCode, userId, firstName, lastName, phoneNumber, email, username, tagId) "
-				+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-			// Set values from the Subscriber object into the prepared statement
-			stmt.setInt(1, s.getSubscriberCode());
-			stmt.setString(2, s.getUserId());
-			stmt.setString(3, s.getFirstName());
-			stmt.setString(4, s.getLastName());
-			stmt.setString(5, s.getPhoneNum());
-			stmt.setString(6, s.getEmail());
-			stmt.setString(7, s.getUsername());
-			stmt.setString(8, s.getTagId());
-			return stmt.executeUpdate() == 1; // Execute the insert query and return true if one row was inserted
-		} catch (SQLException e) {
-			System.err.println("Error inserting subscriber: " + e.getMessage());
-			return false;
+	public Map<String, Set<String>> findTakenValues(List<Subscriber> subscribers, List<String> vehicleIds)
+			throws SQLException {
+		Map<String, List<String>> probes = new LinkedHashMap<>();
+		probes.put("username", new ArrayList<>());
+		probes.put("email", new ArrayList<>());
+		probes.put("phone", new ArrayList<>());
+		probes.put("id", new ArrayList<>());
+		probes.put("vehicle", new ArrayList<>());
+		for (Subscriber s : subscribers) {
+			probes.get("username").add(s.getUsername());
+			probes.get("email").add(s.getEmail());
+			probes.get("phone").add(s.getPhoneNum());
+			probes.get("id").add(s.getUserId());
+		}
+		for (String vehicleId : vehicleIds) {
+			if (vehicleId != null) {
+				probes.get("vehicle").add(vehicleId);
+			}
+		}
+
+		// table/column each field is checked against
+		Map<String, String> sources = Map.of(
+				"username", "username FROM bpark.user WHERE BINARY username",
+				"email", "email FROM bpark.subscriber WHERE email",
+				"phone", "phoneNumber FROM bpark.subscriber WHERE phoneNumber",
+				"id", "userId FROM bpark.subscriber WHERE userId",
+				"vehicle", "vehicleId FROM bpark.vehicle WHERE vehicleId");
+
+		// SELECT '<field>', <column> FROM <table> WHERE <column> IN (?, ...) UNION ALL ...
+		StringBuilder sql = new StringBuilder();
+		List<String> params = new ArrayList<>();
+		for (Map.Entry<String, List<String>> probe : probes.entrySet()) {
+			if (probe.getValue().isEmpty()) {
+				continue;
+			}
+			if (sql.length() > 0) {
+				sql.append(" UNION ALL ");
+			}
+			sql.append("SELECT '").append(probe.getKey()).append("' AS field, ")
+					.append(sources.get(probe.getKey())).append(" IN (")
+					.append(String.join(", ", Collections.nCopies(probe.getValue().size(), "?")))
+					.append(")");
+			params.addAll(probe.getValue());
+		}
+
+		Map<String, Set<String>> taken = new HashMap<>();
+		for (String field : probes.keySet()) {
+			taken.put(field, new HashSet<>());
+		}
+		if (params.isEmpty()) {
+			return taken;
+		}
+
+		try (PreparedStatement ps = conn().prepareStatement(sql.toString())) {
+			for (int i = 0; i < params.size(); i++) {
+				ps.setString(i + 1, params.get(i));
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					taken.get(rs.getString(1)).add(rs.getString(2));
+				}
+			}
 		}
+		return taken;
 	}
 
 	/**
-	 * Inserts a new user into the database.
+	 * Registers one new subscriber: inserts the user, the subscriber and the
+	 * optional vehicle in a single transaction, so a failure never leaves a user
+	 * without a subscriber row.
 	 *
-	 * @param user the user object containing username, password, and role
-	 * @return true if the user was successfully inserted, false otherwise
+	 * @param registration the subscriber, temporary password and vehicle
+	 * @return true if everything was inserted, false if the transaction was rolled back
 	 */
-	public boolean insertUser(User user) {
-		// query to insert a new user into the 'user' table
-		String sql = "INSERT INTO bpark.user (username, password, role) VALUES (?, ?, ?)";
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-			// Set username, password, and role values from the User object
-			stmt.setString(1, user.getUsername());
-			stmt.setString(2, user.getPassword());
-			stmt.setString(3, user.getRole().toString());
-			return stmt.executeUpdate() == 1; 	// Execute the insert and return true if exactly one row was inserted
+	public boolean registerSubscriber(SubscriberRegistration registration) {
+		try {
+			registerSubscribers(List.of(registration));
+			return true;
 		} catch (SQLException e) {
-			return false; // Return false if an error occurred (no logging here)
+			System.err.println("Error registering subscriber: " + e.getMessage());
+			return false;
 		}
 	}
 
 	/**
-	 * Inserts a new vehicle and assigns it to a subscriber.
-	 *
-	 * @param vehicleId the vehicle ID (e.g. license plate)
-	 * @param subscriberCode the subscriber this vehicle belongs to
-	 * @return true if insertion succeeded, false otherwise
-	 */
-	public boolean insertVehicle(String vehicleId, int subscriberCode) {
-		// query to insert a new vehicle associated with a subscriber
-		String sql = "INSERT INTO vehicle (vehicleId, subscriberCode) VALUES (?, ?)";
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-			// Set vehicle ID and subscriber code
-			stmt.setString(1, vehicleId);
-			stmt.setInt(2, subscriberCode);
-			return stmt.executeUpdate() == 1; 	// Execute the insert and return true if exactly one row was inserted
-		} catch (SQLException e) {
-			System.err.println("Error inserting vehicle: " + e.getMessage());
-			return false;
+	 * Registers a batch of new subscribers in one transaction. Users, subscribers
+	 * and vehicles are each written with a single batched INSERT, so the whole
+	 * batch costs a handful of round trips. Either every row is inserted or none.
+	 *
+	 * @param registrations the subscribers to register
+	 * @throws SQLException if any insert fails (the transaction is rolled back)
+	 */
+	public void registerSubscribers(List<SubscriberRegistration> registrations) throws SQLException {
+		runInTransaction(c -> {
+			try (PreparedStatement userStmt = c.prepareStatement(
+					"INSERT INTO bpark.user (username, password, role) VALUES (?, ?, ?)");
+					PreparedStatement subStmt = c.prepareStatement("INSERT INTO bpark.subscriber "
+							+ "(subscriberCode, userId, firstName, lastName, phoneNumber, email, username, tagId) "
+							+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+					PreparedStatement vehicleStmt = c.prepareStatement(
+							"INSERT INTO bpark.vehicle (vehicleId, subscriberCode) VALUES (?, ?)")) {
+				boolean anyVehicle = false;
+				for (SubscriberRegistration r : registrations) {
+					Subscriber s = r.getSubscriber();
+
+					userStmt.setString(1, s.getUsername());
+					userStmt.setString(2, r.getPassword());
+					userStmt.setString(3, UserRole.Subscriber.toString());
+					userStmt.addBatch();
+
+					subStmt.setInt(1, s.getSubscriberCode());
+					subStmt.setString(2, s.getUserId());
+					subStmt.setString(3, s.getFirstName());
+					subStmt.setString(4, s.getLastName());
+					subStmt.setString(5, s.getPhoneNum());
+					subStmt.setString(6, s.getEmail());
+					subStmt.setString(7, s.getUsername());
+					subStmt.setString(8, s.getTagId());
+					subStmt.addBatch();
+
+					if (r.getVehicleId() != null) {
+						vehicleStmt.setString(1, r.getVehicleId());
+						vehicleStmt.setInt(2, s.getSubscriberCode());
+						vehicleStmt.addBatch();
+						anyVehicle = true;
+					}
+				}
+				// order matters: subscriber references user, vehicle references subscriber
+				userStmt.executeBatch();
+				subStmt.executeBatch();
+				if (anyVehicle) {
+					vehicleStmt.executeBatch();
+				}
+			}
+			return null;
+		});
+
+		// committed - the new tags can be read at the gates right away
+		for (SubscriberRegistration r : registrations) {
+			TAGS.putTag(r.getSubscriber().getTagId(), r.getSubscriber().getSubscriberCode());
+			PROFILES.invalidate(r.getSubscriber().getSubscriberCode()); // drop anything read before the commit
 		}
 	}
 
 	/**
-	 * Checks whether a vehicle with the given ID already exists in the database.
+	 * Runs the given work as one transaction on the dedicated transaction
+	 * connection. Commits when the work completes and rolls back on any failure.
+	 * Transactions are serialized, so the shared auto-commit connection used by
+	 * all other queries is never affected. On a dispatcher worker the transaction
+	 * runs on the worker's own connection instead, in parallel with the others.
 	 *
-	 * @param vehicleId the vehicle ID to check
-	 * @return true if the vehicle already exists, false otherwise
+	 * @param work the statements to run
+	 * @param <T>  type of the value returned by the work
+	 * @return the value returned by the work
+	 * @throws SQLException if the work or the commit fails
 	 */
-	public boolean vehicleExists(String vehicleId) {
-		// query to check if a vehicle with the given ID exists
-		String query = "SELECT 1 FROM vehicle WHERE vehicleId = ? LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			stmt.setString(1, vehicleId); // set the parameter in the query
-			ResultSet rs = stmt.executeQuery(); // execture
-			return rs.next(); // if there is next
-		} catch (SQLException e) {
-			System.err.println("Error checking vehicle existence: " + e.getMessage());
-			return false;
+	private <T> T runInTransaction(TransactionWork<T> work) throws SQLException {
+		Connection worker = WORKER_CONN.get();
+		if (worker != null) { // the worker's own connection - no need to wait for other transactions
+			worker.setAutoCommit(false);
+			try {
+				T result = work.run(worker);
+				worker.commit();
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				worker.rollback();
+				throw e;
+			} finally {
+				worker.setAutoCommit(true);
+			}
+		}
+		synchronized (TX_LOCK) {
+			if (txConn == null || txConn.isClosed()) {
+				txConn = DriverManager.getConnection(DB_URL, connectionProperties());
+				txConn.setAutoCommit(false);
+			}
+			try {
+				T result = work.run(txConn);
+				txConn.commit();
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				txConn.rollback();
+				throw e;
+			}
 		}
 	}
 
 	/**
-	 * Checks whether the provided email is already associated with an existing
-	 * subscriber.
+	 * A unit of work executed inside {@link #runInTransaction(TransactionWork)}.
 	 *
-	 * @param email the email to check
-	 * @return true if the email exists, false otherwise
-	 */
-	public boolean emailExists(String email) {
-		// query to check if an email already exists in the subscriber table
-		String query = "SELECT 1 FROM bpark.subscriber WHERE email = ? LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			stmt.setString(1, email); // set to the paramter in the query
-			ResultSet rs = stmt.executeQuery();
-			return rs.next(); // true if exists
-		} catch (SQLException e) {
-			System.err.println("Error checking email existence: " + e.getMessage());
-			return false;
-		}
+	 * @param <T> type of the value returned by the work
+	 */
+	@FunctionalInterface
+	private interface TransactionWork<T> {
+
+		/**
+		 * Runs the statements of the transaction.
+		 *
+		 * @param c the transaction connection (auto-commit disabled)
+		 * @return any result of the work
+		 * @throws SQLException if a statement fails
+		 */
+		T run(Connection c) throws SQLException;
 	}
 
 	/**
-	 * Checks whether a **case-sensitive** username already exists.
+	 * Runs a query and hands its rows to the sink one by one while they arrive
+	 * from the DB. The query runs on the dedicated streaming connection with row
+	 * streaming enabled, so neither the driver nor this method ever holds the
+	 * whole result. Streams are serialized, since a connection can not run
+	 * anything else while a streamed result is open; on a dispatcher worker the
+	 * query streams on the worker's own connection instead.
 	 *
-	 * @param username exact username to check
-	 * @return true if username is taken
+	 * @param sql    the query
+	 * @param mapper builds a row object from the current result row
+	 * @param sink   receives the row objects
+	 * @param params values for the query's ? placeholders, in order
+	 * @param <T>    type of the row objects
+	 * @throws SQLException if the query fails
+	 * @throws IOException  if the sink fails (the rest of the rows is skipped)
 	 */
-	public boolean usernameExists(String username) {
-		// query to check if a username exists (case-sensitive due to BINARY)
-		final String sql = """
-				SELECT 1
-				FROM   bpark.user
-				WHERE  BINARY username = ?
-				LIMIT  1
-				""";
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
-			ps.setString(1, username); //set the parameter to query
-			return ps.executeQuery().next(); // Execute the query and return true if a match is found
-		} catch (SQLException e) {
-			System.err.println("[DB] usernameExists: " + e.getMessage());
-			return false;
+	private <T> void streamRows(String sql, RowMapper<T> mapper, RowSink<T> sink, Object... params)
+			throws SQLException, IOException {
+		Connection worker = WORKER_CONN.get();
+		if (worker != null) { // nothing else uses the worker's connection while it streams
+			streamRows(worker, sql, mapper, sink, params);
+			return;
+		}
+		synchronized (STREAM_LOCK) {
+			if (streamConn == null || streamConn.isClosed()) {
+				streamConn = DriverManager.getConnection(DB_URL, connectionProperties());
+			}
+			streamRows(streamConn, sql, mapper, sink, params);
 		}
 	}
 
 	/**
-	 * Checks if a phone number already exists in the subscriber table.
+	 * Runs a streamed query on the given connection, see
+	 * {@link #streamRows(String, RowMapper, RowSink, Object...)}.
 	 *
-	 * @param phone the phone number to check
-	 * @return true if the phone exists, false otherwise
+	 * @param c      the connection, not used by anything else meanwhile
+	 * @param sql    the query
+	 * @param mapper builds a row object from the current result row
+	 * @param sink   receives the row objects
+	 * @param params values for the query's ? placeholders, in order
+	 * @param <T>    type of the row objects
+	 * @throws SQLException if the query fails
+	 * @throws IOException  if the sink fails
 	 */
-	public boolean phoneExists(String phone) {
-		// query to check if a phone number already exists in the subscriber table
-		String query = "SELECT 1 FROM bpark.subscriber WHERE phoneNumber = ? LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			stmt.setString(1, phone); //set parameter to the query
-			try (ResultSet rs = stmt.executeQuery()) {
-				return rs.next(); // returns true if a row was found
+	private static <T> void streamRows(Connection c, String sql, RowMapper<T> mapper, RowSink<T> sink,
+			Object... params) throws SQLException, IOException {
+		try (PreparedStatement ps = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY)) {
+			ps.setFetchSize(Integer.MIN_VALUE); // MySQL: stream rows instead of buffering the result
+			for (int i = 0; i < params.length; i++) {
+				ps.setObject(i + 1, params[i]);
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					sink.accept(mapper.map(rs));
+				}
 			}
-		} catch (SQLException e) {
-			System.err.println("Error checking if phone exists: " + e.getMessage());
-			return false;
 		}
 	}
 
 	/**
-	 * Checks if a user ID (ID) already exists in the subscriber table.
+	 * Builds one row object of a streamed query, see
+	 * {@link #streamRows(String, RowMapper, RowSink, Object...)}.
 	 *
-	 * @param userId the ID to check
-	 * @return true if the ID exists, false otherwise
+	 * @param <T> type of the row objects
 	 */
-	public boolean idExists(String userId) {
-		// query to check if a user ID already exists in the subscriber table
-		String query = "SELECT 1 FROM bpark.subscriber WHERE userId = ? LIMIT 1";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			stmt.setString(1, userId); //set to the paramter in the query
-			try (ResultSet rs = stmt.executeQuery()) {
-				return rs.next(); // true if a row exists
-			}
-		} catch (SQLException e) {
-			System.err.println("Error checking if ID exists: " + e.getMessage());
-			return false;
-		}
+	@FunctionalInterface
+	private interface RowMapper<T> {
+
+		/**
+		 * Reads the current row.
+		 *
+		 * @param rs the result set, positioned on the row
+		 * @return the row object
+		 * @throws SQLException if a column can not be read
+		 */
+		T map(ResultSet rs) throws SQLException;
 	}
 
 	/**
@@ -1993,7 +3070,7 @@ public class DBController {
 		//  query to retrieve active parking events that haven't been flagged for late message
 		String query = "SELECT * FROM parkingEvent WHERE exitDate IS NULL AND sendMsgForLating=FALSE";
 
-		try (PreparedStatement ps = conn.prepareStatement(query); ResultSet rs = ps.executeQuery()) {
+		try (PreparedStatement ps = conn().prepareStatement(query); ResultSet rs = ps.executeQuery()) {
 			while (rs.next()) {
 				ParkingEvent event = new ParkingEvent();
 
@@ -2014,7 +3091,9 @@ public class DBController {
 				//check if subscriber is lating according if he extended
 				double timeOfParking=duration.toMinutes()/60.0;
 				// Add to list if the subscriber is late based on whether they extended or not
-				if ((event.isWasExtended() && timeOfParking>8) || ((!event.isWasExtended() )&& timeOfParking>4)) {
+				// (only for lots this server node runs - other nodes notify their own lots)
+				if (ownsLot(event.getLot())
+						&& ((event.isWasExtended() && timeOfParking>8) || ((!event.isWasExtended() )&& timeOfParking>4))) {
 					list.add(event);
 				} 
 			}
@@ -2037,7 +3116,7 @@ public class DBController {
 	public void markSendMail(int subscriberCode) {
 		// query to mark that a late notification was sent for the subscriber
 		String query = "UPDATE parkingEvent SET sendMsgForLating=TRUE WHERE subscriberCode=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setInt(1, subscriberCode); // set the paramter in the query
 			int rowsUpdated = stmt.executeUpdate(); //execute
 		} catch (SQLException e) {
@@ -2055,7 +3134,7 @@ public class DBController {
 		// query to count the total number of parking spaces in the system
 		final String sql = "SELECT COUNT(*) FROM bpark.parkingSpaces";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
 
 			if (rs.next()) { // If result is returned, extract and return the total count
 				return rs.getInt(1);
@@ -2077,7 +3156,7 @@ public class DBController {
 		// SQL query to count the number of currently occupied parking spaces
 		final String sql = "SELECT COUNT(*) FROM bpark.parkingSpaces WHERE is_occupied = TRUE";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
 
 			// Return the count if a result is found
 			if (rs.next()) {
@@ -2107,11 +3186,11 @@ public class DBController {
 		String query = """
 				    SELECT COUNT(*) FROM `order`
 				    WHERE `status` = 'ACTIVE'
-				    AND TIMESTAMP(order_date, arrival_time) BETWEEN NOW() AND NOW() + INTERVAL 4 HOUR
+				    AND startAt BETWEEN NOW() AND NOW() + INTERVAL 4 HOUR
 				""";
 
 		try (
-				PreparedStatement stmt = conn.prepareStatement(query);
+				PreparedStatement stmt = conn().prepareStatement(query);
 				ResultSet rs = stmt.executeQuery()
 				) {
 			// If the query returned something, grab the count
@@ -2135,7 +3214,7 @@ public class DBController {
 	 */
 	private ParkingReport getDataForParkingReport(Date date) {
 		// query to retrieve parking events for the given month and year
-		String query = "SELECT * FROM parkingEvent WHERE YEAR(entryDate)=? AND MONTH(entryDate)=?";
+		String query = "SELECT * FROM parkingEvent WHERE entryYear=? AND entryMonth=?";
 
 		// Extract year and month from the input date
 		LocalDate local = date.toLocalDate();
@@ -2150,50 +3229,51 @@ public class DBController {
 		int lessThanFourHours=0;
 		int betweenFourToEight=0;
 		int moreThanEight=0;
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set year and month in the SQL query
 			stmt.setInt(1, year);
 			stmt.setInt(2, month);
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) { // Iterate through the results
-				totalEntries++;
-				// Skip if exit date or hour is missing (still active)
-				if (rs.getDate("exitDate") == null || rs.getTime("exitHour") == null) {
-					continue;
-				}
-				// Calculate duration of parking session in hours
-				LocalDateTime entryDateTime = LocalDateTime.of(rs.getDate("entryDate").toLocalDate(), rs.getTime("entryHour").toLocalTime());
-				LocalDateTime exitDateTime = LocalDateTime.of(rs.getDate("exitDate").toLocalDate(), rs.getTime("exitHour").toLocalTime());
-				Duration duration = Duration.between(entryDateTime, exitDateTime);
-				long minutes=duration.toMinutes();
-				double durationOfParking=minutes/60.0;
-
-				// Categorize duration into 3 buckets
-				if(durationOfParking <4) {
-					lessThanFourHours++;
-				}
-				else if(durationOfParking>=4 && durationOfParking<8) {
-					betweenFourToEight++;
-				}
-				else {
-					moreThanEight++;
-				}
-				// Count extensions and late sessions
-				if (rs.getBoolean("wasExtended")) {
-					totalExtends++;
-					if (durationOfParking>8) {
-						totalLates++;
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) { // Iterate through the results
+					totalEntries++;
+					// Skip if exit date or hour is missing (still active)
+					if (rs.getDate("exitDate") == null || rs.getTime("exitHour") == null) {
+						continue;
 					}
-				}
-				else {
-					if (durationOfParking>4) {
-						totalLates++;
+					// Calculate duration of parking session in hours
+					LocalDateTime entryDateTime = LocalDateTime.of(rs.getDate("entryDate").toLocalDate(), rs.getTime("entryHour").toLocalTime());
+					LocalDateTime exitDateTime = LocalDateTime.of(rs.getDate("exitDate").toLocalDate(), rs.getTime("exitHour").toLocalTime());
+					Duration duration = Duration.between(entryDateTime, exitDateTime);
+					long minutes=duration.toMinutes();
+					double durationOfParking=minutes/60.0;
+
+					// Categorize duration into 3 buckets
+					if(durationOfParking <4) {
+						lessThanFourHours++;
+					}
+					else if(durationOfParking>=4 && durationOfParking<8) {
+						betweenFourToEight++;
+					}
+					else {
+						moreThanEight++;
+					}
+					// Count extensions and late sessions
+					if (rs.getBoolean("wasExtended")) {
+						totalExtends++;
+						if (durationOfParking>8) {
+							totalLates++;
+						}
+					}
+					else {
+						if (durationOfParking>4) {
+							totalLates++;
+						}
 					}
-				}
 
+				}
+				// Return a report object with the gathered stats
+				return new ParkingReport(totalEntries, totalExtends, totalLates, lessThanFourHours, betweenFourToEight, moreThanEight);
 			}
-			// Return a report object with the gathered stats
-			return new ParkingReport(totalEntries, totalExtends, totalLates, lessThanFourHours, betweenFourToEight, moreThanEight);
 		} catch (SQLException e) {
 			System.err.println("Error get data for parking report: " + e.getMessage());
 			e.printStackTrace();
@@ -2212,7 +3292,7 @@ public class DBController {
 
 		// SQL query to insert the report into the parkingReport table
 		String query = "INSERT INTO parkingReport(dateOfParkingReport, totalEntries, totalExtends, totalLates, lessThanFourHours, betweenFourToEight, moreThanEight) VALUES (?, ?, ?, ?, ?, ?, ?);";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set parameters from the ParkingReport object
 			stmt.setDate(1, date);
 			stmt.setInt(2, parkingReport.getTotalEntries());
@@ -2238,11 +3318,12 @@ public class DBController {
 	public boolean parkingReportExists(Date date) {
 		// SQL query to check if a parking report already exists for the given date
 		String query="SELECT * FROM parkingReport WHERE dateOfParkingReport=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			stmt.setDate(1, date); // Set the date parameter
-			ResultSet rs = stmt.executeQuery();
-			if (rs.next()) { // If a result exists, the report already exists
-				return true;
+			try (ResultSet rs = stmt.executeQuery()) {
+				if (rs.next()) { // If a result exists, the report already exists
+					return true;
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error check existence of parking report: "+ e.getMessage());
@@ -2261,21 +3342,21 @@ public class DBController {
 	public ParkingReport getParkingReport(Date date) {
 		// SQL query to retrieve a parking report for the given date
 		String query = "SELECT * FROM bpark.parkingReport WHERE dateOfParkingReport=?";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// Set the date parameter in the query
 			stmt.setDate(1, date);
-			ResultSet rs = stmt.executeQuery();
-
-			// If a result exists, build and return the ParkingReport object
-			if (rs.next()) {
-				return new ParkingReport(
-						rs.getInt("totalEntries"),
-						rs.getInt("totalExtends"),
-						rs.getInt("totalLates"),
-						rs.getInt("lessThanFourHours"),
-						rs.getInt("betweenFourToEight"),
-						rs.getInt("moreThanEight")
-						);
+			try (ResultSet rs = stmt.executeQuery()) {
+				// If a result exists, build and return the ParkingReport object
+				if (rs.next()) {
+					return new ParkingReport(
+							rs.getInt("totalEntries"),
+							rs.getInt("totalExtends"),
+							rs.getInt("totalLates"),
+							rs.getInt("lessThanFourHours"),
+							rs.getInt("betweenFourToEight"),
+							rs.getInt("moreThanEight")
+							);
+				}
 			}
 		} catch (SQLException e) {
 			System.err.println("Error getting parking report: " + e.getMessage());
@@ -2309,22 +3390,20 @@ public class DBController {
 				    COALESCE(SUM(pe.wasExtended), 0)                   AS totalExtends,
 				    COALESCE(SUM(pe.sendMsgForLating), 0)              AS totalLates,
 				    COALESCE(SUM(
-				        TIMESTAMPDIFF(MINUTE,
-				                      TIMESTAMP(pe.entryDate, pe.entryHour),
-				                      IFNULL(TIMESTAMP(pe.exitDate, pe.exitHour), NOW()))
+				        TIMESTAMPDIFF(MINUTE, pe.entryAt, IFNULL(pe.exitAt, NOW()))
 				    ), 0) / 60.0                                       AS totalHours
 				FROM subscriber s
 				LEFT JOIN parkingEvent pe
 				       ON s.subscriberCode = pe.subscriberCode
-				      AND YEAR(pe.entryDate)  = ?
-				      AND MONTH(pe.entryDate) = ?
+				      AND pe.entryYear  = ?
+				      AND pe.entryMonth = ?
 				GROUP BY s.subscriberCode, fullName
 				ORDER BY totalHours DESC;
 				""";
 
 		List<SubscriberStatusReport> rows = new ArrayList<>();
 
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			// Set the year and month parameters in the query
 			ps.setInt(1, year);
 			ps.setInt(2, month);
@@ -2366,7 +3445,7 @@ public class DBController {
 		String deleteSQL =
 				"DELETE FROM subscriberStatusReport " +
 						"WHERE reportMonth = ?";
-		try (PreparedStatement del = conn.prepareStatement(deleteSQL)) {
+		try (PreparedStatement del = conn().prepareStatement(deleteSQL)) {
 			del.setDate(1, java.sql.Date.valueOf(String.format("%04d-%02d-01", year, month)));
 			del.executeUpdate();
 		}
@@ -2378,7 +3457,7 @@ public class DBController {
 						"VALUES (?, ?, ?, ?, ?, ?)";
 
 		int inserted = 0;
-		try (PreparedStatement ins = conn.prepareStatement(insertSQL)) {
+		try (PreparedStatement ins = conn().prepareStatement(insertSQL)) {
 			java.sql.Date monthKey =
 					java.sql.Date.valueOf(String.format("%04d-%02d-01", year, month));
 			// Insert each subscriber's status row into the report table
@@ -2419,7 +3498,7 @@ public class DBController {
 
 		List<SubscriberStatusReport> rows = new ArrayList<>();
 
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			// Set the reportMonth date (first of month)
 			ps.setDate(1, java.sql.Date.valueOf(String.format("%04d-%02d-01", year, month)));
 			try (ResultSet rs = ps.executeQuery()) {
@@ -2454,7 +3533,7 @@ public class DBController {
 						"WHERE MONTH(reportMonth)=? AND YEAR(reportMonth)=? " +
 						"LIMIT 1";
 
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			// Set parameters for month and year
 			ps.setInt(1, month);
 			ps.setInt(2, year);
@@ -2477,14 +3556,15 @@ public class DBController {
 		// query to check if an active order already exists for the given subscriber, date, and time
 		String query = "SELECT * FROM bpark.order WHERE subscriberCode = ? AND order_date = ? AND arrival_time = ? AND `status`='ACTIVE'";
 
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
 			// set parameters to query
 			stmt.setInt(1, subscriberCode);
 			stmt.setDate(2, selectedDate);
 			stmt.setTime(3, timeOfArrival);
 
-			ResultSet rs = stmt.executeQuery(); //execute
-			return rs.next(); // if there's at least 1 result of that, it means that there is an order like that that's exists
+			try (ResultSet rs = stmt.executeQuery()) { //execute
+				return rs.next(); // if there's at least 1 result of that, it means that there is an order like that that's exists
+			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -2503,12 +3583,13 @@ public class DBController {
 		ArrayList<Date> datesOfReports=new ArrayList<>(); // Create a list to store report dates
 		// SQL query to retrieve all report dates from the parkingReport table
 		String query="SELECT dateOfParkingReport FROM parkingReport";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			ResultSet rs = stmt.executeQuery();
-			while (rs.next()) { // Add each retrieved date to the list
-				datesOfReports.add(rs.getDate("dateOfParkingReport"));
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) { // Add each retrieved date to the list
+					datesOfReports.add(rs.getDate("dateOfParkingReport"));
+				}
+				return datesOfReports;
 			}
-			return datesOfReports;
 		} catch (SQLException e) {
 			System.err.println("Error getting reports dates: "+e.getMessage());
 			e.printStackTrace();
@@ -2517,16 +3598,66 @@ public class DBController {
 	}
 
 	/**
-	 * set inactive order after 15 minutes from arrival time
+	 * set inactive order after 15 minutes from arrival time.
+	 * Used once at startup to catch up on orders that expired while the server
+	 * was down; afterwards the expiry scheduler expires each order on time.
+	 *
+	 * @return number of orders set inactive, or -1 on error
 	 */
-	public void inactiveReservations() {
+	public int inactiveReservations() {
 		// query  to mark reservations as INACTIVE if their arrival time was more than 15 minutes ago
-		String query="UPDATE `order` SET `status`='INACTIVE' WHERE `status`='ACTIVE' AND TIMESTAMP(order_date, arrival_time) <= NOW() - INTERVAL 15 MINUTE;";
-		try (PreparedStatement stmt = conn.prepareStatement(query)) {
-			int rowsUpdated = stmt.executeUpdate(); //execute
+		String query="UPDATE `order` SET `status`='INACTIVE' WHERE `status`='ACTIVE' AND startAt <= NOW() - INTERVAL 15 MINUTE;";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			return stmt.executeUpdate(); //execute
 		} catch (SQLException e) {
 			System.err.println("Error inactive reservations: "+e.getMessage());
 			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the start time of every ACTIVE order, so the expiry scheduler can
+	 * queue them at startup.
+	 *
+	 * @return order number -> start date and time of the reservation
+	 */
+	public Map<Integer, LocalDateTime> getActiveOrderStartTimes() {
+		Map<Integer, LocalDateTime> startTimes = new LinkedHashMap<>();
+		String query = "SELECT order_number, startAt FROM `order` WHERE `status`='ACTIVE' ORDER BY startAt";
+		try (PreparedStatement stmt = conn().prepareStatement(query);
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				startTimes.put(rs.getInt("order_number"), rs.getTimestamp("startAt").toLocalDateTime());
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading active orders: " + e.getMessage());
+		}
+		return startTimes;
+	}
+
+	/**
+	 * Sets the given orders INACTIVE, if they are still ACTIVE (orders that were
+	 * cancelled or fulfilled in the meantime are left alone). The orders are
+	 * looked up by primary key, so only their own rows are locked.
+	 *
+	 * @param orderNumbers the orders whose grace period ended
+	 * @return number of orders set inactive, or -1 on error
+	 */
+	public int expireReservations(List<Integer> orderNumbers) {
+		if (orderNumbers.isEmpty()) {
+			return 0;
+		}
+		String query = "UPDATE `order` SET `status`='INACTIVE' WHERE `status`='ACTIVE' AND order_number IN ("
+				+ String.join(",", Collections.nCopies(orderNumbers.size(), "?")) + ")";
+		try (PreparedStatement stmt = conn().prepareStatement(query)) {
+			for (int i = 0; i < orderNumbers.size(); i++) {
+				stmt.setInt(i + 1, orderNumbers.get(i));
+			}
+			return stmt.executeUpdate();
+		} catch (SQLException e) {
+			System.err.println("Error expiring reservations: " + e.getMessage());
+			return -1;
 		}
 	}
 
@@ -2552,17 +3683,12 @@ public class DBController {
 				FROM `order`
 				WHERE subscriberCode = ?
 				  AND `status` = 'ACTIVE'
-				  AND ABS(
-				        TIMESTAMPDIFF(
-				            MINUTE,
-				            TIMESTAMP(order_date, arrival_time),
-				            ?
-				        )
-				    ) < 240
+				  AND startAt > ? - INTERVAL 240 MINUTE
+				  AND startAt < ? + INTERVAL 240 MINUTE
 				LIMIT 1
 				""";
 
-		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+		try (PreparedStatement stmt = conn().prepareStatement(sql)) {
 
 			// Merge separate SQL Date + Time into a single Timestamp
 			Timestamp requestedTs = Timestamp.valueOf(
@@ -2570,7 +3696,8 @@ public class DBController {
 					.atTime(arrivalTime.toLocalTime()));
 
 			stmt.setInt(1, subscriberCode);    // filter by subscriber
-			stmt.setTimestamp(2, requestedTs); // compare against this moment
+			stmt.setTimestamp(2, requestedTs); // window start (requested - 4h)
+			stmt.setTimestamp(3, requestedTs); // window end (requested + 4h)
 
 			// If we get at least one row → clash detected
 			try (ResultSet rs = stmt.executeQuery()) {
@@ -2585,23 +3712,22 @@ public class DBController {
 
 
 	/**
-	 * Tries to log in the given user by setting their is_logged_in flag to 1.
-	 * This only works if the user was logged out before.
+	 * Sets the is_logged_in audit flag of the given user to 1.
+	 * The flag is informational only; the server's session registry decides
+	 * whether a user is online.
 	 *
 	 * @param username the exact username (case-sensitive)
-	 * @return true  if the login flag was set (user was offline and is now marked as online)  
-	 *         false if the user was already logged in
+	 * @return true if the user row was updated
 	 * @throws SQLException if something goes wrong with the database
 	 */
 	public boolean markUserLoggedIn(String username) throws SQLException {
-		// query to mark the user as logged in only if they are currently logged out
+		// query to mark the user as logged in
 		final String sql =
 				"UPDATE bpark.user " +
 						"SET    is_logged_in = 1 " +
-						"WHERE  BINARY username = ? " +
-						"  AND  is_logged_in = 0";
+						"WHERE  BINARY username = ?";
 
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			ps.setString(1, username); // set parameter to query
 			return ps.executeUpdate() == 1; // exactly one row updated
 		}
@@ -2618,7 +3744,7 @@ public class DBController {
 		final String sql =
 				"UPDATE bpark.user SET is_logged_in = 0 WHERE BINARY username = ?";
 
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			ps.setString(1, username); // Set the username parameter
 			ps.executeUpdate(); // execute
 		} catch (SQLException e) {
@@ -2626,29 +3752,6 @@ public class DBController {
 		}
 	}
 
-	/**
-	 * Checks whether the given username is currently flagged as online
-	 * (i.e., is_logged_in = 1 in the user table).
-	 *
-	 * @param username exact username to check (case sensitive)
-	 * @return true if the user is marked online,  
-	 *         false otherwise or if a DB error occurs
-	 */
-	public boolean isUserOnline(String username) {
-		// SQL query to check user's login status
-		String sql = "SELECT is_logged_in FROM bpark.user " +
-				"WHERE BINARY username = ? LIMIT 1";
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
-			ps.setString(1, username); // set parameter to query
-			try (ResultSet rs = ps.executeQuery()) {
-				return rs.next() && rs.getBoolean("is_logged_in"); // true if logged in
-			}
-		} catch (SQLException e) {
-			System.err.println("[DB] isUserOnline: " + e.getMessage());
-			return false;
-		}
-	}
-
 	/**
 	 * Resets the is_logged_in flag for **all** users to 0.
 	 * Called once at server startup to clear stale sessions.
@@ -2656,7 +3759,7 @@ public class DBController {
 	public void resetAllLoggedIn() {
 		// query to reset login status for all users
 		String sql = "UPDATE bpark.user SET is_logged_in = 0";
-		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+		try (PreparedStatement ps = conn().prepareStatement(sql)) {
 			ps.executeUpdate(); // execute the reset
 		} catch (SQLException e) {
 			System.err.println("[DB] resetAllLoggedIn: " + e.getMessage());
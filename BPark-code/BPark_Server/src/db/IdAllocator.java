@@ -0,0 +1,96 @@
+package db;
+
+import java.sql.SQLException;
+
+/**
+ * Hands out new subscriber codes and RFID tag IDs from memory.
+ *
+ * Instead of computing MAX/COUNT over the subscriber table for every
+ * registration, the allocator reserves a whole block of values from the
+ * {@code id_sequence} table with one atomic UPDATE and serves the block
+ * locally until it runs out. Values are unique across concurrent registrations
+ * and across server instances; values left in a block when the server stops are
+ * simply skipped, which is harmless for codes and tags.
+ */
+public class IdAllocator {
+
+	/** Sequence row used for subscriber codes */
+	private static final String SUBSCRIBER_CODE_SEQUENCE = "subscriberCode";
+
+	/** Sequence row used for RFID tag numbers */
+	private static final String TAG_SEQUENCE = "tagId";
+
+	/** How many values are reserved from the DB at a time */
+	private static final int BLOCK_SIZE = 100;
+
+	/** DB controller used to reserve blocks */
+	private final DBController db;
+
+	/** Locally reserved subscriber codes */
+	private final Block subscriberCodes = new Block(SUBSCRIBER_CODE_SEQUENCE);
+
+	/** Locally reserved tag numbers */
+	private final Block tagNumbers = new Block(TAG_SEQUENCE);
+
+	/**
+	 * Creates an allocator that reserves its blocks through the given controller.
+	 *
+	 * @param db the DB controller
+	 */
+	public IdAllocator(DBController db) {
+		this.db = db;
+	}
+
+	/**
+	 * Returns a new, never used subscriber code.
+	 *
+	 * @return the next subscriber code
+	 * @throws SQLException if a new block could not be reserved
+	 */
+	public int nextSubscriberCode() throws SQLException {
+		return subscriberCodes.next();
+	}
+
+	/**
+	 * Returns a new, never used tag ID in the format "TAG_XXX".
+	 *
+	 * @return the next tag ID
+	 * @throws SQLException if a new block could not be reserved
+	 */
+	public String nextTagId() throws SQLException {
+		return "TAG_" + String.format("%03d", tagNumbers.next());
+	}
+
+	/**
+	 * A range of values reserved for one sequence: [next, end).
+	 */
+	private class Block {
+
+		/** Name of the sequence row in id_sequence */
+		private final String sequence;
+
+		/** Next value to hand out */
+		private int next;
+
+		/** First value that is not part of the reserved block */
+		private int end;
+
+		Block(String sequence) {
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Returns the next value, reserving a new block when the current one is used up.
+		 *
+		 * @return the next value of the sequence
+		 * @throws SQLException if a new block could not be reserved
+		 */
+		synchronized int next() throws SQLException {
+			if (next >= end) {
+				next = db.reserveIdBlock(sequence, BLOCK_SIZE);
+				end = next + BLOCK_SIZE;
+			}
+			return next++;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package db;
+
+/**
+ * Outcome of a vehicle pickup, as returned by
+ * {@link DBController#handleVehiclePickup(int, int)}.
+ */
+public class PickupResult {
+
+	/**
+	 * What happened to the pickup request.
+	 */
+	public enum Status {
+		/** The vehicle was released within the allowed time */
+		PICKED_UP,
+		/** The vehicle was released after the allowed time */
+		PICKED_UP_LATE,
+		/** No open parking session matches the subscriber and parking code */
+		NOT_FOUND,
+		/** The DB could not complete the pickup; nothing was changed */
+		ERROR
+	}
+
+	/** What happened to the pickup request */
+	private final Status status;
+
+	/** Whole hours the vehicle was parked (0 unless picked up) */
+	private final long hoursParked;
+
+	/** Lot the vehicle left (null unless picked up) */
+	private final String lotName;
+
+	/** Whether the closed session had been extended */
+	private final boolean wasExtended;
+
+	/**
+	 * Creates a result for a pickup that did not release a vehicle.
+	 *
+	 * @param status NOT_FOUND or ERROR
+	 */
+	public PickupResult(Status status) {
+		this(status, 0, null, false);
+	}
+
+	/**
+	 * Creates a result.
+	 *
+	 * @param status      what happened to the pickup request
+	 * @param hoursParked whole hours the vehicle was parked
+	 * @param lotName     lot the vehicle left
+	 * @param wasExtended whether the closed session had been extended
+	 */
+	public PickupResult(Status status, long hoursParked, String lotName, boolean wasExtended) {
+		this.status = status;
+		this.hoursParked = hoursParked;
+		this.lotName = lotName;
+		this.wasExtended = wasExtended;
+	}
+
+	/**
+	 * @return what happened to the pickup request
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return whole hours the vehicle was parked (0 unless picked up)
+	 */
+	public long getHoursParked() {
+		return hoursParked;
+	}
+
+	/**
+	 * @return lot the vehicle left (null unless picked up)
+	 */
+	public String getLotName() {
+		return lotName;
+	}
+
+	/**
+	 * @return true if the closed session had been extended
+	 */
+	public boolean isWasExtended() {
+		return wasExtended;
+	}
+
+	/**
+	 * @return true if the vehicle was released (on time or late)
+	 */
+	public boolean isPickedUp() {
+		return status == Status.PICKED_UP || status == Status.PICKED_UP_LATE;
+	}
+
+	/**
+	 * @return the message shown to the subscriber for this result
+	 */
+	public String getMessage() {
+		switch (status) {
+		case PICKED_UP:
+			return "Vehicle pickup successful (" + hoursParked + " hours).";
+		case PICKED_UP_LATE:
+			return "Pickup successful with delay. A notification was sent.";
+		case NOT_FOUND:
+			return "Parking code is incorrect.";
+		default:
+			return "An error occurred while completing the pickup process.";
+		}
+	}
+}
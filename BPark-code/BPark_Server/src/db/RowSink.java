@@ -0,0 +1,23 @@
+package db;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a streamed query one by one, while the result set is
+ * still being read, so a large result never has to be held in memory as a
+ * whole.
+ *
+ * @param <T> type of the rows
+ */
+@FunctionalInterface
+public interface RowSink<T> {
+
+	/**
+	 * Takes the next row.
+	 *
+	 * @param row the row, in query order
+	 * @throws IOException if the row could not be passed on (e.g. sent to the
+	 *                     client); the query is abandoned
+	 */
+	void accept(T row) throws IOException;
+}
@@ -0,0 +1,299 @@
+package db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SchemaMigrator brings an existing BPARK database up to date with the schema
+ * expected by the server. Migrations are SQL scripts bundled under
+ * {@code /db/migration/} and applied in the order listed in
+ * {@link #MIGRATIONS}. Every applied script is recorded in the
+ * {@code schema_version} table together with a SHA-256 checksum, so a script is
+ * never applied twice and an edited script is detected on the next startup.
+ *
+ * MySQL commits every DDL statement on its own, so a script that fails after
+ * some of its statements ran can not be rolled back. Such a failure is recorded
+ * in {@code schema_repair}, and every later startup stops with a "manual repair
+ * needed" error until an administrator finished or undid the script and deleted
+ * the row - running it again would fail on (or repeat) the statements that
+ * already ran.
+ */
+public class SchemaMigrator {
+
+	/** Classpath folder holding the migration scripts */
+	private static final String MIGRATION_PATH = "/db/migration/";
+
+	/**
+	 * Migration scripts in the order they must be applied. The version of a script
+	 * is the number between the leading 'V' and the double underscore. Append new
+	 * scripts at the end; never edit or reorder a script that has been released.
+	 */
+	private static final String[] MIGRATIONS = {
+			"V1__parking_event_and_order_indexes.sql",
+			"V2__parking_event_entry_month.sql",
+			"V3__time_window_columns.sql",
+			"V4__id_sequence.sql",
+			"V5__parking_space_lot.sql",
+			"V6__lot_lease.sql",
+			"V7__parking_event_journal_seq.sql",
+			"V8__terminal_offline_sync.sql"
+	};
+
+	/** Connection the migrations are applied on */
+	private final Connection conn;
+
+	/**
+	 * Creates a migrator working on the given connection.
+	 *
+	 * @param conn an open connection to the BPARK database
+	 */
+	public SchemaMigrator(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Applies every migration that has not been recorded in {@code schema_version}
+	 * yet. Stops at the first failing script so later scripts never run against a
+	 * partially migrated schema.
+	 *
+	 * @return number of migrations applied by this call
+	 * @throws SQLException if a script fails, an applied script was modified or a
+	 *                      script that failed half-way was not repaired yet
+	 */
+	public int migrate() throws SQLException {
+		createVersionTable();
+		checkNoRepairPending();
+		Map<Integer, String> applied = loadAppliedChecksums();
+		int count = 0;
+
+		for (String script : MIGRATIONS) {
+			int version = versionOf(script);
+			String sql = readScript(script);
+			String checksum = checksum(sql);
+
+			if (applied.containsKey(version)) {
+				// Already applied - only make sure nobody edited it afterwards
+				if (!applied.get(version).equals(checksum)) {
+					throw new SQLException("Checksum mismatch for applied migration " + script);
+				}
+				continue;
+			}
+
+			List<String> statements = splitStatements(sql);
+			for (int i = 0; i < statements.size(); i++) {
+				try (Statement stmt = conn.createStatement()) {
+					stmt.execute(statements.get(i));
+				} catch (SQLException e) {
+					if (i == 0) {
+						throw e; // nothing of the script ran, starting again retries it
+					}
+					recordRepair(version, script, i, statements.size(), e);
+					throw new SQLException("Migration " + script + " failed at statement " + (i + 1) + " of "
+							+ statements.size() + " after the earlier ones were applied - manual repair needed: "
+							+ e.getMessage(), e);
+				}
+			}
+			recordVersion(version, script, checksum);
+			System.out.println("Applied migration " + script);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Creates the schema_version bookkeeping table if it does not exist yet.
+	 *
+	 * @throws SQLException if the table cannot be created
+	 */
+	private void createVersionTable() throws SQLException {
+		String sql = """
+				CREATE TABLE IF NOT EXISTS bpark.schema_version (
+				    version     INT          PRIMARY KEY,
+				    description VARCHAR(100) NOT NULL,
+				    checksum    CHAR(64)     NOT NULL,
+				    applied_at  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+				)
+				""";
+		String repairSql = """
+				CREATE TABLE IF NOT EXISTS bpark.schema_repair (
+				    version     INT           PRIMARY KEY,
+				    description VARCHAR(100)  NOT NULL,
+				    applied     INT           NOT NULL,
+				    statements  INT           NOT NULL,
+				    error       VARCHAR(1000) NOT NULL,
+				    failed_at   TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP
+				)
+				""";
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute(sql);
+			stmt.execute(repairSql);
+		}
+	}
+
+	/**
+	 * Stops the migration while a script that failed half-way has not been
+	 * repaired.
+	 *
+	 * @throws SQLException if a {@code schema_repair} row exists (or the table can
+	 *                      not be read)
+	 */
+	private void checkNoRepairPending() throws SQLException {
+		String sql = "SELECT description, applied, statements, error FROM bpark.schema_repair ORDER BY version";
+		try (PreparedStatement stmt = conn.prepareStatement(sql);
+				ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				throw new SQLException("Migration " + rs.getString("description") + " stopped after "
+						+ rs.getInt("applied") + " of " + rs.getInt("statements") + " statements ("
+						+ rs.getString("error") + ") - manual repair needed: finish or undo the script, then "
+						+ "delete its row from bpark.schema_repair.");
+			}
+		}
+	}
+
+	/**
+	 * Loads the checksums of all migrations that were already applied.
+	 *
+	 * @return map of version to recorded checksum
+	 * @throws SQLException if the table cannot be read
+	 */
+	private Map<Integer, String> loadAppliedChecksums() throws SQLException {
+		Map<Integer, String> applied = new HashMap<>();
+		try (PreparedStatement stmt = conn.prepareStatement("SELECT version, checksum FROM bpark.schema_version");
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				applied.put(rs.getInt("version"), rs.getString("checksum"));
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * Records a successfully applied migration.
+	 *
+	 * @param version  migration version
+	 * @param script   script file name, stored as the description
+	 * @param checksum SHA-256 checksum of the script
+	 * @throws SQLException if the row cannot be inserted
+	 */
+	private void recordVersion(int version, String script, String checksum) throws SQLException {
+		String sql = "INSERT INTO bpark.schema_version (version, description, checksum) VALUES (?, ?, ?)";
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setInt(1, version);
+			stmt.setString(2, script);
+			stmt.setString(3, checksum);
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Records a migration that failed after some of its statements were applied.
+	 * If even that fails, the error is only logged; the migration is stopped
+	 * either way.
+	 *
+	 * @param version    migration version
+	 * @param script     script file name, stored as the description
+	 * @param applied    number of statements that were applied
+	 * @param statements number of statements in the script
+	 * @param error      the error of the failing statement
+	 */
+	private void recordRepair(int version, String script, int applied, int statements, SQLException error) {
+		String sql = "INSERT INTO bpark.schema_repair (version, description, applied, statements, error) "
+				+ "VALUES (?, ?, ?, ?, ?)";
+		String message = String.valueOf(error.getMessage());
+		try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+			stmt.setInt(1, version);
+			stmt.setString(2, script);
+			stmt.setInt(3, applied);
+			stmt.setInt(4, statements);
+			stmt.setString(5, message.length() > 1000 ? message.substring(0, 1000) : message);
+			stmt.executeUpdate();
+		} catch (SQLException e) {
+			System.err.println("Could not record the failed migration " + script + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Extracts the version number from a script name such as "V2__name.sql".
+	 *
+	 * @param script the script file name
+	 * @return the version number
+	 */
+	private static int versionOf(String script) {
+		return Integer.parseInt(script.substring(1, script.indexOf("__")));
+	}
+
+	/**
+	 * Reads a migration script from the classpath.
+	 *
+	 * @param script the script file name
+	 * @return the script text
+	 * @throws SQLException if the script is missing or unreadable
+	 */
+	private static String readScript(String script) throws SQLException {
+		try (InputStream in = SchemaMigrator.class.getResourceAsStream(MIGRATION_PATH + script)) {
+			if (in == null) {
+				throw new SQLException("Migration script not found: " + script);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new SQLException("Failed to read migration " + script, e);
+		}
+	}
+
+	/**
+	 * Splits a script into single statements. Lines starting with "--" are
+	 * comments; statements end with a semicolon.
+	 *
+	 * @param sql the script text
+	 * @return the statements in script order
+	 */
+	private static List<String> splitStatements(String sql) {
+		StringBuilder withoutComments = new StringBuilder();
+		for (String line : sql.split("\\R")) {
+			if (!line.trim().startsWith("--")) {
+				withoutComments.append(line).append('\n');
+			}
+		}
+
+		List<String> statements = new ArrayList<>();
+		for (String statement : withoutComments.toString().split(";")) {
+			if (!statement.isBlank()) {
+				statements.add(statement.trim());
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * Computes the SHA-256 checksum of a script with normalized line endings, so
+	 * checking out the sources on another OS does not change the checksum.
+	 *
+	 * @param sql the script text
+	 * @return lowercase hex checksum
+	 */
+	private static String checksum(String sql) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e); // required on every JVM
+		}
+	}
+}
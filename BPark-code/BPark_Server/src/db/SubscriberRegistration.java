@@ -0,0 +1,54 @@
+package db;
+
+import common.Subscriber;
+
+/**
+ * Everything that is written to the DB when a new subscriber is registered:
+ * the subscriber row, the login (user row) with its temporary password and the
+ * optional vehicle.
+ */
+public class SubscriberRegistration {
+
+	/** Subscriber details, including the assigned code and tag */
+	private final Subscriber subscriber;
+
+	/** Temporary password for the new user account */
+	private final String password;
+
+	/** Vehicle to register for the subscriber, or null for none */
+	private final String vehicleId;
+
+	/**
+	 * Creates a registration.
+	 *
+	 * @param subscriber subscriber details, including the assigned code and tag
+	 * @param password   temporary password for the new user account
+	 * @param vehicleId  vehicle to register, or null for none
+	 */
+	public SubscriberRegistration(Subscriber subscriber, String password, String vehicleId) {
+		this.subscriber = subscriber;
+		this.password = password;
+		this.vehicleId = vehicleId;
+	}
+
+	/**
+	 * @return the subscriber details
+	 */
+	public Subscriber getSubscriber() {
+		return subscriber;
+	}
+
+	/**
+	 * @return the temporary password
+	 */
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return the vehicle ID, or null for none
+	 */
+	public String getVehicleId() {
+		return vehicleId;
+	}
+}
@@ -0,0 +1,409 @@
+package journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of parking events, kept in memory-mapped segment files.
+ *
+ * Records are appended to the mapped segment under a short lock, which is a
+ * plain memory copy. Durability uses group commit: a caller that needs its
+ * record on disk calls {@link #awaitDurable(long)}; one caller forces the
+ * segment for everything appended so far while the others wait for it, so a
+ * burst of entries costs one flush instead of one per entry.
+ *
+ * Segments are named journal-00000001.log, journal-00000002.log, ... and are
+ * {@link #SEGMENT_SIZE} bytes each. When a segment is full the journal moves
+ * on to the next one; old segments are kept as the audit trail.
+ *
+ * Each record is framed as [int length][int CRC32][record]. A zero length ends
+ * the segment's data, and a frame whose checksum does not match (a write torn
+ * by a crash) is treated the same way.
+ *
+ * Sequence numbers are per node, so the folder belongs to one node: its ID is
+ * kept in {@link #NODE_FILE}, and a node never opens another node's journal.
+ */
+public class EventJournal {
+
+	/** Size of one segment file */
+	static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	/** Bytes of the [length][CRC32] frame header */
+	private static final int FRAME_HEADER = 8;
+
+	/** File in the folder holding the ID of the node the journal belongs to */
+	static final String NODE_FILE = "node.id";
+
+	/** File in the folder listing the entries the DB refused */
+	static final String REJECTED_FILE = "rejected.log";
+
+	/** Folder holding the segment files */
+	private final Path dir;
+
+	/** ID of the node writing this journal */
+	private final String nodeId;
+
+	/** Serializes appends and segment rolls */
+	private final Object appendLock = new Object();
+
+	/** Guards {@link #durableSeq} and {@link #flushing} */
+	private final Object flushLock = new Object();
+
+	/** Channel of the segment being appended to */
+	private FileChannel channel;
+
+	/** Mapping of the segment being appended to */
+	private MappedByteBuffer segment;
+
+	/** Number of the segment being appended to */
+	private int segmentNumber;
+
+	/** Sequence number of the next record */
+	private long nextSeq = 1;
+
+	/** Highest sequence number copied into a segment */
+	private long writtenSeq;
+
+	/** Highest sequence number known to be on disk */
+	private long durableSeq;
+
+	/** True while one caller is forcing the segment for the group */
+	private boolean flushing;
+
+	/**
+	 * Creates a journal in the given folder. Call {@link #open(long)} before use.
+	 *
+	 * @param dir    folder for the segment files (created if missing)
+	 * @param nodeId ID of the node writing the journal
+	 */
+	public EventJournal(Path dir, String nodeId) {
+		this.dir = dir;
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Opens the journal: reads the records after the given checkpoint, finds
+	 * the end of the last segment and continues appending there. Segments that
+	 * end before the checkpoint are skipped without being read.
+	 *
+	 * @param appliedSeq sequence number of the last record already in the DB
+	 * @return the records after the checkpoint, oldest first
+	 * @throws IOException if the folder belongs to another node, or the folder
+	 *                     or a segment can not be read
+	 */
+	public List<JournalRecord> open(long appliedSeq) throws IOException {
+		Files.createDirectories(dir);
+		claimFolder();
+		List<JournalRecord> records = new ArrayList<>();
+		List<Path> segments = segmentFiles();
+
+		// the segment holding the first record after the checkpoint; all before it are applied
+		int first = 0;
+		for (int i = segments.size() - 1; i > 0; i--) {
+			long firstSeq = firstSeq(segments.get(i));
+			if (firstSeq > 0 && firstSeq <= appliedSeq + 1) {
+				first = i;
+				break;
+			}
+		}
+
+		int endOfLast = 0;
+		for (int i = first; i < segments.size(); i++) {
+			endOfLast = readSegment(segments.get(i), appliedSeq, records);
+		}
+
+		// never reuse a number the DB already holds, even if the journal lost its tail
+		nextSeq = Math.max(nextSeq, appliedSeq + 1);
+		writtenSeq = durableSeq = nextSeq - 1;
+
+		if (segments.isEmpty()) {
+			mapSegment(1, 0);
+		} else {
+			mapSegment(segmentNumber(segments.get(segments.size() - 1)), endOfLast);
+		}
+		return records;
+	}
+
+	/**
+	 * Keeps an entry the DB refused in {@link #REJECTED_FILE}, one line per
+	 * entry, so it can be corrected and entered by hand.
+	 *
+	 * @param record the ENTRY record
+	 * @param reason why the DB refused it
+	 * @throws IOException if the file can not be written
+	 */
+	public synchronized void deadLetter(JournalRecord record, String reason) throws IOException {
+		String line = Instant.ofEpochMilli(record.getTimeMillis()) + " " + record + " - " + reason
+				+ System.lineSeparator();
+		Files.writeString(dir.resolve(REJECTED_FILE), line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+	}
+
+	/**
+	 * @return true if the folder holds no segment (or does not exist)
+	 */
+	public boolean isEmpty() {
+		try {
+			return !Files.isDirectory(dir) || segmentFiles().isEmpty();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Appends a record. The record is in the page cache when this returns; call
+	 * {@link #awaitDurable(long)} if it must be on disk.
+	 *
+	 * @param record the record (its sequence number is assigned here)
+	 * @return the record's sequence number
+	 * @throws IOException if a new segment is needed and can not be created
+	 */
+	public long append(JournalRecord record) throws IOException {
+		synchronized (appendLock) {
+			record.setSeq(nextSeq);
+			byte[] body = record.encode();
+			CRC32 crc = new CRC32();
+			crc.update(body);
+
+			if (segment.remaining() < FRAME_HEADER + body.length + 4) {
+				roll();
+			}
+			segment.putInt(body.length);
+			segment.putInt((int) crc.getValue());
+			segment.put(body);
+			if (segment.remaining() >= 4) {
+				segment.putInt(segment.position(), 0); // end marker over any older bytes
+			}
+
+			writtenSeq = nextSeq++;
+			return writtenSeq;
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is on disk. If no
+	 * flush is running, the caller forces the segment for every record appended
+	 * so far; otherwise it waits for the running flush and checks again.
+	 *
+	 * @param seq sequence number returned by {@link #append(JournalRecord)}
+	 * @throws IOException if the segment could not be forced
+	 */
+	public void awaitDurable(long seq) throws IOException {
+		while (true) {
+			synchronized (flushLock) {
+				while (flushing && durableSeq < seq) {
+					try {
+						flushLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for the journal flush");
+					}
+				}
+				if (durableSeq >= seq) {
+					return;
+				}
+				flushing = true; // this caller flushes for the group
+			}
+
+			long target = 0;
+			try {
+				MappedByteBuffer toForce;
+				synchronized (appendLock) {
+					target = writtenSeq;
+					toForce = segment;
+				}
+				toForce.force(); // earlier segments were forced when they were rolled
+			} catch (RuntimeException e) {
+				target = 0;
+				throw new IOException("Journal flush failed: " + e.getMessage(), e);
+			} finally {
+				synchronized (flushLock) {
+					durableSeq = Math.max(durableSeq, target);
+					flushing = false;
+					flushLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forces everything appended so far and closes the current segment.
+	 */
+	public void close() {
+		synchronized (appendLock) {
+			try {
+				segment.force();
+				channel.close();
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Error closing the event journal: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return sequence number of the last appended record (0 if none)
+	 */
+	public long getLastSeq() {
+		synchronized (appendLock) {
+			return writtenSeq;
+		}
+	}
+
+	/**
+	 * Forces the full segment and continues in a new one. Called with
+	 * {@link #appendLock} held.
+	 *
+	 * @throws IOException if the new segment can not be created
+	 */
+	private void roll() throws IOException {
+		segment.force();
+		channel.close();
+		mapSegment(segmentNumber + 1, 0);
+	}
+
+	/**
+	 * Maps a segment for appending, creating the file at full size if needed.
+	 *
+	 * @param number   segment number
+	 * @param position where appending continues
+	 * @throws IOException if the file can not be created or mapped
+	 */
+	private void mapSegment(int number, int position) throws IOException {
+		channel = FileChannel.open(dir.resolve(segmentName(number)), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		segment.position(position);
+		segmentNumber = number;
+	}
+
+	/**
+	 * Records this node's ID in the folder, or checks the ID already there. A
+	 * folder written before the ID was kept is taken over by this node.
+	 *
+	 * @throws IOException if the folder belongs to another node, or the file
+	 *                     can not be read or written
+	 */
+	private void claimFolder() throws IOException {
+		Path file = dir.resolve(NODE_FILE);
+		if (!Files.exists(file)) {
+			Files.writeString(file, nodeId, StandardCharsets.UTF_8);
+			return;
+		}
+		String owner = Files.readString(file, StandardCharsets.UTF_8).trim();
+		if (!owner.equals(nodeId)) {
+			throw new IOException("journal folder " + dir + " belongs to node " + owner + ", not " + nodeId
+					+ " - start with -Dbpark.node.id=" + owner + " or another -Dbpark.journal.dir");
+		}
+	}
+
+	/**
+	 * Reads the valid records of one segment, continuing the sequence read so
+	 * far ({@link #nextSeq}).
+	 *
+	 * @param file       the segment file
+	 * @param appliedSeq records up to this number are checked but not returned
+	 * @param records    list the records after appliedSeq are added to
+	 * @return position right after the last valid record
+	 * @throws IOException if the file can not be read
+	 */
+	private int readSegment(Path file, long appliedSeq, List<JournalRecord> records) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buf = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(in.size(), SEGMENT_SIZE));
+			while (buf.remaining() >= FRAME_HEADER) {
+				int start = buf.position();
+				JournalRecord record = readFrame(buf);
+				if (record == null || record.getSeq() < nextSeq) {
+					return start;
+				}
+				if (record.getSeq() > appliedSeq) {
+					records.add(record);
+				}
+				nextSeq = record.getSeq() + 1;
+			}
+			return buf.position();
+		}
+	}
+
+	/**
+	 * @param file the segment file
+	 * @return sequence number of the segment's first record, or 0 if it has none
+	 * @throws IOException if the file can not be read
+	 */
+	private static long firstSeq(Path file) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+			if (in.read(header, 0) < FRAME_HEADER) {
+				return 0;
+			}
+			int length = header.getInt(0);
+			if (length <= 0 || length > SEGMENT_SIZE - FRAME_HEADER) {
+				return 0;
+			}
+			ByteBuffer buf = ByteBuffer.allocate(FRAME_HEADER + length);
+			in.read(buf, 0);
+			buf.flip();
+			JournalRecord record = readFrame(buf);
+			return record == null ? 0 : record.getSeq();
+		}
+	}
+
+	/**
+	 * Reads one frame at the buffer's position.
+	 *
+	 * @param buf the segment data
+	 * @return the record, or null at the end of the data or a torn write
+	 * @throws IOException if the record can not be decoded
+	 */
+	private static JournalRecord readFrame(ByteBuffer buf) throws IOException {
+		int length = buf.getInt();
+		int checksum = buf.getInt();
+		if (length <= 0 || length > buf.remaining()) {
+			return null;
+		}
+		byte[] body = new byte[length];
+		buf.get(body);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if ((int) crc.getValue() != checksum) {
+			return null; // torn write
+		}
+		return JournalRecord.decode(new DataInputStream(new ByteArrayInputStream(body)));
+	}
+
+	/**
+	 * @return the segment files in order
+	 * @throws IOException if the folder can not be listed
+	 */
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "journal-*.log")) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort(null); // zero-padded numbers sort by name
+		return files;
+	}
+
+	private static int segmentNumber(Path file) {
+		String name = file.getFileName().toString();
+		return Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+	}
+
+	private static String segmentName(int number) {
+		return String.format("journal-%08d.log", number);
+	}
+}
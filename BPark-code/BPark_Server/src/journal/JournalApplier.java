@@ -0,0 +1,233 @@
+package journal;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import db.DBController;
+
+/**
+ * Projects journaled entries into the parkingEvent table in the background.
+ *
+ * The gate answers as soon as an ENTRY record is durable in the journal; this
+ * thread then inserts the rows one by one, in journal order. Every row stores
+ * its node's ID and journal sequence number (unique together - every node
+ * numbers its own journal from 1), so applying a record twice - e.g. when the
+ * server stopped between the insert and the next start - has no effect.
+ *
+ * Requests that read parking events from the DB (pickup, extension) call
+ * {@link #awaitApplied(long)} first, so they always see the entries accepted
+ * before them.
+ *
+ * Entries are checked before they are journaled, so the DB should never
+ * refuse one. If it still does, the space and session the entry took are
+ * released and the entry is kept in the journal's rejected.log.
+ */
+public class JournalApplier {
+
+	/** Delay before retrying a record that could not be written */
+	private static final long RETRY_DELAY_MS = 1000;
+
+	/** DB controller the entries are written with */
+	private final DBController db;
+
+	/** ID of this node, stored with every row applied from its journal */
+	private final String nodeId;
+
+	/** The journal being applied (set by {@link #start(EventJournal)}) */
+	private EventJournal journal;
+
+	/** ENTRY records waiting to be applied, in journal order */
+	private final LinkedBlockingQueue<JournalRecord> pending = new LinkedBlockingQueue<>();
+
+	/** Guards {@link #submittedSeq} and {@link #appliedSeq} */
+	private final Object progress = new Object();
+
+	/** Highest sequence number handed to the applier */
+	private long submittedSeq;
+
+	/** Highest sequence number written to the DB (or skipped) */
+	private long appliedSeq;
+
+	/** Background thread that applies the records */
+	private Thread worker;
+
+	/**
+	 * Creates an applier. Call {@link #start(EventJournal)} once the DB is connected.
+	 *
+	 * @param db     DB controller
+	 * @param nodeId ID of this node
+	 */
+	public JournalApplier(DBController db, String nodeId) {
+		this.db = db;
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * Opens the journal after the last entry the DB has, queues the entries
+	 * after it and starts the background thread. Replaying them also restores
+	 * the in-memory open sessions.
+	 *
+	 * @param journal the node's journal (not opened yet)
+	 * @return number of entries that were replayed
+	 * @throws SQLException if the DB's position in the journal can not be read
+	 * @throws IOException  if the journal can not be opened
+	 */
+	public int start(EventJournal journal) throws SQLException, IOException {
+		long applied = db.getLastJournalSeq(nodeId);
+		List<JournalRecord> journaled = journal.open(applied);
+		this.journal = journal;
+		synchronized (progress) {
+			appliedSeq = submittedSeq = applied;
+		}
+		int replayed = 0;
+		for (JournalRecord record : journaled) {
+			if (record.getType() == JournalRecord.Type.ENTRY && record.getSeq() > applied) {
+				submit(record);
+				replayed++;
+			}
+		}
+
+		worker = new Thread(this::run, "journal-applier");
+		worker.setDaemon(true);
+		worker.start();
+		return replayed;
+	}
+
+	/**
+	 * Queues a durable ENTRY record for the DB.
+	 *
+	 * @param record the record (already appended to the journal)
+	 */
+	public void submit(JournalRecord record) {
+		synchronized (progress) {
+			submittedSeq = Math.max(submittedSeq, record.getSeq());
+		}
+		pending.add(record);
+	}
+
+	/**
+	 * Waits until every entry submitted so far is in the DB.
+	 *
+	 * @param timeoutMs longest time to wait
+	 * @return true if the DB caught up, false on timeout
+	 */
+	public boolean awaitApplied(long timeoutMs) {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		synchronized (progress) {
+			long target = submittedSeq;
+			while (appliedSeq < target) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					return false;
+				}
+				try {
+					progress.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes an entry to the DB right away instead of in the background - for
+	 * an entry whose journal flush failed, so it is in the DB before the gate is
+	 * answered. The entries before it are applied first, so the DB still holds
+	 * the journal in order.
+	 *
+	 * @param record    the ENTRY record (appended to the journal, not submitted)
+	 * @param timeoutMs longest time to wait for the entries before it
+	 * @throws SQLException if the entries before it are not applied in time or
+	 *                      the row could not be written (or was refused)
+	 */
+	public void applyNow(JournalRecord record, long timeoutMs) throws SQLException {
+		if (!awaitApplied(timeoutMs)) {
+			throw new SQLException("journal entries before #" + record.getSeq() + " are not applied yet");
+		}
+		try {
+			db.applyJournaledEntry(nodeId, record.getSeq(), record.getEvent());
+		} catch (SQLIntegrityConstraintViolationException e) {
+			reject(record, e);
+			markApplied(record);
+			throw e;
+		}
+		markApplied(record);
+	}
+
+	/**
+	 * @return number of entries waiting to be applied
+	 */
+	public int getBacklog() {
+		return pending.size();
+	}
+
+	/**
+	 * Records that an entry was written or dealt with, waking the requests
+	 * waiting for it.
+	 *
+	 * @param record the ENTRY record
+	 */
+	private void markApplied(JournalRecord record) {
+		synchronized (progress) {
+			submittedSeq = Math.max(submittedSeq, record.getSeq());
+			appliedSeq = Math.max(appliedSeq, record.getSeq());
+			progress.notifyAll();
+		}
+	}
+
+	/**
+	 * Deals with an entry the DB refused: frees its space and session and
+	 * keeps it as a dead letter.
+	 *
+	 * @param record the ENTRY record
+	 * @param e      the DB's refusal
+	 */
+	private void reject(JournalRecord record, SQLException e) {
+		System.err.println("Journal entry " + record + " rejected by the DB: " + e.getMessage());
+		db.releaseRejectedEntry(record.getEvent());
+		try {
+			journal.deadLetter(record, e.getMessage());
+		} catch (IOException ex) {
+			System.err.println("Could not keep rejected entry #" + record.getSeq() + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Worker loop: applies records in order, retrying while the DB is
+	 * unavailable.
+	 */
+	private void run() {
+		while (true) {
+			JournalRecord record;
+			try {
+				record = pending.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			while (true) {
+				try {
+					db.applyJournaledEntry(nodeId, record.getSeq(), record.getEvent());
+					break;
+				} catch (SQLIntegrityConstraintViolationException e) {
+					reject(record, e); // the row can never be written; retrying would block the entries after it
+					break;
+				} catch (SQLException e) {
+					System.err.println("Journal entry " + record.getSeq() + " not applied yet: " + e.getMessage());
+					try {
+						Thread.sleep(RETRY_DELAY_MS);
+					} catch (InterruptedException ie) {
+						return;
+					}
+				}
+			}
+
+			markApplied(record);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import common.ParkingEvent;
+
+/**
+ * One record of the parking event journal.
+ *
+ * ENTRY records carry the full parking event, because the journal is the
+ * first (and until the applier catches up, the only) place an entry is
+ * written. EXIT, EXTENSION and ORDER records are written after the DB change
+ * and only carry a readable description for the audit trail.
+ */
+public class JournalRecord {
+
+	/**
+	 * Kind of change a record describes. The code is what is stored on disk, so
+	 * existing codes must never change.
+	 */
+	public enum Type {
+		/** A vehicle entered a lot (projected into parkingEvent) */
+		ENTRY(1),
+		/** A vehicle left a lot */
+		EXIT(2),
+		/** A parking session was extended */
+		EXTENSION(3),
+		/** A reservation was placed */
+		ORDER(4);
+
+		/** Code stored on disk */
+		private final byte code;
+
+		Type(int code) {
+			this.code = (byte) code;
+		}
+
+		/**
+		 * @param code code stored on disk
+		 * @return the matching type, or null for an unknown code
+		 */
+		static Type of(byte code) {
+			for (Type t : values()) {
+				if (t.code == code) {
+					return t;
+				}
+			}
+			return null;
+		}
+	}
+
+	/** Position in the journal (assigned on append, 0 before that) */
+	private long seq;
+
+	/** When the change happened (epoch milliseconds) */
+	private final long timeMillis;
+
+	/** Kind of change */
+	private final Type type;
+
+	/** The parking event of an ENTRY record (null for other types) */
+	private final ParkingEvent event;
+
+	/** Readable description of an audit record (null for ENTRY) */
+	private final String detail;
+
+	private JournalRecord(long seq, long timeMillis, Type type, ParkingEvent event, String detail) {
+		this.seq = seq;
+		this.timeMillis = timeMillis;
+		this.type = type;
+		this.event = event;
+		this.detail = detail;
+	}
+
+	/**
+	 * Creates an ENTRY record.
+	 *
+	 * @param event the parking event of the vehicle that entered
+	 * @return the record
+	 */
+	public static JournalRecord entry(ParkingEvent event) {
+		return new JournalRecord(0, System.currentTimeMillis(), Type.ENTRY, event, null);
+	}
+
+	/**
+	 * Creates an audit record for a change that is already in the DB.
+	 *
+	 * @param type   EXIT, EXTENSION or ORDER
+	 * @param detail readable description (e.g. "subscriber=5 parkingCode=123")
+	 * @return the record
+	 */
+	public static JournalRecord audit(Type type, String detail) {
+		return new JournalRecord(0, System.currentTimeMillis(), type, null, detail);
+	}
+
+	/**
+	 * @return position in the journal (0 before the record is appended)
+	 */
+	public long getSeq() {
+		return seq;
+	}
+
+	/**
+	 * @param seq position in the journal
+	 */
+	void setSeq(long seq) {
+		this.seq = seq;
+	}
+
+	/**
+	 * @return when the change happened (epoch milliseconds)
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return kind of change
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the parking event of an ENTRY record, null for other types
+	 */
+	public ParkingEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return readable description of an audit record, null for ENTRY
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * Encodes the record (without the frame added by the journal).
+	 *
+	 * @return the encoded record
+	 */
+	byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeLong(seq);
+			out.writeLong(timeMillis);
+			out.writeByte(type.code);
+			if (type == Type.ENTRY) {
+				out.writeInt(event.getSubscriberCode());
+				out.writeInt(event.getParkingSpace());
+				out.writeLong(event.getEntryDate().toEpochDay());
+				out.writeInt(event.getEntryHour().toSecondOfDay());
+				out.writeBoolean(event.isWasExtended());
+				writeNullable(out, event.getVehicleId());
+				writeNullable(out, event.getLot());
+				writeNullable(out, event.getParkingCode());
+			} else {
+				writeNullable(out, detail);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // in-memory stream
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a record written by {@link #encode()}.
+	 *
+	 * @param in the encoded record
+	 * @return the record, or null if its type is unknown
+	 * @throws IOException if the record is truncated
+	 */
+	static JournalRecord decode(DataInputStream in) throws IOException {
+		long seq = in.readLong();
+		long timeMillis = in.readLong();
+		Type type = Type.of(in.readByte());
+		if (type == null) {
+			return null;
+		}
+		if (type != Type.ENTRY) {
+			return new JournalRecord(seq, timeMillis, type, null, readNullable(in));
+		}
+
+		int subscriberCode = in.readInt();
+		int parkingSpace = in.readInt();
+		LocalDate entryDate = LocalDate.ofEpochDay(in.readLong());
+		LocalTime entryHour = LocalTime.ofSecondOfDay(in.readInt());
+		boolean wasExtended = in.readBoolean();
+		String vehicleId = readNullable(in);
+		String lot = readNullable(in);
+		String parkingCode = readNullable(in);
+		ParkingEvent event = new ParkingEvent(subscriberCode, parkingSpace, entryDate, entryHour, null, null,
+				wasExtended, vehicleId, lot, parkingCode);
+		return new JournalRecord(seq, timeMillis, type, event, null);
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + seq + " " + type + " " + (event != null ? event.toString() : detail);
+	}
+}
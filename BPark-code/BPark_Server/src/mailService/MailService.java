@@ -4,6 +4,9 @@ import jakarta.mail.*;
 import jakarta.mail.internet.*;
 
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service class responsible for sending emails through Gmail SMTP.
@@ -12,6 +15,46 @@ import java.util.Properties;
  */
 public class MailService {
 
+    /**
+     * Single background sender shared by all MailService instances.
+     * Queued mails are sent one after the other, in the order they were queued.
+     */
+    private static final ExecutorService MAIL_QUEUE = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mail-sender");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Queues an email to be sent in the background and returns immediately.
+     * Use this on request paths so the client never waits for the SMTP server.
+     *
+     * @param to          the recipient email address
+     * @param body        the content of the email (or parking code)
+     * @param typeOfMail  the type of message to send (FORGOT_PASSWORD, LATE, etc.)
+     */
+    public void queueEmail(String to, String body, TypeOfMail typeOfMail) {
+        MAIL_QUEUE.execute(() -> sendEmail(to, body, typeOfMail));
+    }
+
+    /**
+     * Stops taking new mails and waits for the queued ones to be sent. Called
+     * when the server shuts down, so no notification queued by a finished
+     * request is lost.
+     *
+     * @param timeoutMs longest time to wait
+     * @return true if every queued mail was sent in time
+     */
+    public static boolean flushQueue(long timeoutMs) {
+        MAIL_QUEUE.shutdown();
+        try {
+            return MAIL_QUEUE.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Sends an email to a given address based on the specified message type.
      *
@@ -0,0 +1,157 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The responses of recent keyed requests ({@link common.IdempotentRequest}),
+ * so a repeated request is answered with what the first attempt sent instead
+ * of being run twice.
+ *
+ * The cache is bounded: it keeps at most -Dbpark.idempotency.capacity keys
+ * (default 4096, the oldest are dropped first), each for at most
+ * -Dbpark.idempotency.ttl.ms (default 10 minutes). A client that retries later
+ * than that gets a new run of the request.
+ */
+public class IdempotencyCache {
+
+	/** Default number of keys kept */
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	/** Default time a key is kept */
+	private static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+
+	/** Most keys kept */
+	private final int capacity = Integer.getInteger("bpark.idempotency.capacity", DEFAULT_CAPACITY);
+
+	/** Time a key is kept */
+	private final long ttlMs = Long.getLong("bpark.idempotency.ttl.ms", DEFAULT_TTL_MS);
+
+	/** Entries by key, oldest first */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>() {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Drops the oldest key once the cache is over capacity.
+		 *
+		 * @param eldest the oldest entry
+		 * @return true if it is dropped
+		 */
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > capacity;
+		}
+	};
+
+	/**
+	 * Claims a key for a request about to run.
+	 *
+	 * @param key   the request's key
+	 * @param entry a new entry for the request
+	 * @return null if the key was free and now belongs to the given entry (run
+	 *         the request, then {@link Entry#complete(List)} or
+	 *         {@link #abandon(String, Entry)} it); otherwise the entry of the
+	 *         earlier attempt
+	 */
+	public synchronized Entry claim(String key, Entry entry) {
+		purgeExpired();
+		Entry earlier = entries.get(key);
+		if (earlier != null) {
+			return earlier;
+		}
+		entries.put(key, entry);
+		return null;
+	}
+
+	/**
+	 * Frees the key of a request that failed without answering, so a retry runs
+	 * it again.
+	 *
+	 * @param key   the request's key
+	 * @param entry the entry that claimed the key
+	 */
+	public synchronized void abandon(String key, Entry entry) {
+		entries.remove(key, entry);
+		entry.abandon();
+	}
+
+	/**
+	 * @return number of keys kept right now
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Drops the entries older than the time-to-live (the oldest come first).
+	 */
+	private void purgeExpired() {
+		long oldest = System.currentTimeMillis() - ttlMs;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext() && it.next().createdAt < oldest) {
+			it.remove();
+		}
+	}
+
+	/**
+	 * The outcome of one keyed request: the responses it sent, once it is done.
+	 */
+	public static class Entry {
+
+		/** Time the request was claimed */
+		private final long createdAt = System.currentTimeMillis();
+
+		/** Responses sent by the request, null while it runs */
+		private List<Object> responses;
+
+		/** True if the request failed and its key was freed */
+		private boolean abandoned;
+
+		/**
+		 * Stores the responses of the finished request and wakes up the retries
+		 * waiting for them.
+		 *
+		 * @param responses the responses sent to the client, in order
+		 */
+		public synchronized void complete(List<Object> responses) {
+			this.responses = new ArrayList<>(responses);
+			notifyAll();
+		}
+
+		/**
+		 * Marks the request as failed and wakes up the retries waiting for it.
+		 */
+		private synchronized void abandon() {
+			abandoned = true;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the request is done.
+		 *
+		 * @param timeoutMs longest time to wait
+		 * @return the responses of the request, or null if it failed or is still
+		 *         running after the timeout
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public synchronized List<Object> await(long timeoutMs) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			long left;
+			while (responses == null && !abandoned && (left = deadline - System.currentTimeMillis()) > 0) {
+				wait(left);
+			}
+			return responses;
+		}
+
+		/**
+		 * @return true if the request failed and its key was freed
+		 */
+		public synchronized boolean isAbandoned() {
+			return abandoned;
+		}
+	}
+}
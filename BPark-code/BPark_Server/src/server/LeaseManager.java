@@ -0,0 +1,256 @@
+package server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import db.DBController;
+
+/**
+ * Decides which parking lots this server node runs when several nodes share
+ * the same database.
+ *
+ * Every lot has a row in the lot_lease table. A node owns a lot while it holds
+ * an unexpired lease on it and renews its leases every few seconds. If a node
+ * stops renewing (crash, network loss), its leases expire and the other nodes
+ * take the lots over on their next round. Lot-specific work (entry occupancy,
+ * extension capacity, late-pickup notices) runs only on the owner, and clients
+ * that connect to another node are redirected to the owner.
+ *
+ * Configuration (system properties):
+ * - bpark.node.id: unique node name (default host:port);
+ * - bpark.node.host: host clients should use to reach this node (default the
+ *   local address);
+ * - bpark.node.lots: comma-separated lots this node prefers. A node takes
+ *   free lots from its list right away; other lots without a live owner are
+ *   taken over only after one lease period, which gives their preferred node
+ *   time to start. Without a list, the node takes every free lot. A lot that
+ *   was taken over stays with its new owner until that node stops.
+ *
+ * A single node with no configuration simply owns every lot.
+ *
+ * A lease is only as good as its last renewal: a node that could not renew for
+ * LEASE_SECONDS minus a margin (DB unreachable, a round stuck) stops treating
+ * its lots as owned, before another node may take them over.
+ *
+ * Once another node shares the DB (a node with a lot list, or a live lease of
+ * another node), this node's in-memory tag index and open sessions no longer
+ * see every change: from then on the gate checks read the DB, and every round
+ * drops the cached profiles changed in the DB (see
+ * {@link DBController#shareWithOtherNodes()}).
+ */
+public class LeaseManager {
+
+	/** How long a lease is valid without renewal */
+	static final int LEASE_SECONDS = 15;
+
+	/** How often leases are renewed and free lots are claimed */
+	static final int RENEW_SECONDS = 5;
+
+	/**
+	 * How long before its lease expires in the DB a node stops treating a lot as
+	 * owned, covering the DB round trip and clock drift
+	 */
+	static final int LAPSE_MARGIN_SECONDS = 3;
+
+	/** DB controller used for the lease table */
+	private final DBController db;
+
+	/** This node's unique ID */
+	private final String nodeId;
+
+	/** "host:port" clients use to reach this node */
+	private final String address;
+
+	/** Lots this node prefers (lower case); empty means any lot */
+	private final Set<String> preferredLots;
+
+	/** Lot name -> address of the node that owns it (including this node) */
+	private final Map<String, String> owners = new ConcurrentHashMap<>();
+
+	/** Lots this node currently owns */
+	private final Set<String> ownedLots = ConcurrentHashMap.newKeySet();
+
+	/** Time this node started (epoch milliseconds) */
+	private long startedAt;
+
+	/** Start of the last round that renewed the leases (epoch milliseconds), 0 if none */
+	private volatile long lastRenewedAt;
+
+	/** Runs the renewal rounds */
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "lot-lease");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Creates a lease manager for a node listening on the given port.
+	 *
+	 * @param db   DB controller
+	 * @param port the port this node's server listens on
+	 */
+	public LeaseManager(DBController db, int port) {
+		this.db = db;
+		String host = System.getProperty("bpark.node.host", localAddress());
+		this.address = host + ":" + port;
+		this.nodeId = System.getProperty("bpark.node.id", address);
+		this.preferredLots = new HashSet<>();
+		for (String lot : System.getProperty("bpark.node.lots", "").split(",")) {
+			if (!lot.isBlank()) {
+				preferredLots.add(lot.trim().toLowerCase(Locale.ROOT));
+			}
+		}
+	}
+
+	/**
+	 * Claims the first lots right away, then keeps renewing in the background.
+	 */
+	public void start() {
+		startedAt = System.currentTimeMillis();
+		db.ensureLeaseRows();
+		renew();
+		timer.scheduleWithFixedDelay(this::renew, RENEW_SECONDS, RENEW_SECONDS, TimeUnit.SECONDS);
+		System.out.println("Node " + nodeId + " (" + address + ") owns lots: " + ownedLots);
+	}
+
+	/**
+	 * Stops renewing and gives up all leases, so other nodes take the lots over
+	 * immediately.
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		db.releaseLeases(nodeId);
+		for (String lot : ownedLots) {
+			DBController.setLotOwned(lot, false);
+		}
+		ownedLots.clear();
+	}
+
+	/**
+	 * Returns the address of the node clients of a lot should connect to.
+	 *
+	 * @param lotName the lot (any case)
+	 * @return "host:port" of another node that owns the lot, or null if this node
+	 *         owns it or it has no live owner
+	 */
+	public String redirectAddress(String lotName) {
+		if (lotName == null) {
+			return null;
+		}
+		for (Map.Entry<String, String> owner : owners.entrySet()) {
+			if (owner.getKey().equalsIgnoreCase(lotName.trim())) {
+				return owner.getValue().equals(address) ? null : owner.getValue();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return this node's unique ID
+	 */
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * One renewal round: claim or renew the lots this node should run, then
+	 * refresh who owns what and hand lots over to or from the local engines.
+	 */
+	private void renew() {
+		long roundStart = System.currentTimeMillis();
+		if (roundStart - lastRenewedAt > (LEASE_SECONDS - LAPSE_MARGIN_SECONDS) * 1000L) {
+			lapseOwnership(); // the leases may have been taken over meanwhile
+		}
+		try {
+			boolean mayTakeOver = roundStart - startedAt > LEASE_SECONDS * 1000L;
+			for (String lot : DBController.lotNames()) {
+				boolean mine = ownedLots.contains(lot);
+				boolean preferred = preferredLots.isEmpty() || preferredLots.contains(lot.toLowerCase(Locale.ROOT));
+				if (mine || preferred || (mayTakeOver && !owners.containsKey(lot))) {
+					// renews our own leases; otherwise succeeds only on a free or expired lease
+					db.claimLease(lot, nodeId, address, LEASE_SECONDS);
+				}
+			}
+
+			Map<String, String[]> live = db.getLiveLeases();
+			owners.clear();
+			for (Map.Entry<String, String[]> lease : live.entrySet()) {
+				owners.put(lease.getKey(), lease.getValue()[1]);
+			}
+
+			if (!preferredLots.isEmpty() || live.values().stream().anyMatch(lease -> !nodeId.equals(lease[0]))) {
+				DBController.shareWithOtherNodes();
+			}
+
+			long ownedUntil = roundStart + (LEASE_SECONDS - LAPSE_MARGIN_SECONDS) * 1000L;
+			for (String lot : DBController.lotNames()) {
+				String[] lease = live.get(lot);
+				boolean owns = lease != null && nodeId.equals(lease[0]);
+				if (owns) {
+					if (ownedLots.add(lot)) {
+						System.out.println("Node " + nodeId + " took over lot " + lot + ".");
+					}
+					DBController.setLotOwnedUntil(lot, ownedUntil); // lapses unless the next rounds renew it
+				} else if (ownedLots.remove(lot)) {
+					DBController.setLotOwned(lot, false);
+					System.out.println("Node " + nodeId + " no longer owns lot " + lot + ".");
+				} else {
+					DBController.setLotOwned(lot, false);
+				}
+			}
+			lastRenewedAt = roundStart;
+
+			if (DBController.isSharedWithOtherNodes()) {
+				db.syncProfileCache(); // profile edits made on other nodes
+			}
+		} catch (SQLException | RuntimeException e) {
+			// keep the current ownership until it lapses; a RuntimeException must not
+			// end the rounds, since the executor would not schedule another one
+			System.err.println("Lease renewal failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops treating the lots as owned after the leases could not be renewed in
+	 * time. The next successful round claims them again if they are still free.
+	 */
+	private void lapseOwnership() {
+		if (ownedLots.isEmpty()) {
+			return;
+		}
+		System.err.println("Node " + nodeId + " could not renew its leases in time - lots " + ownedLots
+				+ " are no longer served here.");
+		for (String lot : ownedLots) {
+			DBController.setLotOwned(lot, false);
+		}
+		ownedLots.clear();
+		owners.values().removeIf(address::equals); // lets the next round claim them back
+	}
+
+	/**
+	 * @return this machine's address, or "localhost" if it can not be resolved
+	 */
+	private static String localAddress() {
+		try {
+			return InetAddress.getLocalHost().getHostAddress();
+		} catch (UnknownHostException e) {
+			return "localhost";
+		}
+	}
+
+	/**
+	 * @return lots this node currently owns
+	 */
+	public Set<String> getOwnedLots() {
+		return new HashSet<>(ownedLots);
+	}
+}
@@ -53,6 +53,9 @@ public class ParkingEventChecker extends Thread {
                     db.markSendMail(sendEmailList.get(i).getSubscriberCode());
                 }
 
+                // Log how well the subscriber profile cache is doing
+                System.out.println(DBController.profileCacheStats());
+
                 // Wait 5 minutes before checking again
                 Thread.sleep(5 * 60 * 1000);
 
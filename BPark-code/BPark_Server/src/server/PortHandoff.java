@@ -0,0 +1,94 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lets a new server process take over a port from the running one without the
+ * clients noticing more than a short delay.
+ *
+ * Both processes are started with -Dbpark.reuseport=true, so the new one can
+ * listen on the port while the old one still serves it. The new process then
+ * waits for the port's lock file (-Dbpark.port.lock, default bpark-PORT.lock)
+ * before it touches the DB, the lot leases or the journal; meanwhile new
+ * clients wait in its accept queue. The old process is stopped (Ctrl+C /
+ * SIGTERM, or Exit in the GUI): it stops listening, finishes its requests,
+ * writes its resumable sessions to the handoff file next to the lock, tells
+ * its clients to reconnect and releases the lock. The new process then loads
+ * the sessions and starts serving, and the reconnecting clients resume their
+ * sessions on it.
+ *
+ * The lock is released by the OS if a process dies, so a crash never blocks
+ * the next start.
+ */
+public class PortHandoff {
+
+	/** Lock file held while a process serves the port */
+	private final Path lockFile;
+
+	/** File the sessions are handed over in */
+	private final Path sessionsFile;
+
+	/** Open channel of the lock file, null while not held */
+	private FileChannel channel;
+
+	/** The lock, null while not held */
+	private FileLock lock;
+
+	/**
+	 * @param port the port the server listens on
+	 */
+	public PortHandoff(int port) {
+		this.lockFile = Paths.get(System.getProperty("bpark.port.lock", "bpark-" + port + ".lock"));
+		this.sessionsFile = lockFile.resolveSibling(lockFile.getFileName() + ".sessions");
+	}
+
+	/**
+	 * Takes the port's lock, waiting for the process that holds it (if any) to
+	 * finish handing over. If the lock file can not be used, the server starts
+	 * anyway.
+	 */
+	public void awaitPredecessor() {
+		try {
+			channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			lock = channel.tryLock();
+			if (lock == null) {
+				System.out.println("Another server still runs on this port - waiting for it to hand over...");
+				lock = channel.lock();
+				System.out.println("Took over from the previous server.");
+			}
+		} catch (IOException e) {
+			System.err.println("[HANDOFF] could not lock " + lockFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the file resumable sessions are handed over in
+	 */
+	public Path getSessionsFile() {
+		return sessionsFile;
+	}
+
+	/**
+	 * Releases the port's lock, letting a waiting process start serving.
+	 */
+	public void release() {
+		try {
+			if (lock != null) {
+				lock.release();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			System.err.println("[HANDOFF] could not release " + lockFile + ": " + e.getMessage());
+		} finally {
+			lock = null;
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package server;
+
+/**
+ * Priority classes of client operations. Each class has its own worker threads
+ * (and with them its own DB connections, one per worker), so a burst in one
+ * class can only queue up behind itself: a manager running a big report never
+ * delays a barrier opening.
+ *
+ * The number of workers of a class can be set with -Dbpark.workers.gate,
+ * -Dbpark.workers.interactive and -Dbpark.workers.report.
+ *
+ * Under overload the classes are shed from the bottom up: a class is only
+ * admitted while the requests in flight are below its share of the server's
+ * admission limit, so reports are refused first and gates last.
+ */
+public enum PriorityClass {
+
+	/** Gate and kiosk operations - a car is waiting at the barrier */
+	GATE(4, 100),
+
+	/** Screens of subscribers and staff - orders, profiles, logins */
+	INTERACTIVE(4, 75),
+
+	/** Heavy manager queries - reports, full lists and bulk imports */
+	REPORT(2, 25);
+
+	/** Number of workers (and DB connections) used when no property is set */
+	private final int defaultWorkers;
+
+	/** Percentage of the admission limit requests of this class may fill */
+	private final int admissionShare;
+
+	/**
+	 * @param defaultWorkers number of workers used when no property is set
+	 * @param admissionShare percentage of the admission limit requests of this
+	 *                       class may fill
+	 */
+	PriorityClass(int defaultWorkers, int admissionShare) {
+		this.defaultWorkers = defaultWorkers;
+		this.admissionShare = admissionShare;
+	}
+
+	/**
+	 * @return number of worker threads of this class, which is also the number
+	 *         of DB connections it may hold
+	 */
+	public int getWorkers() {
+		return Math.max(1, Integer.getInteger("bpark.workers." + name().toLowerCase(), defaultWorkers));
+	}
+
+	/**
+	 * @param limit the server's admission limit (requests in flight)
+	 * @return number of requests in flight up to which this class is admitted
+	 */
+	public int admissionThreshold(int limit) {
+		return Math.max(1, limit * admissionShare / 100);
+	}
+}
@@ -0,0 +1,623 @@
+package server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.IdempotentRequest;
+import common.Operation;
+import common.ResponseType;
+import common.ServerResponse;
+import common.UserRole;
+import db.DBController;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Registry of the handlers of all client operations, and the executors they
+ * run on.
+ *
+ * Every {@link Operation} is registered with a {@link PriorityClass}. Each
+ * class has its own fixed pool of workers, and every worker holds its own DB
+ * connection for as long as it lives, so the classes do not compete for
+ * threads or connections: a report keeps the report workers busy while gate
+ * requests go straight to the idle gate workers.
+ *
+ * Requests of one client still run one at a time and in the order they were
+ * sent (a logout never overtakes the request before it), whatever their
+ * classes are.
+ *
+ * Before a request is queued it has to pass admission control, and is answered
+ * with {@link ResponseType#SERVER_BUSY} right away if it does not:
+ * - every connection may send -Dbpark.rate.connection requests per second
+ * (default 20, bursts of twice that),
+ * - all connections of a logged-in role together may send
+ * -Dbpark.rate.subscriber / .attendant / .manager requests per second,
+ * - and at most -Dbpark.admission.limit requests (default 256) may be queued or
+ * running at once, of which each priority class may only fill its share.
+ * So a flood is refused at the door instead of growing the queues until every
+ * request is late, and under overload reports are refused before gates are.
+ *
+ * A request sent as an {@link IdempotentRequest} runs at most once per key:
+ * the responses it sends to its client are kept in an {@link IdempotencyCache},
+ * and a repeat of the key (a retry after a timeout or a reconnect) is answered
+ * with them instead.
+ *
+ * Before the server shuts down, {@link #drain(long)} stops taking new requests
+ * and waits for the admitted ones to finish, so no request is cut off halfway.
+ */
+public class RequestDispatcher {
+
+	/** Handler and priority class of each registered operation */
+	private final Map<Operation, Route> routes = new EnumMap<>(Operation.class);
+
+	/** Workers of each priority class */
+	private final Map<PriorityClass, ThreadPoolExecutor> executors = new EnumMap<>(PriorityClass.class);
+
+	/** Requests of each client, run in order */
+	private final ConcurrentHashMap<ConnectionToClient, Lane> lanes = new ConcurrentHashMap<>();
+
+	/** Default requests per second of one connection */
+	private static final int DEFAULT_CONNECTION_RATE = 20;
+
+	/** Default requests per second of all connections of each role together */
+	private static final Map<UserRole, Integer> DEFAULT_ROLE_RATES = Map.of(UserRole.Subscriber, 200,
+			UserRole.Attendant, 100, UserRole.Manager, 50);
+
+	/** Default number of requests that may be queued or running at once */
+	private static final int DEFAULT_ADMISSION_LIMIT = 256;
+
+	/** Requests per second of one connection */
+	private final int connectionRate = Integer.getInteger("bpark.rate.connection", DEFAULT_CONNECTION_RATE);
+
+	/** Shared bucket of each logged-in role */
+	private final Map<UserRole, TokenBucket> roleBuckets = new EnumMap<>(UserRole.class);
+
+	/** Most requests queued or running at once */
+	private final int admissionLimit = Integer.getInteger("bpark.admission.limit", DEFAULT_ADMISSION_LIMIT);
+
+	/** Requests queued or running right now */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/** Requests refused so far, per priority class */
+	private final Map<PriorityClass, AtomicLong> refused = new EnumMap<>(PriorityClass.class);
+
+	/** Longest time a repeated request waits for the first attempt to finish */
+	private static final long REPEAT_WAIT_MS = 10 * 1000;
+
+	/** Responses of recent keyed requests */
+	private final IdempotencyCache results = new IdempotencyCache();
+
+	/** Keyed request the current worker runs, collecting the responses it sends */
+	private static final ThreadLocal<Recording> RECORDING = new ThreadLocal<>();
+
+	/** Number of repeated requests answered from the cache */
+	private final AtomicLong repeats = new AtomicLong();
+
+	/** How often {@link #drain(long)} checks whether the admitted requests are done */
+	private static final long DRAIN_POLL_MS = 50;
+
+	/** True once the server is shutting down and takes no new requests */
+	private volatile boolean draining;
+
+	/**
+	 * Creates the workers of all priority classes. They are started (and open
+	 * their DB connections) by {@link #start()}.
+	 */
+	public RequestDispatcher() {
+		for (PriorityClass priority : PriorityClass.values()) {
+			int workers = priority.getWorkers();
+			executors.put(priority, new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<>(), new WorkerFactory(priority)));
+			refused.put(priority, new AtomicLong());
+		}
+		for (UserRole role : UserRole.values()) {
+			int rate = Integer.getInteger("bpark.rate." + role.name().toLowerCase(), DEFAULT_ROLE_RATES.get(role));
+			roleBuckets.put(role, new TokenBucket(rate, rate));
+		}
+	}
+
+	/**
+	 * Registers the handler of an operation. Call before the server starts
+	 * listening.
+	 *
+	 * @param operation the operation
+	 * @param priority  the class whose workers run it
+	 * @param handler   the handler
+	 */
+	public void register(Operation operation, PriorityClass priority, RequestHandler handler) {
+		routes.put(operation, new Route(priority, handler));
+	}
+
+	/**
+	 * @param operation an operation
+	 * @return the priority class the operation runs in, or null if it has no
+	 *         handler
+	 */
+	public PriorityClass getPriority(Operation operation) {
+		Route route = routes.get(operation);
+		return route == null ? null : route.priority;
+	}
+
+	/**
+	 * Starts all workers, each opening its DB connection. Call once the DB is
+	 * reachable.
+	 */
+	public void start() {
+		for (Map.Entry<PriorityClass, ThreadPoolExecutor> e : executors.entrySet()) {
+			e.getValue().prestartAllCoreThreads();
+			System.out.println("Dispatcher: " + e.getValue().getCorePoolSize() + " " + e.getKey().name().toLowerCase()
+					+ " workers.");
+		}
+	}
+
+	/**
+	 * Queues a client message for its handler and returns right away. A request
+	 * that does not pass admission control is answered with
+	 * {@link ResponseType#SERVER_BUSY} instead.
+	 *
+	 * @param msg    the message, an Object[] with the {@link Operation} first
+	 * @param client the sending client
+	 */
+	public void dispatch(Object msg, ConnectionToClient client) {
+		String key = null;
+		if (msg instanceof IdempotentRequest keyed) {
+			key = keyed.getKey();
+			msg = keyed.getData();
+		}
+		if (!(msg instanceof Object[] data) || data.length == 0 || !(data[0] instanceof Operation operation)) {
+			System.err.println("Unsupported message from " + client + ": " + msg);
+			return;
+		}
+		Route route = routes.get(operation);
+		if (route == null) {
+			System.err.println("No handler for " + operation + " from " + client);
+			return;
+		}
+		if (draining) {
+			refuseWhileDraining(key, operation, client);
+			return;
+		}
+		Lane lane = lanes.computeIfAbsent(client, c -> new Lane());
+		String refusal = admit(lane, route.priority, client);
+		if (refusal != null) {
+			refused.get(route.priority).incrementAndGet();
+			ServerResponse busy = new ServerResponse(false, null, ResponseType.SERVER_BUSY, refusal);
+			busy.setRequestKey(key); // answered - the client does not send it again on its own
+			try {
+				client.sendToClient(busy);
+			} catch (IOException e) {
+				System.err.println("Client communication error: " + e.getMessage());
+			}
+			return;
+		}
+		String requestKey = key;
+		lane.submit(route.priority, () -> {
+			try {
+				if (requestKey == null) {
+					handle(route, operation, data, client);
+				} else {
+					handleOnce(requestKey, route, operation, data, client);
+				}
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Runs the handler of a request.
+	 *
+	 * @param route     handler of the operation
+	 * @param operation the operation
+	 * @param data      the request
+	 * @param client    the sending client
+	 * @return true if the handler completed (even if the client could not be
+	 *         answered), false if it failed
+	 */
+	private boolean handle(Route route, Operation operation, Object[] data, ConnectionToClient client) {
+		try {
+			route.handler.handle(data, client);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Client communication error: " + e.getMessage());
+			return true; // the work is done, only the answer got lost - a retry gets it again
+		} catch (SQLException e) {
+			System.err.println("DB error handling " + operation + " from " + client + ": " + e.getMessage());
+		} catch (RuntimeException e) {
+			System.err.println("Error handling " + operation + " from " + client + ": " + e);
+		}
+		return false;
+	}
+
+	/**
+	 * Runs a keyed request unless its key was seen before, in which case the
+	 * client gets the responses of the earlier attempt again (waiting for them
+	 * if that attempt is still running).
+	 *
+	 * @param key       the request's key
+	 * @param route     handler of the operation
+	 * @param operation the operation
+	 * @param data      the request
+	 * @param client    the sending client
+	 */
+	private void handleOnce(String key, Route route, Operation operation, Object[] data, ConnectionToClient client) {
+		IdempotencyCache.Entry entry = new IdempotencyCache.Entry();
+		IdempotencyCache.Entry earlier = results.claim(key, entry);
+		if (earlier != null) {
+			repeat(earlier, key, route, operation, data, client);
+			return;
+		}
+		Recording recording = new Recording(client, key);
+		RECORDING.set(recording);
+		boolean done = false;
+		try {
+			done = handle(route, operation, data, client);
+		} finally {
+			RECORDING.remove();
+			if (done) {
+				entry.complete(recording.responses);
+			} else {
+				results.abandon(key, entry); // nothing reliable was sent - a retry runs it again
+			}
+		}
+	}
+
+	/**
+	 * Answers a repeated keyed request with the responses of its first attempt.
+	 *
+	 * @param earlier   the first attempt
+	 * @param key       the request's key
+	 * @param route     handler of the operation
+	 * @param operation the operation
+	 * @param data      the request
+	 * @param client    the sending client
+	 */
+	private void repeat(IdempotencyCache.Entry earlier, String key, Route route, Operation operation, Object[] data,
+			ConnectionToClient client) {
+		try {
+			List<Object> responses = earlier.await(REPEAT_WAIT_MS);
+			if (responses == null) {
+				if (earlier.isAbandoned()) { // the first attempt failed - this one may run
+					handleOnce(key, route, operation, data, client);
+				} else {
+					client.sendToClient(new ServerResponse(false, null, ResponseType.SERVER_BUSY,
+							"The request is still being processed, please try again in a moment."));
+				}
+				return;
+			}
+			repeats.incrementAndGet();
+			System.out.println("Repeated " + operation + " from " + client + " answered from the first attempt.");
+			for (Object response : responses) {
+				client.sendToClient(response);
+			}
+		} catch (IOException e) {
+			System.err.println("Client communication error: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Keeps a response the current worker sends to the client of the keyed
+	 * request it runs, so it can be sent again for a repeat, and marks it with
+	 * the request's key. Called by the server for every message it sends.
+	 *
+	 * @param client the client the message is sent to
+	 * @param msg    the message
+	 */
+	public void recordResponse(ConnectionToClient client, Object msg) {
+		Recording recording = RECORDING.get();
+		if (recording != null && recording.client == client && msg instanceof ServerResponse response) {
+			response.setRequestKey(recording.key);
+			recording.responses.add(response); // broadcasts are encoded, so they are not kept
+		}
+	}
+
+	/**
+	 * Decides whether a request may be queued. Takes a token from the client's
+	 * bucket and its role's bucket, then a place below the priority class's
+	 * share of the admission limit.
+	 *
+	 * @param lane     the client's lane
+	 * @param priority class of the request
+	 * @param client   the sending client
+	 * @return null if the request is admitted (it then counts as in flight until
+	 *         its handler is done), otherwise the message to refuse it with
+	 */
+	private String admit(Lane lane, PriorityClass priority, ConnectionToClient client) {
+		if (!lane.bucket.tryAcquire()) {
+			if (!lane.throttled) { // log once per burst, not once per request
+				lane.throttled = true;
+				System.err.println("Client " + client + " exceeds " + connectionRate
+						+ " requests/s, refusing requests.");
+			}
+			return "Too many requests, please slow down.";
+		}
+		lane.throttled = false;
+		if (client.getInfo(SessionRegistry.ROLE_KEY) instanceof UserRole role && !roleBuckets.get(role).tryAcquire()) {
+			return "The server is busy, please try again in a moment.";
+		}
+		int threshold = priority.admissionThreshold(admissionLimit);
+		while (true) {
+			int current = inFlight.get();
+			if (current >= threshold) {
+				return "The server is busy, please try again in a moment.";
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Turns away a request that arrives while the server drains. A keyed
+	 * request is not answered at all: the client still has it and sends it again
+	 * (with the same key) to the server it reconnects to. Other requests are
+	 * refused with {@link ResponseType#SERVER_BUSY}.
+	 *
+	 * @param key       the request's key, or null
+	 * @param operation the operation
+	 * @param client    the sending client
+	 */
+	private void refuseWhileDraining(String key, Operation operation, ConnectionToClient client) {
+		if (key != null) {
+			System.out.println("Draining: " + operation + " from " + client + " left for the next server.");
+			return;
+		}
+		try {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SERVER_BUSY,
+					"The server is restarting, please try again in a moment."));
+		} catch (IOException e) {
+			System.err.println("Client communication error: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops taking new requests and waits until the admitted ones (queued or
+	 * running) are done. The workers keep running, so {@link #shutdown(long)}
+	 * is still needed afterwards.
+	 *
+	 * @param timeoutMs longest time to wait
+	 * @return true if every admitted request finished in time
+	 */
+	public boolean drain(long timeoutMs) {
+		draining = true;
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		try {
+			while (inFlight.get() > 0) {
+				if (System.currentTimeMillis() >= deadline) {
+					System.err.println("Dispatcher: " + inFlight.get() + " requests still running after "
+							+ timeoutMs + " ms of draining.");
+					return false;
+				}
+				Thread.sleep(DRAIN_POLL_MS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forgets a disconnected client. Requests it already sent still run.
+	 *
+	 * @param client the client
+	 */
+	public void forget(ConnectionToClient client) {
+		lanes.remove(client);
+	}
+
+	/**
+	 * @return number of requests queued or running right now
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return number of requests refused by admission control so far, per
+	 *         priority class
+	 */
+	public Map<PriorityClass, Long> getRefusedCounts() {
+		Map<PriorityClass, Long> counts = new EnumMap<>(PriorityClass.class);
+		refused.forEach((priority, count) -> counts.put(priority, count.get()));
+		return counts;
+	}
+
+	/**
+	 * @return number of repeated requests answered from the cache so far
+	 */
+	public long getRepeatCount() {
+		return repeats.get();
+	}
+
+	/**
+	 * @return number of requests waiting for a worker, per priority class
+	 */
+	public Map<PriorityClass, Integer> getQueuedCounts() {
+		Map<PriorityClass, Integer> counts = new EnumMap<>(PriorityClass.class);
+		executors.forEach((priority, executor) -> counts.put(priority, executor.getQueue().size()));
+		return counts;
+	}
+
+	/**
+	 * Stops taking requests and waits for the queued ones to finish. The workers
+	 * close their DB connections as they exit.
+	 *
+	 * @param timeoutMs longest time to wait in total
+	 */
+	public void shutdown(long timeoutMs) {
+		executors.values().forEach(ThreadPoolExecutor::shutdown);
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		try {
+			for (Map.Entry<PriorityClass, ThreadPoolExecutor> e : executors.entrySet()) {
+				long left = Math.max(0, deadline - System.currentTimeMillis());
+				if (!e.getValue().awaitTermination(left, TimeUnit.MILLISECONDS)) {
+					System.err.println("Dispatcher: " + e.getKey().name().toLowerCase()
+							+ " requests still running at shutdown.");
+					e.getValue().shutdownNow();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		lanes.clear();
+	}
+
+	/**
+	 * The handler of an operation and the class it runs in.
+	 *
+	 * @param priority the class whose workers run the handler
+	 * @param handler  the handler
+	 */
+	private record Route(PriorityClass priority, RequestHandler handler) {
+	}
+
+	/**
+	 * The responses a keyed request sends to its client.
+	 *
+	 * @param client    the client of the request
+	 * @param key       the request's key
+	 * @param responses the responses, in order
+	 */
+	private record Recording(ConnectionToClient client, String key, List<Object> responses) {
+
+		/**
+		 * @param client the client of the request
+		 * @param key    the request's key
+		 */
+		Recording(ConnectionToClient client, String key) {
+			this(client, key, new ArrayList<>());
+		}
+	}
+
+	/**
+	 * The requests of one client. At most one of them runs at a time, on a worker
+	 * of its own class; the next one is handed to its class when it is done.
+	 */
+	private final class Lane {
+
+		/** Requests waiting for the running one, in order */
+		private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+		/** True while a request of this client is queued or running on a worker */
+		private boolean running;
+
+		/** Rate limit of this client */
+		private final TokenBucket bucket = new TokenBucket(connectionRate, 2 * connectionRate);
+
+		/** True while this client's requests are refused for its rate (only read on its receive thread) */
+		private boolean throttled;
+
+		/**
+		 * Runs the request after the client's earlier ones.
+		 *
+		 * @param priority the class to run it in
+		 * @param work     the request
+		 */
+		void submit(PriorityClass priority, Runnable work) {
+			Runnable job = () -> execute(priority, work);
+			synchronized (this) {
+				if (running) {
+					waiting.add(job);
+					return;
+				}
+				running = true;
+			}
+			job.run();
+		}
+
+		/**
+		 * Hands the request to a worker of its class and the next one to the lane
+		 * once it is done.
+		 *
+		 * @param priority the class to run it in
+		 * @param work     the request
+		 */
+		private void execute(PriorityClass priority, Runnable work) {
+			try {
+				executors.get(priority).execute(() -> {
+					try {
+						work.run();
+					} finally {
+						next();
+					}
+				});
+			} catch (RejectedExecutionException e) { // shutting down
+				synchronized (this) {
+					inFlight.addAndGet(-1 - waiting.size()); // neither this nor the waiting ones will run
+					waiting.clear();
+					running = false;
+				}
+			}
+		}
+
+		/**
+		 * Starts the next waiting request, if any.
+		 */
+		private void next() {
+			Runnable job;
+			synchronized (this) {
+				job = waiting.poll();
+				if (job == null) {
+					running = false;
+					return;
+				}
+			}
+			job.run();
+		}
+	}
+
+	/**
+	 * Creates the workers of one priority class. Each worker opens its own DB
+	 * connection when it starts and closes it when it exits.
+	 */
+	private static final class WorkerFactory implements ThreadFactory {
+
+		/** Class of the workers */
+		private final PriorityClass priority;
+
+		/** Number of workers created so far, for their names */
+		private final AtomicInteger created = new AtomicInteger();
+
+		/**
+		 * @param priority class of the workers
+		 */
+		WorkerFactory(PriorityClass priority) {
+			this.priority = priority;
+		}
+
+		/**
+		 * Creates a worker.
+		 *
+		 * @param r the executor's work loop
+		 * @return the worker thread
+		 */
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(() -> {
+				DBController.openWorkerConnection();
+				try {
+					r.run();
+				} finally {
+					DBController.closeWorkerConnection();
+				}
+			}, priority.name().toLowerCase() + "-worker-" + created.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Handles one {@link common.Operation} sent by a client. Registered with the
+ * {@link RequestDispatcher} together with the operation's priority class.
+ */
+@FunctionalInterface
+public interface RequestHandler {
+
+	/**
+	 * Handles the request and sends any response to the client.
+	 *
+	 * @param data   the message array sent from the client (operation first)
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	void handle(Object[] data, ConnectionToClient client) throws IOException, SQLException;
+}
@@ -0,0 +1,167 @@
+package server;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import db.DBController;
+
+/**
+ * Expires ACTIVE reservations when their 15-minute grace period ends.
+ *
+ * Every ACTIVE order is kept in a priority queue ordered by expiry time. A
+ * single background thread sleeps until the earliest expiry, then sets the due
+ * orders INACTIVE with one UPDATE per batch (by order number). New orders are
+ * added as they are placed; the thread is woken if a new order expires before
+ * the one it is waiting for.
+ *
+ * Orders that are cancelled or fulfilled before they expire stay in the queue;
+ * the UPDATE only touches orders that are still ACTIVE, so they are skipped.
+ */
+public class ReservationExpiryScheduler {
+
+	/** Minutes after the arrival time until an unused reservation expires */
+	public static final int GRACE_MINUTES = 15;
+
+	/** Maximum number of orders expired by one UPDATE */
+	private static final int BATCH_SIZE = 50;
+
+	/** Delay before retrying a batch that could not be written */
+	private static final long RETRY_DELAY_MS = 60 * 1000;
+
+	/** Orders waiting to expire, earliest first (guarded by itself) */
+	private final PriorityQueue<PendingExpiry> queue = new PriorityQueue<>();
+
+	/** DB controller used to load and expire orders */
+	private final DBController db;
+
+	/** Background thread that expires the orders */
+	private Thread worker;
+
+	/**
+	 * Creates a scheduler. Call {@link #start()} once the DB is connected.
+	 *
+	 * @param db DB controller
+	 */
+	public ReservationExpiryScheduler(DBController db) {
+		this.db = db;
+	}
+
+	/**
+	 * Expires the orders whose grace period ended while the server was down,
+	 * queues all remaining ACTIVE orders and starts the background thread.
+	 */
+	public synchronized void start() {
+		int expired = db.inactiveReservations(); // catch up once
+		if (expired > 0) {
+			System.out.println("Expired " + expired + " reservations missed while the server was down.");
+		}
+		for (Map.Entry<Integer, LocalDateTime> order : db.getActiveOrderStartTimes().entrySet()) {
+			schedule(order.getKey(), order.getValue());
+		}
+
+		if (worker == null) {
+			worker = new Thread(this::run, "reservation-expiry");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Queues an order to expire {@link #GRACE_MINUTES} after its start time.
+	 *
+	 * @param orderNumber the order number
+	 * @param startAt     date and time the reservation starts
+	 */
+	public void schedule(int orderNumber, LocalDateTime startAt) {
+		long expiresAt = startAt.plusMinutes(GRACE_MINUTES).atZone(ZoneId.systemDefault()).toInstant()
+				.toEpochMilli();
+		synchronized (queue) {
+			queue.add(new PendingExpiry(orderNumber, expiresAt));
+			queue.notify(); // the new order may expire before the one being waited for
+		}
+	}
+
+	/**
+	 * Worker loop: waits for the next due batch and expires it.
+	 */
+	private void run() {
+		while (true) {
+			List<Integer> due;
+			try {
+				due = takeDueBatch();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			int expired = db.expireReservations(due);
+			if (expired < 0) {
+				// DB error - try the same orders again a bit later
+				long retryAt = System.currentTimeMillis() + RETRY_DELAY_MS;
+				synchronized (queue) {
+					for (int orderNumber : due) {
+						queue.add(new PendingExpiry(orderNumber, retryAt));
+					}
+				}
+			} else if (expired > 0) {
+				System.out.println("Expired " + expired + " reservations.");
+			}
+		}
+	}
+
+	/**
+	 * Blocks until at least one order is due, then removes up to
+	 * {@link #BATCH_SIZE} due orders from the queue.
+	 *
+	 * @return order numbers of the due orders
+	 * @throws InterruptedException if the worker thread is interrupted
+	 */
+	private List<Integer> takeDueBatch() throws InterruptedException {
+		synchronized (queue) {
+			while (true) {
+				PendingExpiry head = queue.peek();
+				if (head == null) {
+					queue.wait();
+					continue;
+				}
+				long wait = head.expiresAt - System.currentTimeMillis();
+				if (wait > 0) {
+					queue.wait(wait);
+					continue;
+				}
+
+				List<Integer> due = new ArrayList<>();
+				long now = System.currentTimeMillis();
+				while (due.size() < BATCH_SIZE && !queue.isEmpty() && queue.peek().expiresAt <= now) {
+					due.add(queue.poll().orderNumber);
+				}
+				return due;
+			}
+		}
+	}
+
+	/**
+	 * An order waiting for its grace period to end.
+	 */
+	private static class PendingExpiry implements Comparable<PendingExpiry> {
+
+		/** The order number */
+		final int orderNumber;
+
+		/** Time the order expires (epoch milliseconds) */
+		final long expiresAt;
+
+		PendingExpiry(int orderNumber, long expiresAt) {
+			this.orderNumber = orderNumber;
+			this.expiresAt = expiresAt;
+		}
+
+		@Override
+		public int compareTo(PendingExpiry other) {
+			return Long.compare(expiresAt, other.expiresAt);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.ResponseType;
+import common.ResultChunk;
+import common.ServerResponse;
+import db.RowSink;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Sends the rows of a streamed query to a client in fixed-size chunks, each
+ * chunk as soon as it is full, so neither side ever holds the whole result and
+ * the client can show the first rows right away.
+ *
+ * The chunks are sent at the client's pace: when the connection's outbound
+ * queue is full, the streamer waits for room (and with it the query) instead
+ * of the queue's overflow policy dropping a chunk or closing the connection.
+ * So the server holds at most a queue's worth of chunks per client.
+ *
+ * Usage: pass the streamer to a DBController stream method as the sink, then
+ * call {@link #finish()} once the query is done, or {@link #fail(String)} if
+ * it failed.
+ *
+ * @param <T> type of the rows
+ */
+public class ResultStreamer<T> implements RowSink<T> {
+
+	/** Number of rows in a full chunk */
+	static final int CHUNK_ROWS = 200;
+
+	/** Longest time to wait for the client to make room for the next chunk */
+	private static final long CHUNK_WAIT_MS = 30 * 1000;
+
+	/** Source of stream identifiers */
+	private static final AtomicLong NEXT_STREAM_ID = new AtomicLong();
+
+	/** The client the result is sent to */
+	private final ConnectionToClient client;
+
+	/** Response type the chunks are sent with */
+	private final ResponseType type;
+
+	/** Identifier of this result */
+	private final long streamId = NEXT_STREAM_ID.incrementAndGet();
+
+	/** Rows of the chunk being filled */
+	private final ArrayList<T> buffer = new ArrayList<>(CHUNK_ROWS);
+
+	/** Index of the next chunk */
+	private int nextIndex;
+
+	/** Number of rows received so far */
+	private int rowCount;
+
+	/**
+	 * Creates a streamer for one result.
+	 *
+	 * @param client the client to send the result to
+	 * @param type   response type of the result (the client routes on it)
+	 */
+	public ResultStreamer(ConnectionToClient client, ResponseType type) {
+		this.client = client;
+		this.type = type;
+	}
+
+	/**
+	 * Adds a row, sending the chunk when it is full.
+	 *
+	 * @param row the next row
+	 * @throws IOException if the chunk could not be sent
+	 */
+	@Override
+	public void accept(T row) throws IOException {
+		buffer.add(row);
+		rowCount++;
+		if (buffer.size() == CHUNK_ROWS) {
+			send(false);
+		}
+	}
+
+	/**
+	 * Sends the last chunk (possibly empty). Call once the query is done.
+	 *
+	 * @return number of rows sent in total
+	 * @throws IOException if the chunk could not be sent
+	 */
+	public int finish() throws IOException {
+		send(true);
+		return rowCount;
+	}
+
+	/**
+	 * Ends the result as failed: sends an empty last chunk marked as not
+	 * succeeded, so the client knows the rows it already got are incomplete.
+	 * Call instead of {@link #finish()} when the query fails part way.
+	 *
+	 * @param message the error shown to the user
+	 * @throws IOException if the chunk could not be sent
+	 */
+	public void fail(String message) throws IOException {
+		buffer.clear();
+		ResultChunk<T> chunk = new ResultChunk<>(streamId, nextIndex++, buffer, true);
+		client.sendToClientWaiting(new ServerResponse(false, chunk, type, message), CHUNK_WAIT_MS);
+	}
+
+	/**
+	 * @return number of rows received so far
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Sends the buffered rows as the next chunk.
+	 *
+	 * @param last true for the last chunk
+	 * @throws IOException if the chunk could not be sent, or the client read
+	 *                     nothing for {@link #CHUNK_WAIT_MS}
+	 */
+	private void send(boolean last) throws IOException {
+		ResultChunk<T> chunk = new ResultChunk<>(streamId, nextIndex++, buffer, last);
+		buffer.clear();
+		client.sendToClientWaiting(new ServerResponse(true, chunk, type,
+				last ? rowCount + " rows" : chunk.getRows().size() + " rows, more to come"), CHUNK_WAIT_MS);
+	}
+}
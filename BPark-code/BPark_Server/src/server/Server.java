@@ -3,14 +3,25 @@ package server;
 import ocsf.server.*;
 import reportService.*;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.Date;
 import java.sql.SQLException;
 import java.sql.Time;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import common.*;
 import db.DBController;
+import db.IdAllocator;
+import db.PickupResult;
+import db.SubscriberRegistration;
+import journal.EventJournal;
+import journal.JournalApplier;
+import journal.JournalRecord;
 import mailService.*;
 
 /**
@@ -26,6 +37,73 @@ public class Server extends AbstractServer {
 	/** Mail service used for sending notifications */
 	private MailService sendEmail = new MailService();
 
+	/** Block allocator for new subscriber codes and tag IDs */
+	private IdAllocator ids;
+
+	/** Bulk CSV importer for subscribers */
+	private SubscriberImporter importer;
+
+	/** Logged-in users and the connections they are bound to */
+	private SessionRegistry sessions;
+
+	/** Expires ACTIVE reservations when their grace period ends */
+	private ReservationExpiryScheduler expiry;
+
+	/** Leases on the parking lots this node runs when several nodes share the DB */
+	private LeaseManager leases;
+
+	/** Longest time a pickup or extension waits for journaled entries to reach the DB */
+	private static final long JOURNAL_APPLY_WAIT_MS = 5000;
+
+	/** Append-only journal entries are written to first (null if it could not be opened) */
+	private EventJournal journal;
+
+	/** Writes journaled entries into the parkingEvent table in the background */
+	private JournalApplier applier;
+
+	/** How often the upcoming-reservation part of the extension capacity is re-counted */
+	private static final long EXTENSION_REFRESH_MS = 60 * 1000;
+
+	/** Timer that re-counts upcoming reservations for the extension capacity */
+	private final Timer extensionRefresh = new Timer("extension-capacity", true);
+
+	/** Default number of messages queued for one client (-Dbpark.outbound.capacity) */
+	private static final int DEFAULT_OUTBOUND_CAPACITY = 256;
+
+	/** Default time a silent client is kept (-Dbpark.idle.timeout.ms) */
+	private static final int DEFAULT_IDLE_TIMEOUT_MS = 30 * 1000;
+
+	/** Default serialized size from which responses are compressed (-Dbpark.compression.threshold) */
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 8 * 1024;
+
+	/** Responses a newer one of the same type makes obsolete, so they may be coalesced */
+	private static final EnumSet<ResponseType> COALESCABLE = EnumSet.of(ResponseType.ACTIVE_PARKINGS,
+			ResponseType.LATE_PICKUP_COUNTS);
+
+	/** Prefix of the broadcast topic of a parking lot's terminals */
+	private static final String LOT_TOPIC_PREFIX = "lot:";
+
+	/** Longest time shutdown waits for requests already handed to the workers */
+	private static final long DISPATCH_DRAIN_MS = 5000;
+
+	/** Default time shutdown lets the admitted requests finish (-Dbpark.drain.timeout.ms) */
+	private static final long DEFAULT_DRAIN_TIMEOUT_MS = 10 * 1000;
+
+	/** Longest time shutdown waits for queued mails to be sent */
+	private static final long MAIL_FLUSH_MS = 10 * 1000;
+
+	/** Default number of connections waiting to be accepted (-Dbpark.backlog), e.g. during a handoff */
+	private static final int DEFAULT_BACKLOG = 128;
+
+	/** Lets a new server process take over this port (see {@link PortHandoff}) */
+	private final PortHandoff handoff;
+
+	/** True once {@link #serverStarted()} completed and the server serves clients */
+	private volatile boolean serving;
+
+	/** Handlers of all operations, run on the workers of their priority class */
+	private final RequestDispatcher dispatcher = new RequestDispatcher();
+
 	/** Thread that monitors overdue parking sessions and sends alerts */
 	private ParkingEventChecker parkingEventChecker = new ParkingEventChecker();
 
@@ -36,7 +114,22 @@ public class Server extends AbstractServer {
 	 */
 	public Server(int port) {
 		super(port);
+		configureOutbound();
+		setIdleTimeout(Integer.getInteger("bpark.idle.timeout.ms", DEFAULT_IDLE_TIMEOUT_MS));
+		setCompressionThreshold(Integer.getInteger("bpark.compression.threshold", DEFAULT_COMPRESSION_THRESHOLD));
+		setBacklog(Integer.getInteger("bpark.backlog", DEFAULT_BACKLOG));
+		setReusePort(Boolean.getBoolean("bpark.reuseport")); // two processes may listen during a handoff
+		handoff = new PortHandoff(port);
 		db = DBController.getInstance();
+		sessions = new SessionRegistry(db);
+		expiry = new ReservationExpiryScheduler(db);
+		leases = new LeaseManager(db, port);
+		journal = new EventJournal(Paths.get(System.getProperty("bpark.journal.dir", "journal-" + port)),
+				leases.getNodeId()); // the folder is claimed by this node
+		applier = new JournalApplier(db, leases.getNodeId()); // journal rows are keyed by node
+		ids = new IdAllocator(db);
+		importer = new SubscriberImporter(db, ids, sendEmail);
+		registerHandlers();
 		parkingEventChecker.setDaemon(true);
 		parkingEventChecker.start();
 
@@ -44,691 +137,1159 @@ public class Server extends AbstractServer {
 
 	/**
 	 * Called automatically when the server starts. Establishes DB connection and
-	 * starts the monthly report scheduler.
+	 * starts the reservation expiry and monthly report schedulers. If the schema
+	 * can not be brought up to date, the server stops instead of serving a DB its
+	 * queries do not fit.
 	 */
 	@Override
 	protected void serverStarted() {
+		handoff.awaitPredecessor(); // a server still draining on this port finishes first
 		DBController.connectToDB();
-		db.resetAllLoggedIn();
+		if (!DBController.migrateSchema()) { // bring indexes/columns up to date before serving
+			abortStart("Server not started: the database schema is not up to date.");
+			return;
+		}
+		DBController.loadTagIndex(); // gate tag lookups are answered from memory
+		DBController.loadLots(); // lots and their spaces, each lot with its own lock
+		leases.start(); // claim the lots this node runs before serving them
+		if (!openJournal()) { // replays entries the DB does not have yet
+			leases.shutdown(); // other nodes take the lots over
+			return;
+		}
+		dispatcher.start(); // workers open their own DB connections
+		sessions.reset(); // discard audit flags left by a previous run
+		int resumable = sessions.takeOver(handoff.getSessionsFile()); // clients of the previous run resume here
+		if (resumable > 0) {
+			System.out.println(resumable + " sessions of the previous server can be resumed.");
+		}
+		expiry.start(); // expire reservations on time instead of on every entry
+		db.refreshExtensionCapacity(); // first call loads the in-memory extension counters
+		extensionRefresh.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				db.refreshExtensionCapacity(); // reservations move into the 4-hour window
+			}
+		}, EXTENSION_REFRESH_MS, EXTENSION_REFRESH_MS);
 		MonthlyReportScheduler.start(); // schedule monthly reports
 		new MonthlyReportGenerator().generatePastReports();
+		serving = true;
+	}
+
+	/**
+	 * Stops a server that could not start (or is stopped while starting): closes
+	 * the listening socket, so no client is served, and releases the port to the
+	 * next server.
+	 *
+	 * @param reason logged as the reason
+	 */
+	private void abortStart(String reason) {
+		System.err.println(reason);
+		try {
+			close(); // method from AbstractServer
+		} catch (IOException ex) {
+			System.err.println("Closing the server socket failed: " + ex.getMessage());
+		}
+		handoff.release();
+	}
 
+	/**
+	 * Registers the handler of every operation with its priority class. Gate
+	 * operations are what a car waits for at the barrier; reports, full lists
+	 * and bulk imports can take seconds and run on their own workers; everything
+	 * else is a subscriber's or staff member's screen.
+	 */
+	private void registerHandlers() {
+		// gate: a car is waiting at the barrier
+		dispatcher.register(Operation.CONNECT_TO_LOT, PriorityClass.GATE, this::handleConnectToLot);
+		dispatcher.register(Operation.IS_THERE_FREE_PARKING_SPACE, PriorityClass.GATE,
+				this::handleIsThereFreeParkingSpace);
+		dispatcher.register(Operation.VALIDATE_SUBSCRIBER_BY_TAG, PriorityClass.GATE,
+				this::handleValidateSubscriberByTag);
+		dispatcher.register(Operation.VALIDATE_SUBSCRIBER_BY_SUBSCRIBER_CODE, PriorityClass.GATE,
+				this::handleValidateSubscriberBySubscriberCode);
+		dispatcher.register(Operation.TAG_EXISTS, PriorityClass.GATE, this::handleTagExists);
+		dispatcher.register(Operation.TAG_ID_ALREADY_ENTERED, PriorityClass.GATE, this::handleTagIdAlreadyEntered);
+		dispatcher.register(Operation.FIND_MATCHED_SUBSCRIBER_TO_THE_TAG, PriorityClass.GATE,
+				this::handleFindMatchedSubscriberToTheTag);
+		dispatcher.register(Operation.SUBSCRIBER_EXISTS, PriorityClass.GATE, this::handleSubscriberExists);
+		dispatcher.register(Operation.SUBSCRIBER_ALREADY_ENTERED, PriorityClass.GATE,
+				this::handleSubscriberAlreadyEntered);
+		dispatcher.register(Operation.CHECK_IF_THERE_IS_RERSERVATION, PriorityClass.GATE,
+				this::handleCheckIfThereIsReservation);
+		dispatcher.register(Operation.DELIVERY_VIA_RESERVATION, PriorityClass.GATE, this::handleDeliveryViaReservation);
+		dispatcher.register(Operation.GET_VEHICLE_ID, PriorityClass.GATE, this::handleGetVehicleId);
+		dispatcher.register(Operation.DELIVER_VEHICLE, PriorityClass.GATE, this::handleDeliverVehicle);
+		dispatcher.register(Operation.COLLECT_CAR, PriorityClass.GATE, this::handleCollectCar);
+
+		// interactive: screens of subscribers and staff, terminals catching up
+		dispatcher.register(Operation.LOGIN, PriorityClass.INTERACTIVE, this::handleLogin);
+		dispatcher.register(Operation.RESUME_SESSION, PriorityClass.INTERACTIVE, this::handleResumeSession);
+		dispatcher.register(Operation.LOGOUT, PriorityClass.INTERACTIVE, this::handleLogout);
+		dispatcher.register(Operation.EXIT, PriorityClass.INTERACTIVE, this::handleExit);
+		dispatcher.register(Operation.SUBSCRIBER_DETAILS, PriorityClass.INTERACTIVE, this::handleSubscriberDetails);
+		dispatcher.register(Operation.UPDATE_DETAILS_OF_SUBSCRIBER, PriorityClass.INTERACTIVE,
+				this::handleUpdateDetailsOfSubscriber);
+		dispatcher.register(Operation.GET_DETAILS_OF_ACTIVE_INFO, PriorityClass.INTERACTIVE,
+				this::handleGetDetailsOfActiveInfo);
+		dispatcher.register(Operation.FORGEOT_MY_PARKING_CODE, PriorityClass.INTERACTIVE,
+				this::handleForgotMyParkingCode);
+		dispatcher.register(Operation.EXTEND_PARKING, PriorityClass.INTERACTIVE, this::handleExtendParking);
+		dispatcher.register(Operation.ASK_FOR_RESERVATIONS, PriorityClass.INTERACTIVE, this::handleAskForReservations);
+		dispatcher.register(Operation.DELETE_ORDER, PriorityClass.INTERACTIVE, this::handleDeleteOrder);
+		dispatcher.register(Operation.CHECK_RESERVATION_CONFLICT, PriorityClass.INTERACTIVE,
+				this::handleCheckReservationConflict);
+		dispatcher.register(Operation.CHECK_AVAILABILITY_FOR_ORDER, PriorityClass.INTERACTIVE,
+				this::handleCheckAvailabilityForOrder);
+		dispatcher.register(Operation.IS_THERE_AN_EXISTED_ORDER, PriorityClass.INTERACTIVE,
+				this::handleIsThereAnExistedOrder);
+		dispatcher.register(Operation.ADD_NEW_ORDER, PriorityClass.INTERACTIVE, this::handleAddNewOrder);
+		dispatcher.register(Operation.GET_PARKING_AVAILABILITY, PriorityClass.INTERACTIVE,
+				this::handleGetParkingAvailability);
+		dispatcher.register(Operation.REGISTER_SUBSCRIBER, PriorityClass.INTERACTIVE, this::handleRegisterSubscriber);
+		dispatcher.register(Operation.GET_TERMINAL_SNAPSHOT, PriorityClass.INTERACTIVE,
+				this::handleGetTerminalSnapshot);
+		dispatcher.register(Operation.SYNC_OFFLINE_EVENTS, PriorityClass.INTERACTIVE, this::handleSyncOfflineEvents);
+
+		// report: heavy manager queries
+		dispatcher.register(Operation.GET_PARKING_REPORT, PriorityClass.REPORT, this::handleGetParkingReport);
+		dispatcher.register(Operation.GET_DATES_OF_REPORTS, PriorityClass.REPORT, this::handleGetDatesOfReports);
+		dispatcher.register(Operation.GET_SUBSCRIBER_STATUS_REPORT, PriorityClass.REPORT,
+				this::handleGetSubscriberStatusReport);
+		dispatcher.register(Operation.GET_ALL_SUBSCRIBERS, PriorityClass.REPORT, this::handleGetAllSubscribers);
+		dispatcher.register(Operation.GET_ACTIVE_PARKINGS, PriorityClass.REPORT, this::handleGetActiveParkings);
+		dispatcher.register(Operation.UPDATE_PARKING_HISTORY_OF_SUBSCRIBER, PriorityClass.REPORT,
+				this::handleUpdateParkingHistoryOfSubscriber);
+		dispatcher.register(Operation.BULK_IMPORT_SUBSCRIBERS, PriorityClass.REPORT, this::handleBulkImportSubscribers);
 	}
 
 	/**
 	 * Processes incoming messages from connected clients. Each message is expected
-	 * to be an Object[] with an action string as the first element. Supported
-	 * actions include login, order management, vehicle pickup, and parking
-	 * availability.
+	 * to be an Object[] with the {@link Operation} as the first element. The
+	 * message is only handed to the dispatcher here: the operation's handler runs
+	 * on the executor of its priority class (see {@link #registerHandlers()}), so
+	 * the server's receive lock is released right away and a manager's report
+	 * never holds up a barrier.
 	 *
 	 * @param msg    the message received from the client
 	 * @param client the sending client
 	 */
 	@Override
 	protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
-		try {
-			Object[] data = (Object[]) msg;
-
-			switch ((Operation) data[0]) {
-
-			// When the user clicks "Logout" - just logs them out and keeps the app open.
-			// expected format: {LOGOUT}
-			case LOGOUT:
+		dispatcher.dispatch(msg, client);
+	}
 
-				// If we know who the subscriber is, mark them as offline in the DB
-				if (client.getInfo("username") instanceof String u1) {
-					db.markUserLoggedOut(u1);
-					System.out.println("User " + u1 + " logged out.");
-				}
-				break;
+	/**
+	 * When the user clicks "Logout" - just logs them out and keeps the app open.
+	 * expected format: {LOGOUT}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleLogout(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		// If we know who the subscriber is, end their session
+		String u1 = sessions.logout(client);
+		if (u1 != null) {
+			System.out.println("User " + u1 + " logged out.");
+		}
+	}
 
-				// When the user clicks "Exit" - logs out and shuts down the whole app expected
-				// format: {EXIT}
-			case EXIT:
-				// mark user as offline if they were logged in
-				if (client.getInfo("username") instanceof String u2) {
-					db.markUserLoggedOut(u2);
-					System.out.println("User " + u2 + " logged out.");
-				}
-				logClientDisconnect(client); // close client system
-				break;
+	/**
+	 * When the user clicks "Exit" - logs out and shuts down the whole app expected
+	 * format: {EXIT}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleExit(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		// end the session if they were logged in
+		String u2 = sessions.logout(client);
+		if (u2 != null) {
+			System.out.println("User " + u2 + " logged out.");
+		}
+		logClientDisconnect(client); // close client system
+	}
 
-				// get all reservations of specific subscriber. expected format:
-				// {ASK_FOR_RESERVATIONS, subscriber}
-			case ASK_FOR_RESERVATIONS:
-				ArrayList<Order> orders = db.getFutureReservationsForSubscriber((Subscriber) data[1]);
-				if (orders.isEmpty()) {
-					client.sendToClient(new ServerResponse(true, null, ResponseType.NO_ORDERS, "No orders."));
-				} else {
-					client.sendToClient(new ServerResponse(true, orders, ResponseType.ORDERS_DISPLAY,
-							"Orders of subscriber displayed successfully."));
-				}
-				break;
+	/**
+	 * Get all reservations of specific subscriber. expected format:
+	 * {ASK_FOR_RESERVATIONS, subscriber}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleAskForReservations(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ArrayList<Order> orders = db.getFutureReservationsForSubscriber((Subscriber) data[1]);
+		if (orders.isEmpty()) {
+			client.sendToClient(new ServerResponse(true, null, ResponseType.NO_ORDERS, "No orders."));
+		} else {
+			client.sendToClient(new ServerResponse(true, orders, ResponseType.ORDERS_DISPLAY,
+					"Orders of subscriber displayed successfully."));
+		}
+	}
 
-				// cancel order of subscriber. expected format: {DELETE_ORDER, orderNumber}
-			case DELETE_ORDER:
-				int orderNumberToDelete = (int) data[1];
-				boolean succeed = db.deleteOrder(orderNumberToDelete);
-				if (succeed) {
-					System.out.println("Order " + orderNumberToDelete + " cancelled.");
-					client.sendToClient(
-							new ServerResponse(true, null, ResponseType.ORDER_DELETED, "order deleted successfully."));
-				} else {
-					client.sendToClient(new ServerResponse(false, null, null, "order didn't delete"));
-				}
-				break;
+	/**
+	 * Cancel order of subscriber. expected format: {DELETE_ORDER, orderNumber}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleDeleteOrder(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		int orderNumberToDelete = (int) data[1];
+		boolean succeed = db.deleteOrder(orderNumberToDelete);
+		if (succeed) {
+			System.out.println("Order " + orderNumberToDelete + " cancelled.");
+			client.sendToClient(
+					new ServerResponse(true, null, ResponseType.ORDER_DELETED, "order deleted successfully."));
+		} else {
+			client.sendToClient(new ServerResponse(false, null, null, "order didn't delete"));
+		}
+	}
 
-				// Check if subscriber has an order within 4 hours of requested time
-			case CHECK_RESERVATION_CONFLICT:
-				int subCodeToCheck = (int) data[1];
-				Date dateToCheck = (Date) data[2];
-				Time timeToCheck = (Time) data[3];
+	/**
+	 * Check if subscriber has an order within 4 hours of requested time.
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleCheckReservationConflict(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int subCodeToCheck = (int) data[1];
+		Date dateToCheck = (Date) data[2];
+		Time timeToCheck = (Time) data[3];
+
+		boolean hasConflict = db.hasReservationConflict(subCodeToCheck, dateToCheck, timeToCheck);
+		client.sendToClient(new ServerResponse(true, hasConflict, ResponseType.CONFLICT_CHECKED,
+				"Conflict check completed."));
+	}
 
-				boolean hasConflict = db.hasReservationConflict(subCodeToCheck, dateToCheck, timeToCheck);
-				client.sendToClient(new ServerResponse(true, hasConflict, ResponseType.CONFLICT_CHECKED,
-						"Conflict check completed."));
-				break;
+	/**
+	 * Get parking history of subscriber. expected format:
+	 * {UPDATE_PARKING_HISTORY_OF_SUBSCRIBER, subscriber}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleUpdateParkingHistoryOfSubscriber(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		// sent in chunks while the rows are read
+		ResultStreamer<ParkingEvent> history = new ResultStreamer<>(client,
+				ResponseType.PARKING_HISTORY_LOADED);
+		try {
+			db.streamParkingHistory((Subscriber) data[1], history);
+			if (history.getRowCount() == 0) { // nothing was sent yet
+				client.sendToClient(new ServerResponse(false, null, null, "There is no data for this user."));
+			} else {
+				history.finish();
+			}
+		} catch (SQLException e) {
+			System.err.println("Error in parking history: " + e.getMessage());
+			client.sendToClient(
+					new ServerResponse(false, null, null, "There was an error loading parking history."));
+		}
+	}
 
-				// get parking history of subscriber. expected format:
-				// {UPDATE_PARKING_HISTORY_OF_SUBSCRIBER, subscriber}
-			case UPDATE_PARKING_HISTORY_OF_SUBSCRIBER:
-				ArrayList<ParkingEvent> history = db.parkingHistoryOfSubscriber((Subscriber) data[1]);
-				if (history == null) {
-					client.sendToClient(
-							new ServerResponse(false, null, null, "There was an error loading parking history."));
-				} else if (history.isEmpty()) {
-					client.sendToClient(new ServerResponse(false, null, null, "There is no data for this user."));
-				} else {
-					client.sendToClient(new ServerResponse(true, history, ResponseType.PARKING_HISTORY_LOADED,
-							"Parking history data loaded successfully."));
-				}
-				break;
+	/**
+	 * Return the parking report. expected format {GET_PARKING_REPORT,
+	 * parkingReport}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetParkingReport(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ParkingReport parkingReport = db.getParkingReport((Date) data[1]);
+
+		if (parkingReport == null) {
+			client.sendToClient(
+					new ServerResponse(false, null, null, "There was an error loading parking report."));
+		} else {
+			client.sendToClient(new ServerResponse(true, parkingReport, ResponseType.PARKING_REPORT_LOADED,
+					"Parking report loaded."));
+		}
+	}
 
-				// return the parking report. expected format {GET_PARKING_REPORT,
-				// parkingReport}
-			case GET_PARKING_REPORT:
-				ParkingReport parkingReport = db.getParkingReport((Date) data[1]);
-
-				if (parkingReport == null) {
-					client.sendToClient(
-							new ServerResponse(false, null, null, "There was an error loading parking report."));
-				} else {
-					client.sendToClient(new ServerResponse(true, parkingReport, ResponseType.PARKING_REPORT_LOADED,
-							"Parking report loaded."));
-				}
-				break;
+	/**
+	 * Return the dates of the reports. expected format {GET_DATES_OF_REPORTS}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetDatesOfReports(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ArrayList<Date> dates = db.getAllReportsDates();
+		if (dates == null) {
+			client.sendToClient(
+					new ServerResponse(false, null, null, "There was an error loading parking report dates."));
+		} else {
+			client.sendToClient(new ServerResponse(true, dates, ResponseType.REPOSTS_DATE_LOADED,
+					"Parking report dates loaded."));
+		}
+	}
 
-				// return the dates of the reports. expected format {GET_DATES_OF_REPORTS}
-			case GET_DATES_OF_REPORTS:
-				ArrayList<Date> dates = db.getAllReportsDates();
-				if (dates == null) {
-					client.sendToClient(
-							new ServerResponse(false, null, null, "There was an error loading parking report dates."));
-				} else {
-					client.sendToClient(new ServerResponse(true, dates, ResponseType.REPOSTS_DATE_LOADED,
-							"Parking report dates loaded."));
-				}
-				break;
+	/**
+	 * Return the data of active parking of subscriber. expected format
+	 * {GET_DETAILS_OF_ACTIVE_INFO, subscriber}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetDetailsOfActiveInfo(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		ParkingEvent parkingEvent = db.getActiveParkingEvent((Subscriber) data[1]);
+		if (parkingEvent == null) {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.PARKING_INFO_LOADED,
+					"There is no active parking."));
+		} else {
+			client.sendToClient(new ServerResponse(true, parkingEvent, ResponseType.PARKING_INFO_LOADED,
+					"Active parking info loaded successfully."));
+		}
+	}
 
-				// return the data of active parking of subscriber. expected format
-				// {GET_DETAILS_OF_ACTIVE_INFO, subscriber}
-			case GET_DETAILS_OF_ACTIVE_INFO:
-				ParkingEvent parkingEvent = db.getActiveParkingEvent((Subscriber) data[1]);
-				if (parkingEvent == null) {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.PARKING_INFO_LOADED,
-							"There is no active parking."));
-				} else {
-					client.sendToClient(new ServerResponse(true, parkingEvent, ResponseType.PARKING_INFO_LOADED,
-							"Active parking info loaded successfully."));
-				}
-				break;
+	/**
+	 * Send mail to subscriber that forget the parking code. expected format
+	 * {FORGEOT_MY_PARKING_CODE, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleForgotMyParkingCode(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		String[] emailAndPhone = db.getEmailAndPhoneNumber((int) data[1]);
+		String email = emailAndPhone[0];
+		String phone = emailAndPhone[1];
+		try {
+			ParkingEvent parkingEventThatFoeget = db.getActiveParkingEvent((new Subscriber((int) data[1])));
+			sendEmail.sendEmail(email, parkingEventThatFoeget.getParkingCode(), TypeOfMail.FORGOT_PASSWORD);
+			client.sendToClient(new ServerResponse(true, null, null, "The code was sent to your email."));
+		} catch (Exception e) {
+			e.printStackTrace();
+			client.sendToClient(
+					new ServerResponse(false, null, null, "Failed to send email. Please try again later."));
+			System.err.println("Failed to send email to" + email + ".");
+		}
+	}
 
-				// send mail to subscriber that forget the parking code. expected format
-				// {FORGEOT_MY_PARKING_CODE, subscriberCode}
-			case FORGEOT_MY_PARKING_CODE:
-				String[] emailAndPhone = db.getEmailAndPhoneNumber((int) data[1]);
-				String email = emailAndPhone[0];
-				String phone = emailAndPhone[1];
-				try {
-					ParkingEvent parkingEventThatFoeget = db.getActiveParkingEvent((new Subscriber((int) data[1])));
-					sendEmail.sendEmail(email, parkingEventThatFoeget.getParkingCode(), TypeOfMail.FORGOT_PASSWORD);
-					client.sendToClient(new ServerResponse(true, null, null, "The code was sent to your email."));
-				} catch (Exception e) {
-					e.printStackTrace();
-					client.sendToClient(
-							new ServerResponse(false, null, null, "Failed to send email. Please try again later."));
-					System.err.println("Failed to send email to" + email + ".");
-				}
-				break;
+	/**
+	 * Validate subscriber by tag. expected format {VALIDATE_SUBSCRIBER_BY_TAG,
+	 * tagId}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleValidateSubscriberByTag(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		String tagId = (String) data[1];
+		int subscriberCode = db.getSubscriberCodeByTag(tagId);
+
+		// Step 1: Check if tag is known
+		if (subscriberCode > 0) {
+			// Step 2: Ensure that the vehicle associated with this tag is inside the
+			// parking lot
+			if (!db.checkSubscriberEntered(subscriberCode)) {
+				client.sendToClient(
+						new ServerResponse(false, null, null, "Your vehicle is not currently parked."));
+				return;
+			}
 
-				// Validate subscriber by tag. expected format {VALIDATE_SUBSCRIBER_BY_TAG,
-				// tagId}
-			case VALIDATE_SUBSCRIBER_BY_TAG:
-				String tagId = (String) data[1];
-				int subscriberCode = db.getSubscriberCodeByTag(tagId);
-
-				// Step 1: Check if tag is known
-				if (subscriberCode > 0) {
-					// Step 2: Ensure that the vehicle associated with this tag is inside the
-					// parking lot
-					if (!db.checkSubscriberEntered(subscriberCode)) {
-						client.sendToClient(
-								new ServerResponse(false, null, null, "Your vehicle is not currently parked."));
-						return;
-					}
-
-					// Step 3: Valid tag and active parking -> send subscriber code for client use
-					client.sendToClient(new ServerResponse(true, subscriberCode, ResponseType.SUBSCRIBER_VERIFIED,
-							"Subscriber verified successfully by tag."));
-				} else {
-					client.sendToClient(
-							new ServerResponse(false, null, null, "Tag ID not recognized. Please try again."));
-				}
-				break;
+			// Step 3: Valid tag and active parking -> send subscriber code for client use
+			client.sendToClient(new ServerResponse(true, subscriberCode, ResponseType.SUBSCRIBER_VERIFIED,
+					"Subscriber verified successfully by tag."));
+		} else {
+			client.sendToClient(
+					new ServerResponse(false, null, null, "Tag ID not recognized. Please try again."));
+		}
+	}
 
-				// Validate subscriber by numeric code. expected format
-				// {VALIDATE_SUBSCRIBER_BY_SUBSCRIBER_CODE, subscriberCode}
-			case VALIDATE_SUBSCRIBER_BY_SUBSCRIBER_CODE:
-				int validateSubscriberCode = (int) data[1];
+	/**
+	 * Validate subscriber by numeric code. expected format
+	 * {VALIDATE_SUBSCRIBER_BY_SUBSCRIBER_CODE, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleValidateSubscriberBySubscriberCode(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int validateSubscriberCode = (int) data[1];
 
-				// Step 1: Verify that subscriber exists in DB
-				if (!db.subscriberExists(validateSubscriberCode)) {
-					client.sendToClient(new ServerResponse(false, null, null, "Subscriber code not found."));
-				}
+		// Step 1: Verify that subscriber exists in DB
+		if (!db.subscriberExists(validateSubscriberCode)) {
+			client.sendToClient(new ServerResponse(false, null, null, "Subscriber code not found."));
+		}
 
-				// Step 2: Check that the subscriber's vehicle is currently parked (active
-				// session)
-				else if (!db.checkSubscriberEntered(validateSubscriberCode)) {
-					client.sendToClient(new ServerResponse(false, null, null, "Your vehicle is not currently parked."));
-				}
+		// Step 2: Check that the subscriber's vehicle is currently parked (active
+		// session)
+		else if (!db.checkSubscriberEntered(validateSubscriberCode)) {
+			client.sendToClient(new ServerResponse(false, null, null, "Your vehicle is not currently parked."));
+		}
 
-				// Step 3: If both checks pass, approve validation
-				else {
-					client.sendToClient(
-							new ServerResponse(true, null, ResponseType.SUBSCRIBER_VERIFIED, "Subscriber verified"));
-				}
-				break;
+		// Step 3: If both checks pass, approve validation
+		else {
+			client.sendToClient(
+					new ServerResponse(true, null, ResponseType.SUBSCRIBER_VERIFIED, "Subscriber verified"));
+		}
+	}
 
-				// Login request. expected format {LOGIN, username. password}
-			case LOGIN:
-				handleLogin(data, client);
-				break;
+	/**
+	 * Collect car. expected format: {COLLECT_CAR, subscriberCode, parkingCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleCollectCar(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		int subCode = (int) data[1];
+		int parkCode = (int) data[2];
 
-				// Collect car. expected format: {COLLECT_CAR, subscriberCode, parkingCode}
-			case COLLECT_CAR:
-				int subCode = (int) data[1];
-				int parkCode = (int) data[2];
+		try {
+			awaitJournalApplied(); // the entry of this vehicle may still be in the journal only
 
-				try {
-					// Call the DB method to handle the vehicle pickup
-					// It returns a String that represents the status
-					String response = db.handleVehiclePickup(subCode, parkCode);
-
-					// Fail response case
-					if (response.equals("An error occurred while retrieving your parking session.")
-							|| response.equals("An error occurred while completing the pickup process.")) {
-						client.sendToClient(new ServerResponse(false, null, null, response));
-						return;
-					}
-
-					// Fail - no active parking session
-					if (response.equals("Parking code is incorrect.")) {
-						client.sendToClient(new ServerResponse(false, null, ResponseType.PICKUP_VEHICLE, response));
-						return;
-					}
-
-					// Else it would be a success response
-					client.sendToClient(new ServerResponse(true, null, ResponseType.PICKUP_VEHICLE, response));
-					return;
+			// Call the DB method to handle the vehicle pickup (one transaction)
+			PickupResult pickup = db.handleVehiclePickup(subCode, parkCode);
 
-				} catch (Exception e) {
-					// Unexpected error (e.g. DB crash or null pointer)
-					client.sendToClient(
-							new ServerResponse(false, null, null, "An error occurred while collecting the vehicle."));
-					System.err.println("Error: collectCar - " + e.getMessage());
-				}
+			switch (pickup.getStatus()) {
+			case ERROR: // nothing was changed
+				client.sendToClient(new ServerResponse(false, null, null, pickup.getMessage()));
 				break;
-
-				// update details of subscriber. expected format={UPDATE_DETAILS_OF_SUBSCRIBER,
-				// subscriber\null, user\null}
-			case UPDATE_DETAILS_OF_SUBSCRIBER:
-				boolean isSucceedSubscriber = true;
-				boolean isSucceedUser = true;
-				ArrayList<Object> newDetails = new ArrayList<>();
-				if (data[1] != null) {
-					Subscriber subscriber = (Subscriber) data[1];
-					if (db.duplicatePhone(subscriber.getPhoneNum(), subscriber.getSubscriberCode())) {
-						client.sendToClient(new ServerResponse(false, null, null,
-								"The phone number already exists in the system. try another phone number."));
-						return;
-					}
-					if (db.duplicateEmail(subscriber.getEmail(), subscriber.getSubscriberCode())) {
-						client.sendToClient(new ServerResponse(false, null, null,
-								"The email already exists in the system. try another email."));
-						return;
-					}
-					isSucceedSubscriber = db.changeDetailsOfSubscriber(subscriber);
-					newDetails.add(subscriber);
-				}
-				if (data[2] != null) {
-					User user = (User) data[2];
-					isSucceedUser = db.changeDetailsOfUser(user);
-					newDetails.add(user);
-				}
-				if (isSucceedSubscriber && isSucceedUser) {
-					client.sendToClient(new ServerResponse(true, newDetails, ResponseType.DETAILS_UPDATED,
-							"Details updated successfully."));
-				} else {
-					client.sendToClient(new ServerResponse(false, null, null,
-							"The update did not occur due to a problem. Please try again later."));
-				}
+			case NOT_FOUND: // no active parking session
+				client.sendToClient(
+						new ServerResponse(false, null, ResponseType.PICKUP_VEHICLE, pickup.getMessage()));
 				break;
+			default: // picked up, on time or late
+				journalAudit(JournalRecord.Type.EXIT, "subscriber=" + subCode + " parkingCode=" + parkCode
+						+ " lot=" + pickup.getLotName() + " hours=" + pickup.getHoursParked()
+						+ " late=" + (pickup.getStatus() == PickupResult.Status.PICKED_UP_LATE));
+				client.sendToClient(
+						new ServerResponse(true, null, ResponseType.PICKUP_VEHICLE, pickup.getMessage()));
+			}
+			return;
 
-				// get the details of subscriber. expected format={SUBSCRIBER_DETAILS, user}
-			case SUBSCRIBER_DETAILS:
-				Subscriber subscriber = db.getDetailsOfSubscriber((User) data[1]);
-				if (subscriber != null) {
-					client.sendToClient(new ServerResponse(true, subscriber, ResponseType.SUBSCRIBER_DETAILS,
-							"Subscriber details saved successfully."));
-				} else {
-					client.sendToClient(new ServerResponse(false, null, null, "Subscriber details not found."));
-				}
-				break;
+		} catch (Exception e) {
+			// Unexpected error (e.g. DB crash or null pointer)
+			client.sendToClient(
+					new ServerResponse(false, null, null, "An error occurred while collecting the vehicle."));
+			System.err.println("Error: collectCar - " + e.getMessage());
+		}
+	}
 
-				// check availability for order (at least 40%). expected
-				// format={CHECK_AVAILABILITY_FOR_ORDER, date, time}
-			case CHECK_AVAILABILITY_FOR_ORDER:
-				boolean possible = db.parkingSpaceCheckingForNewOrder((Date) data[1], (Time) data[2]);
-				if (possible) {
-					client.sendToClient(
-							new ServerResponse(true, null, ResponseType.RESERVATION_VALID, "Can make resarvation"));
-				} else {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.RESERVATION_INVALID,
-							"Can't make resarvation because no availability"));
-				}
-				break;
+	/**
+	 * Update details of subscriber. expected format={UPDATE_DETAILS_OF_SUBSCRIBER,
+	 * subscriber\null, user\null}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleUpdateDetailsOfSubscriber(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		boolean isSucceedSubscriber = true;
+		boolean isSucceedUser = true;
+		ArrayList<Object> newDetails = new ArrayList<>();
+		if (data[1] != null) {
+			Subscriber subscriber = (Subscriber) data[1];
+			if (db.duplicatePhone(subscriber.getPhoneNum(), subscriber.getSubscriberCode())) {
+				client.sendToClient(new ServerResponse(false, null, null,
+						"The phone number already exists in the system. try another phone number."));
+				return;
+			}
+			if (db.duplicateEmail(subscriber.getEmail(), subscriber.getSubscriberCode())) {
+				client.sendToClient(new ServerResponse(false, null, null,
+						"The email already exists in the system. try another email."));
+				return;
+			}
+			isSucceedSubscriber = db.changeDetailsOfSubscriber(subscriber);
+			newDetails.add(subscriber);
+		}
+		if (data[2] != null) {
+			User user = (User) data[2];
+			isSucceedUser = db.changeDetailsOfUser(user);
+			newDetails.add(user);
+		}
+		if (isSucceedSubscriber && isSucceedUser) {
+			client.sendToClient(new ServerResponse(true, newDetails, ResponseType.DETAILS_UPDATED,
+					"Details updated successfully."));
+		} else {
+			client.sendToClient(new ServerResponse(false, null, null,
+					"The update did not occur due to a problem. Please try again later."));
+		}
+	}
 
-				// add a new reservation. expected format: {ADD_NEW_ORDER, order}
-			case ADD_NEW_ORDER:
-				Order orderToAdd = (Order) data[1];
-				boolean success = db.placingAnNewOrder(orderToAdd);
-				if (success) {
-					System.out.println("The subscriber " + orderToAdd.getSubscriberId()
-					+ " has successfully made a reservation " + orderToAdd.getOrderNumber() + ".");
-					client.sendToClient(
-							new ServerResponse(true, orderToAdd, ResponseType.ORDER_ADDED, "reservation succeed!"));
-				} else {
-					System.err.println("Reservation of" + orderToAdd.getSubscriberId() + "failed.");
-					client.sendToClient(new ServerResponse(false, null, null, "reservation not succeed!"));
-				}
-				break;
+	/**
+	 * Get the details of subscriber. expected format={SUBSCRIBER_DETAILS, user}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleSubscriberDetails(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		Subscriber subscriber = db.getDetailsOfSubscriber((User) data[1]);
+		if (subscriber != null) {
+			client.sendToClient(new ServerResponse(true, subscriber, ResponseType.SUBSCRIBER_DETAILS,
+					"Subscriber details saved successfully."));
+		} else {
+			client.sendToClient(new ServerResponse(false, null, null, "Subscriber details not found."));
+		}
+	}
 
-				// check if there is a subscriber with this subscriber code. expected format:
-				// {SUBSCRIBER_EXISTS, subscriberCode}
-			case SUBSCRIBER_EXISTS:
-				int codeInt = (int) data[1];
+	/**
+	 * Check availability for order (at least 40%). expected
+	 * format={CHECK_AVAILABILITY_FOR_ORDER, date, time}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleCheckAvailabilityForOrder(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		boolean possible = db.parkingSpaceCheckingForNewOrder((Date) data[1], (Time) data[2]);
+		if (possible) {
+			client.sendToClient(
+					new ServerResponse(true, null, ResponseType.RESERVATION_VALID, "Can make resarvation"));
+		} else {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.RESERVATION_INVALID,
+					"Can't make resarvation because no availability"));
+		}
+	}
 
-				// Checking whether the code exists or not
-				if (!db.subscriberExists(codeInt)) {
-					// If the code doesn't exist we will let the user to know
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_CODE,
-							"Subscriber code does not exist."));
-				}
-				// If the code does exist we will let the user to know and to continue
-				else {
-					client.sendToClient(
-							new ServerResponse(true, null, ResponseType.SUBSCRIBER_CODE, "Subscriber code is valid!"));
-				}
-				break;
+	/**
+	 * Add a new reservation. expected format: {ADD_NEW_ORDER, order}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleAddNewOrder(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		Order orderToAdd = (Order) data[1];
+		boolean success = db.placingAnNewOrder(orderToAdd);
+		if (success) {
+			expiry.schedule(orderToAdd.getOrderNumber(), LocalDateTime.of(
+					orderToAdd.getOrderDate().toLocalDate(), orderToAdd.getArrivalTime().toLocalTime()));
+			journalAudit(JournalRecord.Type.ORDER, "order=" + orderToAdd.getOrderNumber() + " subscriber="
+					+ orderToAdd.getSubscriberId() + " date=" + orderToAdd.getOrderDate() + " time="
+					+ orderToAdd.getArrivalTime() + " space=" + orderToAdd.getParkingSpace());
+			System.out.println("The subscriber " + orderToAdd.getSubscriberId()
+			+ " has successfully made a reservation " + orderToAdd.getOrderNumber() + ".");
+			client.sendToClient(
+					new ServerResponse(true, orderToAdd, ResponseType.ORDER_ADDED, "reservation succeed!"));
+		} else {
+			System.err.println("Reservation of" + orderToAdd.getSubscriberId() + "failed.");
+			client.sendToClient(new ServerResponse(false, null, null, "reservation not succeed!"));
+		}
+	}
 
-				// check if the subscriber has a reservation right now. expected format:
-				// {CHECK_IF_THERE_IS_RERSERVATION, subscriberCode}
-			case CHECK_IF_THERE_IS_RERSERVATION:
-				int codeIntForCheckingReservation = (int) data[1];
-
-				// Checking whether the subscriber has a reservation, then checks if there is a
-				// reservation in time of now
-				if (!db.checkSubscriberHasReservationNow(codeIntForCheckingReservation)) {
-					// If the subscriber doesn't have a reservation we will let the user to enter
-					// only regularly
-					client.sendToClient(new ServerResponse(true, null, ResponseType.RESERVATION_NOT_EXISTS,
-							"Subscriber doesn't have a reseravtion."));
-				}
-				// If the subscriber has a reservation we will let the user to enter with the
-				// existing reservation
-				else {
-					client.sendToClient(new ServerResponse(true, null, ResponseType.RESERVATION_EXISTS,
-							"Subscriber has a reservation."));
-				}
-				break;
+	/**
+	 * Check if there is a subscriber with this subscriber code. expected format:
+	 * {SUBSCRIBER_EXISTS, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleSubscriberExists(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		int codeInt = (int) data[1];
+
+		// Checking whether the code exists or not
+		if (!db.subscriberExists(codeInt)) {
+			// If the code doesn't exist we will let the user to know
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_CODE,
+					"Subscriber code does not exist."));
+		}
+		// If the code does exist we will let the user to know and to continue
+		else {
+			client.sendToClient(
+					new ServerResponse(true, null, ResponseType.SUBSCRIBER_CODE, "Subscriber code is valid!"));
+		}
+	}
 
-				// make the delivery via reservation of subscriber. expected format:
-				// {DELIVERY_VIA_RESERVATION, subscriberCode, confirmationCode}
-			case DELIVERY_VIA_RESERVATION:
-				int codeIntForDeliveryViaReservation = (int) data[1];
-				int confirmationCodeInt = (int) data[2];
-
-				// Checking whether the subscriber has entered his confirmation code correctly
-				if (!db.checkConfirmationCode(codeIntForDeliveryViaReservation, confirmationCodeInt)) {
-					// If the subscriber code hasn't entered correctly we will tell the user
-					client.sendToClient(new ServerResponse(false, null, ResponseType.CONFIRMATION_CODE_VALIDATION,
-							"The confirmation code isn't currect."));
-				} else {
-					// Letting the user know that he has entered the confirmation code successfully
-					client.sendToClient(new ServerResponse(true, null, ResponseType.CONFIRMATION_CODE_VALIDATION,
-							"The confirmation code has entered successfully."));
-				}
-				break;
+	/**
+	 * Check if the subscriber has a reservation right now. expected format:
+	 * {CHECK_IF_THERE_IS_RERSERVATION, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleCheckIfThereIsReservation(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int codeIntForCheckingReservation = (int) data[1];
+
+		// Checking whether the subscriber has a reservation, then checks if there is a
+		// reservation in time of now
+		if (!db.checkSubscriberHasReservationNow(codeIntForCheckingReservation)) {
+			// If the subscriber doesn't have a reservation we will let the user to enter
+			// only regularly
+			client.sendToClient(new ServerResponse(true, null, ResponseType.RESERVATION_NOT_EXISTS,
+					"Subscriber doesn't have a reseravtion."));
+		}
+		// If the subscriber has a reservation we will let the user to enter with the
+		// existing reservation
+		else {
+			client.sendToClient(new ServerResponse(true, null, ResponseType.RESERVATION_EXISTS,
+					"Subscriber has a reservation."));
+		}
+	}
 
-				// check if there is an empty parking spot in the parking lot. expected format:
-				// {IS_THERE_FREE_PARKING_SPACE, lotName, subscriberCode, activeReservation}
-			case IS_THERE_FREE_PARKING_SPACE:
-				String lotName = (String) data[1];
-				subscriberCode = (Integer) data[2];
-				boolean activeReservation = (Boolean) data[3];
-				int parkingSpaceInt = db.hasAvailableSpots(lotName, subscriberCode, activeReservation);
-
-				// If the method hasAvaliableSpots returns -1 it means that the parking lot is full
-				if (parkingSpaceInt == -1) {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.PARKING_SPACE_AVAILABILITY,
-							"The Parking Lot is Full"));
-					
-				} else if (parkingSpaceInt == -2) {
-					// The server will check whether the subscriber has already entered his vehicle
-					// into the parking lot or not
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
-							"The vehicle is Already inside the parking lot"));
-				} else {
-					// Else, we will sent the parking space to the client controller
-					client.sendToClient(new ServerResponse(true, parkingSpaceInt,
-							ResponseType.PARKING_SPACE_AVAILABILITY, "There is free parking space"));
-				}
-				break;
+	/**
+	 * Make the delivery via reservation of subscriber. expected format:
+	 * {DELIVERY_VIA_RESERVATION, subscriberCode, confirmationCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleDeliveryViaReservation(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int codeIntForDeliveryViaReservation = (int) data[1];
+		int confirmationCodeInt = (int) data[2];
+
+		// Checking whether the subscriber has entered his confirmation code correctly
+		if (!db.checkConfirmationCode(codeIntForDeliveryViaReservation, confirmationCodeInt)) {
+			// If the subscriber code hasn't entered correctly we will tell the user
+			client.sendToClient(new ServerResponse(false, null, ResponseType.CONFIRMATION_CODE_VALIDATION,
+					"The confirmation code isn't currect."));
+		} else {
+			// Letting the user know that he has entered the confirmation code successfully
+			client.sendToClient(new ServerResponse(true, null, ResponseType.CONFIRMATION_CODE_VALIDATION,
+					"The confirmation code has entered successfully."));
+		}
+	}
 
-				// get vehicle id. expected format: {GET_VEHICLE_ID, subscriberCode}
-			case GET_VEHICLE_ID:
-				int codeIntForGetVehicleId = (int) data[1];
+	/**
+	 * The terminal tells which lot it serves; sends REDIRECT if another node owns
+	 * it, nothing otherwise. expected format: {CONNECT_TO_LOT, lotName}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleConnectToLot(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		if (!sendRedirectIfNotOwner((String) data[1], client, null)) {
+			client.subscribe(lotTopic((String) data[1])); // receives the lot's announcements
+		}
+	}
 
-				// Seeking for a matching vehicle to the asked subscriber
-				String vehicleID = db.findVehicleID(codeIntForGetVehicleId);
+	/**
+	 * Offline data for a terminal. expected format: {GET_TERMINAL_SNAPSHOT,
+	 * lotName, sinceVersion} (sinceVersion 0 for a full snapshot)
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetTerminalSnapshot(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		awaitJournalApplied(); // open sessions are read from the DB
+		TerminalSnapshot snapshot = db.getTerminalSnapshot((String) data[1], (Long) data[2]);
+		if (snapshot == null) {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.TERMINAL_SNAPSHOT,
+					"Database unavailable."));
+		} else {
+			client.sendToClient(new ServerResponse(true, snapshot, ResponseType.TERMINAL_SNAPSHOT,
+					snapshot.getSubscribers().size() + " subscribers"));
+		}
+	}
 
-				// The server sends the matched vehicleID
-				client.sendToClient(
-						new ServerResponse(true, vehicleID, ResponseType.VEHICLE_ID, "Found matched vehicle"));
+	/**
+	 * Entries and exits a terminal accepted while offline, oldest first. expected
+	 * format: {SYNC_OFFLINE_EVENTS, list of OfflineEvent}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	@SuppressWarnings("unchecked")
+	private void handleSyncOfflineEvents(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		awaitJournalApplied(); // conflicts are checked against the DB
+		List<String> handled = new ArrayList<>();
+		for (OfflineEvent offlineEvent : (List<OfflineEvent>) data[1]) {
+			try {
+				String outcome = db.applyOfflineEvent(offlineEvent);
+				handled.add(offlineEvent.getEventKey());
+				System.out.println("Offline " + offlineEvent + ": " + outcome);
+			} catch (SQLException e) {
+				// keep order: the terminal sends this event and the rest again later
+				System.err.println("Offline sync stopped at " + offlineEvent + ": " + e.getMessage());
 				break;
+			}
+		}
+		client.sendToClient(new ServerResponse(true, handled, ResponseType.OFFLINE_EVENTS_SYNCED,
+				handled.size() + " offline events handled."));
+	}
 
-				// get in the new car to the lot. expected format: {DELIVER_VEHICLE,
-				// parkingEvent}
-			case DELIVER_VEHICLE:
-				ParkingEvent newParkingEvent = (ParkingEvent) data[1];
+	/**
+	 * Check if there is an empty parking spot in the parking lot. expected format:
+	 * {IS_THERE_FREE_PARKING_SPACE, lotName, subscriberCode, activeReservation}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleIsThereFreeParkingSpace(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		String lotName = (String) data[1];
+		int subscriberCode = (Integer) data[2];
+		boolean activeReservation = (Boolean) data[3];
+		int parkingSpaceInt = db.hasAvailableSpots(lotName, subscriberCode, activeReservation);
+
+		// If the method hasAvaliableSpots returns -1 it means that the parking lot is full
+		if (parkingSpaceInt == -1) {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.PARKING_SPACE_AVAILABILITY,
+					"The Parking Lot is Full"));
+			
+		} else if (parkingSpaceInt == -3) {
+			// another node took the lot over since this terminal connected
+			if (!sendRedirectIfNotOwner(lotName, client, "The parking lot moved to another server.")) {
+				client.sendToClient(new ServerResponse(false, null, ResponseType.PARKING_SPACE_AVAILABILITY,
+						"The parking lot is temporarily unavailable. Please try again."));
+			}
 
-				// change status of inactive orders
-				db.inactiveReservations();
-				// Inserting the parking event into the DB
-				db.addParkingEvent(newParkingEvent);
+		} else if (parkingSpaceInt == -2) {
+			// The server will check whether the subscriber has already entered his vehicle
+			// into the parking lot or not
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
+					"The vehicle is Already inside the parking lot"));
+		} else {
+			// Else, we will sent the parking space to the client controller
+			client.sendToClient(new ServerResponse(true, parkingSpaceInt,
+					ResponseType.PARKING_SPACE_AVAILABILITY, "There is free parking space"));
+		}
+	}
 
-				System.out.println("Vehicle of " + newParkingEvent.getSubscriberCode() + " entered successfully.");
+	/**
+	 * Get vehicle id. expected format: {GET_VEHICLE_ID, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetVehicleId(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		int codeIntForGetVehicleId = (int) data[1];
 
-				// The server sends the successful addition of parking event
-				client.sendToClient(new ServerResponse(true, null, ResponseType.DELIVER_VEHICLE,
-						"Added parking event successfully"));
-				break;
+		// Seeking for a matching vehicle to the asked subscriber
+		String vehicleID = db.findVehicleID(codeIntForGetVehicleId);
 
-				// check if tag exists. expected format: {TAG_EXISTS, tagId}
-			case TAG_EXISTS:
-				String tag = (String) data[1];
+		// The server sends the matched vehicleID
+		client.sendToClient(
+				new ServerResponse(true, vehicleID, ResponseType.VEHICLE_ID, "Found matched vehicle"));
+	}
 
-				// Check whether the tag exists in the DB or not
-				if (!db.tagExists(tag)) {
-					client.sendToClient(
-							new ServerResponse(false, null, ResponseType.TAG_EXISTS, "Tag does not exists"));
+	/**
+	 * Get in the new car to the lot. expected format: {DELIVER_VEHICLE,
+	 * parkingEvent}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleDeliverVehicle(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ParkingEvent newParkingEvent = (ParkingEvent) data[1];
+
+		// Never accept an entry the parkingEvent table would refuse later
+		String invalid = db.validateEntry(newParkingEvent);
+		if (invalid != null) {
+			System.err.println("Entry of " + newParkingEvent.getSubscriberCode() + " refused: " + invalid);
+			awaitJournalApplied(); // a journaled entry holds its space without a DB row until applied
+			db.releaseRejectedEntry(newParkingEvent);
+			client.sendToClient(new ServerResponse(false, null, ResponseType.DELIVER_VEHICLE,
+					"The entry details are not valid, please contact the parking staff."));
+			return;
+		}
 
-				} else {
-					// The server sends that the tag has been found
-					client.sendToClient(new ServerResponse(true, null, ResponseType.TAG_EXISTS, "Tag exists"));
-				}
-				break;
+		// Journal the entry (the DB row follows in the background); write it
+		// directly only if the journal is not available
+		try {
+			if (!journalEntry(newParkingEvent)) {
+				db.addParkingEvent(newParkingEvent);
+			}
+		} catch (SQLException e) {
+			// neither on disk nor in the DB - the gate must not open on it
+			System.err.println("Entry of " + newParkingEvent.getSubscriberCode() + " not saved: " + e.getMessage());
+			client.sendToClient(new ServerResponse(false, null, ResponseType.DELIVER_VEHICLE,
+					"The entry could not be saved, please try again."));
+			return;
+		}
 
-				// find a matched subscriber code to the tag ID. expected format:
-				// {FIND_MATCHED_SUBSCRIBER_TO_THE_TAG, tagId}
-			case FIND_MATCHED_SUBSCRIBER_TO_THE_TAG:
-				String tagIdOfSubscriber = (String) data[1];
+		System.out.println("Vehicle of " + newParkingEvent.getSubscriberCode() + " entered successfully.");
 
-				// Gathering the subscriber threw the relevant tag of his
-				int subsCode = db.seekForTheSubscriberWithTag(tagIdOfSubscriber);
+		// The server sends the successful addition of parking event
+		client.sendToClient(new ServerResponse(true, null, ResponseType.DELIVER_VEHICLE,
+				"Added parking event successfully"));
+	}
 
-				// The server sends the successful addition of parking event
-				client.sendToClient(new ServerResponse(true, subsCode, ResponseType.MATCHED_SUBSCRIBER_TO_TAG,
-						"Subscriber with matching tag has been found"));
-				break;
+	/**
+	 * Check if tag exists. expected format: {TAG_EXISTS, tagId}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleTagExists(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		String tag = (String) data[1];
 
-				// check if subscriber already entered to the lot. expected format:
-				// {SUBSCRIBER_ALREADY_ENTERED, subscriberCode}
-			case SUBSCRIBER_ALREADY_ENTERED:
-				int codeIntToCheckIfSubscriberEntered = (int) data[1];
-
-				if (!db.checkSubscriberEntered(codeIntToCheckIfSubscriberEntered)) {
-					// The server will check whether the subscriber has already entered his vehicle
-					// into the parking lot or not
-					client.sendToClient(new ServerResponse(true, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
-							"The subscriber didn't entered his vehicle yet"));
-				} else {
-					// If this method will return true, it means that he already entered his vehicle
-					// into the parking lot
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
-							"The vehicle is already inside the parking lot"));
-				}
-				break;
+		// Check whether the tag exists in the DB or not
+		if (!db.tagExists(tag)) {
+			client.sendToClient(
+					new ServerResponse(false, null, ResponseType.TAG_EXISTS, "Tag does not exists"));
 
-				// check if tag id already entered to lot. expected format:
-				// {TAG_ID_ALREADY_ENTERED, tadId}
-			case TAG_ID_ALREADY_ENTERED:
-				String tagIdToCheckIfEntered = (String) data[1];
-
-				if (!db.checkTagIDEntered(tagIdToCheckIfEntered)) {
-					// The server will check whether the vehicle that is matched with the tag is
-					// already inside the parking lot
-					client.sendToClient(new ServerResponse(true, null,
-							ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE_BY_TAG, "The tag isn't inside"));
-				} else {
-					// If this method will return true, it means that the vehicle that is matched
-					// with the tag is already inside the parking lot
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
-							"The vehicle is Already inside the parking lot"));
-				}
-				break;
+		} else {
+			// The server sends that the tag has been found
+			client.sendToClient(new ServerResponse(true, null, ResponseType.TAG_EXISTS, "Tag exists"));
+		}
+	}
 
-				// return all subscribers and their late pickup counts. expected format:
-				// {GET_ALL_SUBSCRIBERS}
-			case GET_ALL_SUBSCRIBERS:
-				ArrayList<Object[]> rows = new ArrayList<>(db.getAllSubscribersWithLateCount());
-				client.sendToClient(new ServerResponse(true, rows, ResponseType.LATE_PICKUP_COUNTS, "all_subscribers"));
-				break;
-				// get all parking event that active right now. expected format:
-				// {GET_ACTIVE_PARKINGS}
-			case GET_ACTIVE_PARKINGS:
-				List<ParkingEvent> events = db.getActiveParkingEvents();
-				client.sendToClient(new ServerResponse(true, events, ResponseType.ACTIVE_PARKINGS, "active_parkings"));
-				break;
+	/**
+	 * Find a matched subscriber code to the tag ID. expected format:
+	 * {FIND_MATCHED_SUBSCRIBER_TO_THE_TAG, tagId}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleFindMatchedSubscriberToTheTag(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		String tagIdOfSubscriber = (String) data[1];
 
-				// get the data of parking availability
-			case GET_PARKING_AVAILABILITY:
+		// Gathering the subscriber threw the relevant tag of his
+		int subsCode = db.seekForTheSubscriberWithTag(tagIdOfSubscriber);
 
-				try {
-					int total = db.getTotalSpots();
-					int occupied = db.getOccupiedSpots();
-					int upcoming = db.getUpcomingReservations(); 
-					int available = Math.max(0, total - occupied - upcoming);
-
-					Object[] stats = new Object[] { total, occupied, upcoming, available };
-					System.out.println("Received availability request");
-					client.sendToClient(
-							new ServerResponse(true, stats, ResponseType.PARKING_AVALIABILITY, "parking_availability"));
-				} catch (Exception e) {
-					e.printStackTrace();
-					client.sendToClient(
-							new ServerResponse(false, null, null, "Failed to retrieve parking availability."));
-				}
-				break;
+		// The server sends the successful addition of parking event
+		client.sendToClient(new ServerResponse(true, subsCode, ResponseType.MATCHED_SUBSCRIBER_TO_TAG,
+				"Subscriber with matching tag has been found"));
+	}
 
+	/**
+	 * Check if subscriber already entered to the lot. expected format:
+	 * {SUBSCRIBER_ALREADY_ENTERED, subscriberCode}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleSubscriberAlreadyEntered(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int codeIntToCheckIfSubscriberEntered = (int) data[1];
+
+		if (!db.checkSubscriberEntered(codeIntToCheckIfSubscriberEntered)) {
+			// The server will check whether the subscriber has already entered his vehicle
+			// into the parking lot or not
+			client.sendToClient(new ServerResponse(true, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
+					"The subscriber didn't entered his vehicle yet"));
+		} else {
+			// If this method will return true, it means that he already entered his vehicle
+			// into the parking lot
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
+					"The vehicle is already inside the parking lot"));
+		}
+	}
 
-				// extend the parking event of subscriber. expected format: {"extendParking",
-				// parkingCode, subscriberCode(String)}
-			case EXTEND_PARKING:
-				int parkingCode = (int) data[1];
-				String subscriberCodeForExtend = (String) data[2];
+	/**
+	 * Check if tag id already entered to lot. expected format:
+	 * {TAG_ID_ALREADY_ENTERED, tadId}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleTagIdAlreadyEntered(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		String tagIdToCheckIfEntered = (String) data[1];
+
+		if (!db.checkTagIDEntered(tagIdToCheckIfEntered)) {
+			// The server will check whether the vehicle that is matched with the tag is
+			// already inside the parking lot
+			client.sendToClient(new ServerResponse(true, null,
+					ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE_BY_TAG, "The tag isn't inside"));
+		} else {
+			// If this method will return true, it means that the vehicle that is matched
+			// with the tag is already inside the parking lot
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_VEHICLE_ISNT_INSIDE,
+					"The vehicle is Already inside the parking lot"));
+		}
+	}
 
-				String response = db.extendParkingSession(parkingCode, subscriberCodeForExtend);
-				boolean completed = false;
+	/**
+	 * Return all subscribers and their late pickup counts. expected format:
+	 * {GET_ALL_SUBSCRIBERS}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetAllSubscribers(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ResultStreamer<Object[]> rows = new ResultStreamer<>(client, ResponseType.LATE_PICKUP_COUNTS);
+		try {
+			db.streamSubscribersWithLateCount(rows);
+		} catch (SQLException e) {
+			System.err.println("Error loading subscribers: " + e.getMessage());
+			rows.fail("There was an error loading the subscribers."); // the rows sent so far are incomplete
+			return;
+		}
+		rows.finish(); // ends the list
+	}
 
-				if (response.equals("Parking session extended successfully.")) {
-					completed = true;
-					System.out.println("Parking time extension of " + parkingCode + " completed successfully.");
-				}
+	/**
+	 * Get all parking event that active right now. expected format:
+	 * {GET_ACTIVE_PARKINGS}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetActiveParkings(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		ResultStreamer<ParkingEvent> events = new ResultStreamer<>(client, ResponseType.ACTIVE_PARKINGS);
+		try {
+			db.streamActiveParkingEvents(events);
+		} catch (SQLException e) {
+			System.err.println("Error retrieving active parking events: " + e.getMessage());
+			events.fail("There was an error loading the active parkings."); // the rows sent so far are incomplete
+			return;
+		}
+		events.finish(); // ends the list
+	}
 
-				client.sendToClient(
-						new ServerResponse(completed, null, ResponseType.PARKING_SESSION_EXTENDED, response));
-				break;
+	/**
+	 * Get the data of parking availability.
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetParkingAvailability(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		try {
+			int total = db.getTotalSpots();
+			int occupied = db.getOccupiedSpots();
+			int upcoming = db.getUpcomingReservations(); 
+			int available = Math.max(0, total - occupied - upcoming);
+
+			Object[] stats = new Object[] { total, occupied, upcoming, available };
+			System.out.println("Received availability request");
+			client.sendToClient(
+					new ServerResponse(true, stats, ResponseType.PARKING_AVALIABILITY, "parking_availability"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			client.sendToClient(
+					new ServerResponse(false, null, null, "Failed to retrieve parking availability."));
+		}
+	}
 
-				// check if subscriber has a order in the same date and time. expected format:
-				// {IS_THERE_AN_EXISTED_ORDER, subscriberCode, selectedDate, timeOfArrival}
-			case IS_THERE_AN_EXISTED_ORDER:
-				int subscriberCodeToCheckOrder = (int) data[1];
-				Date selectedDate = (Date) data[2];
-				Time timeOfArrival = (Time) data[3];
-
-				if (!db.checkIfOrderAlreadyExists(subscriberCodeToCheckOrder, selectedDate, timeOfArrival)) {
-					client.sendToClient(
-							new ServerResponse(true, null, ResponseType.ORDER_NOT_EXISTS, "Order doesn't exists."));
-				} else {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.ORDER_ALREADY_EXISTS,
-							"This order already exists for this subscriber."));
-				}
-				break;
+	/**
+	 * Extend the parking event of subscriber. expected format: {"extendParking",
+	 * parkingCode, subscriberCode(String)}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleExtendParking(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		int parkingCode = (int) data[1];
+		String subscriberCodeForExtend = (String) data[2];
+
+		awaitJournalApplied(); // the session may still be in the journal only
+		String response = db.extendParkingSession(parkingCode, subscriberCodeForExtend);
+		boolean completed = false;
+
+		if (response.equals(DBController.EXTENSION_LOT_NOT_OWNED)) {
+			// the lot moved to another node - the client extends there
+			String lotName = db.findOpenParkingLot(parkingCode);
+			if (sendRedirectIfNotOwner(lotName, client, "The parking lot moved to another server.")) {
+				return;
+			}
+			response = "The parking lot is temporarily unavailable. Please try again.";
+		}
 
-				// register a new subscriber to the system. expected format:
-				// {REGISTER_SUBSCRIBER, subscriber, vehicleID}
-			case REGISTER_SUBSCRIBER:
-				Subscriber receivedSub = (Subscriber) data[1];
-				String vehicleId = (data.length > 2 && data[2] instanceof String) ? (String) data[2] : null;
-
-				// 1. check duplicates before we touch the DB
-				List<String> invalid = new ArrayList<>();
-				if (db.usernameExists(receivedSub.getUsername()))
-					invalid.add("username");
-				if (db.emailExists(receivedSub.getEmail()))
-					invalid.add("email");
-				if (db.phoneExists(receivedSub.getPhoneNum()))
-					invalid.add("phone");
-				if (db.idExists(receivedSub.getUserId()))
-					invalid.add("id");
-				if (vehicleId != null && db.vehicleExists(vehicleId))
-					invalid.add("vehicle");
-
-				if (!invalid.isEmpty()) {
-					client.sendToClient(
-							new ServerResponse(false, invalid, ResponseType.SUBSCRIBER_INSERTED, "Duplicate fields"));
-					break; // stop right here
-				}
+		if (response.equals("Parking session extended successfully.")) {
+			completed = true;
+			journalAudit(JournalRecord.Type.EXTENSION,
+					"parkingCode=" + parkingCode + " subscriber=" + subscriberCodeForExtend);
+			System.out.println("Parking time extension of " + parkingCode + " completed successfully.");
+		}
 
-				// 2. generate code / tag / temp-password
-				int newCode = db.getNextSubscriberCode();
-				String newTag = db.generateNextTagId();
-				String tmpPassword = generateRandomPassword();
+		client.sendToClient(
+				new ServerResponse(completed, null, ResponseType.PARKING_SESSION_EXTENDED, response));
+	}
 
-				receivedSub.setSubscriberCode(newCode);
-				receivedSub.setTagId(newTag);
+	/**
+	 * Check if subscriber has a order in the same date and time. expected format:
+	 * {IS_THERE_AN_EXISTED_ORDER, subscriberCode, selectedDate, timeOfArrival}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleIsThereAnExistedOrder(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int subscriberCodeToCheckOrder = (int) data[1];
+		Date selectedDate = (Date) data[2];
+		Time timeOfArrival = (Time) data[3];
+
+		if (!db.checkIfOrderAlreadyExists(subscriberCodeToCheckOrder, selectedDate, timeOfArrival)) {
+			client.sendToClient(
+					new ServerResponse(true, null, ResponseType.ORDER_NOT_EXISTS, "Order doesn't exists."));
+		} else {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.ORDER_ALREADY_EXISTS,
+					"This order already exists for this subscriber."));
+		}
+	}
 
-				// 3. user -> DB
-				if (!db.insertUser(new User(receivedSub.getUsername(), tmpPassword, "Subscriber"))) {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_INSERTED,
-							"Failed to insert user. Try again later."));
-					break;
-				}
+	/**
+	 * Register a new subscriber to the system. expected format:
+	 * {REGISTER_SUBSCRIBER, subscriber, vehicleID}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleRegisterSubscriber(Object[] data, ConnectionToClient client) throws IOException, SQLException {
+		Subscriber receivedSub = (Subscriber) data[1];
+		String vehicleId = (data.length > 2 && data[2] instanceof String) ? (String) data[2] : null;
 
-				// 4. subscriber -> DB */
-				if (!db.insertSubscriber(receivedSub)) {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_INSERTED,
-							"Failed to insert subscriber. Try again."));
-					break;
-				}
+		// 1. check duplicates before we touch the DB (one query)
+		List<String> invalid = db.findDuplicateFields(receivedSub, vehicleId);
 
-				// 5. vehicle
-				if (vehicleId != null && !db.insertVehicle(vehicleId, newCode)) {
-					client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_INSERTED,
-							"Failed to register vehicle."));
-					break;
-				}
+		if (!invalid.isEmpty()) {
+			client.sendToClient(
+					new ServerResponse(false, invalid, ResponseType.SUBSCRIBER_INSERTED, "Duplicate fields"));
+			return; // stop right here
+		}
 
-				// 6. build the welcome mail – now includes Subscriber Code
-				String mailBody = String.format("""
-						Hello %s,
+		// 2. generate code / tag / temp-password
+		int newCode;
+		String newTag;
+		try {
+			newCode = ids.nextSubscriberCode();
+			newTag = ids.nextTagId();
+		} catch (SQLException e) {
+			System.err.println("Could not allocate a subscriber code or tag: " + e.getMessage());
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_INSERTED,
+					"Failed to register subscriber. Try again later."));
+			return;
+		}
+		String tmpPassword = generateRandomPassword();
 
-						Your registration to the BPARK system was successful!
+		receivedSub.setSubscriberCode(newCode);
+		receivedSub.setTagId(newTag);
 
-						Subscriber Code: %d
+		// 3. user + subscriber + vehicle -> DB, all or nothing
+		if (!db.registerSubscriber(new SubscriberRegistration(receivedSub, tmpPassword, vehicleId))) {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SUBSCRIBER_INSERTED,
+					"Failed to register subscriber. Try again later."));
+			return;
+		}
 
-						Login credentials:
-						- Username: %s
-						- Temporary Password: %s
+		// 4. welcome mail is sent in the background
+		sendEmail.queueEmail(receivedSub.getEmail(), welcomeMailBody(receivedSub, tmpPassword, vehicleId),
+				TypeOfMail.GENERIC_MESSAGE);
 
-						%s
+		// 5. done – tell the client
+		client.sendToClient(new ServerResponse(true, receivedSub, ResponseType.SUBSCRIBER_INSERTED,
+				"Subscriber registered successfully." + "Login details sent via email."));
+	}
 
-						Thank you,
-						BPARK Team
-						""", receivedSub.getFirstName(), newCode, receivedSub.getUsername(), tmpPassword,
-						(vehicleId != null ? "Vehicle ID: " + vehicleId : ""));
+	/**
+	 * Register many subscribers from CSV text. expected format:
+	 * {BULK_IMPORT_SUBSCRIBERS, csvText}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleBulkImportSubscribers(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		List<SubscriberImportResult> importResults = importer.importCsv((String) data[1]);
+		long imported = importResults.stream().filter(SubscriberImportResult::isSucceed).count();
+		client.sendToClient(new ServerResponse(true, new ArrayList<>(importResults),
+				ResponseType.SUBSCRIBERS_IMPORTED,
+				"Imported " + imported + " of " + importResults.size() + " subscribers."));
+	}
 
-				sendEmail.sendEmail(receivedSub.getEmail(), mailBody, TypeOfMail.GENERIC_MESSAGE);
+	/**
+	 * Get subscriber status report of selected date. expected format:
+	 * {GET_SUBSCRIBER_STATUS_REPORT, month, year}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException  if a response could not be sent
+	 * @throws SQLException if a query fails
+	 */
+	private void handleGetSubscriberStatusReport(Object[] data, ConnectionToClient client)
+			throws IOException, SQLException {
+		int month = (int) data[1];
+		int year = (int) data[2];
 
-				// 7. done – tell the client
-				client.sendToClient(new ServerResponse(true, receivedSub, ResponseType.SUBSCRIBER_INSERTED,
-						"Subscriber registered successfully." + "Login details sent via email."));
-				break;
+		try {
+			List<SubscriberStatusReport> rowsOfSubscriberStatus = db.getSubscriberStatusFromTable(month, year);
 
-				// get subscriber status report of selected date. expected format:
-				// {GET_SUBSCRIBER_STATUS_REPORT, month, year}
-			case GET_SUBSCRIBER_STATUS_REPORT:
-				int month = (int) data[1];
-				int year = (int) data[2];
+			/* current open month? -> build live if snapshot missing */
+			LocalDate today = LocalDate.now();
+			boolean isCurrent = (year == today.getYear() && month == today.getMonthValue());
 
-				try {
-					List<SubscriberStatusReport> rowsOfSubscriberStatus = db.getSubscriberStatusFromTable(month, year);
-
-					/* current open month? -> build live if snapshot missing */
-					LocalDate today = LocalDate.now();
-					boolean isCurrent = (year == today.getYear() && month == today.getMonthValue());
-
-					if (rowsOfSubscriberStatus.isEmpty() && isCurrent) {
-						rowsOfSubscriberStatus = db.getSubscriberStatusLive(month, year);
-					}
-
-					if (rowsOfSubscriberStatus.isEmpty()) { // past month with no snapshot
-						client.sendToClient(new ServerResponse(false, null, null,
-								"No snapshot available for " + month + "/" + year));
-					} else {
-						client.sendToClient(new ServerResponse(true, rowsOfSubscriberStatus,
-								ResponseType.SUBSCRIBER_STATUS, "subscriber_status"));
-					}
-				} catch (SQLException ex) {
-					ex.printStackTrace();
-					client.sendToClient(
-							new ServerResponse(false, null, ResponseType.SUBSCRIBER_STATUS, "subscriber_status"));
-				}
-				break;
+			if (rowsOfSubscriberStatus.isEmpty() && isCurrent) {
+				rowsOfSubscriberStatus = db.getSubscriberStatusLive(month, year);
+			}
 
+			if (rowsOfSubscriberStatus.isEmpty()) { // past month with no snapshot
+				client.sendToClient(new ServerResponse(false, null, null,
+						"No snapshot available for " + month + "/" + year));
+			} else {
+				client.sendToClient(new ServerResponse(true, rowsOfSubscriberStatus,
+						ResponseType.SUBSCRIBER_STATUS, "subscriber_status"));
 			}
-		} catch (IOException | SQLException e) {
-			System.err.println("Client communication error: " + e.getMessage());
+		} catch (SQLException ex) {
+			ex.printStackTrace();
+			client.sendToClient(
+					new ServerResponse(false, null, ResponseType.SUBSCRIBER_STATUS, "subscriber_status"));
 		}
-
 	}
 
 	/**
 	 * Handles a login request sent from the client side.
 	 * Expects the data array to contain: {LOGIN, username, password}.
-	 * If the credentials are valid and the user is not already logged in,
-	 * the server responds with a successful login. Otherwise, it sends an error message.
+	 * If the credentials are valid and the user is not already logged in (checked
+	 * against the in-memory session registry), the server responds with a
+	 * successful login. Otherwise, it sends an error message.
 	 *
 	 * @param data   the message array sent from the client (operation + login details)
 	 * @param client the connection to the client that sent the login request
@@ -739,27 +1300,58 @@ public class Server extends AbstractServer {
 
 		System.out.println("Login attempt for user: " + username);
 
-		User user = db.authenticateUser(username, password); // null => wrong creds OR already online
+		User user = db.authenticateUser(username, password); // null => wrong creds
 
 		try {
-			if (user != null) {
-				// remember username on this socket – cleared on disconnect
-				client.setInfo("username", username);
+			if (user == null) {
+				client.sendToClient(new ServerResponse(false, null, ResponseType.LOGIN_FAILED,
+						"Invalid username or password."));
+			} else if (!sessions.login(username, user.getRole(), client)) { // binds username to this socket
+				client.sendToClient(new ServerResponse(false, null, ResponseType.LOGIN_FAILED,
+						"This account is already logged in from another device."));
+			} else {
 				System.out.println("User " + username + " successfully logged in");
 				client.sendToClient(new ServerResponse(true, user, ResponseType.LOGIN_SUCCESSFULL, "Login successful"));
-			} else {
-				boolean alreadyOnline = db.usernameExists(username) && db.isUserOnline(username);
-
-				String msg = alreadyOnline ? "This account is already logged in from another device."
-						: "Invalid username or password.";
-
-				client.sendToClient(new ServerResponse(false, null, ResponseType.LOGIN_FAILED, msg));
+				sendResumeToken(client, user);
 			}
 		} catch (IOException e) {
 			System.err.println("[SERVER] Failed to send login response: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Logs the user of a client back in after a reconnect, with the resume token
+	 * the client got at login instead of the password. expected format:
+	 * {RESUME_SESSION, token}
+	 *
+	 * @param data   the message array sent from the client
+	 * @param client the sending client
+	 * @throws IOException if the response could not be sent
+	 */
+	private void handleResumeSession(Object[] data, ConnectionToClient client) throws IOException {
+		User user = sessions.resume((String) data[1], client);
+		if (user == null) {
+			client.sendToClient(new ServerResponse(false, null, ResponseType.SESSION_RESUMED,
+					"Your session has expired. Please log in again."));
+			return;
+		}
+		System.out.println("User " + user.getUsername() + " resumed the session after a reconnect.");
+		client.sendToClient(new ServerResponse(true, user, ResponseType.SESSION_RESUMED, "Session resumed"));
+		sendResumeToken(client, user);
+	}
+
+	/**
+	 * Sends the client a new token to resume its session with after a reconnect.
+	 *
+	 * @param client the client the user is logged in from
+	 * @param user   the logged-in user
+	 * @throws IOException if the token could not be sent
+	 */
+	private void sendResumeToken(ConnectionToClient client, User user) throws IOException {
+		String token = sessions.issueResumeToken(client, user);
+		client.sendToClient(new ServerResponse(true, token, ResponseType.SESSION_TOKEN, "Resume token"));
+	}
+
 	/**
 	 * Logs new client connections.
 	 *
@@ -776,6 +1368,240 @@ public class Server extends AbstractServer {
 		}
 	}
 
+	/**
+	 * Sets the per-client outbound queue from -Dbpark.outbound.capacity and
+	 * -Dbpark.outbound.policy (DROP, COALESCE or DISCONNECT).
+	 */
+	private void configureOutbound() {
+		setOutboundCapacity(Integer.getInteger("bpark.outbound.capacity", DEFAULT_OUTBOUND_CAPACITY));
+		String policy = System.getProperty("bpark.outbound.policy");
+		if (policy != null) {
+			try {
+				setOverflowPolicy(OverflowPolicy.valueOf(policy.trim().toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				System.err.println("Unknown outbound policy '" + policy + "', using " + getOverflowPolicy());
+			}
+		}
+		System.out.println("Outbound queues: " + getOutboundCapacity() + " messages per client, " + getOverflowPolicy()
+				+ " when full.");
+	}
+
+	/**
+	 * Logs a message that did not fit in a slow client's outbound queue.
+	 *
+	 * @param client the slow client
+	 * @param msg    the message
+	 * @param action what was done with it
+	 */
+	@Override
+	protected void outboundOverflow(ConnectionToClient client, Object msg, OverflowPolicy action) {
+		String what = msg instanceof ServerResponse response ? String.valueOf(response.getType()) : String.valueOf(msg);
+		System.err.println("Outbound queue of " + client + " full (" + client.getQueueDepth() + "): " + what + " -> "
+				+ action);
+	}
+
+	/**
+	 * Lets report-style responses replace an older one of the same type that is
+	 * still queued for a slow client (COALESCE policy). Only complete results
+	 * qualify: a chunk of a longer result can not stand in for another one.
+	 *
+	 * @param msg a message sent to a client
+	 * @return the response type if it may be coalesced, otherwise null
+	 */
+	@Override
+	protected Object coalesceKey(Object msg) {
+		if (msg instanceof ServerResponse response && COALESCABLE.contains(response.getType())
+				&& (!(response.getData() instanceof ResultChunk<?> chunk) || (chunk.isFirst() && chunk.isLast()))) {
+			return response.getType();
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the event journal and starts applying it to the DB. Entries that
+	 * were journaled but not yet written when the server stopped are applied
+	 * first. If a journal holding entries can not be replayed, or the DB's
+	 * position in it is unknown, the server does not start - serving without
+	 * those entries would lose them. An empty journal that can not be opened
+	 * only means entries are written directly to the DB as before.
+	 *
+	 * @return true if the server may go on starting
+	 */
+	private boolean openJournal() {
+		try {
+			int replayed = applier.start(journal);
+			System.out.println("Event journal open at #" + journal.getLastSeq() + ", replaying " + replayed
+					+ " entries.");
+			return true;
+		} catch (SQLException e) {
+			abortStart("Server not started: the journal position could not be read: " + e.getMessage());
+			return false;
+		} catch (IOException | RuntimeException e) {
+			if (!journal.isEmpty()) {
+				abortStart("Server not started: the event journal could not be replayed: " + e.getMessage());
+				return false;
+			}
+			System.err.println("Event journal unavailable, writing entries directly: " + e.getMessage());
+			journal = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Writes an entry to the journal and waits until it is on disk (group
+	 * commit), then marks the vehicle inside and queues the DB row. If the flush
+	 * fails, the row is written to the DB before returning instead, so the entry
+	 * is durable either way when the gate is answered.
+	 *
+	 * @param event the parking event of the entry
+	 * @return true if the entry was journaled, false if it must be written to the
+	 *         DB directly
+	 * @throws SQLException if the flush failed and the row could not be written
+	 *                      either
+	 */
+	private boolean journalEntry(ParkingEvent event) throws SQLException {
+		if (journal == null) {
+			return false;
+		}
+		JournalRecord record = JournalRecord.entry(event);
+		try {
+			journal.append(record);
+		} catch (IOException e) {
+			System.err.println("Could not journal entry: " + e.getMessage());
+			return false;
+		}
+		try {
+			journal.awaitDurable(record.getSeq());
+		} catch (IOException e) {
+			// not known to be on disk: write the row now, keyed like a journaled one so a replay of the
+			// record (if it did reach the disk) finds it already applied
+			System.err.println("Journal flush failed, writing entry #" + record.getSeq() + " directly: "
+					+ e.getMessage());
+			applier.applyNow(record, JOURNAL_APPLY_WAIT_MS);
+			return true;
+		}
+		db.markVehicleInside(event);
+		applier.submit(record);
+		return true;
+	}
+
+	/**
+	 * Adds an audit record for a change that is already in the DB. It is not
+	 * waited for; it reaches the disk with the next flush.
+	 *
+	 * @param type   EXIT, EXTENSION or ORDER
+	 * @param detail readable description of the change
+	 */
+	private void journalAudit(JournalRecord.Type type, String detail) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.append(JournalRecord.audit(type, detail));
+		} catch (IOException e) {
+			System.err.println("Could not journal " + type + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits until the journaled entries reach the DB, before a request that
+	 * reads them from there.
+	 */
+	private void awaitJournalApplied() {
+		if (journal != null && !applier.awaitApplied(JOURNAL_APPLY_WAIT_MS)) {
+			System.err.println("Journal applier is behind (" + applier.getBacklog() + " entries waiting).");
+		}
+	}
+
+	/**
+	 * Tells a client to reconnect to the node that owns its parking lot.
+	 *
+	 * @param lotName     the lot the client serves
+	 * @param client      the client
+	 * @param retryNotice message telling the user to repeat the redirected request,
+	 *                    or null when nothing has to be repeated
+	 * @return true if a redirect was sent, false if this node owns the lot or the
+	 *         lot has no live owner
+	 * @throws IOException if the response could not be sent
+	 */
+	private boolean sendRedirectIfNotOwner(String lotName, ConnectionToClient client, String retryNotice)
+			throws IOException {
+		String owner = leases.redirectAddress(lotName);
+		if (owner == null) {
+			return false;
+		}
+		// succeed=false tells the client the redirected request was not served
+		client.sendToClient(new ServerResponse(retryNotice == null, owner, ResponseType.REDIRECT,
+				retryNotice == null ? "Parking lot " + lotName + " is served by " + owner + "." : retryNotice));
+		return true;
+	}
+
+	/**
+	 * Sends a message to every terminal of a parking lot connected to this node.
+	 * The message is serialized once for all of them.
+	 *
+	 * @param lotName the parking lot
+	 * @param msg     the message
+	 * @return number of terminals the message was queued for
+	 */
+	public int announceToLot(String lotName, Object msg) {
+		try {
+			return sendToTopic(msg, lotTopic(lotName));
+		} catch (IOException e) {
+			System.err.println("Could not announce to lot " + lotName + ": " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Sends a message to every logged-in user with the given role. The message
+	 * is serialized once for all of them.
+	 *
+	 * @param role the role
+	 * @param msg  the message
+	 * @return number of clients the message was queued for
+	 */
+	public int announceToRole(UserRole role, Object msg) {
+		try {
+			return sendToClients(msg, c -> c.getInfo(SessionRegistry.ROLE_KEY) == role);
+		} catch (IOException e) {
+			System.err.println("Could not announce to " + role + "s: " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * @param lotName a parking lot
+	 * @return the broadcast topic of the lot's terminals
+	 */
+	private static String lotTopic(String lotName) {
+		return LOT_TOPIC_PREFIX + lotName;
+	}
+
+	/**
+	 * Lets the dispatcher keep the responses of keyed requests, so a repeat can
+	 * be answered with them.
+	 *
+	 * @param client the client the message is sent to
+	 * @param msg    the message
+	 */
+	@Override
+	protected void messageSentToClient(ConnectionToClient client, Object msg) {
+		dispatcher.recordResponse(client, msg);
+	}
+
+	/**
+	 * Logs a client that is disconnected because it stopped sending heartbeats
+	 * (e.g. a kiosk that lost power or Wi-Fi). Its session is ended by
+	 * {@link #clientDisconnected(ConnectionToClient)} right after.
+	 *
+	 * @param client the silent client
+	 */
+	@Override
+	protected void clientTimedOut(ConnectionToClient client) {
+		System.err.println("Client " + client + " silent for " + client.getIdleTime() / 1000 + "s, disconnecting.");
+	}
+
 	/**
 	 * Logs when a client disconnects.
 	 *
@@ -783,13 +1609,15 @@ public class Server extends AbstractServer {
 	 */
 	@Override
 	protected void clientDisconnected(ConnectionToClient client) {
+		dispatcher.forget(client);
 		logClientDisconnect(client);
 	}
 
 	/**
 	 * Handles cleanup when a client disconnects from the server.
 	 * Prints the client's IP and hostname, and if the user was logged in,
-	 * it updates the database to mark them as logged out.
+	 * ends their session (which the client may still resume after a reconnect,
+	 * unless it logged out first).
 	 *
 	 * @param client the connection of the client that disconnected
 	 */
@@ -799,18 +1627,16 @@ public class Server extends AbstractServer {
 			String host = client.getInetAddress().getHostName();
 			System.out.println("Client disconnected from: " + host + " (" + ip + ")");
 
-			/* clear online flag (if this socket belonged to a logged-in user) */
-			Object uObj = client.getInfo("username");
-			if (uObj instanceof String u) {
-				db.markUserLoggedOut(u);
-			}
+			/* end the session (if this socket belonged to a logged-in user) */
+			sessions.suspend(client);
 		} catch (Exception e) {
 			System.out.println("Could not process disconnect: " + e.getMessage());
 		}
 	}
 
 	/**
-	 * Returns a list of all connected client hostnames and IPs.
+	 * Returns a list of all connected client hostnames and IPs, with the depth
+	 * of their outbound queues and whether large responses are compressed.
 	 *
 	 * @return list of client connection strings
 	 */
@@ -822,7 +1648,9 @@ public class Server extends AbstractServer {
 				try {
 					String ip = client.getInetAddress().getHostAddress();
 					String host = client.getInetAddress().getHostName();
-					list.add("Host: " + host + " (" + ip + ")");
+					list.add("Host: " + host + " (" + ip + ") - queued " + client.getQueueDepth() + " (peak "
+							+ client.getPeakQueueDepth() + ", dropped " + client.getDroppedCount() + ", coalesced "
+							+ client.getCoalescedCount() + ")" + (client.isCompressing() ? ", compressed" : ""));
 				} catch (Exception e) {
 					list.add("Unknown client");
 				}
@@ -834,12 +1662,40 @@ public class Server extends AbstractServer {
 		return list;
 	}
 
+	/**
+	 * Builds the welcome mail sent to a newly registered subscriber.
+	 *
+	 * @param sub         the registered subscriber (with code assigned)
+	 * @param tmpPassword the temporary password
+	 * @param vehicleId   the registered vehicle, or null
+	 * @return the mail body
+	 */
+	static String welcomeMailBody(Subscriber sub, String tmpPassword, String vehicleId) {
+		return String.format("""
+				Hello %s,
+
+				Your registration to the BPARK system was successful!
+
+				Subscriber Code: %d
+
+				Login credentials:
+				- Username: %s
+				- Temporary Password: %s
+
+				%s
+
+				Thank you,
+				BPARK Team
+				""", sub.getFirstName(), sub.getSubscriberCode(), sub.getUsername(), tmpPassword,
+				(vehicleId != null ? "Vehicle ID: " + vehicleId : ""));
+	}
+
 	/**
 	 * Generates a random 8-character alphanumeric password.
 	 *
 	 * @return random password
 	 */
-	private String generateRandomPassword() {
+	static String generateRandomPassword() {
 		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
 		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < 8; i++) {
@@ -850,29 +1706,73 @@ public class Server extends AbstractServer {
 	}
 
 	/**
-	 * Stops the BPARK server in a clean way.
+	 * Stops the BPARK server in a clean way, draining it so clients only see a
+	 * short pause.
 	 *
-	 * What happens here: - Send "server_shutdown" to every connected client so they
-	 * can quit nicely. - Close the listening socket (this drops all client sockets
-	 * too). - Clear is_logged_in for every user in the DB, just to be extra safe.
+	 * What happens here: - Close the listening socket but keep the clients; new
+	 * clients go to the next server on this port, if one is waiting (see
+	 * {@link PortHandoff}). - Let the admitted requests finish (up to
+	 * -Dbpark.drain.timeout.ms); requests that arrive meanwhile are left for the
+	 * next server. - Send the queued mails. - Hand the resumable sessions over.
+	 * - Send "server_shutdown" to every client so they reconnect, and close
+	 * their connections. - Drop all sessions and flush the is_logged_in audit
+	 * flag. - Release this node's lot leases. - Flush the event journal. -
+	 * Release the port to the next server.
 	 *
-	 * Called from the GUI when the user presses Exit.
+	 * Called from the GUI when the user presses Exit, and from the shutdown hook
+	 * of a headless node.
 	 */
 	public void shutdownGracefully() {
-		// warn all clients
-		sendToAllClients("server_shutdown");
+		if (!serving) { // nothing was started that needs draining
+			abortStart("Server stopped before it started serving.");
+			return;
+		}
+
+		// stop accepting clients; the connected ones stay until their requests are done
+		try {
+			closeServerSocket(); // method from AbstractServer
+		} catch (IOException ex) {
+			System.err.println("Closing the server socket failed: " + ex.getMessage());
+		}
+
+		// finish the requests already admitted
+		dispatcher.drain(Long.getLong("bpark.drain.timeout.ms", DEFAULT_DRAIN_TIMEOUT_MS));
+
+		// mails queued by finished requests still go out
+		if (!MailService.flushQueue(MAIL_FLUSH_MS)) {
+			System.err.println("Some queued mails were not sent before shutdown.");
+		}
+
+		// the next server lets the clients resume their sessions
+		System.out.println(sessions.handOver(handoff.getSessionsFile()) + " sessions handed over.");
 
-		// close the server socket itself
+		// tell all clients to reconnect, then close their connections
+		sendToAllClients("server_shutdown");
 		try {
 			close(); // method from AbstractServer
 		} catch (IOException ex) {
 			System.err.println("Shut down failed: " + ex.getMessage());
 		}
 
-		// make sure nobody is still marked online in the DB
-		db.resetAllLoggedIn();
+		// stop the workers
+		dispatcher.shutdown(DISPATCH_DRAIN_MS);
+
+		// drop all sessions and let the audit writes reach the DB
+		sessions.shutdown();
+
+		// hand our lots to the other nodes right away instead of after the lease expires
+		leases.shutdown();
+
+		// let the applier finish, then flush the journal; anything left is replayed on the next start
+		if (journal != null) {
+			applier.awaitApplied(JOURNAL_APPLY_WAIT_MS);
+			journal.close();
+		}
+
+		// a server waiting to take over this port may start now
+		handoff.release();
 
 		System.out.println("Shutdown complete – all clients logged out.");
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package server;
+
+/**
+ * Starts a BPARK server node without the GUI, e.g. to run several nodes that
+ * share one database and split the parking lots between them.
+ *
+ * Usage: java server.ServerNode [port] (default 5555), with the node settings
+ * described in {@link LeaseManager} given as system properties.
+ *
+ * To deploy a new version without downtime, start the new node on the same
+ * port while the old one runs (both with -Dbpark.reuseport=true), then stop the
+ * old one; see {@link PortHandoff}.
+ */
+public class ServerNode {
+
+	/** Port used when none is given */
+	private static final int DEFAULT_PORT = 5555;
+
+	/**
+	 * Program entry-point.
+	 *
+	 * @param args optional port number
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		if (args.length > 0) {
+			try {
+				port = Integer.parseInt(args[0]);
+			} catch (NumberFormatException e) {
+				System.err.println("ERROR – port must be numeric.");
+				return;
+			}
+		}
+
+		Server server = new Server(port);
+		try {
+			server.listen();
+		} catch (Exception e) {
+			System.err.println("Server error: " + e.getMessage());
+			return;
+		}
+		System.out.println("Server node started on port " + port + ".");
+
+		// release the lot leases on Ctrl+C / SIGTERM so another node takes over at once
+		Runtime.getRuntime().addShutdownHook(new Thread(server::shutdownGracefully, "node-shutdown"));
+	}
+}
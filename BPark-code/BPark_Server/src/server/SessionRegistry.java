@@ -0,0 +1,356 @@
+package server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import common.User;
+import common.UserRole;
+import db.DBController;
+import ocsf.server.ConnectionToClient;
+
+/**
+ * Keeps track of which users are logged in and on which connection.
+ *
+ * The registry lives in server memory and is the only source of truth for
+ * "already online": a username can be bound to one ConnectionToClient at a
+ * time, and the binding disappears together with the connection. The
+ * is_logged_in column in the user table is still maintained, but only for
+ * auditing - it is written in the background by a single worker thread and is
+ * never read back. Because nothing survives a restart, a crashed server can not
+ * leave accounts stuck "online".
+ *
+ * Every login also gets a resume token. When the connection drops without a
+ * logout (a network blip), the client reconnects and sends the token instead
+ * of the password; the token stays valid for -Dbpark.resume.window.ms after the
+ * drop (default 2 minutes). Each token can be used once - resuming issues a new
+ * one - and a logout revokes it.
+ *
+ * When the server restarts, the open tokens are handed over to the next
+ * process in a file ({@link #handOver(Path)} / {@link #takeOver(Path)}), so
+ * the clients of the old process resume their sessions on the new one.
+ */
+public class SessionRegistry {
+
+	/** Key stored on the client connection holding the logged-in username */
+	public static final String USERNAME_KEY = "username";
+
+	/** Key stored on the client connection holding the logged-in user's role */
+	public static final String ROLE_KEY = "role";
+
+	/** Key stored on the client connection holding the session's resume token */
+	public static final String RESUME_KEY = "resumeToken";
+
+	/** Default time a dropped session can be resumed */
+	private static final long DEFAULT_RESUME_WINDOW_MS = 2 * 60 * 1000;
+
+	/** Time a dropped session can be resumed */
+	private final long resumeWindowMs = Long.getLong("bpark.resume.window.ms", DEFAULT_RESUME_WINDOW_MS);
+
+	/** username -> connection the user is logged in from */
+	private final ConcurrentHashMap<String, ConnectionToClient> sessions = new ConcurrentHashMap<>();
+
+	/** resume token -> session it resumes */
+	private final ConcurrentHashMap<String, ResumeTicket> tickets = new ConcurrentHashMap<>();
+
+	/** Permissions of the handoff file - it holds tokens that log users in */
+	private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+	/** Source of resume tokens */
+	private final SecureRandom random = new SecureRandom();
+
+	/** Single background writer so audit updates reach the DB in order */
+	private final ExecutorService auditWriter = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "session-audit");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/** DB controller used for the audit writes */
+	private final DBController db;
+
+	/**
+	 * Creates an empty registry.
+	 *
+	 * @param db DB controller used to record the audit flag
+	 */
+	public SessionRegistry(DBController db) {
+		this.db = db;
+	}
+
+	/**
+	 * Binds the user to the given connection if they are not logged in anywhere
+	 * else.
+	 *
+	 * @param username the authenticated username
+	 * @param role     the user's role, used to address role-wide announcements
+	 * @param client   the connection the user logged in from
+	 * @return true if the session was created, false if the user is already
+	 *         online on another connection
+	 */
+	public boolean login(String username, UserRole role, ConnectionToClient client) {
+		ConnectionToClient existing = sessions.putIfAbsent(username, client);
+		if (existing != null && existing != client) {
+			return false; // already logged in from another device
+		}
+		client.setInfo(USERNAME_KEY, username); // remember username on this socket
+		client.setInfo(ROLE_KEY, role);
+		auditWriter.execute(() -> {
+			try {
+				db.markUserLoggedIn(username);
+			} catch (Exception e) {
+				System.err.println("[SESSION] audit login failed for " + username + ": " + e.getMessage());
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Ends the session bound to the given connection, if any, and revokes its
+	 * resume token. A session is only removed when it still belongs to this
+	 * connection, so a late disconnect of an old socket never logs out a newer
+	 * session of the same user.
+	 *
+	 * @param client the connection that logged out
+	 * @return the username that was logged out, or null if none
+	 */
+	public String logout(ConnectionToClient client) {
+		if (client.getInfo(RESUME_KEY) instanceof String token) {
+			tickets.remove(token); // logged out on purpose - nothing to resume
+			client.setInfo(RESUME_KEY, null);
+		}
+		return end(client);
+	}
+
+	/**
+	 * Ends the session of a connection that dropped without a logout. Unlike
+	 * {@link #logout(ConnectionToClient)}, the session can still be resumed with
+	 * its token for the resume window.
+	 *
+	 * @param client the connection that dropped
+	 * @return the username whose session was ended, or null if none
+	 */
+	public String suspend(ConnectionToClient client) {
+		if (client.getInfo(RESUME_KEY) instanceof String token) {
+			ResumeTicket ticket = tickets.get(token);
+			if (ticket != null) {
+				ticket.expiresAt = System.currentTimeMillis() + resumeWindowMs;
+			}
+		}
+		return end(client);
+	}
+
+	/**
+	 * Issues a new resume token for the user logged in on the connection,
+	 * replacing the connection's earlier token.
+	 *
+	 * @param client the connection the user is logged in from
+	 * @param user   the logged-in user
+	 * @return the token to send to the client
+	 */
+	public String issueResumeToken(ConnectionToClient client, User user) {
+		long now = System.currentTimeMillis();
+		tickets.values().removeIf(t -> t.expiresAt < now); // drop tokens of sessions that never came back
+		byte[] bytes = new byte[24];
+		random.nextBytes(bytes);
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		tickets.put(token, new ResumeTicket(user));
+		if (client.getInfo(RESUME_KEY) instanceof String old) {
+			tickets.remove(old);
+		}
+		client.setInfo(RESUME_KEY, token);
+		return token;
+	}
+
+	/**
+	 * Resumes a session on a new connection. If the server still has the old
+	 * connection of the session (it has not noticed the drop yet), the session
+	 * moves to the new connection and the old one is closed.
+	 *
+	 * @param token  the resume token sent by the client
+	 * @param client the new connection
+	 * @return the user of the resumed session, or null if the token is unknown,
+	 *         expired or used, or the user logged in elsewhere meanwhile
+	 */
+	public User resume(String token, ConnectionToClient client) {
+		ResumeTicket ticket = tickets.remove(token); // each token works once
+		if (ticket == null || ticket.expiresAt < System.currentTimeMillis()) {
+			return null;
+		}
+		String username = ticket.user.getUsername();
+		ConnectionToClient old = sessions.get(username);
+		if (old != null && old != client && token.equals(old.getInfo(RESUME_KEY))) {
+			old.setInfo(USERNAME_KEY, null); // its disconnect must not end the resumed session
+			old.setInfo(RESUME_KEY, null);
+			sessions.remove(username, old);
+			try {
+				old.close();
+			} catch (Exception e) {
+				System.err.println("[SESSION] could not close the old connection of " + username + ": "
+						+ e.getMessage());
+			}
+		}
+		return login(username, ticket.user.getRole(), client) ? ticket.user : null;
+	}
+
+	/**
+	 * Unbinds the user of a connection.
+	 *
+	 * @param client the connection
+	 * @return the username that was unbound, or null if none
+	 */
+	private String end(ConnectionToClient client) {
+		if (!(client.getInfo(USERNAME_KEY) instanceof String username)) {
+			return null;
+		}
+		client.setInfo(USERNAME_KEY, null);
+		client.setInfo(ROLE_KEY, null);
+		if (!sessions.remove(username, client)) {
+			return null;
+		}
+		auditWriter.execute(() -> db.markUserLoggedOut(username));
+		return username;
+	}
+
+	/**
+	 * Checks whether the user currently has a live session.
+	 *
+	 * @param username the username to check
+	 * @return true if the user is logged in
+	 */
+	public boolean isOnline(String username) {
+		return sessions.containsKey(username);
+	}
+
+	/**
+	 * Drops every session and clears the audit flag for all users. Used at
+	 * startup to discard flags left behind by a previous run.
+	 */
+	public void reset() {
+		sessions.clear();
+		tickets.clear();
+		auditWriter.execute(db::resetAllLoggedIn);
+	}
+
+	/**
+	 * Drops every session and waits (briefly) for pending audit writes to reach
+	 * the DB. Called when the server shuts down.
+	 */
+	public void shutdown() {
+		reset();
+		auditWriter.shutdown();
+		try {
+			auditWriter.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the resume tokens to a file for the next server process. The
+	 * sessions of the clients still connected become resumable for the resume
+	 * window from now, as if their connections had dropped. The file is
+	 * readable by the owner only, since the tokens log users in.
+	 *
+	 * @param file the handoff file
+	 * @return number of tokens handed over
+	 */
+	public int handOver(Path file) {
+		long now = System.currentTimeMillis();
+		long expiresAt = now + resumeWindowMs;
+		HashMap<String, ResumeTicket> open = new HashMap<>();
+		tickets.forEach((token, ticket) -> {
+			ticket.expiresAt = Math.min(ticket.expiresAt, expiresAt);
+			if (ticket.expiresAt >= now) {
+				open.put(token, ticket);
+			}
+		});
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.deleteIfExists(tmp);
+			try {
+				Files.createFile(tmp, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+			} catch (UnsupportedOperationException e) {
+				Files.createFile(tmp); // not a POSIX file system
+			}
+			try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(tmp))) {
+				out.writeObject(open);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("[SESSION] could not hand sessions over: " + e.getMessage());
+			return 0;
+		}
+		return open.size();
+	}
+
+	/**
+	 * Loads the resume tokens a previous server process handed over and deletes
+	 * the file. Call after {@link #reset()}.
+	 *
+	 * @param file the handoff file
+	 * @return number of tokens that can still be used
+	 */
+	@SuppressWarnings("unchecked")
+	public int takeOver(Path file) {
+		Map<String, ResumeTicket> handed;
+		try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(file))) {
+			handed = (Map<String, ResumeTicket>) in.readObject();
+		} catch (NoSuchFileException e) {
+			return 0; // nothing handed over
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			System.err.println("[SESSION] could not take sessions over: " + e.getMessage());
+			return 0;
+		} finally {
+			try {
+				Files.deleteIfExists(file); // each token works once, also across restarts
+			} catch (IOException e) {
+				System.err.println("[SESSION] could not delete " + file + ": " + e.getMessage());
+			}
+		}
+		long now = System.currentTimeMillis();
+		handed.forEach((token, ticket) -> {
+			if (ticket.expiresAt >= now) {
+				tickets.put(token, ticket);
+			}
+		});
+		return tickets.size();
+	}
+
+	/**
+	 * The session a resume token resumes.
+	 */
+	private static final class ResumeTicket implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The logged-in user */
+		private final User user;
+
+		/** Time the token expires; never while the session's connection is up */
+		private volatile long expiresAt = Long.MAX_VALUE;
+
+		/**
+		 * @param user the logged-in user
+		 */
+		ResumeTicket(User user) {
+			this.user = user;
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import common.Subscriber;
+import common.SubscriberImportResult;
+import db.DBController;
+import db.IdAllocator;
+import db.SubscriberRegistration;
+import mailService.MailService;
+import mailService.TypeOfMail;
+
+/**
+ * Registers many subscribers from CSV text (e.g. a whole corporate fleet).
+ *
+ * Expected columns, one subscriber per line:
+ * userId,firstName,lastName,phoneNumber,email,username[,vehicleId]
+ * A first line starting with "userId" is treated as a header and skipped.
+ *
+ * Rows are processed in chunks: every chunk is checked for duplicates with one
+ * query and inserted with one batched transaction. If a chunk's transaction
+ * fails (e.g. a concurrent registration took a value in the meantime), the
+ * chunk is retried row by row so every row still gets its own result.
+ */
+public class SubscriberImporter {
+
+	/** Number of rows checked and inserted together */
+	private static final int CHUNK_SIZE = 500;
+
+	/** DB controller used for the duplicate checks and inserts */
+	private final DBController db;
+
+	/** Allocator for subscriber codes and tag IDs */
+	private final IdAllocator ids;
+
+	/** Mail service used to queue the welcome mails */
+	private final MailService mail;
+
+	/**
+	 * Creates an importer.
+	 *
+	 * @param db   DB controller
+	 * @param ids  allocator for subscriber codes and tag IDs
+	 * @param mail mail service for the welcome mails
+	 */
+	public SubscriberImporter(DBController db, IdAllocator ids, MailService mail) {
+		this.db = db;
+		this.ids = ids;
+		this.mail = mail;
+	}
+
+	/**
+	 * Imports all subscribers in the CSV text.
+	 *
+	 * @param csv the CSV text
+	 * @return one result per data row, in file order
+	 */
+	public List<SubscriberImportResult> importCsv(String csv) {
+		List<SubscriberImportResult> results = new ArrayList<>();
+		List<Row> chunk = new ArrayList<>();
+
+		// values already used by earlier rows of this file
+		Set<String> seen = new HashSet<>();
+
+		String[] lines = csv.split("\\R");
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i].trim();
+			if (line.isEmpty() || (i == 0 && line.toLowerCase().startsWith("userid"))) {
+				continue; // blank line or header
+			}
+
+			String[] f = line.split(",", -1);
+			if (f.length < 6 || f.length > 7) {
+				results.add(new SubscriberImportResult(i + 1, null, false, 0, "Expected 6 or 7 columns."));
+				continue;
+			}
+			for (int k = 0; k < f.length; k++) {
+				f[k] = f[k].trim();
+			}
+			String vehicleId = (f.length == 7 && !f[6].isEmpty()) ? f[6] : null;
+			Subscriber sub = new Subscriber(0, f[0], f[1], f[2], f[3], f[4], f[5], null);
+
+			String invalid = validate(sub, vehicleId);
+			if (invalid != null) {
+				results.add(new SubscriberImportResult(i + 1, sub.getUsername(), false, 0, invalid));
+				continue;
+			}
+
+			chunk.add(new Row(i + 1, sub, vehicleId, results.size()));
+			results.add(null); // filled in when the chunk is processed
+			if (chunk.size() == CHUNK_SIZE) {
+				processChunk(chunk, seen, results);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			processChunk(chunk, seen, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Checks the required fields of a row (same rules as the registration screen).
+	 *
+	 * @param s         the subscriber from the row
+	 * @param vehicleId the vehicle from the row, or null
+	 * @return an error message, or null if the row is valid
+	 */
+	private String validate(Subscriber s, String vehicleId) {
+		if (!s.getUserId().matches("\\d{9}"))
+			return "ID must be exactly 9 digits.";
+		if (!s.getFirstName().matches("[A-Za-z]{2,20}") || !s.getLastName().matches("[A-Za-z]{2,20}"))
+			return "Names must be 2-20 english letters.";
+		if (!s.getPhoneNum().matches("^05\\d{8}$"))
+			return "Phone must start with 05 and be 10 digits.";
+		if (!s.getEmail().matches("^[\\w.-]+@[\\w.-]+\\.\\w{2,}$"))
+			return "Invalid email format.";
+		if (!s.getUsername().matches("\\w{4,}"))
+			return "Username must be at least 4 alphanumeric characters.";
+		if (vehicleId != null && !vehicleId.matches("\\d{7,10}"))
+			return "Vehicle ID must be 7-10 digits.";
+		return null;
+	}
+
+	/**
+	 * Checks one chunk for duplicates, then inserts the remaining rows.
+	 *
+	 * @param chunk   the parsed rows
+	 * @param seen    values used by earlier rows of the same file
+	 * @param results result list to fill in
+	 */
+	private void processChunk(List<Row> chunk, Set<String> seen, List<SubscriberImportResult> results) {
+		Map<String, Set<String>> taken;
+		try {
+			List<Subscriber> subs = new ArrayList<>();
+			List<String> vehicles = new ArrayList<>();
+			for (Row r : chunk) {
+				subs.add(r.sub);
+				vehicles.add(r.vehicleId);
+			}
+			taken = db.findTakenValues(subs, vehicles);
+		} catch (SQLException e) {
+			System.err.println("[IMPORT] duplicate check failed: " + e.getMessage());
+			for (Row r : chunk) {
+				results.set(r.resultIndex, fail(r, "Database error, try again."));
+			}
+			return;
+		}
+
+		List<Row> accepted = new ArrayList<>();
+		List<SubscriberRegistration> registrations = new ArrayList<>();
+		for (Row r : chunk) {
+			String duplicate = findDuplicate(r, taken, seen);
+			if (duplicate != null) {
+				results.set(r.resultIndex, fail(r, "Duplicate " + duplicate + "."));
+				continue;
+			}
+			try {
+				r.sub.setSubscriberCode(ids.nextSubscriberCode());
+				r.sub.setTagId(ids.nextTagId());
+			} catch (SQLException e) {
+				results.set(r.resultIndex, fail(r, "Could not allocate a subscriber code."));
+				continue;
+			}
+			r.password = Server.generateRandomPassword();
+			accepted.add(r);
+			registrations.add(new SubscriberRegistration(r.sub, r.password, r.vehicleId));
+		}
+		if (accepted.isEmpty()) {
+			return;
+		}
+
+		try {
+			db.registerSubscribers(registrations); // whole chunk in one transaction
+			for (Row r : accepted) {
+				succeed(r, results);
+			}
+		} catch (SQLException e) {
+			// someone registered a conflicting value meanwhile - fall back to one row at a time
+			System.err.println("[IMPORT] batch insert failed, retrying row by row: " + e.getMessage());
+			for (int k = 0; k < accepted.size(); k++) {
+				Row r = accepted.get(k);
+				if (db.registerSubscriber(registrations.get(k))) {
+					succeed(r, results);
+				} else {
+					results.set(r.resultIndex, fail(r, "Could not be registered (duplicate or DB error)."));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the first unique field of the row that is already taken, either in the
+	 * DB or by an earlier row of the same file. Values of a row that passes are
+	 * remembered for the following rows.
+	 *
+	 * @param r     the row
+	 * @param taken values already in the DB, per field
+	 * @param seen  values used by earlier rows of the file
+	 * @return the duplicate field name, or null if none
+	 */
+	private String findDuplicate(Row r, Map<String, Set<String>> taken, Set<String> seen) {
+		String[][] fields = {
+				{ "username", r.sub.getUsername() },
+				{ "email", r.sub.getEmail() },
+				{ "phone", r.sub.getPhoneNum() },
+				{ "id", r.sub.getUserId() },
+				{ "vehicle", r.vehicleId } };
+		for (String[] field : fields) {
+			if (field[1] != null && (taken.get(field[0]).contains(field[1]) || seen.contains(field[0] + ":" + field[1]))) {
+				return field[0];
+			}
+		}
+		for (String[] field : fields) {
+			if (field[1] != null) {
+				seen.add(field[0] + ":" + field[1]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Records a successful row and queues its welcome mail.
+	 *
+	 * @param r       the registered row
+	 * @param results result list to fill in
+	 */
+	private void succeed(Row r, List<SubscriberImportResult> results) {
+		mail.queueEmail(r.sub.getEmail(), Server.welcomeMailBody(r.sub, r.password, r.vehicleId),
+				TypeOfMail.GENERIC_MESSAGE);
+		results.set(r.resultIndex, new SubscriberImportResult(r.lineNumber, r.sub.getUsername(), true,
+				r.sub.getSubscriberCode(), "Registered."));
+	}
+
+	/**
+	 * Builds a failed result for a row.
+	 *
+	 * @param r   the row
+	 * @param msg failure reason
+	 * @return the result
+	 */
+	private SubscriberImportResult fail(Row r, String msg) {
+		return new SubscriberImportResult(r.lineNumber, r.sub.getUsername(), false, 0, msg);
+	}
+
+	/**
+	 * A parsed CSV row waiting to be imported.
+	 */
+	private static class Row {
+
+		/** Line number in the CSV text */
+		final int lineNumber;
+
+		/** Subscriber parsed from the row */
+		final Subscriber sub;
+
+		/** Vehicle parsed from the row, or null */
+		final String vehicleId;
+
+		/** Index of this row's entry in the result list */
+		final int resultIndex;
+
+		/** Temporary password, set once the row is accepted */
+		String password;
+
+		Row(int lineNumber, Subscriber sub, String vehicleId, int resultIndex) {
+			this.lineNumber = lineNumber;
+			this.sub = sub;
+			this.vehicleId = vehicleId;
+			this.resultIndex = resultIndex;
+		}
+	}
+}
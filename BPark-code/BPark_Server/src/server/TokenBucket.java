@@ -0,0 +1,50 @@
+package server;
+
+/**
+ * A token bucket rate limiter. The bucket holds up to {@code burst} tokens and
+ * is refilled continuously at {@code rate} tokens per second; every request
+ * takes one token, and a request that finds the bucket empty is refused. So a
+ * client may send a short burst, but not more than the rate in the long run.
+ */
+public class TokenBucket {
+
+	/** Most tokens the bucket holds */
+	private final double burst;
+
+	/** Tokens added per nanosecond */
+	private final double perNano;
+
+	/** Tokens currently in the bucket */
+	private double tokens;
+
+	/** Time of the last refill (System.nanoTime) */
+	private long refilledAt = System.nanoTime();
+
+	/**
+	 * Creates a full bucket.
+	 *
+	 * @param rate  tokens added per second
+	 * @param burst most tokens the bucket holds
+	 */
+	public TokenBucket(double rate, double burst) {
+		this.burst = Math.max(1, burst);
+		this.perNano = rate / 1e9;
+		this.tokens = this.burst;
+	}
+
+	/**
+	 * Takes a token if there is one.
+	 *
+	 * @return true if the request may go ahead
+	 */
+	public synchronized boolean tryAcquire() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - refilledAt) * perNano);
+		refilledAt = now;
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+}
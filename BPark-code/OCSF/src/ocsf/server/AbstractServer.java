@@ -1 +1 @@
-// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.com package ocsf.server;import java.net.*;import java.util.*;import java.io.*;/*** The <code> AbstractServer </code> class maintains a thread that waits* for connection attempts from clients. When a connection attempt occurs* it creates a new <code> ConnectionToClient </code> instance which* runs as a thread. When a client is thus connected to the* server, the two programs can then exchange <code> Object </code>* instances.<p>** Method <code> handleMessageFromClient </code> must be defined by* a concrete subclass. Several other hook methods may also be* overriden.<p>** Several public service methods are provided to applications that use* this framework, and several hook methods are also available<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)* @see ocsf.server.ConnectionToClient*/public abstract class AbstractServer implements Runnable{  // INSTANCE VARIABLES *********************************************  /**   * The server socket: listens for clients who want to connect.   */  private ServerSocket serverSocket = null;  /**   * The connection listener thread.   */  private Thread connectionListener;  /**   * The port number   */  private int port;  /**   * The server timeout while for accepting connections.   * After timing out, the server will check to see if a command to   * stop the server has been issued; it not it will resume accepting   * connections.   * Set to half a second by default.   */  private int timeout = 500;  /**   * The maximum queue length; i.e. the maximum number of clients that   * can be waiting to connect.   * Set to 10 by default.   */  private int backlog = 10;  /**   * The thread group associated with client threads. Each member of the   * thread group is a <code> ConnectionToClient </code>.   */  private ThreadGroup clientThreadGroup;  /**   * Indicates if the listening thread is ready to stop.  Set to   * false by default.   */  private boolean readyToStop = false;// CONSTRUCTOR ******************************************************  /**   * Constructs a new server.   *   * @param port the port number on which to listen.   */  public AbstractServer(int port)  {    this.port = port;    this.clientThreadGroup =      new ThreadGroup("ConnectionToClient threads")      {        // All uncaught exceptions in connection threads will        // be sent to the clientException callback method.        public void uncaughtException(          Thread thread, Throwable exception)        {          clientException((ConnectionToClient)thread, exception);        }      };  }// INSTANCE METHODS *************************************************  /**   * Begins the thread that waits for new clients.   * If the server is already in listening mode, this   * call has no effect.   *   * @exception IOException if an I/O error occurs   * when creating the server socket.   */  final public void listen() throws IOException  {    if (!isListening())    {      if (serverSocket == null)      {        serverSocket = new ServerSocket(getPort(), backlog);      }      serverSocket.setSoTimeout(timeout);      readyToStop = false;      connectionListener = new Thread(this);      connectionListener.start();    }  }  /**   * Causes the server to stop accepting new connections.   */  final public void stopListening()  {    readyToStop = true;  }  /**   * Closes the server socket and the connections with all clients.   * Any exception thrown while closing a client is ignored.   * If one wishes to catch these exceptions, then clients   * should be individually closed before calling this method.   * The method also stops listening if this thread is running.   * If the server is already closed, this   * call has no effect.   *   * @exception IOException if an I/O error occurs while   * closing the server socket.   */  final synchronized public void close() throws IOException  {    if (serverSocket == null)      return;      stopListening();    try    {      serverSocket.close();    }    finally    {      // Close the client sockets of the already connected clients      Thread[] clientThreadList = getClientConnections();      for (int i=0; i<clientThreadList.length; i++)      {         try         {           ((ConnectionToClient)clientThreadList[i]).close();         }         // Ignore all exceptions when closing clients.         catch(Exception ex) {}      }      serverSocket = null;      serverClosed();    }  }  /**   * Sends a message to every client connected to the server.   * This is merely a utility; a subclass may want to do some checks   * before actually sending messages to all clients.  This method   * can be overriden, but if so it should still perform the general   * function of sending to all clients, perhaps after some kind   * of filtering is done. Any exception thrown while   * sending the message to a particular client is ignored.   *   * @param msg   Object The message to be sent   */  public void sendToAllClients(Object msg)  {    Thread[] clientThreadList = getClientConnections();    for (int i=0; i<clientThreadList.length; i++)    {      try      {        ((ConnectionToClient)clientThreadList[i]).sendToClient(msg);      }      catch (Exception ex) {}    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns true if the server is ready to accept new clients.   *   * @return true if the server is listening.   */  final public boolean isListening()  {    return (connectionListener != null);  }  /**   * Returns an array containing the existing   * client connections. This can be used by   * concrete subclasses to implement messages that do something with   * each connection (e.g. kill it, send a message to it etc.).   * Remember that after this array is obtained, some clients   * in this migth disconnect. New clients can also connect,   * these later will not appear in the array.   *   * @return an array of <code>Thread</code> containing   * <code>ConnectionToClient</code> instances.   */  synchronized final public Thread[] getClientConnections()  {    Thread[] clientThreadList = new      Thread[clientThreadGroup.activeCount()];    clientThreadGroup.enumerate(clientThreadList);    return clientThreadList;  }  /**   * Counts the number of clients currently connected.   *   * @return the number of clients currently connected.   */  final public int getNumberOfClients()  {    return clientThreadGroup.activeCount();  }  /**   * Returns the port number.   *   * @return the port number.   */  final public int getPort()  {    return port;  }  /**   * Sets the port number for the next connection.   * The server must be closed and restarted for the port   * change to be in effect.   *   * @param port the port number.   */  final public void setPort(int port)  {    this.port = port;  }  /**   * Sets the timeout time when accepting connections.   * The default is half a second. This means that stopping the   * server may take up to timeout duration to actually stop.   * The server must be stopped and restarted for the timeout   * change to be effective.   *   * @param timeout the timeout time in ms.   */  final public void setTimeout(int timeout)  {    this.timeout = timeout;  }  /**   * Sets the maximum number of waiting connections accepted by the   * operating system. The default is 20.   * The server must be closed and restarted for the backlog   * change to be in effect.   *   * @param backlog the maximum number of connections.   */  final public void setBacklog(int backlog)  {    this.backlog = backlog;  }// RUN METHOD -------------------------------------------------------  /**   * Runs the listening thread that allows clients to connect.   * Not to be called.   */  final public void run()  {    // call the hook method to notify that the server is starting    serverStarted();    try    {      // Repeatedly waits for a new client connection, accepts it, and      // starts a new thread to handle data exchange.      while(!readyToStop)      {        try        {          // Wait here for new connection attempts, or a timeout          Socket clientSocket = serverSocket.accept();          // When a client is accepted, create a thread to handle          // the data exchange, then add it to thread group          synchronized(this)          {            ConnectionToClient c = new ConnectionToClient(              this.clientThreadGroup, clientSocket, this);          }        }        catch (InterruptedIOException exception)        {          // This will be thrown when a timeout occurs.          // The server will continue to listen if not ready to stop.        }      }      // call the hook method to notify that the server has stopped      serverStopped();    }    catch (IOException exception)    {      if (!readyToStop)      {        // Closing the socket must have thrown a SocketException        listeningException(exception);      }      else      {        serverStopped();      }    }    finally    {      readyToStop = true;      connectionListener = null;    }  }// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------  /**   * Hook method called each time a new client connection is   * accepted. The default implementation does nothing.   * @param client the connection connected to the client.   */  protected void clientConnected(ConnectionToClient client) {}  /**   * Hook method called each time a client disconnects.   * The default implementation does nothing. The method   * may be overridden by subclasses but should remains synchronized.   *   * @param client the connection with the client.   */  synchronized protected void clientDisconnected(    ConnectionToClient client) {}  /**   * Hook method called each time an exception is thrown in a   * ConnectionToClient thread.   * The method may be overridden by subclasses but should remains   * synchronized.   *   * @param client the client that raised the exception.   * @param Throwable the exception thrown.   */  synchronized protected void clientException(    ConnectionToClient client, Throwable exception) {}  /**   * Hook method called when the server stops accepting   * connections because an exception has been raised.   * The default implementation does nothing.   * This method may be overriden by subclasses.   *   * @param exception the exception raised.   */  protected void listeningException(Throwable exception) {}  /**   * Hook method called when the server starts listening for   * connections.  The default implementation does nothing.   * The method may be overridden by subclasses.   */  protected void serverStarted() {}  /**   * Hook method called when the server stops accepting   * connections.  The default implementation   * does nothing. This method may be overriden by subclasses.   */  protected void serverStopped() {}  /**   * Hook method called when the server is clased.   * The default implementation does nothing. This method may be   * overriden by subclasses. When the server is closed while still   * listening, serverStopped() will also be called.   */  protected void serverClosed() {}  /**   * Handles a command sent from one client to the server.   * This MUST be implemented by subclasses, who should respond to   * messages.   * This method is called by a synchronized method so it is also   * implcitly synchronized.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  protected abstract void handleMessageFromClient(    Object msg, ConnectionToClient client);// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Receives a command sent from the client to the server.   * Called by the run method of <code>ConnectionToClient</code>   * instances that are watching for messages coming from the server   * This method is synchronized to ensure that whatever effects it has   * do not conflict with work being done by other threads. The method   * simply calls the <code>handleMessageFromClient</code> slot method.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  final synchronized void receiveMessageFromClient(    Object msg, ConnectionToClient client)  {    this.handleMessageFromClient(msg, client);  }}// End of AbstractServer Class
\ No newline at end of file
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.com package ocsf.server;import java.net.*;import java.util.*;import java.util.function.*;import java.io.*;/*** The <code> AbstractServer </code> class maintains a thread that waits* for connection attempts from clients. When a connection attempt occurs* it creates a new <code> ConnectionToClient </code> instance which* runs as a thread. When a client is thus connected to the* server, the two programs can then exchange <code> Object </code>* instances.<p>** Method <code> handleMessageFromClient </code> must be defined by* a concrete subclass. Several other hook methods may also be* overriden.<p>** Several public service methods are provided to applications that use* this framework, and several hook methods are also available<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)* @see ocsf.server.ConnectionToClient*/public abstract class AbstractServer implements Runnable{  // CONSTANTS ******************************************************  /**  * How often, in milliseconds, the reaper looks for idle clients.  */  private static final long REAPER_PERIOD_MS = 1000;  // INSTANCE VARIABLES *********************************************  /**   * The server socket: listens for clients who want to connect.   */  private ServerSocket serverSocket = null;  /**   * The connection listener thread.   */  private Thread connectionListener;  /**   * The port number   */  private int port;  /**   * The server timeout while for accepting connections.   * After timing out, the server will check to see if a command to   * stop the server has been issued; it not it will resume accepting   * connections.   * Set to half a second by default.   */  private int timeout = 500;  /**   * The maximum queue length; i.e. the maximum number of clients that   * can be waiting to connect.   * Set to 10 by default.   */  private int backlog = 10;  /**  * Whether the server socket is opened with SO_REUSEPORT, so that  * another server process can listen on the same port at the same  * time (e.g. a new version taking over from the running one).  */  private boolean reusePort = false;  /**   * The thread group associated with client threads. Each member of the   * thread group is a <code> ConnectionToClient </code>.   */  private ThreadGroup clientThreadGroup;  /**  * The thread group of the threads that write queued messages to  * the clients. Kept apart from the connection threads so that  * <code>getClientConnections</code> only returns connections.  */  private ThreadGroup writerThreadGroup;  /**  * The largest number of messages queued for a single client.  */  private int outboundCapacity = 256;  /**  * What a connection does when its outbound queue is full.  */  private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;  /**  * Time in milliseconds after which a silent client is disconnected,  * or 0 to keep silent clients forever. Clients send heartbeats, so  * only a dead client or network stays silent this long.  */  private int idleTimeout = 30000;  /**  * Size in bytes from which messages are compressed for the clients  * that accept compression, or 0 to never compress.  */  private int compressionThreshold = 0;  /**  * Thread that disconnects idle clients, or null when not listening.  */  private Timer reaper;  /**   * Indicates if the listening thread is ready to stop.  Set to   * false by default.   */  private boolean readyToStop = false;// CONSTRUCTOR ******************************************************  /**   * Constructs a new server.   *   * @param port the port number on which to listen.   */  public AbstractServer(int port)  {    this.port = port;    this.clientThreadGroup =      new ThreadGroup("ConnectionToClient threads")      {        // All uncaught exceptions in connection threads will        // be sent to the clientException callback method.        public void uncaughtException(          Thread thread, Throwable exception)        {          clientException((ConnectionToClient)thread, exception);        }      };    this.writerThreadGroup =      new ThreadGroup("ConnectionToClient writer threads");  }// INSTANCE METHODS *************************************************  /**   * Begins the thread that waits for new clients.   * If the server is already in listening mode, this   * call has no effect.   *   * @exception IOException if an I/O error occurs   * when creating the server socket.   */  final public void listen() throws IOException  {    if (!isListening())    {      if (serverSocket == null)      {        serverSocket = openServerSocket();      }      serverSocket.setSoTimeout(timeout);      readyToStop = false;      connectionListener = new Thread(this);      connectionListener.start();    }    startReaper();  }  /**   * Creates the server socket, bound to the port, with SO_REUSEPORT   * when it is requested and the platform supports it.   *   * @return the bound server socket.   * @exception IOException if the socket can not be created or bound.   */  private ServerSocket openServerSocket() throws IOException  {    ServerSocket socket = new ServerSocket();    try    {      if (reusePort && socket.supportedOptions().contains(        StandardSocketOptions.SO_REUSEPORT))      {        socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);      }      socket.bind(new InetSocketAddress(getPort()), backlog);      return socket;    }    catch (IOException ex)    {      socket.close();      throw ex;    }  }  /**   * Causes the server to stop accepting new connections.   */  final public void stopListening()  {    readyToStop = true;  }  /**   * Stops accepting new connections and closes the server socket,   * but keeps the connections with the clients already connected.   * Once the socket is closed, new clients reach another process   * listening on the same port, if there is one (see   * <code>setReusePort</code>). Use <code>close</code> afterwards to   * close the remaining connections.   *   * @exception IOException if an I/O error occurs while   * closing the server socket.   */  final synchronized public void closeServerSocket() throws IOException  {    if (serverSocket == null)      return;    stopListening();    try    {      serverSocket.close();    }    finally    {      serverSocket = null;    }  }  /**   * Closes the server socket and the connections with all clients.   * Any exception thrown while closing a client is ignored.   * If one wishes to catch these exceptions, then clients   * should be individually closed before calling this method.   * The method also stops listening if this thread is running.   * If the server is already closed, this   * call has no effect.   *   * @exception IOException if an I/O error occurs while   * closing the server socket.   */  final synchronized public void close() throws IOException  {    if (serverSocket == null && getNumberOfClients() == 0)      return;      stopListening();    try    {      if (serverSocket != null)        serverSocket.close();    }    finally    {      // Close the client sockets of the already connected clients,      // giving all of them together one chance to send what is queued      long drainDeadline =        System.currentTimeMillis() + ConnectionToClient.CLOSE_DRAIN_MS;      Thread[] clientThreadList = getClientConnections();      for (int i=0; i<clientThreadList.length; i++)      {         try         {           ((ConnectionToClient)clientThreadList[i]).close(drainDeadline);         }         // Ignore all exceptions when closing clients.         catch(Exception ex) {}      }      serverSocket = null;      stopReaper();      serverClosed();    }  }  /**   * Sends a message to every client connected to the server.   * This is merely a utility; a subclass may want to do some checks   * before actually sending messages to all clients.  This method   * can be overriden, but if so it should still perform the general   * function of sending to all clients, perhaps after some kind   * of filtering is done. Any exception thrown while   * sending the message to a particular client is ignored.   * The message is serialized only once, whatever the number of   * clients (see <code>sendToClients</code>).   *   * @param msg   Object The message to be sent   */  public void sendToAllClients(Object msg)  {    try    {      sendToClients(msg, null);    }    catch (IOException ex) {}  }  /**   * Sends a message to the connected clients accepted by a filter.   * The message is serialized once into an <code>EncodedMessage</code>   * and the same bytes are queued for every client, so the cost of   * encoding does not grow with the number of clients. Any exception   * thrown while sending the message to a particular client is   * ignored.   *   * @param msg    the message to be sent.   * @param filter selects the clients to send to, or null for all.   * @return the number of clients the message was queued for.   * @exception IOException if the message can not be serialized.   */  public int sendToClients(Object msg, Predicate<ConnectionToClient> filter)    throws IOException  {    EncodedMessage encoded = msg instanceof EncodedMessage ?      (EncodedMessage)msg : EncodedMessage.encode(msg);    Thread[] clientThreadList = getClientConnections();    int sent = 0;    for (int i=0; i<clientThreadList.length; i++)    {      try      {        ConnectionToClient client = (ConnectionToClient)clientThreadList[i];        if (filter == null || filter.test(client))        {          client.sendToClient(encoded);          sent++;        }      }      catch (Exception ex) {}    }    return sent;  }  /**   * Sends a message to the connected clients subscribed to a topic.   * The message is serialized only once.   *   * @param msg   the message to be sent.   * @param topic the topic.   * @return the number of clients the message was queued for.   * @exception IOException if the message can not be serialized.   * @see ConnectionToClient#subscribe(String)   */  public int sendToTopic(Object msg, final String topic) throws IOException  {    return sendToClients(msg, new Predicate<ConnectionToClient>()      {        public boolean test(ConnectionToClient client)        {          return client.isSubscribed(topic);        }      });  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns true if the server is ready to accept new clients.   *   * @return true if the server is listening.   */  final public boolean isListening()  {    return (connectionListener != null);  }  /**   * Returns an array containing the existing   * client connections. This can be used by   * concrete subclasses to implement messages that do something with   * each connection (e.g. kill it, send a message to it etc.).   * Remember that after this array is obtained, some clients   * in this migth disconnect. New clients can also connect,   * these later will not appear in the array.   *   * @return an array of <code>Thread</code> containing   * <code>ConnectionToClient</code> instances.   */  synchronized final public Thread[] getClientConnections()  {    Thread[] clientThreadList = new      Thread[clientThreadGroup.activeCount()];    clientThreadGroup.enumerate(clientThreadList);    return clientThreadList;  }  /**   * Counts the number of clients currently connected.   *   * @return the number of clients currently connected.   */  final public int getNumberOfClients()  {    return clientThreadGroup.activeCount();  }  /**   * Returns the total number of messages waiting to be written to   * all connected clients.   *   * @return the sum of the outbound queue depths.   */  final public int getOutboundQueueDepth()  {    Thread[] clientThreadList = getClientConnections();    int depth = 0;    for (int i=0; i<clientThreadList.length; i++)    {      if (clientThreadList[i] != null)        depth += ((ConnectionToClient)clientThreadList[i]).getQueueDepth();    }    return depth;  }  /**   * Returns the largest number of messages queued for one client.   *   * @return the outbound queue capacity.   */  final public int getOutboundCapacity()  {    return outboundCapacity;  }  /**   * Sets the largest number of messages queued for one client.   * Only applies to clients that connect afterwards.   *   * @param outboundCapacity the outbound queue capacity (at least 1).   */  final public void setOutboundCapacity(int outboundCapacity)  {    this.outboundCapacity = Math.max(1, outboundCapacity);  }  /**   * Returns what a connection does when its outbound queue is full.   *   * @return the overflow policy.   */  final public OverflowPolicy getOverflowPolicy()  {    return overflowPolicy;  }  /**   * Sets what a connection does when its outbound queue is full.   * The default is DISCONNECT.   *   * @param overflowPolicy the overflow policy.   */  final public void setOverflowPolicy(OverflowPolicy overflowPolicy)  {    this.overflowPolicy = overflowPolicy;  }  /**   * Returns the time after which a silent client is disconnected.   *   * @return the idle timeout in milliseconds, 0 if disabled.   */  final public int getIdleTimeout()  {    return idleTimeout;  }  /**   * Sets the time after which a client that sent nothing, not even a   * heartbeat, is disconnected. Should be a few times the heartbeat   * interval of the clients. The default is 30 seconds.   *   * @param idleTimeout the idle timeout in milliseconds, 0 to keep   *    silent clients.   */  final public void setIdleTimeout(int idleTimeout)  {    this.idleTimeout = Math.max(0, idleTimeout);  }  /**   * Returns the size from which messages are compressed.   *   * @return the threshold in bytes, 0 if compression is disabled.   */  final public int getCompressionThreshold()  {    return compressionThreshold;  }  /**   * Sets the size (serialized) from which messages are compressed for   * clients that accept compression. Smaller messages are not worth   * the time and are sent as they are. Only applies to clients that   * connect afterwards. Compression is disabled by default.   *   * @param compressionThreshold the threshold in bytes, 0 to disable   *    compression.   */  final public void setCompressionThreshold(int compressionThreshold)  {    this.compressionThreshold = Math.max(0, compressionThreshold);  }  /**   * Returns the port number.   *   * @return the port number.   */  final public int getPort()  {    return port;  }  /**   * Sets the port number for the next connection.   * The server must be closed and restarted for the port   * change to be in effect.   *   * @param port the port number.   */  final public void setPort(int port)  {    this.port = port;  }  /**   * Sets the timeout time when accepting connections.   * The default is half a second. This means that stopping the   * server may take up to timeout duration to actually stop.   * The server must be stopped and restarted for the timeout   * change to be effective.   *   * @param timeout the timeout time in ms.   */  final public void setTimeout(int timeout)  {    this.timeout = timeout;  }  /**   * Sets the maximum number of waiting connections accepted by the   * operating system. The default is 20.   * The server must be closed and restarted for the backlog   * change to be in effect.   *   * @param backlog the maximum number of connections.   */  final public void setBacklog(int backlog)  {    this.backlog = backlog;  }  /**   * Sets whether the server socket is opened with SO_REUSEPORT, so   * that two server processes may listen on the same port while one   * hands over to the other. Both processes must set it. Ignored on   * platforms without SO_REUSEPORT. The server must be closed and   * restarted for the change to be in effect.   *   * @param reusePort true to share the port.   */  final public void setReusePort(boolean reusePort)  {    this.reusePort = reusePort;  }// RUN METHOD -------------------------------------------------------  /**   * Runs the listening thread that allows clients to connect.   * Not to be called.   */  final public void run()  {    // call the hook method to notify that the server is starting    serverStarted();    try    {      // Repeatedly waits for a new client connection, accepts it, and      // starts a new thread to handle data exchange.      while(!readyToStop)      {        try        {          // Wait here for new connection attempts, or a timeout          Socket clientSocket = serverSocket.accept();          // When a client is accepted, create a thread to handle          // the data exchange, then add it to thread group          synchronized(this)          {            ConnectionToClient c = new ConnectionToClient(              this.clientThreadGroup, clientSocket, this);          }        }        catch (InterruptedIOException exception)        {          // This will be thrown when a timeout occurs.          // The server will continue to listen if not ready to stop.        }      }      // call the hook method to notify that the server has stopped      serverStopped();    }    catch (IOException exception)    {      if (!readyToStop)      {        // Closing the socket must have thrown a SocketException        listeningException(exception);      }      else      {        serverStopped();      }    }    finally    {      readyToStop = true;      connectionListener = null;    }  }// METHODS DESIGNED TO BE OVERRIDDEN BY CONCRETE SUBCLASSES ---------  /**   * Hook method called each time a new client connection is   * accepted. The default implementation does nothing.   * @param client the connection connected to the client.   */  protected void clientConnected(ConnectionToClient client) {}  /**   * Hook method called each time a client disconnects.   * The default implementation does nothing. The method   * may be overridden by subclasses but should remains synchronized.   *   * @param client the connection with the client.   */  synchronized protected void clientDisconnected(    ConnectionToClient client) {}  /**   * Hook method called each time an exception is thrown in a   * ConnectionToClient thread.   * The method may be overridden by subclasses but should remains   * synchronized.   *   * @param client the client that raised the exception.   * @param Throwable the exception thrown.   */  synchronized protected void clientException(    ConnectionToClient client, Throwable exception) {}  /**   * Hook method called when the server stops accepting   * connections because an exception has been raised.   * The default implementation does nothing.   * This method may be overriden by subclasses.   *   * @param exception the exception raised.   */  protected void listeningException(Throwable exception) {}  /**   * Hook method called when a client is disconnected because it was   * silent for longer than the idle timeout. clientDisconnected is   * called right after. The default implementation does nothing.   * The method may be overridden by subclasses.   *   * @param client the connection of the silent client.   */  protected void clientTimedOut(ConnectionToClient client) {}  /**   * Hook method called when a message does not fit in the outbound   * queue of a client. The default implementation does nothing.   * The method may be overridden by subclasses, e.g. to log it.   *   * @param client the connection whose queue is full.   * @param msg the message that did not fit.   * @param action what was done: DROP (the message was discarded),   *   COALESCE (it replaced a queued message) or DISCONNECT.   */  protected void outboundOverflow(    ConnectionToClient client, Object msg, OverflowPolicy action) {}  /**   * Returns the coalesce key of a message. Under the COALESCE policy,   * a message that does not fit in a full queue replaces the newest   * queued message with an equal key, which is only right for   * messages that make older ones obsolete. The default   * implementation returns null (no message may be coalesced).   * The method may be overridden by subclasses. It is called with   * the queue locked, so it must be quick and must not send.   *   * @param msg a message sent to a client.   * @return the coalesce key, or null.   */  protected Object coalesceKey(Object msg)  {    return null;  }  /**   * Hook method called for every message sent to a client, on the   * thread that sends it and before it is queued (also when the   * connection turns out to be closed). The default   * implementation does nothing. The method may be overridden by   * subclasses, e.g. to record the responses to a request. It must be   * quick and must not send.   *   * @param client the connection the message is sent to.   * @param msg the message.   */  protected void messageSentToClient(ConnectionToClient client, Object msg) {}  /**   * Hook method called when the server starts listening for   * connections.  The default implementation does nothing.   * The method may be overridden by subclasses.   */  protected void serverStarted() {}  /**   * Hook method called when the server stops accepting   * connections.  The default implementation   * does nothing. This method may be overriden by subclasses.   */  protected void serverStopped() {}  /**   * Hook method called when the server is clased.   * The default implementation does nothing. This method may be   * overriden by subclasses. When the server is closed while still   * listening, serverStopped() will also be called.   */  protected void serverClosed() {}  /**   * Handles a command sent from one client to the server.   * This MUST be implemented by subclasses, who should respond to   * messages.   * This method is called by a synchronized method so it is also   * implcitly synchronized.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  protected abstract void handleMessageFromClient(    Object msg, ConnectionToClient client);// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Starts the thread that disconnects idle clients, once a second,   * unless it is already running.   */  synchronized private void startReaper()  {    if (reaper != null)      return;    reaper = new Timer("ConnectionToClient reaper", true);    reaper.schedule(new TimerTask()      {        public void run()        {          reapIdleClients();        }      }, REAPER_PERIOD_MS, REAPER_PERIOD_MS);  }  /**   * Stops the thread that disconnects idle clients.   */  synchronized private void stopReaper()  {    if (reaper != null)      reaper.cancel();    reaper = null;  }  /**   * Disconnects the clients that were silent for longer than the   * idle timeout. Runs in the reaper thread.   */  private void reapIdleClients()  {    int timeout = idleTimeout;    if (timeout <= 0)      return;    Thread[] clientThreadList = getClientConnections();    for (int i=0; i<clientThreadList.length; i++)    {      ConnectionToClient client = (ConnectionToClient)clientThreadList[i];      if (client != null && client.getIdleTime() > timeout)        client.reap();    }  }  /**   * Returns the thread group of the writer threads of the   * connections.   *   * @return the writer thread group.   */  final ThreadGroup getWriterThreadGroup()  {    return writerThreadGroup;  }  /**   * Receives a command sent from the client to the server.   * Called by the run method of <code>ConnectionToClient</code>   * instances that are watching for messages coming from the server   * This method is synchronized to ensure that whatever effects it has   * do not conflict with work being done by other threads. The method   * simply calls the <code>handleMessageFromClient</code> slot method.   *   * @param msg   the message sent.   * @param client the connection connected to the client that   *  sent the message.   */  final synchronized void receiveMessageFromClient(    Object msg, ConnectionToClient client)  {    this.handleMessageFromClient(msg, client);  }}// End of AbstractServer Class
\ No newline at end of file
@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.util.zip.*;/*** A serialized message compressed with the deflate codec at its* fastest level. Large responses (lists of subscribers, parkings,* histories) consist mostly of the same class and field names and* repeated strings, so they shrink several times. Only sent to* clients that accept compression, and only for messages above the* server's threshold.<p>** <code>AbstractClient</code> decompresses these messages on arrival,* so <code>handleMessageFromServer</code> receives the original* object.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see AbstractServer#setCompressionThreshold(int)*/public final class CompressedMessage implements Serializable{// INSTANCE VARIABLES ***********************************************  /**  * Version of the serialized form.  */  private static final long serialVersionUID = 1L;  /**  * The deflated bytes.  */  private final byte[] data;  /**  * Size of the serialized message before compression.  */  private final int length;// CONSTRUCTORS *****************************************************  /**   * Wraps bytes produced by <code>compress</code>.   *   * @param data the deflated bytes.   * @param length the size before compression.   */  private CompressedMessage(byte[] data, int length)  {    this.data = data;    this.length = length;  }// CLASS METHODS ****************************************************  /**   * Compresses a serialized message.   *   * @param bytes the serialized message.   * @param deflater the deflater to use; it is reset first, so one   *    instance can compress any number of messages (but only from one   *    thread at a time).   * @return the compressed message, or null if compressing does not   *    make the message smaller.   */  static CompressedMessage compress(byte[] bytes, Deflater deflater)  {    deflater.reset();    deflater.setInput(bytes);    deflater.finish();    ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4);    byte[] chunk = new byte[8192];    while (!deflater.finished())    {      int n = deflater.deflate(chunk);      buffer.write(chunk, 0, n);      if (buffer.size() >= bytes.length)        return null; // does not compress    }    return new CompressedMessage(buffer.toByteArray(), bytes.length);  }// INSTANCE METHODS *************************************************  /**   * Decompresses and rebuilds the original message.   *   * @param inflater the inflater to use; it is reset first, so one   *    instance can decompress any number of messages (but only from   *    one thread at a time).   * @return a copy of the message that was compressed.   * @exception IOException if the data is damaged or can not be read.   * @exception ClassNotFoundException if a class of the message is   *    unknown here.   */  public Object decode(Inflater inflater)    throws IOException, ClassNotFoundException  {    byte[] bytes = new byte[length];    inflater.reset();    inflater.setInput(data);    try    {      int n = 0;      while (n < length && !inflater.finished())      {        int read = inflater.inflate(bytes, n, length - n);        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))          break;        n += read;      }      if (n != length)        throw new StreamCorruptedException("compressed message truncated");    }    catch (DataFormatException ex)    {      throw new StreamCorruptedException("compressed message damaged: "        + ex.getMessage());    }    ObjectInputStream in =      new ObjectInputStream(new ByteArrayInputStream(bytes));    try    {      return in.readObject();    }    finally    {      in.close();    }  }  /**   * Returns a string representation of the message.   *   * @return the sizes before and after compression.   */  public String toString()  {    return "compressed message (" + length + " -> " + data.length + " bytes)";  }}// End of CompressedMessage class
\ No newline at end of file
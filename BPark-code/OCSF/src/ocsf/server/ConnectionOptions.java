@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;/*** The options a client offers when it connects. <code>AbstractClient</code>* sends this frame right after opening the connection, and* <code>ConnectionToClient</code> consumes it; it never reaches the* message handlers. The server uses an option only if it enables it* too.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see AbstractServer#setCompressionThreshold(int)*/public final class ConnectionOptions implements Serializable{  /**  * Version of the serialized form.  */  private static final long serialVersionUID = 1L;  /**  * True if the client can read <code>CompressedMessage</code>s.  */  private final boolean acceptsCompression;  /**   * Constructs the options of a client.   *   * @param acceptsCompression true if the client can read compressed   *    messages.   */  public ConnectionOptions(boolean acceptsCompression)  {    this.acceptsCompression = acceptsCompression;  }  /**   * @return true if the client can read compressed messages.   */  public boolean acceptsCompression()  {    return acceptsCompression;  }  /**   * Returns a string representation of the options.   *   * @return the options.   */  public String toString()  {    return "options (compression " + (acceptsCompression ? "on" : "off") + ")";  }}// End of ConnectionOptions class
\ No newline at end of file
@@ -1 +1 @@
-// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.net.*;import java.util.*;/*** An instance of this class is created by the server when a client* connects. It accepts messages coming from the client and is* responsible for sending data to the client since the socket is* private to this class. The AbstractServer contains a set of* instances of this class and is responsible for adding and deleting* them.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)*/public class ConnectionToClient extends Thread{// INSTANCE VARIABLES ***********************************************  /**  * A reference to the Server that created this instance.  */  private AbstractServer server;  /**  * Sockets are used in the operating system as channels  * of communication between two processes.  * @see java.net.Socket  */  private Socket clientSocket;  /**  * Stream used to read from the client.  */  private ObjectInputStream input;  /**  * Stream used to write to the client.  */  private ObjectOutputStream output;  /**  * Indicates if the thread is ready to stop. Set to true when closing  * of the connection is initiated.  */  private boolean readyToStop;  /**   * Map to save information about the client such as its login ID.   * The initial size of the map is small since it is not expected   * that concrete servers will want to store many different types of   * information about each client. Used by the setInfo and getInfo   * methods.   */  private HashMap savedInfo = new HashMap(10);// CONSTRUCTORS *****************************************************  /**   * Constructs a new connection to a client.   *   * @param group the thread group that contains the connections.   * @param clientSocket contains the client's socket.   * @param server a reference to the server that created   *        this instance   * @exception IOException if an I/O error occur when creating   *        the connection.   */  ConnectionToClient(ThreadGroup group, Socket clientSocket,    AbstractServer server) throws IOException  {    super(group,(Runnable)null);    // Initialize variables    this.clientSocket = clientSocket;    this.server = server;    clientSocket.setSoTimeout(0); // make sure timeout is infinite    //Initialize the objects streams    try    {      input = new ObjectInputStream(clientSocket.getInputStream());      output = new ObjectOutputStream(clientSocket.getOutputStream());    }    catch (IOException ex)    {      try      {        closeAll();      }      catch (Exception exc) { }      throw ex;  // Rethrow the exception.    }    readyToStop = false;    start(); // Start the thread waits for data from the socket  }// INSTANCE METHODS *************************************************  /**   * Sends an object to the client.   *   * @param msg the message to be sent.   * @exception IOException if an I/O error occur when sending the   *    message.   */  final public void sendToClient(Object msg) throws IOException  {    if (clientSocket == null || output == null)      throw new SocketException("socket does not exist");    output.writeObject(msg);  }  /**   * Closes the client.   * If the connection is already closed, this   * call has no effect.   *   * @exception IOException if an error occurs when closing the socket.   */  final public void close() throws IOException  {    readyToStop = true; // Set the flag that tells the thread to stop    try    {      closeAll();    }    finally    {      server.clientDisconnected(this);    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns the address of the client.   *   * @return the client's Internet address.   */  final public InetAddress getInetAddress()  {    return clientSocket == null ? null : clientSocket.getInetAddress();  }  /**   * Returns a string representation of the client.   *   * @return the client's description.   */  public String toString()  {    return clientSocket == null ? null :      clientSocket.getInetAddress().getHostName()        +" (" + clientSocket.getInetAddress().getHostAddress() + ")";  }  /**   * Saves arbitrary information about this client. Designed to be   * used by concrete subclasses of AbstractServer. Based on a hash map.   *   * @param infoType   identifies the type of information   * @param info       the information itself.   */  public void setInfo(String infoType, Object info)  {    savedInfo.put(infoType, info);  }  /**   * Returns information about the client saved using setInfo.   * Based on a hash map.   *   * @param infoType   identifies the type of information   */  public Object getInfo(String infoType)  {    return savedInfo.get(infoType);  }// RUN METHOD -------------------------------------------------------  /**   * Constantly reads the client's input stream.   * Sends all objects that are read to the server.   * Not to be called.   */  final public void run()  {    server.clientConnected(this);    // This loop reads the input stream and responds to messages    // from clients    try    {      // The message from the client      Object msg;      while (!readyToStop)      {        // This block waits until it reads a message from the client        // and then sends it for handling by the server        msg = input.readObject();        server.receiveMessageFromClient(msg, this);      }    }    catch (Exception exception)    {      if (!readyToStop)      {        try        {          closeAll();        }        catch (Exception ex) { }        server.clientException(this, exception);      }    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Closes all connection to the server.   *   * @exception IOException if an I/O error occur when closing the   *     connection.   */  private void closeAll() throws IOException  {    try    {      // Close the socket      if (clientSocket != null)        clientSocket.close();      // Close the output stream      if (output != null)        output.close();      // Close the input stream      if (input != null)        input.close();    }    finally    {      // Set the streams and the sockets to NULL no matter what      // Doing so allows, but does not require, any finalizers      // of these objects to reclaim system resources if and      // when they are garbage collected.      output = null;      input = null;      clientSocket = null;    }  }  /**   * This method is called by garbage collection.   */  protected void finalize()  {    try    {      closeAll();    }    catch(IOException e) {}  }}// End of ConnectionToClient class
\ No newline at end of file
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.net.*;import java.util.*;import java.util.zip.*;/*** An instance of this class is created by the server when a client* connects. It accepts messages coming from the client and is* responsible for sending data to the client since the socket is* private to this class. The AbstractServer contains a set of* instances of this class and is responsible for adding and deleting* them.<p>** Messages to the client are queued and written by a separate writer* thread, so a client that reads slowly never blocks the thread that* sends to it.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @author Dr Robert Lagani&egrave;re* @author Dr Timothy C. Lethbridge* @author Fran&ccedil;ois B&eacute;langer* @author Paul Holden* @version February 2001 (2.12)*/public class ConnectionToClient extends Thread{// CONSTANTS *******************************************************  /**  * Longest time, in milliseconds, <code>close</code> waits for the  * queued messages to be written before closing the socket.  */  static final long CLOSE_DRAIN_MS = 2000;// INSTANCE VARIABLES ***********************************************  /**  * A reference to the Server that created this instance.  */  private AbstractServer server;  /**  * Sockets are used in the operating system as channels  * of communication between two processes.  * @see java.net.Socket  */  private Socket clientSocket;  /**  * Stream used to read from the client.  */  private ObjectInputStream input;  /**  * Stream used to write to the client.  */  private ObjectOutputStream output;  /**  * Messages waiting to be written to the client.  */  private OutboundQueue outbound;  /**  * Thread that writes the queued messages to the output stream.  */  private Thread writer;  /**  * Time (as in currentTimeMillis) the last message or heartbeat  * arrived from the client.  */  private volatile long lastReceived = System.currentTimeMillis();  /**  * Set while a message of the client is being handled (or waits for  * the server to handle it), so the client is not reaped as idle.  */  private volatile boolean busy = false;  /**  * Set when the client accepts compression and the server enables it;  * messages are then sent serialized, and compressed above the  * server's threshold.  */  private volatile boolean compress = false;  /**  * Indicates if the thread is ready to stop. Set to true when closing  * of the connection is initiated.  */  private boolean readyToStop;  /**   * Map to save information about the client such as its login ID.   * The initial size of the map is small since it is not expected   * that concrete servers will want to store many different types of   * information about each client. Used by the setInfo and getInfo   * methods. Synchronized, since broadcasts read it from other   * threads than the one handling the client's messages.   */  private Map<String, Object> savedInfo =    Collections.synchronizedMap(new HashMap<String, Object>(10));  /**   * Topics the client is subscribed to. Used by the subscribe and   * isSubscribed methods and by <code>AbstractServer.sendToTopic</code>.   */  private Set<String> topics =    Collections.synchronizedSet(new HashSet<String>());// CONSTRUCTORS *****************************************************  /**   * Constructs a new connection to a client.   *   * @param group the thread group that contains the connections.   * @param clientSocket contains the client's socket.   * @param server a reference to the server that created   *        this instance   * @exception IOException if an I/O error occur when creating   *        the connection.   */  ConnectionToClient(ThreadGroup group, Socket clientSocket,    AbstractServer server) throws IOException  {    super(group,(Runnable)null);    // Initialize variables    this.clientSocket = clientSocket;    this.server = server;    clientSocket.setSoTimeout(0); // make sure timeout is infinite    //Initialize the objects streams    try    {      input = new ObjectInputStream(clientSocket.getInputStream());      output = new ObjectOutputStream(clientSocket.getOutputStream());    }    catch (IOException ex)    {      try      {        closeAll();      }      catch (Exception exc) { }      throw ex;  // Rethrow the exception.    }    readyToStop = false;    outbound = new OutboundQueue(server, server.getOutboundCapacity());    writer = new Thread(server.getWriterThreadGroup(), new Runnable()      {        public void run()        {          writeQueued();        }      }, "ConnectionToClient writer " + clientSocket.getInetAddress().getHostAddress());    writer.setDaemon(true);    writer.start(); // Start the thread that writes queued messages    start(); // Start the thread waits for data from the socket  }// INSTANCE METHODS *************************************************  /**   * Sends an object to the client. The object is queued and written   * by the writer thread of this connection, so this method returns   * without waiting for the client. When the queue is full, the   * server's overflow policy decides what happens to the message.   * The server's <code>messageSentToClient</code> hook is called   * first, on the sending thread (even if the connection is closed).   *   * @param msg the message to be sent.   * @exception IOException if the connection is closed, or closes   *    because the queue is full (DISCONNECT policy).   */  final public void sendToClient(Object msg) throws IOException  {    server.messageSentToClient(this, msg);    if (clientSocket == null || output == null)      throw new SocketException("socket does not exist");    if (outbound.offer(msg))      return;    OverflowPolicy policy = server.getOverflowPolicy();    if (policy == OverflowPolicy.DISCONNECT)    {      server.outboundOverflow(this, msg, policy);      abort();      throw new SocketException("outbound queue full, connection closed");    }    if (policy == OverflowPolicy.COALESCE)    {      Object key = server.coalesceKey(msg);      if (key != null && outbound.coalesce(key, msg))      {        server.outboundOverflow(this, msg, policy);        return;      }    }    outbound.countDropped();    server.outboundOverflow(this, msg, OverflowPolicy.DROP);  }  /**   * Sends an object to the client, waiting for room in the outbound   * queue while it is full instead of applying the overflow policy.   * Meant for senders that can slow down to the pace of the client,   * such as a large result sent in chunks: the queue never grows past   * its capacity, and no message is dropped or coalesced. The   * server's <code>messageSentToClient</code> hook is called first.   *   * @param msg the message to be sent.   * @param timeoutMs the longest time to wait for room.   * @exception IOException if the connection is closed, or the client   *    read nothing for timeoutMs (the connection is then closed).   */  final public void sendToClientWaiting(Object msg, long timeoutMs)    throws IOException  {    server.messageSentToClient(this, msg);    if (clientSocket == null || output == null)      throw new SocketException("socket does not exist");    try    {      if (outbound.offer(msg, timeoutMs))        return;    }    catch (InterruptedException ex)    {      Thread.currentThread().interrupt();      throw new InterruptedIOException(        "interrupted while waiting for the outbound queue");    }    server.outboundOverflow(this, msg, OverflowPolicy.DISCONNECT);    abort();    throw new SocketException(      "outbound queue full for " + timeoutMs + " ms, connection closed");  }  /**   * Closes the client.   * The messages already queued are written first, for at most   * CLOSE_DRAIN_MS milliseconds.   * If the connection is already closed, this   * call has no effect.   *   * @exception IOException if an error occurs when closing the socket.   */  final public void close() throws IOException  {    close(System.currentTimeMillis() + CLOSE_DRAIN_MS);  }  /**   * Closes the client once the queued messages are written or the   * given time has passed. Used by the server to close all its   * clients against a single deadline.   *   * @param drainDeadline time (as in currentTimeMillis) after which   *    the queued messages are no longer waited for.   * @exception IOException if an error occurs when closing the socket.   */  final void close(long drainDeadline) throws IOException  {    readyToStop = true; // Set the flag that tells the thread to stop    try    {      outbound.close();      if (Thread.currentThread() != writer)      {        long left = drainDeadline - System.currentTimeMillis();        if (left > 0)          writer.join(left);      }    }    catch (InterruptedException ex)    {      Thread.currentThread().interrupt();    }    try    {      closeAll();    }    finally    {      server.clientDisconnected(this);    }  }// ACCESSING METHODS ------------------------------------------------  /**   * Returns the address of the client.   *   * @return the client's Internet address.   */  final public InetAddress getInetAddress()  {    return clientSocket == null ? null : clientSocket.getInetAddress();  }  /**   * Returns the number of messages waiting to be written to the   * client.   *   * @return the current depth of the outbound queue.   */  final public int getQueueDepth()  {    return outbound.getDepth();  }  /**   * Returns the largest number of messages that waited for the   * client at the same time.   *   * @return the peak depth of the outbound queue.   */  final public int getPeakQueueDepth()  {    return outbound.getPeakDepth();  }  /**   * Returns the number of messages dropped because the outbound   * queue was full.   *   * @return the number of dropped messages.   */  final public long getDroppedCount()  {    return outbound.getDropped();  }  /**   * Returns the number of queued messages that were replaced by a   * newer message with the same coalesce key.   *   * @return the number of coalesced messages.   */  final public long getCoalescedCount()  {    return outbound.getCoalesced();  }  /**   * Returns how long the client has been silent: the time since its   * last message or heartbeat arrived, or 0 while one of its messages   * is being handled.   *   * @return the idle time in milliseconds.   */  final public long getIdleTime()  {    return busy ? 0 : System.currentTimeMillis() - lastReceived;  }  /**   * Tells whether large messages to this client are compressed.   *   * @return true if the client and the server agreed on compression.   */  final public boolean isCompressing()  {    return compress;  }  /**   * Returns a string representation of the client.   *   * @return the client's description.   */  public String toString()  {    return clientSocket == null ? null :      clientSocket.getInetAddress().getHostName()        +" (" + clientSocket.getInetAddress().getHostAddress() + ")";  }  /**   * Saves arbitrary information about this client. Designed to be   * used by concrete subclasses of AbstractServer. Based on a hash map.   *   * @param infoType   identifies the type of information   * @param info       the information itself.   */  public void setInfo(String infoType, Object info)  {    savedInfo.put(infoType, info);  }  /**   * Returns information about the client saved using setInfo.   * Based on a hash map.   *   * @param infoType   identifies the type of information   */  public Object getInfo(String infoType)  {    return savedInfo.get(infoType);  }  /**   * Subscribes the client to a topic, so that messages sent to the   * topic with <code>AbstractServer.sendToTopic</code> reach it.   *   * @param topic the topic.   */  public void subscribe(String topic)  {    topics.add(topic);  }  /**   * Unsubscribes the client from a topic.   *   * @param topic the topic.   */  public void unsubscribe(String topic)  {    topics.remove(topic);  }  /**   * Tells whether the client is subscribed to a topic.   *   * @param topic the topic.   * @return true if the client is subscribed.   */  public boolean isSubscribed(String topic)  {    return topics.contains(topic);  }// RUN METHOD -------------------------------------------------------  /**   * Constantly reads the client's input stream.   * Sends all objects that are read to the server.   * Not to be called.   */  final public void run()  {    server.clientConnected(this);    // This loop reads the input stream and responds to messages    // from clients    try    {      // The message from the client      Object msg;      while (!readyToStop)      {        // This block waits until it reads a message from the client        // and then sends it for handling by the server        msg = input.readObject();        lastReceived = System.currentTimeMillis();        // Heartbeats are answered here, without involving the server        if (msg instanceof Heartbeat)        {          try          {            sendToClient(Heartbeat.INSTANCE);          }          catch (IOException ex) { }          continue;        }        // Options are sent once, right after the client connects        if (msg instanceof ConnectionOptions)        {          compress = server.getCompressionThreshold() > 0            && ((ConnectionOptions)msg).acceptsCompression();          continue;        }        busy = true;        try        {          server.receiveMessageFromClient(msg, this);        }        finally        {          busy = false;          lastReceived = System.currentTimeMillis();        }      }    }    catch (Exception exception)    {      if (!readyToStop)      {        try        {          closeAll();        }        catch (Exception ex) { }        server.clientException(this, exception);      }    }  }// METHODS TO BE USED FROM WITHIN THE FRAMEWORK ONLY ----------------  /**   * Writes the queued messages to the client until the queue is   * closed. Runs in the writer thread, so serializing and compressing   * never hold up the thread that sent the message. If writing fails,   * the socket is closed, which ends the reading thread as well; that   * thread reports the failure to the server.   */  private void writeQueued()  {    ObjectOutputStream out = output;    Deflater deflater = null;    try    {      Object msg;      while ((msg = outbound.take()) != null)      {        if (!compress || msg instanceof Heartbeat)        {          out.writeObject(msg);          continue;        }        EncodedMessage encoded;        try        {          encoded = msg instanceof EncodedMessage ?            (EncodedMessage)msg : EncodedMessage.encode(msg);        }        catch (NotSerializableException ex)        {          continue; // nothing was written, the stream is still usable        }        Object frame = encoded;        if (encoded.size() >= server.getCompressionThreshold())        {          if (deflater == null)            deflater = new Deflater(Deflater.BEST_SPEED);          CompressedMessage compressed = encoded.compressed(deflater);          if (compressed != null)            frame = compressed;        }        out.writeObject(frame);      }    }    catch (Exception exception)    {      outbound.discard();      try      {        closeAll();      }      catch (Exception ex) { }    }    finally    {      if (deflater != null)        deflater.end();    }  }  /**   * Closes the connection at once, discarding the queued messages.   * Used when the client falls too far behind (DISCONNECT policy).   */  private void abort()  {    readyToStop = true;    outbound.discard();    try    {      closeAll();    }    catch (Exception ex) { }    finally    {      server.clientDisconnected(this);    }  }  /**   * Closes the connection of a client that stopped sending   * heartbeats. Closing the socket also ends the reading thread,   * which is blocked waiting for data that will not come.   * Called by the reaper of the server.   */  final void reap()  {    if (readyToStop)      return;    server.clientTimedOut(this);    abort();  }  /**   * Closes all connection to the server.   *   * @exception IOException if an I/O error occur when closing the   *     connection.   */  synchronized private void closeAll() throws IOException  {    try    {      // Close the socket      if (clientSocket != null)        clientSocket.close();      // Close the output stream      if (output != null)        output.close();      // Close the input stream      if (input != null)        input.close();    }    finally    {      // Set the streams and the sockets to NULL no matter what      // Doing so allows, but does not require, any finalizers      // of these objects to reclaim system resources if and      // when they are garbage collected.      output = null;      input = null;      clientSocket = null;    }  }  /**   * This method is called by garbage collection.   */  protected void finalize()  {    try    {      closeAll();    }    catch(IOException e) {}  }}// End of ConnectionToClient class
\ No newline at end of file
@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;import java.util.zip.*;/*** A message that was serialized once, ahead of sending, so that it can* be sent to many clients without walking its object graph again for* each of them. Each connection only copies the bytes. The bytes are* never changed after encoding, so one instance is safely shared by* all the connections.<p>** <code>AbstractClient</code> decodes these messages on arrival, so* <code>handleMessageFromServer</code> receives the original object.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see AbstractServer#sendToClients(Object, java.util.function.Predicate)*/public final class EncodedMessage implements Serializable{// INSTANCE VARIABLES ***********************************************  /**  * Version of the serialized form.  */  private static final long serialVersionUID = 1L;  /**  * The serialized message.  */  private final byte[] bytes;  /**  * The compressed form, made by the first connection that needs it  * and reused by the others.  */  private transient CompressedMessage compressed;  /**  * Set once compression was tried, even if it did not help.  */  private transient boolean compressTried;// CONSTRUCTORS *****************************************************  /**   * Wraps bytes produced by <code>encode</code>.   *   * @param bytes the serialized message.   */  private EncodedMessage(byte[] bytes)  {    this.bytes = bytes;  }// CLASS METHODS ****************************************************  /**   * Serializes a message once.   *   * @param msg the message; it and everything it refers to must be   *    serializable.   * @return the encoded message.   * @exception IOException if the message can not be serialized.   */  public static EncodedMessage encode(Object msg) throws IOException  {    ByteArrayOutputStream buffer = new ByteArrayOutputStream();    ObjectOutputStream out = new ObjectOutputStream(buffer);    out.writeObject(msg);    out.close();    return new EncodedMessage(buffer.toByteArray());  }// INSTANCE METHODS *************************************************  /**   * Rebuilds the original message.   *   * @return a copy of the message that was encoded.   * @exception IOException if the bytes can not be read.   * @exception ClassNotFoundException if a class of the message is   *    unknown here.   */  public Object decode() throws IOException, ClassNotFoundException  {    ObjectInputStream in =      new ObjectInputStream(new ByteArrayInputStream(bytes));    try    {      return in.readObject();    }    finally    {      in.close();    }  }  /**   * Returns the compressed form of the message, compressing it on the   * first call only, so a broadcast is compressed once as well.   *   * @param deflater the deflater of the calling connection.   * @return the compressed message, or null if compressing does not   *    make it smaller.   */  synchronized CompressedMessage compressed(Deflater deflater)  {    if (!compressTried)    {      compressed = CompressedMessage.compress(bytes, deflater);      compressTried = true;    }    return compressed;  }  /**   * Returns the size of the encoded message.   *   * @return the number of bytes.   */  public int size()  {    return bytes.length;  }  /**   * Returns a string representation of the message.   *   * @return the size of the encoded message.   */  public String toString()  {    return "encoded message (" + bytes.length + " bytes)";  }}// End of EncodedMessage class
\ No newline at end of file
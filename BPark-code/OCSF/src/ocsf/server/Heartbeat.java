@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.io.*;/*** The liveness frame exchanged between <code>AbstractClient</code> and* <code>ConnectionToClient</code>. The client sends one at a fixed* interval and the connection answers each one, so both sides notice* a peer that went silent. Heartbeats are consumed by the framework* and never reach the message handlers.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see AbstractServer#setIdleTimeout(int)*/public final class Heartbeat implements Serializable{  /**  * Version of the serialized form.  */  private static final long serialVersionUID = 1L;  /**  * The only heartbeat; the frame carries no data.  */  public static final Heartbeat INSTANCE = new Heartbeat();  /**   * Only INSTANCE exists.   */  private Heartbeat() {}  /**   * Keeps a single instance when heartbeats are deserialized.   *   * @return INSTANCE.   */  private Object readResolve()  {    return INSTANCE;  }  /**   * Returns a string representation of the frame.   *   * @return "heartbeat".   */  public String toString()  {    return "heartbeat";  }}// End of Heartbeat class
\ No newline at end of file
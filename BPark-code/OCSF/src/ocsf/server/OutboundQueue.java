@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;import java.net.*;import java.util.*;/*** The bounded queue of messages waiting to be written to one client.* Any thread may add messages; the writer thread of the connection is* the only one taking them. Also keeps the queue-depth figures that* the connection reports.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see ConnectionToClient#sendToClient(Object)*/class OutboundQueue{// INSTANCE VARIABLES ***********************************************  /**  * The server, asked for the coalesce key of a message.  */  private AbstractServer server;  /**  * Messages not written yet, oldest first.  */  private LinkedList<Object> messages = new LinkedList<Object>();  /**  * Largest number of messages the queue holds.  */  private int capacity;  /**  * Set when the connection closes. No more messages are accepted;  * the writer sends the queued ones and stops.  */  private boolean closed = false;  /**  * Largest number of messages that were queued at the same time.  */  private int peakDepth = 0;  /**  * Number of messages discarded because the queue was full.  */  private long dropped = 0;  /**  * Number of queued messages replaced by a newer one.  */  private long coalesced = 0;// CONSTRUCTORS *****************************************************  /**   * Constructs an empty queue.   *   * @param server the server the connection belongs to.   * @param capacity the largest number of queued messages.   */  OutboundQueue(AbstractServer server, int capacity)  {    this.server = server;    this.capacity = capacity;  }// INSTANCE METHODS *************************************************  /**   * Adds a message at the end of the queue, unless the queue is full.   *   * @param msg the message.   * @return true if the message was queued, false if the queue is full.   * @exception SocketException if the connection is closing.   */  synchronized boolean offer(Object msg) throws SocketException  {    if (closed)      throw new SocketException("connection is closing");    if (messages.size() >= capacity)      return false;    messages.addLast(msg);    peakDepth = Math.max(peakDepth, messages.size());    notifyAll();    return true;  }  /**   * Adds a message at the end of the queue, waiting for room if the   * queue is full.   *   * @param msg the message.   * @param timeoutMs the longest time to wait for room.   * @return true if the message was queued, false if the queue was   *    still full after the timeout.   * @exception SocketException if the connection is closing.   * @exception InterruptedException if interrupted while waiting.   */  synchronized boolean offer(Object msg, long timeoutMs)    throws SocketException, InterruptedException  {    long deadline = System.currentTimeMillis() + timeoutMs;    while (!closed && messages.size() >= capacity)    {      long left = deadline - System.currentTimeMillis();      if (left <= 0)        return false;      wait(left);    }    return offer(msg);  }  /**   * Replaces the newest queued message that has the given coalesce   * key. The new message takes the place of the old one, so it keeps   * its order relative to the other queued messages.   *   * @param key the coalesce key of the new message.   * @param msg the new message.   * @return true if a message was replaced.   */  synchronized boolean coalesce(Object key, Object msg)  {    ListIterator<Object> it = messages.listIterator(messages.size());    while (it.hasPrevious())    {      if (key.equals(server.coalesceKey(it.previous())))      {        it.set(msg);        coalesced++;        return true;      }    }    return false;  }  /**   * Counts a message that was discarded because the queue was full.   */  synchronized void countDropped()  {    dropped++;  }  /**   * Waits for the next message to write.   *   * @return the oldest queued message, or null once the queue is   *    closed and empty.   * @exception InterruptedException if the writer is interrupted.   */  synchronized Object take() throws InterruptedException  {    while (messages.isEmpty() && !closed)      wait();    if (messages.isEmpty())      return null;    notifyAll(); // a sender may be waiting for room    return messages.removeFirst();  }  /**   * Stops accepting messages. Those already queued are still written.   */  synchronized void close()  {    closed = true;    notifyAll();  }  /**   * Stops accepting messages and discards those already queued.   */  synchronized void discard()  {    messages.clear();    close();  }// ACCESSING METHODS ------------------------------------------------  /**   * @return the number of messages waiting to be written.   */  synchronized int getDepth()  {    return messages.size();  }  /**   * @return the largest number of messages queued at the same time.   */  synchronized int getPeakDepth()  {    return peakDepth;  }  /**   * @return the number of messages dropped because the queue was full.   */  synchronized long getDropped()  {    return dropped;  }  /**   * @return the number of queued messages replaced by newer ones.   */  synchronized long getCoalesced()  {    return coalesced;  }}// End of OutboundQueue class
\ No newline at end of file
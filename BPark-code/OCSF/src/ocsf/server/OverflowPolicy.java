@@ -0,0 +1 @@
+// This file contains material supporting section 3.8 of the textbook:// "Object Oriented Software Engineering" and is issued under the open-source// license found at www.lloseng.compackage ocsf.server;/*** What a connection does with a message when its outbound queue is* full, i.e. when the client reads slower than the server writes to* it. Set on the server with <code>setOverflowPolicy</code>.<p>** Project Name: OCSF (Object Client-Server Framework)<p>** @see AbstractServer#setOverflowPolicy(OverflowPolicy)*/public enum OverflowPolicy{  /**  * The new message is discarded; the queued ones are still sent.  */  DROP,  /**  * The new message replaces a queued message with the same  * coalesce key (see <code>AbstractServer.coalesceKey</code>).  * Messages without a key, or without a queued match, are dropped.  */  COALESCE,  /**  * The connection is closed and the queued messages are discarded.  */  DISCONNECT}// End of OverflowPolicy enum
\ No newline at end of file